@@ -0,0 +1,139 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+import org.noisemap.core.SyntheticCity;
+
+/**
+ * Seeded synthetic city used by the benchmarks, with a uniform building
+ * density. Point sources are placed every 10 m along the roads.
+ * @author Nicolas Fortin
+ */
+public class CityFixture {
+	public static final double BLOCK_SIZE = 80;
+	public static final double STREET_WIDTH = 20;
+	private final GeometryFactory factory = new GeometryFactory();
+	private final Envelope envelope;
+	private final List<Geometry> buildings = new ArrayList<Geometry>();
+	private final List<Geometry> sources = new ArrayList<Geometry>();
+	private final Random random;
+
+	/**
+	 * @param seed Random seed, the same seed give the same city
+	 * @param density Name of the density: sparse (detached houses), medium
+	 *        (rows of buildings and towers) or dense (courtyard blocks)
+	 * @param size Width and height of the city (m)
+	 */
+	public CityFixture(long seed, String density, double size) {
+		this.random = new Random(seed);
+		this.envelope = new Envelope(0, size, 0, size);
+		SyntheticCity city = new SyntheticCity(seed, envelope);
+		city.setBlockSize(BLOCK_SIZE, STREET_WIDTH);
+		if ("sparse".equals(density)) {
+			city.setDensity(0.2, Double.POSITIVE_INFINITY);
+		} else if ("medium".equals(density)) {
+			city.setDensity(0.45, Double.POSITIVE_INFINITY);
+		} else if ("dense".equals(density)) {
+			city.setDensity(1, Double.POSITIVE_INFINITY);
+		} else {
+			throw new IllegalArgumentException("Unknown density " + density);
+		}
+		city.generate(new SyntheticCity.CityVisitor() {
+			@Override
+			public void visitBuilding(Polygon footprint, double height) {
+				buildings.add(footprint);
+			}
+
+			@Override
+			public void visitRoad(LineString road, double[] spectrum) {
+				Coordinate start = road.getCoordinateN(0);
+				Coordinate end = road.getCoordinateN(1);
+				double length = start.distance(end);
+				for (double pos = 0; pos < length; pos += 10) {
+					double ratio = pos / length;
+					sources.add(factory.createPoint(new Coordinate(start.x
+							+ (end.x - start.x) * ratio, start.y
+							+ (end.y - start.y) * ratio, 0.05)));
+				}
+			}
+
+			@Override
+			public void visitReceiver(Point receiver) {
+			}
+		});
+	}
+
+	/**
+	 * @param count Number of coordinates
+	 * @return Random coordinates in the streets of the city
+	 */
+	public Coordinate[] getStreetCoordinates(int count) {
+		Coordinate[] pts = new Coordinate[count];
+		double step = BLOCK_SIZE + STREET_WIDTH;
+		int streetCount = Math.max(1, (int) (envelope.getWidth() / step));
+		for (int i = 0; i < count; i++) {
+			double street = random.nextInt(streetCount) * step + random.nextDouble()
+					* STREET_WIDTH;
+			double pos = random.nextDouble() * envelope.getWidth();
+			if (random.nextBoolean()) {
+				pts[i] = new Coordinate(street, pos, 0);
+			} else {
+				pts[i] = new Coordinate(pos, street, 0);
+			}
+		}
+		return pts;
+	}
+
+	public Envelope getEnvelope() {
+		return envelope;
+	}
+
+	public List<Geometry> getBuildings() {
+		return buildings;
+	}
+
+	public List<Geometry> getSources() {
+		return sources;
+	}
+}
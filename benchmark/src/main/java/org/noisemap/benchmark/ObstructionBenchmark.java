@@ -0,0 +1,126 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import org.noisemap.core.FastObstructionTest;
+import org.noisemap.core.LayerDelaunayError;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the FastObstructionTest queries
+ * @author Nicolas Fortin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ObstructionBenchmark {
+	public static final long SEED = 42;
+	private static final int QUERY_COUNT = 256;
+
+	@Param({ "sparse", "medium", "dense" })
+	public String density;
+
+	@Param({ "500" })
+	public double citySize;
+
+	private FastObstructionTest obstructionTest;
+	private Coordinate[] queryPoints;
+	private int queryIndex = 0;
+
+	/**
+	 * @param fixture City
+	 * @return The obstruction test of all buildings of the city
+	 */
+	static FastObstructionTest makeObstructionTest(CityFixture fixture)
+			throws LayerDelaunayError {
+		FastObstructionTest obstructionTest = new FastObstructionTest();
+		for (Geometry building : fixture.getBuildings()) {
+			obstructionTest.addGeometry(building);
+		}
+		Envelope envelope = new Envelope(fixture.getEnvelope());
+		envelope.expandBy(CityFixture.STREET_WIDTH);
+		obstructionTest.finishPolygonFeeding(envelope);
+		return obstructionTest;
+	}
+
+	@Setup
+	public void setUp() throws LayerDelaunayError {
+		CityFixture fixture = new CityFixture(SEED, density, citySize);
+		obstructionTest = makeObstructionTest(fixture);
+		queryPoints = fixture.getStreetCoordinates(QUERY_COUNT * 2);
+	}
+
+	private Coordinate nextPoint() {
+		queryIndex = (queryIndex + 1) % queryPoints.length;
+		return queryPoints[queryIndex];
+	}
+
+	@Benchmark
+	public boolean isFreeField() {
+		return obstructionTest.isFreeField(nextPoint(), nextPoint());
+	}
+
+	@Benchmark
+	public List<?> getLimitsInRange() {
+		return obstructionTest.getLimitsInRange(50, nextPoint());
+	}
+
+	/**
+	 * The open angle of vertices is computed at the first call, the
+	 * following calls measure the filtering of corners.
+	 */
+	@Benchmark
+	public List<Coordinate> getWideAnglePoints() {
+		return obstructionTest.getWideAnglePoints(Math.PI * (1 + 1 / 16.0),
+				Math.PI * (2 - (1 / 16.0)));
+	}
+}
@@ -0,0 +1,95 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import com.vividsolutions.jts.geom.Coordinate;
+import org.noisemap.core.PointsMerge;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the merge of close vertices, as done when feeding the
+ * Delaunay triangulation
+ * @author Nicolas Fortin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PointsMergeBenchmark {
+	@Param({ "1000", "10000", "100000" })
+	public int pointCount;
+
+	private Coordinate[] points;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(ObstructionBenchmark.SEED);
+		points = new Coordinate[pointCount];
+		// A quarter of the points are duplicates of previous points
+		double size = Math.sqrt(pointCount) * 10;
+		for (int i = 0; i < pointCount; i++) {
+			if (i > 0 && random.nextInt(4) == 0) {
+				Coordinate previous = points[random.nextInt(i)];
+				points[i] = new Coordinate(previous.x + random.nextDouble()
+						* 0.001, previous.y);
+			} else {
+				points[i] = new Coordinate(random.nextDouble() * size,
+						random.nextDouble() * size);
+			}
+		}
+	}
+
+	@Benchmark
+	public int getOrAppendVertex() {
+		PointsMerge pointsMerge = new PointsMerge(0.01);
+		for (Coordinate point : points) {
+			pointsMerge.getOrAppendVertex(point);
+		}
+		return pointsMerge.getSize();
+	}
+}
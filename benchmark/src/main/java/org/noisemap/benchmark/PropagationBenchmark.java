@@ -0,0 +1,152 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Stack;
+import java.util.concurrent.TimeUnit;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineSegment;
+import org.noisemap.core.FastObstructionTest;
+import org.noisemap.core.LayerDelaunayError;
+import org.noisemap.core.MirrorReceiverResult;
+import org.noisemap.core.PropagationProcess;
+import org.noisemap.core.PropagationProcessData;
+import org.noisemap.core.PropagationProcessOut;
+import org.noisemap.core.PropagationResultTriRecord;
+import org.noisemap.core.QueryGeometryStructure;
+import org.noisemap.core.QueryQuadTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the sound level computation at a receiver position
+ * @author Nicolas Fortin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PropagationBenchmark {
+	private static final int RECEIVER_COUNT = 64;
+	private static final int[] FREQUENCIES = { 100, 125, 160, 200, 250, 315,
+			400, 500, 630, 800, 1000, 1250, 1600, 2000, 2500, 3150, 4000, 5000 };
+
+	@Param({ "sparse", "medium", "dense" })
+	public String density;
+
+	@Param({ "1", "2" })
+	public int reflexionOrder;
+
+	@Param({ "0", "1" })
+	public int diffractionOrder;
+
+	private PropagationProcess propagationProcess;
+	private List<List<LineSegment>> receiversWalls = new ArrayList<List<LineSegment>>();
+	private Coordinate[] receivers;
+	private double[] energeticSum = new double[FREQUENCIES.length];
+	private int receiverIndex = 0;
+
+	@Setup
+	public void setUp() throws LayerDelaunayError {
+		CityFixture fixture = new CityFixture(ObstructionBenchmark.SEED,
+				density, 500);
+		FastObstructionTest obstructionTest = ObstructionBenchmark
+				.makeObstructionTest(fixture);
+		QueryGeometryStructure sourcesIndex = new QueryQuadTree();
+		List<ArrayList<Double>> sourcesSpectrum = new ArrayList<ArrayList<Double>>();
+		int idSource = 0;
+		for (Geometry source : fixture.getSources()) {
+			sourcesIndex.appendGeometry(source, idSource++);
+			ArrayList<Double> spectrum = new ArrayList<Double>();
+			for (int i = 0; i < FREQUENCIES.length; i++) {
+				spectrum.add(PropagationProcess.dbaToW(80.));
+			}
+			sourcesSpectrum.add(spectrum);
+		}
+		List<Integer> frequencies = new ArrayList<Integer>();
+		for (int frequency : FREQUENCIES) {
+			frequencies.add(frequency);
+		}
+		receivers = fixture.getStreetCoordinates(RECEIVER_COUNT);
+		for (Coordinate receiver : receivers) {
+			receiversWalls.add(new ArrayList<LineSegment>(obstructionTest
+					.getLimitsInRange(50, receiver)));
+		}
+		PropagationProcessData data = new PropagationProcessData(
+				new ArrayList<Coordinate>(), null, null, obstructionTest,
+				sourcesIndex, fixture.getSources(), sourcesSpectrum,
+				frequencies, reflexionOrder, diffractionOrder, 200, 50, 1,
+				0.2, 0, null, null);
+		propagationProcess = new PropagationProcess(data,
+				new PropagationProcessOut(
+						new Stack<PropagationResultTriRecord>(), null));
+		propagationProcess.initStructures();
+	}
+
+	private int nextReceiver() {
+		receiverIndex = (receiverIndex + 1) % receivers.length;
+		return receiverIndex;
+	}
+
+	@Benchmark
+	public List<MirrorReceiverResult> getMirroredReceiverResults() {
+		int receiver = nextReceiver();
+		return PropagationProcess.getMirroredReceiverResults(
+				receivers[receiver], receiversWalls.get(receiver),
+				reflexionOrder, 100);
+	}
+
+	@Benchmark
+	public double[] computeSoundLevelAtPosition() {
+		Arrays.fill(energeticSum, 0);
+		propagationProcess.computeSoundLevelAtPosition(
+				receivers[nextReceiver()], energeticSum);
+		return energeticSum;
+	}
+}
@@ -0,0 +1,121 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.benchmark;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import org.noisemap.core.QueryGeometryStructure;
+import org.noisemap.core.QueryGridIndex;
+import org.noisemap.core.QueryQuadTree;
+import org.noisemap.core.QueryRTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the source index implementations
+ * @author Nicolas Fortin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class QueryStructureBenchmark {
+	@Param({ "grid", "quadtree", "rtree" })
+	public String index;
+
+	@Param({ "sparse", "dense" })
+	public String density;
+
+	@Param({ "1000" })
+	public double citySize;
+
+	@Param({ "50", "200" })
+	public double queryDistance;
+
+	private QueryGeometryStructure sourcesIndex;
+	private Coordinate[] queryPoints;
+	private int queryIndex = 0;
+
+	static QueryGeometryStructure makeIndex(String index, Envelope envelope) {
+		if ("grid".equals(index)) {
+			return new QueryGridIndex(envelope, 16, 16);
+		} else if ("quadtree".equals(index)) {
+			return new QueryQuadTree();
+		} else if ("rtree".equals(index)) {
+			return new QueryRTree();
+		} else {
+			throw new IllegalArgumentException("Unknown index " + index);
+		}
+	}
+
+	@Setup
+	public void setUp() {
+		CityFixture fixture = new CityFixture(ObstructionBenchmark.SEED,
+				density, citySize);
+		sourcesIndex = makeIndex(index, fixture.getEnvelope());
+		List<Geometry> sources = fixture.getSources();
+		for (int idSource = 0; idSource < sources.size(); idSource++) {
+			sourcesIndex.appendGeometry(sources.get(idSource), idSource);
+		}
+		queryPoints = fixture.getStreetCoordinates(256);
+	}
+
+	@Benchmark
+	public int query() {
+		queryIndex = (queryIndex + 1) % queryPoints.length;
+		Envelope queryEnv = new Envelope(queryPoints[queryIndex]);
+		queryEnv.expandBy(queryDistance);
+		int count = 0;
+		Iterator<Integer> it = sourcesIndex.query(queryEnv);
+		while (it.hasNext()) {
+			count += it.next();
+		}
+		return count;
+	}
+}
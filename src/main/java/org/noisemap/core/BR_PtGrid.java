@@ -36,9 +36,14 @@ package org.noisemap.core;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.index.quadtree.Quadtree;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Stack;
 import java.util.concurrent.TimeUnit;
 import org.apache.log4j.Logger;
@@ -66,26 +71,42 @@ import org.gdms.sql.function.table.AbstractTableFunction;
 import org.gdms.sql.function.table.TableArgument;
 import org.gdms.sql.function.table.TableDefinition;
 import org.gdms.sql.function.table.TableFunctionSignature;
+import org.noisemap.profile.FlightRecorderEvent;
+import org.noisemap.profile.PropagationEvents;
 import org.orbisgis.progress.ProgressMonitor;
 
 /**
  * Evaluate the sound level at each coordinate specified in parameters.
  * This function doesn't make a noise map but is useful to get the
  * sound level at some coordinates.
- * TODO subdivision level is useless, subdivision level can be computed from 
- * the maximum propagation distance and computation bounding box
+ * A negative subdivision level let the function split the domain according
+ * to the receivers, sources and buildings density.
  * 
  * @author Nicolas Fortin
  */
 public class BR_PtGrid extends AbstractTableFunction {
         private Logger logger = Logger.getLogger(BR_TriGrid.class.getName());
+        private File checkpointDirectory = null;
+        private int firstCell = 0;
+        private int lastCell = Integer.MAX_VALUE;
+        private boolean workerMode = false;
+        private String workerId = null;
+        private int threadCount = 0;
+        private String sourcesIndexType = "quadtree";
+        private File metricsFile = null;
+        private long metricsPeriod = 10000;
+        private long totalParseBuildings = 0;
+        private long totalDelaunay = 0;
+        private long totalWriting = 0;
+        private long lastReceiverCount = 0;
+        private PropagationProcessOut lastDataOut = null;
 	@Override
 	public Metadata getMetadata(Metadata[] tables) throws DriverException {
 		final Metadata metadata = tables[2];
 		// we don't want the resulting Metadata to be constrained !
 		final int fieldCount = metadata.getFieldCount();
-		final Type[] fieldsTypes = new Type[fieldCount+2];
-		final String[] fieldsNames = new String[fieldCount+2];
+		final Type[] fieldsTypes = new Type[fieldCount+3];
+		final String[] fieldsNames = new String[fieldCount+3];
 
 		for (int fieldId = 0; fieldId < fieldCount; fieldId++) {
 			fieldsNames[fieldId] = metadata.getFieldName(fieldId);
@@ -96,6 +117,9 @@ public class BR_PtGrid extends AbstractTableFunction {
 		fieldsTypes[fieldCount]=TypeFactory.createType(Type.DOUBLE);
 		fieldsNames[fieldCount+1]="cellid";
 		fieldsTypes[fieldCount+1]=TypeFactory.createType(Type.INT);
+		// 0 free field, 1 facade (moved outward), 2 inside a building
+		fieldsNames[fieldCount+2]="receiver_class";
+		fieldsTypes[fieldCount+2]=TypeFactory.createType(Type.INT);
 		return new DefaultMetadata(fieldsTypes, fieldsNames);
 	}
 
@@ -126,12 +150,12 @@ public class BR_PtGrid extends AbstractTableFunction {
 
     @Override
     public String getSqlOrder() {
-            return "select * from BR_PtGrid(buildings table(polygons),sources table(points),receivers table(points),sound lvl field name(string),maximum propagation distance (double meter),maximum wall seeking distance (double meter),subdivision level 4^n cells(int), sound reflection order(int, recommended 2), sound diffraction order(int, recommended 1), absorption alpha of walls (double));";
+            return "select * from BR_PtGrid(buildings table(polygons),sources table(points),receivers table(points),sound lvl field name(string),maximum propagation distance (double meter),maximum wall seeking distance (double meter),subdivision level 4^n cells(int, -1 for automatic), sound reflection order(int, recommended 2), sound diffraction order(int, recommended 1), absorption alpha of walls (double));";
     }
 
     @Override
     public String getDescription() {
-            return "BR_PtGrid(buildings(polygons),sources(points),receivers(points),sound lvl field name(string),maximum propagation distance (double meter),maximum wall seeking distance (double meter),subdivision level 4^n cells(int), sound reflection order, sound diffraction order, alpha of walls ) Sound propagation from ponctual sound sources to specified ponctual receivers .";
+            return "BR_PtGrid(buildings(polygons),sources(points),receivers(points),sound lvl field name(string),maximum propagation distance (double meter),maximum wall seeking distance (double meter),subdivision level 4^n cells(int, -1 for automatic), sound reflection order, sound diffraction order, alpha of walls ) Sound propagation from ponctual sound sources to specified ponctual receivers .";
     }
     /**
      * Set the logger for object message
@@ -140,6 +164,98 @@ public class BR_PtGrid extends AbstractTableFunction {
     public void setLogger(Logger logger) {
         this.logger = logger;
     }
+    /**
+     * Save the results of each cell in a work directory. A computation
+     * restarted with the same parameters and the same work directory
+     * skip the cells already computed.
+     * @param workDirectory Work directory, null to disable
+     */
+    public void setCheckpoint(File workDirectory) {
+        this.checkpointDirectory = workDirectory;
+    }
+    /**
+     * Compute only a range of cells, in the computation order. Used with
+     * a shared work directory, the cells can be computed on several
+     * machines.
+     * @param firstCell Index of the first cell, inclusive
+     * @param lastCell Index of the last cell, exclusive
+     */
+    public void setCellRange(int firstCell, int lastCell) {
+        this.firstCell = firstCell;
+        this.lastCell = lastCell;
+    }
+    /**
+     * Share the cells of the work directory with other processes. Each cell
+     * is claimed before its computation, and the results are not merged.
+     * @param workerMode True to claim the cells
+     */
+    public void setWorkerMode(boolean workerMode) {
+        this.workerMode = workerMode;
+    }
+    /**
+     * @param workerId Owner of the cells claimed in worker mode, null for an
+     * id of this process
+     */
+    public void setWorkerId(String workerId) {
+        this.workerId = workerId;
+    }
+    /**
+     * Write the counters of the running computation in a file
+     * @param metricsFile Snapshot file, null to disable
+     * @param period Delay between two snapshots (ms)
+     */
+    public void setMetricsSnapshot(File metricsFile, long period) {
+        this.metricsFile = metricsFile;
+        this.metricsPeriod = period;
+    }
+    /**
+     * @param threadCount Count of propagation threads, 0 for the count of
+     * processors
+     */
+    public void setThreadCount(int threadCount) {
+        this.threadCount = threadCount;
+    }
+    /**
+     * @param indexType Index of the sources of a cell: quadtree, rtree or grid
+     */
+    public void setSourcesIndex(String indexType) {
+        if(!"quadtree".equals(indexType) && !"rtree".equals(indexType)
+                && !"grid".equals(indexType)) {
+            throw new IllegalArgumentException("Unknown index type " + indexType);
+        }
+        this.sourcesIndexType = indexType;
+    }
+    /**
+     * @return Cumulated time of buildings parsing (ms)
+     */
+    public long getParseBuildingsTime() {
+        return totalParseBuildings;
+    }
+    /**
+     * @return Cumulated time of Delaunay triangulation of buildings (ms)
+     */
+    public long getDelaunayTime() {
+        return totalDelaunay;
+    }
+    /**
+     * @return Time spent to finish the writing of results, after the end of
+     * the propagation (ms)
+     */
+    public long getWritingTime() {
+        return totalWriting;
+    }
+    /**
+     * @return Receivers count of the last evaluation
+     */
+    public long getReceiverCount() {
+        return lastReceiverCount;
+    }
+    /**
+     * @return Counters of the last evaluation
+     */
+    public PropagationProcessOut getPropagationOut() {
+        return lastDataOut;
+    }
     @Override
     public DataSet evaluate(DataSourceFactory sqldsf, DataSet[] tables, Value[] values, ProgressMonitor pm) throws FunctionException {
                 boolean useGeometryIndex = false; //Use gdms geometry index for source and buildings parsing
@@ -165,8 +281,10 @@ public class BR_PtGrid extends AbstractTableFunction {
                                                //distance must be superior than
                                                //maximum Receiver-Wall distance
                 ThreadPool threadManager = null;
+                PropagationStatistics statistics = null;
                 ProgressionOrbisGisManager pmManager=null;
                 PropagationProcessDiskWriter driverManager=null;
+                CellCheckpoint spillCheckpoint=null;
 		try {
 			// Steps of execution
 			// Evaluation of the main bounding box (receivers+max dist propagation)
@@ -191,7 +309,6 @@ public class BR_PtGrid extends AbstractTableFunction {
 			int spatialSourceFieldIndex = MetadataUtilities.getSpatialFieldIndex(sdsSources.getMetadata());
                         int spatialReceiversFieldIndex= MetadataUtilities.getSpatialFieldIndex(sdsReceivers.getMetadata());
                         String spatialSourceFieldName =sdsSources.getMetadata().getFieldName(spatialSourceFieldIndex);
-                        String spatialBuildingsFieldName = sds.getMetadata().getFieldName(spatialBuildingsFieldIndex);                        
                         
                         //Initialize geometry index
                         if(useGeometryIndex) {
@@ -199,16 +316,10 @@ public class BR_PtGrid extends AbstractTableFunction {
                             if(!im.isIndexed(sdsSources,spatialSourceFieldName)) {
                                 im.buildIndex(sdsSources, spatialSourceFieldName, null);
                             }
-                            //Index of Buildings Table
-                            if(!im.isIndexed(sds,spatialBuildingsFieldName)) {
-                                im.buildIndex(sds,spatialBuildingsFieldName,null);
-                            }
+                            //Buildings are fetched from the merged buildings layer
                         }
 			// 1 Step - Evaluation of the main bounding box (receivers)
 			Envelope mainEnvelope = BR_TriGrid.GetGlobalEnvelope(sdsReceivers, pm);
-                        // Split domain into 4^subdiv cells
-
-			int gridDim = (int) Math.pow(2, subdivLvl);
 
 			// Initialization frequency declared in source Table
 			ArrayList<Integer> db_field_ids = new ArrayList<Integer>();
@@ -229,24 +340,120 @@ public class BR_PtGrid extends AbstractTableFunction {
 				fieldid++;
 			}
 
-			double cellWidth = mainEnvelope.getWidth() / gridDim;
-			double cellHeight = mainEnvelope.getHeight() / gridDim;
+			// Split domain into 4^subdiv cells, or into cells of the same
+			// estimated cost if the subdivision level is negative
+			Runtime runtime = Runtime.getRuntime();
+			int threads = threadCount > 0 ? threadCount : runtime
+					.availableProcessors();
+			DomainDecomposition decomposition = new DomainDecomposition(mainEnvelope, maxSrcDist);
+			decomposition.setThreadCount(threads);
+			Coordinate[] receiversCoordinates = new Coordinate[(int) nbreceivers];
+			for (long rowIndex = 0; rowIndex < nbreceivers; rowIndex++) {
+				receiversCoordinates[(int) rowIndex] = sdsReceivers.getFieldValue(rowIndex,spatialReceiversFieldIndex).getAsGeometry().getCoordinate();
+				decomposition.addReceivers(receiversCoordinates[(int) rowIndex], 1);
+			}
+			long sourcesRowCount = sdsSources.getRowCount();
+			for (long rowIndex = 0; rowIndex < sourcesRowCount; rowIndex++) {
+				for (Coordinate pt : sdsSources.getFieldValue(rowIndex, spatialSourceFieldIndex).getAsGeometry().getCoordinates()) {
+					decomposition.addSources(pt, 1);
+				}
+			}
+			long buildingsRowCount = sds.getRowCount();
+			for (long rowIndex = 0; rowIndex < buildingsRowCount; rowIndex++) {
+				Geometry building = sds.getFieldValue(rowIndex, spatialBuildingsFieldIndex).getAsGeometry();
+				decomposition.addBuildings(building.getEnvelopeInternal().centre(), building.getNumPoints());
+			}
+			List<ComputationCell> cells;
+			if (subdivLvl >= 0) {
+				cells = decomposition.getUniformCells(subdivLvl);
+			} else {
+				cells = decomposition.getAdaptiveCells();
+				logger.info("Adaptive decomposition into " + cells.size() + " cells");
+			}
+			// Each receiver is computed by a single cell
+			Quadtree cellsIndex = new Quadtree();
+			List<List<Coordinate>> cellsReceivers = new ArrayList<List<Coordinate>>(cells.size());
+			List<List<Long>> cellsReceiversRowId = new ArrayList<List<Long>>(cells.size());
+			for (int cellIndex = 0; cellIndex < cells.size(); cellIndex++) {
+				cellsIndex.insert(cells.get(cellIndex).getEnvelope(), cellIndex);
+				cellsReceivers.add(new ArrayList<Coordinate>());
+				cellsReceiversRowId.add(new ArrayList<Long>());
+			}
+			for (long rowIndex = 0; rowIndex < nbreceivers; rowIndex++) {
+				Coordinate receiverCoord = receiversCoordinates[(int) rowIndex];
+				for (Object cellIndex : cellsIndex.query(new Envelope(receiverCoord))) {
+					if (cells.get((Integer) cellIndex).ownsReceiver(receiverCoord)) {
+						cellsReceivers.get((Integer) cellIndex).add(receiverCoord);
+						cellsReceiversRowId.get((Integer) cellIndex).add(rowIndex);
+						break;
+					}
+				}
+			}
+			receiversCoordinates = null;
+
+			// Begin with the most expensive cells, the last computed cells
+			// are the cheapest ones
+			CellCostModel costModel = new CellCostModel(cells, reflexionOrder,
+					diffractionOrder, maxSrcDist, maxRefDist, threads);
+			Map<ComputationCell, Integer> unsortedIndex = new HashMap<ComputationCell, Integer>();
+			for (int cellIndex = 0; cellIndex < cells.size(); cellIndex++) {
+				costModel.setReceiverCount(cells.get(cellIndex).getId(),
+						cellsReceivers.get(cellIndex).size());
+				unsortedIndex.put(cells.get(cellIndex), cellIndex);
+			}
+			cells = costModel.sortByDecreasingCost(cells);
+			List<List<Coordinate>> sortedReceivers = new ArrayList<List<Coordinate>>(cells.size());
+			List<List<Long>> sortedReceiversRowId = new ArrayList<List<Long>>(cells.size());
+			for (ComputationCell cell : cells) {
+				sortedReceivers.add(cellsReceivers.get(unsortedIndex.get(cell)));
+				sortedReceiversRowId.add(cellsReceiversRowId.get(unsortedIndex.get(cell)));
+			}
+			cellsReceivers = sortedReceivers;
+			cellsReceiversRowId = sortedReceiversRowId;
+			CellCheckpoint checkpoint = null;
+			if (checkpointDirectory != null) {
+				String parameters = getName() + "(";
+				for (Value value : values) {
+					parameters += value.toString() + ",";
+				}
+				parameters += ") buildings:" + sds.getRowCount() + " sources:"
+						+ sdsSources.getRowCount() + " receivers:"
+						+ sdsReceivers.getRowCount() + " sourcesIndex:"
+						+ sourcesIndexType;
+				checkpoint = new CellCheckpoint(checkpointDirectory,
+						parameters, cells);
+				if (workerId != null) {
+					checkpoint.setOwner(workerId);
+				}
+			} else if (!workerMode) {
+				// Without work directory the cells results are kept in a
+				// temporary one, and merged at the end of the computation
+				spillCheckpoint = CellCheckpoint.createTemporary(
+						sqldsf.getTempDir(), getName(), cells);
+				checkpoint = spillCheckpoint;
+			}
+			if (workerMode) {
+				if (checkpoint == null) {
+					throw new FunctionException("The worker mode require a work directory");
+				}
+				checkpoint.publishCells(cells);
+			}
 
 			DiskBufferDriver driver = new DiskBufferDriver(sqldsf, this.getMetadata(new Metadata[] {sds.getMetadata(),sdsSources.getMetadata(), sdsReceivers.getMetadata() }));
 
-			int nbcell = gridDim * gridDim;
+			int nbcell = cells.size();
 			if (nbcell == 1) {
                 		doMultiThreading = false;
 			}
 
-			Runtime runtime = Runtime.getRuntime();
 			threadManager = new ThreadPool(
-					runtime.availableProcessors(),
-					runtime.availableProcessors() + 1, Long.MAX_VALUE,
+					threads,
+					threads + 1, Long.MAX_VALUE,
                     			TimeUnit.SECONDS);
 
 			pmManager = new ProgressionOrbisGisManager(
 					nbreceivers, pm);
+			pmManager.setCostModel(costModel);
 			Stack<PropagationResultPtRecord> toDriver = new Stack<PropagationResultPtRecord>();
 			driverManager = new PropagationProcessDiskWriter(
 					null,toDriver, driver,sdsReceivers);
@@ -254,35 +461,45 @@ public class BR_PtGrid extends AbstractTableFunction {
 			pmManager.start();
 			PropagationProcessOut threadDataOut = new PropagationProcessOut(
 					null,toDriver);
+			threadDataOut.setCostModel(costModel);
+			statistics = new PropagationStatistics(getName(), threadDataOut,
+					logger);
+			statistics.start(metricsFile, metricsPeriod);
+			costModel.setDataOut(threadDataOut);
 
-			for (int cellI = 0; cellI < gridDim; cellI++) {
-				for (int cellJ = 0; cellJ < gridDim; cellJ++) {
-					Envelope cellEnvelope = BR_TriGrid.getCellEnv(mainEnvelope, cellI,
-							cellJ, gridDim, gridDim, cellWidth, cellHeight);// new
-																			// Envelope(mainEnvelope.getMinX()+cellI*cellWidth,
-					//Collect the list and index of receivers on the cell
-                                        List<Coordinate> cellReceivers = new ArrayList<Coordinate>();
-                                        List<Long> cellReceiversRowId = new ArrayList<Long>();
-
-                                        long receiversRowCount = sdsReceivers.getRowCount();
-                                        for (long rowIndex = 0; rowIndex < receiversRowCount; rowIndex++) {
+			// Merge the buildings once for all cells
+			long beginMerge = System.currentTimeMillis();
+			MergedBuildingsLayer buildingsLayer = MergedBuildingsLayer
+					.fromDataSet(sds, spatialBuildingsFieldIndex);
+			totalParseBuildings += System.currentTimeMillis() - beginMerge;
+			logger.info("Buildings merged in " + buildingsLayer.getParts().size()
+					+ " polygons");
 
-                                                Geometry geo = sdsReceivers.getFieldValue(rowIndex,spatialReceiversFieldIndex).getAsGeometry();
-                                                Envelope ptEnv = geo.getEnvelopeInternal();
-                                                if (ptEnv.intersects(cellEnvelope)) {
-                                                    cellReceivers.add(geo.getCoordinate());
-                                                    cellReceiversRowId.add(rowIndex);
-                                                }
-                                        }
-                                        if(!cellReceivers.isEmpty()) {
+			for (int cellIndex = 0; cellIndex < nbcell; cellIndex++) {
+					ComputationCell cell = cells.get(cellIndex);
+					Envelope cellEnvelope = cell.getEnvelope();
+					//The list and index of receivers on the cell
+                                        List<Coordinate> cellReceivers = cellsReceivers.get(cellIndex);
+                                        List<Long> cellReceiversRowId = cellsReceiversRowId.get(cellIndex);
+                                        cellsReceivers.set(cellIndex, null);
+                                        cellsReceiversRowId.set(cellIndex, null);
+                                        if(cellIndex < firstCell || cellIndex >= lastCell
+                                                || (checkpoint != null && checkpoint.isComputed(cell.getId()))
+                                                || (workerMode && !checkpoint.claim(cell.getId()))) {
+                                            // Out of range, computed by a previous run or by
+                                            // another process
+                                            costModel.cellSkipped(cell.getId());
+                                            pmManager.getRootProgress().nextSubProcess(
+                                                    cellReceivers.size(), cellReceivers.size()).close();
+                                        } else if(!cellReceivers.isEmpty()) {
                                             FastObstructionTest freeFieldFinder = new FastObstructionTest();
-                                            int ij = cellI * gridDim + cellJ;
-                                            logger.info("Begin processing of cell " + (cellI+1) + ","
-                                                            + (cellJ+1) + " of the " + gridDim + "x" + gridDim
-                                                            + "  grid..");
+                                            int ij = cell.getId();
+                                            FlightRecorderEvent.Instance preparationEvent = PropagationEvents.CELL_PREPARATION.begin();
+                                            logger.info("Begin processing of cell " + (cellIndex+1)
+                                                            + " of the " + nbcell + " cells..");
                                             if (pm!=null && pm.isCancelled()) {
-                                                    driver.writingFinished();
-                                                    return driver.getTable("main");
+                                                    return cancel(threadManager, driverManager,
+                                                            driver, checkpoint, cells);
                                             }
                                                                                                     // mainEnvelope.getMinX()+cellI*cellWidth+cellWidth,
                                                                                                                                                             // mainEnvelope.getMinY()+cellHeight*cellJ,
@@ -296,17 +513,8 @@ public class BR_PtGrid extends AbstractTableFunction {
                                             // Make source index for optimization
                                             ArrayList<Geometry> sourceGeometries = new ArrayList<Geometry>();
                                             ArrayList<ArrayList<Double>> wj_sources = new ArrayList<ArrayList<Double>>();
-                                            QueryGeometryStructure sourcesIndex = new QueryQuadTree();
-                                            //Make the Geometry Index request of Buildings
-                                            RowsUnionClassification buildingsRowsToFetch;
-                                            if(useGeometryIndex) {
-                                                DefaultSpatialIndexQuery buildingsSpatialIndexQuery = new DefaultSpatialIndexQuery(spatialBuildingsFieldName,expandedCellEnvelop);
-                                                RowVisitor visitor = new RowVisitor();
-                                                im.queryIndex(sds, buildingsSpatialIndexQuery,visitor);
-                                                buildingsRowsToFetch = visitor.getVisitedRows();
-                                            } else {
-                                                buildingsRowsToFetch = new RowsUnionClassification(0,(int)sds.getRowCount()-1);
-                                            }
+                                            QueryGeometryStructure sourcesIndex = BR_TriGrid.createSourcesIndex(
+                                                    sourcesIndexType, expandedCellEnvelop);
                                             //Make the Geometry Index request of Sound Sources
                                             RowsUnionClassification sourcesRowsToFetch;
                                             if(useGeometryIndex) {
@@ -347,43 +555,42 @@ public class BR_PtGrid extends AbstractTableFunction {
                                             // //////////////////////////////////////////////////////
                                             // feed freeFieldFinder for fast intersection query
                                             // optimization
-                                            Iterator<Integer> itBuildingsRows = buildingsRowsToFetch.getRowRanges();
-                                            while(itBuildingsRows.hasNext()) {
-                                                int rbegin=itBuildingsRows.next();
-                                                int rend=itBuildingsRows.next();
-                                                for (long rowIndex = rbegin; rowIndex <= rend; rowIndex++) {
-                                                        final Geometry geometry = sds.getFieldValue(rowIndex, spatialBuildingsFieldIndex).getAsGeometry();
-                                                        Envelope geomEnv = geometry.getEnvelopeInternal();
-                                                        if (expandedCellEnvelop.intersects(geomEnv)) {
-                                                                freeFieldFinder.addGeometry(geometry);
-                                                        }
-                                                }
+                                            long beginParse = System.currentTimeMillis();
+                                            int buildingCount = 0;
+                                            for (Geometry building : buildingsLayer.query(expandedCellEnvelop)) {
+                                                    freeFieldFinder.addMergedGeometry(building);
+                                                    buildingCount++;
                                             }
+                                            long beginDelaunay = System.currentTimeMillis();
+                                            totalParseBuildings += beginDelaunay - beginParse;
+                                            FlightRecorderEvent.Instance indexEvent = PropagationEvents.OBSTRUCTION_INDEX.begin();
                                             freeFieldFinder.finishPolygonFeeding(expandedCellEnvelop);
+                                            indexEvent.commit(ij, buildingCount, freeFieldFinder.getTriangles().size());
+                                            totalDelaunay += System.currentTimeMillis() - beginDelaunay;
 
                                             PropagationProcessData threadData = new PropagationProcessData(
                                                             cellReceivers,cellReceiversRowId, null, freeFieldFinder, sourcesIndex,
                                                             sourceGeometries, wj_sources, db_field_freq,
                                                             reflexionOrder, diffractionOrder, maxSrcDist,maxRefDist,
                                                             1., wallAlpha, ij, sqldsf,
-                                                            pmManager.getRootProgress());
+                                                            pmManager.getRootProgress().nextSubProcess(
+                                                                    cellReceivers.size(), cellReceivers.size()));
+                                            threadData.checkpoint = checkpoint;
+                                            threadData.classifyReceivers = true;
+                                            preparationEvent.commit(ij, sourceGeometries.size(), buildingCount);
                                             PropagationProcess propaProcess = new PropagationProcess(
                                                             threadData, threadDataOut);
 
                                             if (doMultiThreading) {
                                                     if(!threadManager.hasAvaibleQueueSlot()) {
                                                         logger.info("Wait for free Thread to begin propagation of cell "
-                                                                        + (cellI + 1)
-                                                                        + ","
-                                                                        + (cellJ + 1)
-                                                                        + " of the "
-                                                                        + gridDim
-                                                                        + "x" + gridDim + "  grid..");
+                                                                        + (cellIndex + 1)
+                                                                        + " of the " + nbcell + " cells..");
                                                     }
                                                     while (!threadManager.hasAvaibleQueueSlot()) {
                                                             if (pm!=null && pm.isCancelled()) {
-                                                                    driver.writingFinished();
-                                                                    return driver.getTable("main");
+                                                                    return cancel(threadManager, driverManager,
+                                                                            driver, checkpoint, cells);
                                                             }
                                                             Thread.sleep(100);
                                                     }
@@ -392,8 +599,12 @@ public class BR_PtGrid extends AbstractTableFunction {
                                             } else {
                                                     propaProcess.run();
                                             }
+                                        } else if(checkpoint != null) {
+                                            // Nothing to compute
+                                            checkpoint.writePtCell(cell.getId(),
+                                                    new ArrayList<Long>(),
+                                                    new double[0], null);
                                         }
-				}
 			}
 			// Wait termination of processes
 			Thread.sleep(100);
@@ -402,13 +613,14 @@ public class BR_PtGrid extends AbstractTableFunction {
                         }
 			while (threadManager.getRemainingTasks() > 0) {
 				if (pm!=null && pm.isCancelled()) {
-					driver.writingFinished();
-					return driver.getTable("main");
+					return cancel(threadManager, driverManager, driver,
+							checkpoint, cells);
 				}
 				Thread.sleep(100);
 			}
 			Thread.sleep(100);
 			// Wait for rows stack to be empty
+			long beginWriting = System.currentTimeMillis();
 			driverManager.stopWatchingStack();
 			pmManager.stop();
                         if(driverManager.isRunning()) {
@@ -416,14 +628,23 @@ public class BR_PtGrid extends AbstractTableFunction {
                         }
 			while (driverManager.isRunning()) {
 				if (pm!=null && pm.isCancelled()) {
-					driver.writingFinished();
-					return driver.getTable("main");
+					return cancel(threadManager, driverManager, driver,
+							checkpoint, cells);
 				}
 				Thread.sleep(10);
 			}
                         threadManager.shutdown();
+			if (threadDataOut.getWriteError() != null) {
+				throw new FunctionException(threadDataOut.getWriteError());
+			}
+			if (checkpoint != null && !workerMode) {
+				mergeComputedCells(checkpoint, cells, driverManager);
+			}
 			driver.writingFinished();
+			totalWriting += System.currentTimeMillis() - beginWriting;
                         driver.open();
+                        lastReceiverCount = nbreceivers;
+                        lastDataOut = threadDataOut;
                         logger.info("Min Max Avg computation time by receiver : "+ (threadDataOut.getMinimalReceiverComputationTime()/1e6) +" ms to "+ (threadDataOut.getMaximalReceiverComputationTime()/1e6)+" ms. Avg :"+(threadDataOut.getSumReceiverComputationTime()/(nbreceivers*1e6))+" ms.");
 			logger.info("Receiver count:" + nbreceivers);
 			logger.info("Receiver-Source count:"
@@ -433,6 +654,8 @@ public class BR_PtGrid extends AbstractTableFunction {
                         logger.info("Receiver-Sources specular reflection path count:"
                                         + threadDataOut.getNb_reflexion_path());
                         logger.info("Receiver-Source diffraction path count:"+threadDataOut.getNb_diffraction_path());
+                        logger.info("Receivers moved out of a wall:"+threadDataOut.getNb_facade_receiver()
+                                        +", receivers inside a building:"+threadDataOut.getNb_inside_receiver());
 			logger.info("Buildings obstruction test count:"
 					+ threadDataOut.getNb_obstr_test());
 			return driver.getTable("main");
@@ -450,19 +673,92 @@ public class BR_PtGrid extends AbstractTableFunction {
 			throw new FunctionException(e); 
                 } catch (IndexQueryException e)  {
 			throw new FunctionException(e);                
+		} catch (IOException e) {
+			throw new FunctionException(e);
 		} finally {
                     //Stop threads if there are not stoped
                     if(pmManager!=null) {
                         pmManager.stop();
                     }
+                    if(statistics!=null) {
+                        statistics.stop();
+                    }
                     if(threadManager!=null) {
-                        threadManager.shutdown();
+                        threadManager.shutdownNow();
                     }
                     if(driverManager!=null) {
                         driverManager.stopWatchingStack();
                     }
+                    if(spillCheckpoint!=null) {
+                        // The cells still running must not write in the
+                        // deleted directory
+                        if(threadManager!=null) {
+                            awaitTermination(threadManager);
+                        }
+                        spillCheckpoint.delete();
+                    }
                 }
     }
+
+    /**
+     * Wait for the end of the running cells
+     */
+    private static void awaitTermination(ThreadPool threadManager) {
+        try {
+            threadManager.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Copy the computed cells of the work directory into the output table
+     * @param checkpoint Work directory
+     * @param cells All the cells
+     * @param driverManager Output table writer
+     */
+    private void mergeComputedCells(CellCheckpoint checkpoint,
+            List<ComputationCell> cells,
+            PropagationProcessDiskWriter driverManager) throws IOException,
+            DriverException {
+        int missingCells = 0;
+        for (ComputationCell cell : cells) {
+            if (checkpoint.isComputed(cell.getId())) {
+                for (PropagationResultPtRecord record : checkpoint
+                        .readPtCell(cell.getId())) {
+                    driverManager.writeRecord(record);
+                }
+            } else {
+                missingCells++;
+            }
+        }
+        if (missingCells > 0) {
+            logger.info(missingCells + " cells of the " + cells.size()
+                    + " are not computed yet");
+        }
+    }
+
+    /**
+     * Stop the computation on cancellation. The running cells are
+     * finished, the queued cells are dropped, then the cells already
+     * computed are written in the output table.
+     * @return Output table with the computed cells
+     */
+    private DataSet cancel(ThreadPool threadManager,
+            PropagationProcessDiskWriter driverManager,
+            DiskBufferDriver driver, CellCheckpoint checkpoint,
+            List<ComputationCell> cells) throws IOException, DriverException {
+        logger.info("Computation cancelled, write the computed cells..");
+        threadManager.shutdownNow();
+        awaitTermination(threadManager);
+        driverManager.stopWatchingStack();
+        driverManager.join();
+        if (checkpoint != null && !workerMode) {
+            mergeComputedCells(checkpoint, cells, driverManager);
+        }
+        driver.writingFinished();
+        return driver.getTable("main");
+    }
     private class RowVisitor implements IndexVisitor {
         RowsUnionClassification visitedRows = new RowsUnionClassification();
         @Override
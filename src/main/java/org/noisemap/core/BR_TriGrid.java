@@ -34,6 +34,7 @@
 package org.noisemap.core;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
@@ -79,6 +80,8 @@ import com.vividsolutions.jts.geom.Polygon;
 import com.vividsolutions.jts.operation.buffer.BufferParameters;
 import com.vividsolutions.jts.simplify.TopologyPreservingSimplifier;
 import org.gdms.data.schema.MetadataUtilities;
+import org.noisemap.profile.FlightRecorderEvent;
+import org.noisemap.profile.PropagationEvents;
 
 /**
  * 
@@ -107,12 +110,176 @@ public class BR_TriGrid extends AbstractTableFunction {
 																		// index
 	private static short[][] neighboor = { { 1, 0 }, { -1, 0 }, { 0, -1 },
 			{ 0, 1 } }; // neighbor relative positions
+	// Buffer and simplification of the buildings inserted in the receivers
+	// mesh, it avoids over-triangulated small artifacts
+	private static final double MESH_BUILDINGS_BUFFER = 0.5;
+	private static final double MESH_BUILDINGS_SIMPLIFICATION = 0.1;
 	// Timing sum in millisec
 	private long totalParseBuildings = 0;
 	private long totalDelaunay = 0;
+        // Adaptive refinement of the receivers mesh, disabled by default
+        private double refineTolerance = 0;
+        private int refineMaxIterations = 0;
+        private double refineMinArea = 1;
+        private File checkpointDirectory = null;
+        private int firstCell = 0;
+        private int lastCell = Integer.MAX_VALUE;
+        private boolean workerMode = false;
+        private String workerId = null;
+        private int threadCount = 0;
+        private String sourcesIndexType = "quadtree";
+        private String triangulator = "jdelaunay";
+        private boolean compactStorage = false;
+        private File metricsFile = null;
+        private long metricsPeriod = 10000;
+        private long totalWriting = 0;
+        private long lastReceiverCount = 0;
+        private PropagationProcessOut lastDataOut = null;
         public void setLogger(Logger logger) {
             this.logger = logger;
         }
+        /**
+         * Enable the iterative computation of the receivers mesh.
+         * The sound level is computed on the mesh built with the maximum area
+         * parameter, then receivers are inserted into the triangles where the
+         * level spread between vertices exceed the tolerance. Only the new
+         * receivers are computed at each iteration.
+         * @param dbTolerance Maximum level difference (dB) between the vertices of a triangle. 0 to disable
+         * @param maxIterations Maximum refinement pass count
+         * @param minArea Triangles with a smaller area (m²) are not refined
+         */
+        public void setAdaptiveRefinement(double dbTolerance, int maxIterations, double minArea) {
+            this.refineTolerance = dbTolerance;
+            this.refineMaxIterations = maxIterations;
+            this.refineMinArea = minArea;
+        }
+        /**
+         * Save the results of each cell in a work directory. A computation
+         * restarted with the same parameters and the same work directory
+         * skip the cells already computed.
+         * @param workDirectory Work directory, null to disable
+         */
+        public void setCheckpoint(File workDirectory) {
+            this.checkpointDirectory = workDirectory;
+        }
+        /**
+         * Compute only a range of cells, in the computation order. Used with
+         * a shared work directory, the cells can be computed on several
+         * machines.
+         * @param firstCell Index of the first cell, inclusive
+         * @param lastCell Index of the last cell, exclusive
+         */
+        public void setCellRange(int firstCell, int lastCell) {
+            this.firstCell = firstCell;
+            this.lastCell = lastCell;
+        }
+        /**
+         * Share the cells of the work directory with other processes. Each cell
+         * is claimed before its computation, and the results are not merged.
+         * @param workerMode True to claim the cells
+         */
+        public void setWorkerMode(boolean workerMode) {
+            this.workerMode = workerMode;
+        }
+        /**
+         * @param workerId Owner of the cells claimed in worker mode, null for an
+         * id of this process
+         */
+        public void setWorkerId(String workerId) {
+            this.workerId = workerId;
+        }
+        /**
+         * Write the counters of the running computation in a file
+         * @param metricsFile Snapshot file, null to disable
+         * @param period Delay between two snapshots (ms)
+         */
+        public void setMetricsSnapshot(File metricsFile, long period) {
+            this.metricsFile = metricsFile;
+            this.metricsPeriod = period;
+        }
+        /**
+         * @param threadCount Count of propagation threads, 0 for the count
+         * of processors
+         */
+        public void setThreadCount(int threadCount) {
+            this.threadCount = threadCount;
+        }
+        /**
+         * @param indexType Index of the sources of a cell: quadtree, rtree
+         * or grid
+         */
+        public void setSourcesIndex(String indexType) {
+            if(!"quadtree".equals(indexType) && !"rtree".equals(indexType)
+                    && !"grid".equals(indexType)) {
+                throw new IllegalArgumentException("Unknown index type " + indexType);
+            }
+            this.sourcesIndexType = indexType;
+        }
+        /**
+         * @param triangulator Triangulation of the receivers mesh: jdelaunay,
+         * or incremental for the in-process constrained triangulation where
+         * the maximum area is the area of each triangle
+         */
+        public void setTriangulator(String triangulator) {
+            if(!"jdelaunay".equals(triangulator) && !"incremental".equals(triangulator)) {
+                throw new IllegalArgumentException("Unknown triangulator " + triangulator);
+            }
+            this.triangulator = triangulator;
+        }
+        /**
+         * Store the receivers of a cell as float offsets from the cell
+         * origin and the source spectra as float, to compute bigger cells
+         * with the same memory. Sound levels are still summed as double.
+         * @param compactStorage True to enable
+         */
+        public void setCompactStorage(boolean compactStorage) {
+            this.compactStorage = compactStorage;
+        }
+        /**
+         * @param indexType Index type: quadtree, rtree or grid
+         * @param envelope Extent of the indexed geometries
+         * @return A new index of sources
+         */
+        static QueryGeometryStructure createSourcesIndex(String indexType, Envelope envelope) {
+            if("rtree".equals(indexType)) {
+                return new QueryRTree();
+            } else if("grid".equals(indexType)) {
+                return new QueryGridIndex(envelope, 16, 16);
+            } else {
+                return new QueryQuadTree();
+            }
+        }
+        /**
+         * @return Cumulated time of buildings parsing (ms)
+         */
+        public long getParseBuildingsTime() {
+            return totalParseBuildings;
+        }
+        /**
+         * @return Cumulated time of Delaunay triangulation (ms)
+         */
+        public long getDelaunayTime() {
+            return totalDelaunay;
+        }
+        /**
+         * @return Time spent to finish the writing of results, after the
+         * end of the propagation (ms)
+         */
+        public long getWritingTime() {
+            return totalWriting;
+        }
+        /**
+         * @return Receivers count of the last evaluation
+         */
+        public long getReceiverCount() {
+            return lastReceiverCount;
+        }
+        /**
+         * @return Counters of the last evaluation
+         */
+        public PropagationProcessOut getPropagationOut() {
+            return lastDataOut;
+        }
 	int getCellId(int row, int col, int cols) {
 		return row * cols + col;
 	}
@@ -144,19 +311,31 @@ public class BR_TriGrid extends AbstractTableFunction {
 	}
 
 	private void explodeAndAddPolygon(Geometry intersectedGeometry,
-			LayerDelaunay delaunayTool, Geometry boundingBox)
+			LayerDelaunay delaunayTool, Geometry boundingBox,
+			List<LineString> constraints)
 			throws DriverException, LayerDelaunayError {
 		long beginAppendPolygons = System.currentTimeMillis();
 		if (intersectedGeometry instanceof MultiPolygon
 				|| intersectedGeometry instanceof GeometryCollection) {
 			for (int j = 0; j < intersectedGeometry.getNumGeometries(); j++) {
 				Geometry subGeom = intersectedGeometry.getGeometryN(j);
-				explodeAndAddPolygon(subGeom, delaunayTool, boundingBox);
+				explodeAndAddPolygon(subGeom, delaunayTool, boundingBox,
+						constraints);
 			}
 		} else if (intersectedGeometry instanceof Polygon) {
-			addPolygon((Polygon) intersectedGeometry, delaunayTool, boundingBox);
+			Polygon polygon = (Polygon) intersectedGeometry;
+			addPolygon(polygon, delaunayTool, boundingBox);
+			if (constraints != null) {
+				constraints.add(polygon.getExteriorRing());
+				for (int j = 0; j < polygon.getNumInteriorRing(); j++) {
+					constraints.add(polygon.getInteriorRingN(j));
+				}
+			}
 		} else if (intersectedGeometry instanceof LineString) {
 			delaunayTool.addLineString((LineString) intersectedGeometry);
+			if (constraints != null) {
+				constraints.add((LineString) intersectedGeometry);
+			}
 		}
 		totalDelaunay += System.currentTimeMillis() - beginAppendPolygons;
 	}
@@ -186,13 +365,7 @@ public class BR_TriGrid extends AbstractTableFunction {
 		}
 	}
 	private Geometry merge(LinkedList<Geometry> toUnite, double bufferSize) {
-		GeometryFactory geometryFactory = new GeometryFactory();
-		Geometry geoArray[] = new Geometry[toUnite.size()];
-		toUnite.toArray(geoArray);
-		GeometryCollection polygonCollection = geometryFactory
-				.createGeometryCollection(geoArray);
-		return polygonCollection.buffer(bufferSize, 0,
-				BufferParameters.CAP_SQUARE);
+		return TiledUnion.union(toUnite, bufferSize);
 	}
         /**
          * Compute the envelope corresping to parameters
@@ -207,17 +380,18 @@ public class BR_TriGrid extends AbstractTableFunction {
          */
 	public static Envelope getCellEnv(Envelope mainEnvelope, int cellI, int cellJ,
 			int cellIMax, int cellJMax, double cellWidth, double cellHeight) {
+		// Borders are computed the same way for the two adjacent cells
 		return new Envelope(mainEnvelope.getMinX() + cellI * cellWidth,
-				mainEnvelope.getMinX() + cellI * cellWidth + cellWidth,
+				mainEnvelope.getMinX() + (cellI + 1) * cellWidth,
 				mainEnvelope.getMinY() + cellHeight * cellJ,
-				mainEnvelope.getMinY() + cellHeight * cellJ + cellHeight);
+				mainEnvelope.getMinY() + cellHeight * (cellJ + 1));
 	}
 
-	private void feedDelaunay(DataSet polygonDatabase,int spatialBuildingsFieldIndex,
-			LayerDelaunay delaunayTool, Envelope boundingBoxFilter,
+	private void feedDelaunay(LayerDelaunay delaunayTool, Envelope boundingBoxFilter,
 			double srcDistance, LinkedList<LineString> delaunaySegments,
-			double minRecDist, double srcPtDist) throws DriverException,
-			LayerDelaunayError {
+			double minRecDist, double srcPtDist, SharedBorderReceivers borderReceivers,
+			MergedBuildingsLayer meshBuildings, int cellId,
+			List<LineString> constraints) throws DriverException, LayerDelaunayError {
 		Envelope extendedEnvelope = new Envelope(boundingBoxFilter);
 		extendedEnvelope.expandBy(srcDistance * 2.);
 		long oldtotalDelaunay = totalDelaunay;
@@ -227,35 +401,20 @@ public class BR_TriGrid extends AbstractTableFunction {
 			return;
 		}
 		GeometryFactory factory = new GeometryFactory();
-		Polygon boundingBox = new Polygon((LinearRing) linearRing, null,
-				factory);
+		// The border vertices are shared with the neighbor cells
+		Polygon boundingBox = factory.createPolygon(factory.createLinearRing(
+				borderReceivers.getBorderRing(boundingBoxFilter)), null);
 
 		// Insert the main rectangle
 		delaunayTool.addPolygon(boundingBox, false);
 
+		FlightRecorderEvent.Instance mergeEvent = PropagationEvents.BUILDING_MERGE.begin();
 		LinkedList<Geometry> toUnite = new LinkedList<Geometry>();
-		final long rowCount = polygonDatabase.getRowCount();
-		for (long rowIndex = 0; rowIndex < rowCount; rowIndex++) {
-			final Geometry geometry = polygonDatabase.getFieldValue(rowIndex, spatialBuildingsFieldIndex).getAsGeometry();
-			Envelope geomEnv = geometry.getEnvelopeInternal();
-			geomEnv.expandBy(0.5);
-			if (boundingBoxFilter.intersects(geomEnv)) {
-				// Add polygon to union array
-				toUnite.add(geometry);
-			}
-		}
-		// Reduce small artifacts to avoid, shortest geometry to be
-		// over-triangulated
 		LinkedList<Geometry> toUniteFinal = new LinkedList<Geometry>();
+		// Buildings already merged, buffered and simplified for all cells
+		toUnite.addAll(meshBuildings.query(boundingBoxFilter));
 		if (!toUnite.isEmpty()) {
-			Geometry bufferBuildings = merge(toUnite, 0.5);
-			// Remove small artifacts due to buildings buffer
-			bufferBuildings = TopologyPreservingSimplifier.simplify(
-					bufferBuildings, .1);
-			// Densify receiver near buildings
-			// bufferBuildings=Densifier.densify(bufferBuildings,srcPtDist);
-
-			toUniteFinal.add(bufferBuildings); // Add buildings to triangulation
+			toUniteFinal.add(factory.buildGeometry(toUnite));
 		}
 
 		// Merge roads
@@ -284,7 +443,8 @@ public class BR_TriGrid extends AbstractTableFunction {
 													// together
 		// Remove geometries out of the bounding box
 		union = union.intersection(boundingBox);
-		explodeAndAddPolygon(union, delaunayTool, boundingBox);
+		mergeEvent.commit(cellId, toUnite.size());
+		explodeAndAddPolygon(union, delaunayTool, boundingBox, constraints);
 		
 		totalParseBuildings += System.currentTimeMillis() - beginfeed
 				- (totalDelaunay - oldtotalDelaunay);
@@ -294,37 +454,29 @@ public class BR_TriGrid extends AbstractTableFunction {
 	 * Delaunay triangulation of Sub-Domain
 	 * 
 	 * @param cellMesh
-	 * @param mainEnvelope
-	 * @param cellI
-	 * @param cellJ
-	 * @param cellIMax
-	 * @param cellJMax
-	 * @param cellWidth
-	 * @param cellHeight
+	 * @param cellEnvelope
 	 * @param maxSrcDist
 	 * @param sdsSources
 	 * @param minRecDist
 	 * @param srcPtDist
-	 * @param firstPassResults
+	 * @param borderReceivers
 	 * @param maximumArea
+	 * @param meshBuildings Buildings already merged, buffered and simplified
+	 * @param cellId Cell identifier
+	 * @param constraints Receive the constraint lines of the mesh, null if
+	 * not required
 	 * @throws DriverException
 	 * @throws LayerDelaunayError
 	 */
 	private void computeFirstPassDelaunay(LayerDelaunay cellMesh,
-			Envelope mainEnvelope, int cellI, int cellJ, int cellIMax,
-			int cellJMax, double cellWidth, double cellHeight,
-			double maxSrcDist, DataSet sdsBuildings,
-			DataSet sdsSources,int spatialBuildingsFieldIndex,int spatialSourceFieldIndex, double minRecDist,
-			double srcPtDist, String[] firstPassResults,
-			double maximumArea)
+			Envelope cellEnvelope,
+			double maxSrcDist,
+			DataSet sdsSources,int spatialSourceFieldIndex, double minRecDist,
+			double srcPtDist, SharedBorderReceivers borderReceivers,
+			double maximumArea, MergedBuildingsLayer meshBuildings, int cellId,
+			List<LineString> constraints)
 			throws DriverException, LayerDelaunayError {
 
-		Envelope cellEnvelope = getCellEnv(mainEnvelope, cellI, cellJ,
-				cellIMax, cellJMax, cellWidth, cellHeight);// new
-															// Envelope(mainEnvelope.getMinX()+cellI*cellWidth,
-															// mainEnvelope.getMinX()+cellI*cellWidth+cellWidth,
-															// mainEnvelope.getMinY()+cellHeight*cellJ,
-															// mainEnvelope.getMinY()+cellHeight*cellJ+cellHeight);
 		Envelope expandedCellEnvelop = new Envelope(cellEnvelope);
 		expandedCellEnvelop.expandBy(maxSrcDist);
 
@@ -332,6 +484,9 @@ public class BR_TriGrid extends AbstractTableFunction {
 		// bounding box
 
 		cellMesh.hintInit(cellEnvelope, 1500, 5000);
+		if (refineTolerance > 0) {
+			cellMesh.setRetrieveNeighbors(true);
+		}
 		// /////////////////////////////////////////////////
 		// Add roads into delaunay tool
                 LinkedList<LineString> delaunaySegments = new LinkedList<LineString>();
@@ -388,8 +543,9 @@ public class BR_TriGrid extends AbstractTableFunction {
                             }
                     }
                 }
-		feedDelaunay(sdsBuildings,spatialBuildingsFieldIndex, cellMesh, cellEnvelope, maxSrcDist, delaunaySegments,
-				minRecDist, srcPtDist);
+		feedDelaunay(cellMesh, cellEnvelope, maxSrcDist, delaunaySegments,
+				minRecDist, srcPtDist, borderReceivers, meshBuildings, cellId,
+				constraints);
 
 		// Process delaunay
 
@@ -398,11 +554,75 @@ public class BR_TriGrid extends AbstractTableFunction {
         if(maximumArea>1) {
             cellMesh.setMaxArea(maximumArea); // Maximum area
         }
+        FlightRecorderEvent.Instance delaunayEvent = PropagationEvents.DELAUNAY.begin();
         cellMesh.processDelaunay();
+        if(delaunayEvent.isEnabled()) {
+            delaunayEvent.commit(cellId, cellMesh.getVertices().size(),
+                    cellMesh.getTriangles().size());
+        }
 		logger.info("End delaunay");
 		totalDelaunay += System.currentTimeMillis() - beginDelaunay;
 	}
 
+	/**
+	 * Split the domain into cells
+	 * @param mainEnvelope Domain
+	 * @param subdivLvl Uniform split into 4^subdivLvl cells, adaptive split if negative
+	 * @param threads Count of computation threads
+	 * @return The cells to compute
+	 * @throws DriverException
+	 */
+	private List<ComputationCell> computeCells(Envelope mainEnvelope,
+			DataSet sdsBuildings, DataSet sdsSources,
+			int spatialBuildingsFieldIndex, int spatialSourceFieldIndex,
+			int subdivLvl, double maxSrcDist, double minRecDist,
+			double srcPtDist, double maximumArea, int threads)
+			throws DriverException {
+		DomainDecomposition decomposition = new DomainDecomposition(
+				mainEnvelope, maxSrcDist);
+		decomposition.setThreadCount(threads);
+		// The whole domain is meshed
+		decomposition.setSkipEmptyCells(false);
+		// Estimation of receivers count, from the mesh parameters
+		if (maximumArea > 1) {
+			decomposition.addReceiverDensity(1 / (2 * maximumArea));
+		}
+		long rowCount = sdsSources.getRowCount();
+		for (long rowIndex = 0; rowIndex < rowCount; rowIndex++) {
+			Geometry geo = sdsSources.getFieldValue(rowIndex,
+					spatialSourceFieldIndex).getAsGeometry();
+			Coordinate[] coordinates = geo.getCoordinates();
+			for (int i = 0; i < coordinates.length; i++) {
+				decomposition.addSources(coordinates[i], 1);
+				if (i > 0 && minRecDist > 0.1 && srcPtDist > 0) {
+					// Receivers along the roads buffer
+					Coordinate middle = new Coordinate(
+							(coordinates[i - 1].x + coordinates[i].x) / 2,
+							(coordinates[i - 1].y + coordinates[i].y) / 2);
+					decomposition.addReceivers(middle, 2 * coordinates[i - 1]
+							.distance(coordinates[i]) / srcPtDist);
+				}
+			}
+		}
+		rowCount = sdsBuildings.getRowCount();
+		for (long rowIndex = 0; rowIndex < rowCount; rowIndex++) {
+			Geometry geo = sdsBuildings.getFieldValue(rowIndex,
+					spatialBuildingsFieldIndex).getAsGeometry();
+			Coordinate center = geo.getEnvelopeInternal().centre();
+			decomposition.addBuildings(center, geo.getNumPoints());
+			// Buildings vertices are receivers of the mesh
+			decomposition.addReceivers(center, geo.getNumPoints());
+		}
+		if (subdivLvl >= 0) {
+			return decomposition.getUniformCells(subdivLvl);
+		} else {
+			List<ComputationCell> cells = decomposition.getAdaptiveCells();
+			logger.info("Adaptive decomposition into " + cells.size()
+					+ " cells");
+			return cells;
+		}
+	}
+
 	public static Double DbaToW(Double dBA) {
 		return Math.pow(10., dBA / 10.);
 	}
@@ -440,12 +660,14 @@ public class BR_TriGrid extends AbstractTableFunction {
                                                //maximum Receiver-Wall distance
                 DiskBufferDriver driver;
                 ThreadPool threadManager=null;
+                PropagationStatistics statistics = null;
                 ProgressionOrbisGisManager pmManager=null;
                 PropagationProcessDiskWriter driverManager=null;
+                CellCheckpoint spillCheckpoint=null;
 		try {
 			// Steps of execution
 			// Evaluation of the main bounding box (sources+buildings)
-			// Split domain into 4^subdiv cells
+			// Split domain into 4^subdiv cells, or adaptive cells
 			// For each cell :
 			// Expand bounding box cell by maxSrcDist
 			// Build delaunay triangulation from buildings polygon processed by
@@ -486,10 +708,6 @@ public class BR_TriGrid extends AbstractTableFunction {
                 mainEnvelope = GetGlobalEnvelope(sdsSources, pm);
             }
 
-            // Split domain into 4^subdiv cells
-
-			int gridDim = (int) Math.pow(2, subdivLvl);
-
 			// Initialization frequency declared in source Table
 			ArrayList<Integer> db_field_ids = new ArrayList<Integer>();
 			ArrayList<Integer> db_field_freq = new ArrayList<Integer>();
@@ -509,27 +727,87 @@ public class BR_TriGrid extends AbstractTableFunction {
 				fieldid++;
 			}
 
-			double cellWidth = mainEnvelope.getWidth() / gridDim;
-			double cellHeight = mainEnvelope.getHeight() / gridDim;
+			// Split domain into 4^subdiv cells, or into cells of the same
+			// estimated cost if the subdivision level is negative
+			Runtime runtime = Runtime.getRuntime();
+			int threads = threadCount > 0 ? threadCount : runtime
+					.availableProcessors();
+			List<ComputationCell> cells = computeCells(mainEnvelope, sds,
+					sdsSources, spatialBuildingsFieldIndex,
+					spatialSourceFieldIndex, subdivLvl, maxSrcDist,
+					minRecDist, srcPtDist, maximumArea, threads);
+			// Begin with the most expensive cells, the last computed cells
+			// are the cheapest ones
+			CellCostModel costModel = new CellCostModel(cells,
+					reflexionOrder, diffractionOrder, maxSrcDist, maxRefDist,
+					threads);
+			cells = costModel.sortByDecreasingCost(cells);
+			CellCheckpoint checkpoint = null;
+			if (checkpointDirectory != null) {
+				String parameters = getName() + "(";
+				for (Value value : values) {
+					parameters += value.toString() + ",";
+				}
+				parameters += ") buildings:" + sds.getRowCount() + " sources:"
+						+ sdsSources.getRowCount() + " refine:"
+						+ refineTolerance + "," + refineMaxIterations + ","
+						+ refineMinArea + " triangulator:" + triangulator
+						+ " sourcesIndex:" + sourcesIndexType + " compact:"
+						+ compactStorage;
+				checkpoint = new CellCheckpoint(checkpointDirectory,
+						parameters, cells);
+				if (workerId != null) {
+					checkpoint.setOwner(workerId);
+				}
+			} else if (!workerMode) {
+				// Without work directory the cells results are kept in a
+				// temporary one, and merged at the end of the computation
+				spillCheckpoint = CellCheckpoint.createTemporary(
+						dsf.getTempDir(), getName(), cells);
+				checkpoint = spillCheckpoint;
+			}
+			if (workerMode) {
+				if (checkpoint == null) {
+					throw new FunctionException("The worker mode require a work directory");
+				}
+				checkpoint.publishCells(cells);
+			}
+			double cellWidth = Double.MAX_VALUE;
+			double cellHeight = Double.MAX_VALUE;
+			for (ComputationCell cell : cells) {
+				cellWidth = Math.min(cellWidth, cell.getEnvelope().getWidth());
+				cellHeight = Math.min(cellHeight, cell.getEnvelope().getHeight());
+			}
 
-			String[] firstPassResults = new String[gridDim * gridDim];
+			// Receivers on cell borders are placed on the same lattice than
+			// the maximum area grid, and computed only once
+			double borderStepX = 0;
+			double borderStepY = 0;
+			if (maximumArea > 1) {
+				double requestedStep = Math.sqrt(maximumArea * 2);
+				borderStepX = cellWidth / Math.ceil(cellWidth / requestedStep);
+				borderStepY = cellHeight / Math.ceil(cellHeight / requestedStep);
+			}
+			SharedBorderReceivers borderReceivers = new SharedBorderReceivers(
+					new Coordinate(mainEnvelope.getMinX(), mainEnvelope.getMinY()),
+					borderStepX, borderStepY);
 
 			driver = new DiskBufferDriver(dsf, getMetadata(null));
 
-			int nbcell = gridDim * gridDim;
+			int nbcell = cells.size();
 			if (nbcell == 1) {
 				doMultiThreading = false;
 				forceSinglePass = true;
 			}
 
-			Runtime runtime = Runtime.getRuntime();
 			threadManager = new ThreadPool(
-					runtime.availableProcessors(),
-					runtime.availableProcessors() + 1, Long.MAX_VALUE,
+					threads,
+					threads + 1, Long.MAX_VALUE,
 					TimeUnit.SECONDS);
 
 			pmManager = new ProgressionOrbisGisManager(
 					nbcell, pm);
+			pmManager.setCostModel(costModel);
 			Stack<PropagationResultTriRecord> toDriver = new Stack<PropagationResultTriRecord>();
 			driverManager = new PropagationProcessDiskWriter(
 					toDriver,null, driver,null);
@@ -537,24 +815,47 @@ public class BR_TriGrid extends AbstractTableFunction {
 			pmManager.start();
 			PropagationProcessOut threadDataOut = new PropagationProcessOut(
 					toDriver,null);
+			threadDataOut.setCostModel(costModel);
+			statistics = new PropagationStatistics(getName(), threadDataOut,
+					logger);
+			statistics.start(metricsFile, metricsPeriod);
+			costModel.setDataOut(threadDataOut);
 
-			for (int cellI = 0; cellI < gridDim; cellI++) {
-				for (int cellJ = 0; cellJ < gridDim; cellJ++) {
+			// Merge the buildings once for all cells
+			long beginMerge = System.currentTimeMillis();
+			MergedBuildingsLayer buildingsLayer = MergedBuildingsLayer
+					.fromDataSet(sds, spatialBuildingsFieldIndex);
+			MergedBuildingsLayer meshBuildingsLayer = new MergedBuildingsLayer(
+					buildingsLayer.getParts(), MESH_BUILDINGS_BUFFER,
+					MESH_BUILDINGS_SIMPLIFICATION);
+			totalParseBuildings += System.currentTimeMillis() - beginMerge;
+			logger.info("Buildings merged in " + buildingsLayer.getParts().size()
+					+ " polygons");
+
+			int cellIndex = 0;
+			int skippedCells = 0;
+			for (ComputationCell cell : cells) {
+					cellIndex++;
+					int ij = cell.getId();
+					if (cellIndex <= firstCell || cellIndex > lastCell
+							|| (checkpoint != null && checkpoint.isComputed(ij))
+							|| (workerMode && !checkpoint.claim(ij))) {
+						// Out of range, computed by a previous run or by
+						// another process
+						skippedCells++;
+						costModel.cellSkipped(ij);
+						pmManager.nextSubProcessEnd();
+						continue;
+					}
 					FastObstructionTest freeFieldFinder = new FastObstructionTest();
-					int ij = cellI * gridDim + cellJ;
-					logger.info("Begin processing of cell " + (cellI+1) + ","
-							+ (cellJ+1) + " of the " + gridDim + "x" + gridDim
-							+ "  grid..");
+					FlightRecorderEvent.Instance preparationEvent = PropagationEvents.CELL_PREPARATION.begin();
+					logger.info("Begin processing of cell " + cellIndex
+							+ " of the " + nbcell + " cells..");
 					if (pm!=null && pm.isCancelled()) {
-						driver.writingFinished();
-						return driver.getTable("main");
+						return cancel(threadManager, driverManager, driver,
+								checkpoint, cells);
 					}
-					Envelope cellEnvelope = getCellEnv(mainEnvelope, cellI,
-							cellJ, gridDim, gridDim, cellWidth, cellHeight);// new
-																			// Envelope(mainEnvelope.getMinX()+cellI*cellWidth,
-																			// mainEnvelope.getMinX()+cellI*cellWidth+cellWidth,
-																			// mainEnvelope.getMinY()+cellHeight*cellJ,
-																			// mainEnvelope.getMinY()+cellHeight*cellJ+cellHeight);
+					Envelope cellEnvelope = cell.getEnvelope();
 					Envelope expandedCellEnvelop = new Envelope(cellEnvelope);
 					expandedCellEnvelop.expandBy(maxSrcDist);
 					// Build delaunay triangulation from buildings inside the
@@ -563,8 +864,9 @@ public class BR_TriGrid extends AbstractTableFunction {
 					// //////////////////////////////////////////////////////
 					// Make source index for optimization
 					ArrayList<Geometry> sourceGeometries = new ArrayList<Geometry>();
-					ArrayList<ArrayList<Double>> wj_sources = new ArrayList<ArrayList<Double>>();
-					QueryGeometryStructure sourcesIndex = new QueryQuadTree();
+					List<List<Double>> wj_sources = new ArrayList<List<Double>>();
+					QueryGeometryStructure sourcesIndex = createSourcesIndex(
+							sourcesIndexType, expandedCellEnvelop);
 					// QueryGeometryStructure<Integer> sourcesIndex=new
 					// QueryQuadTree<Integer>();
 
@@ -590,7 +892,11 @@ public class BR_TriGrid extends AbstractTableFunction {
 								wj_spectrum
 										.add(DbaToW(row[idcol].getAsDouble()));
 							}
-							wj_sources.add(wj_spectrum);
+							if (compactStorage) {
+								wj_sources.add(new FloatSpectrum(wj_spectrum));
+							} else {
+								wj_sources.add(wj_spectrum);
+							}
 							sourceGeometries.add(geo);
 							idsource++;
 						}
@@ -601,29 +907,33 @@ public class BR_TriGrid extends AbstractTableFunction {
 					// optimization
 
 
-					rowCount = sds.getRowCount();
-					for (long rowIndex = 0; rowIndex < rowCount; rowIndex++) {
-						final Geometry geometry = sds.getFieldValue(rowIndex, spatialBuildingsFieldIndex).getAsGeometry();
-						Envelope geomEnv = geometry.getEnvelopeInternal();
-						if (expandedCellEnvelop.intersects(geomEnv)) {
-							freeFieldFinder.addGeometry(geometry);
-						}
+					int buildingCount = 0;
+					for (Geometry building : buildingsLayer.query(expandedCellEnvelop)) {
+						freeFieldFinder.addMergedGeometry(building);
+						buildingCount++;
 					}
 
+					FlightRecorderEvent.Instance indexEvent = PropagationEvents.OBSTRUCTION_INDEX.begin();
 					freeFieldFinder.finishPolygonFeeding(expandedCellEnvelop);
+					indexEvent.commit(ij, buildingCount, freeFieldFinder.getTriangles().size());
+
+					// Compute the delaunay mesh, vertices of the cell border
+					// are shared with the neighbor cells
+					LayerDelaunay cellMesh;
+					if ("incremental".equals(triangulator)) {
+						cellMesh = new LayerIncrementalDelaunay();
+					} else {
+						cellMesh = new LayerJDelaunay();
+					}
 
-					// Compute the first pass delaunay mesh
-					// The first pass doesn't take account of additional
-					// vertices of neighbor cells at the borders
-					// then, there are discontinuities in iso surfaces at each
-					// border of cell
-					LayerDelaunay cellMesh = new LayerJDelaunay();
-
-                    computeFirstPassDelaunay(cellMesh, mainEnvelope, cellI,
-                            cellJ, gridDim, gridDim, cellWidth, cellHeight,
-                            maxSrcDist, sds, sdsSources, spatialBuildingsFieldIndex, spatialSourceFieldIndex, minRecDist,
-                            srcPtDist, firstPassResults,
-                            maximumArea);
+                    List<LineString> meshConstraints = null;
+                    if (refineTolerance > 0) {
+                        meshConstraints = new ArrayList<LineString>();
+                    }
+                    computeFirstPassDelaunay(cellMesh, cellEnvelope,
+                            maxSrcDist, sdsSources, spatialSourceFieldIndex, minRecDist,
+                            srcPtDist, borderReceivers,
+                            maximumArea, meshBuildingsLayer, ij, meshConstraints);
 					// Make a structure to keep the following information
 					// Triangle list with 3 vertices(int), and 3 neighbor
 					// triangle ID
@@ -632,30 +942,43 @@ public class BR_TriGrid extends AbstractTableFunction {
 					// The evaluation of sound level must be done where the
 					// following vertices are
 					List<Coordinate> vertices = cellMesh.getVertices();
+					if (compactStorage) {
+						// Border receivers are kept in double precision,
+						// they are looked up in borderReceivers
+						vertices = new FloatCoordinateList(vertices,
+								cellEnvelope);
+					}
 					List<Triangle> triangles = cellMesh.getTriangles();
 					nbreceivers += vertices.size();
+					costModel.setReceiverCount(ij, vertices.size());
 					PropagationProcessData threadData = new PropagationProcessData(
 							vertices,null, triangles, freeFieldFinder, sourcesIndex,
 							sourceGeometries, wj_sources, db_field_freq,
 							reflexionOrder, diffractionOrder, maxSrcDist,maxRefDist,
 							minRecDist, wallAlpha, ij, dsf,
 							pmManager.nextSubProcess(vertices.size()));
+					threadData.borderReceivers = borderReceivers;
+					threadData.cellEnvelope = cellEnvelope;
+					threadData.checkpoint = checkpoint;
+					preparationEvent.commit(ij, sourceGeometries.size(), buildingCount);
+					if (refineTolerance > 0) {
+						threadData.triNeighbors = cellMesh.getNeighbors();
+						threadData.meshConstraints = meshConstraints;
+						threadData.refineTolerance = refineTolerance;
+						threadData.refineMaxIterations = refineMaxIterations;
+						threadData.refineMinArea = refineMinArea;
+					}
 					PropagationProcess propaProcess = new PropagationProcess(
 							threadData, threadDataOut);
 
 					if (doMultiThreading) {
 						logger.info("Wait for free Thread to begin propagation of cell "
-								+ (cellI + 1)
-								+ ","
-								+ (cellJ + 1)
-								+ " of the "
-								+ gridDim
-								+ "x" + gridDim + "  grid..");
+								+ cellIndex + " of the " + nbcell + " cells..");
 						// threadManager.executeBlocking(propaProcess);
 						while (!threadManager.hasAvaibleQueueSlot()) {
 							if (pm!=null && pm.isCancelled()) {
-								driver.writingFinished();
-								return driver.getTable("main");
+								return cancel(threadManager, driverManager,
+										driver, checkpoint, cells);
 							}
 							Thread.sleep(100);
 						}
@@ -664,38 +987,52 @@ public class BR_TriGrid extends AbstractTableFunction {
 					} else {
 						propaProcess.run();
 					}
-				}
 			}
 			// Wait termination of processes
 			logger.info("Wait for termination of the lasts propagation process..");
 			// threadManager.getRemainingTasks()>0
 			Thread.sleep(100);
-			while (threadDataOut.getCellComputed() < nbcell && doMultiThreading) {
+			while (threadDataOut.getCellComputed() < nbcell - skippedCells && doMultiThreading) {
 				if (pm!=null && pm.isCancelled()) {
-					driver.writingFinished();
-					return driver.getTable("main");
+					return cancel(threadManager, driverManager, driver,
+							checkpoint, cells);
 				}
 				Thread.sleep(100);
 			}
 			// Wait for rows stack to be empty
+			long beginWriting = System.currentTimeMillis();
 			driverManager.stopWatchingStack();
 			pmManager.stop();
 			logger.info("Wait for termination of writing to the driver..");
 			while (driverManager.isRunning()) {
 				if (pm!=null && pm.isCancelled()) {
-					driver.writingFinished();
-					return driver.getTable("main");
+					return cancel(threadManager, driverManager, driver,
+							checkpoint, cells);
 				}
 				Thread.sleep(10);
 			}
                         threadManager.shutdown();
+			if (threadDataOut.getWriteError() != null) {
+				throw new FunctionException(threadDataOut.getWriteError());
+			}
+			if (checkpoint != null && !workerMode) {
+				mergeComputedCells(checkpoint, cells, driverManager);
+			}
 			driver.writingFinished();
+			totalWriting += System.currentTimeMillis() - beginWriting;
                         driver.open();
 			logger.info("Parse polygons time:" + this.totalParseBuildings
 					+ " ms");
 			logger.info("Delaunay time:" + this.totalDelaunay + " ms");
+                        nbreceivers += threadDataOut.getNb_refined_receiver();
+                        lastReceiverCount = nbreceivers;
+                        lastDataOut = threadDataOut;
                         logger.info("Min Max Avg computation time by receiver : "+ (threadDataOut.getMinimalReceiverComputationTime()/1e6) +" ms to "+ (threadDataOut.getMaximalReceiverComputationTime()/1e6)+" ms. Avg :"+(threadDataOut.getSumReceiverComputationTime()/(nbreceivers*1e6))+" ms.");
 			logger.info("Receiver count:" + nbreceivers);
+                        logger.info("Receivers shared with a neighbor cell:" + threadDataOut.getNb_shared_receiver());
+                        if(refineTolerance > 0) {
+                            logger.info("Receiver added by the mesh refinement:" + threadDataOut.getNb_refined_receiver());
+                        }
 			logger.info("Receiver-Source count:"
 					+ threadDataOut.getNb_couple_receiver_src());
                         logger.info("Receiver image (reflections):"
@@ -714,20 +1051,94 @@ public class BR_TriGrid extends AbstractTableFunction {
 			throw new FunctionException(e);
 		} catch (InterruptedException e) {
 			throw new FunctionException(e);
+		} catch (IOException e) {
+			throw new FunctionException(e);
 		} finally {
                     //Stop threads if there are not stoped
                     if(pmManager!=null) {
                         pmManager.stop();
                     }
+                    if(statistics!=null) {
+                        statistics.stop();
+                    }
                     if(threadManager!=null) {
-                        threadManager.shutdown();
+                        threadManager.shutdownNow();
                     }
                     if(driverManager!=null) {
                         driverManager.stopWatchingStack();
                     }
+                    if(spillCheckpoint!=null) {
+                        // The cells still running must not write in the
+                        // deleted directory
+                        if(threadManager!=null) {
+                            awaitTermination(threadManager);
+                        }
+                        spillCheckpoint.delete();
+                    }
                 }
 	}
 
+	/**
+	 * Wait for the end of the running cells
+	 */
+	private static void awaitTermination(ThreadPool threadManager) {
+		try {
+			threadManager.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Copy the computed cells of the work directory into the output table
+	 * @param checkpoint Work directory
+	 * @param cells All the cells
+	 * @param driverManager Output table writer
+	 */
+	private void mergeComputedCells(CellCheckpoint checkpoint,
+			List<ComputationCell> cells,
+			PropagationProcessDiskWriter driverManager) throws IOException,
+			DriverException {
+		int missingCells = 0;
+		for (ComputationCell cell : cells) {
+			if (checkpoint.isComputed(cell.getId())) {
+				for (PropagationResultTriRecord record : checkpoint
+						.readTriCell(cell.getId())) {
+					driverManager.writeRecord(record);
+				}
+			} else {
+				missingCells++;
+			}
+		}
+		if (missingCells > 0) {
+			logger.info(missingCells + " cells of the " + cells.size()
+					+ " are not computed yet");
+		}
+	}
+
+	/**
+	 * Stop the computation on cancellation. The running cells are
+	 * finished, the queued cells are dropped, then the cells already
+	 * computed are written in the output table.
+	 * @return Output table with the computed cells
+	 */
+	private DataSet cancel(ThreadPool threadManager,
+			PropagationProcessDiskWriter driverManager,
+			DiskBufferDriver driver, CellCheckpoint checkpoint,
+			List<ComputationCell> cells)
+			throws IOException, DriverException {
+		logger.info("Computation cancelled, write the computed cells..");
+		threadManager.shutdownNow();
+		awaitTermination(threadManager);
+		driverManager.stopWatchingStack();
+		driverManager.join();
+		if (checkpoint != null && !workerMode) {
+			mergeComputedCells(checkpoint, cells, driverManager);
+		}
+		driver.writingFinished();
+		return driver.getTable("main");
+	}
+
 	@Override
 	public Metadata getMetadata(Metadata[] tables) throws DriverException {
             Type meta_type[] = { TypeFactory.createType(Type.GEOMETRY),
@@ -789,7 +1200,7 @@ public class BR_TriGrid extends AbstractTableFunction {
 
 	@Override
 	public String getDescription() {
-		return "BR_TriGrid(buildings(polygons),sources(points),sound lvl field name(string),maximum propagation distance (double meter),maximum wall seeking distance (double meter),subdivision level 4^n cells(int), roads width (meter), densification of receivers near roads (meter), maximum area of triangle, sound reflection order, sound diffraction order, alpha of walls[, envelope polygon] ) Sound propagation from ponctual sound sources to ponctual receivers created by a delaunay triangulation of specified buildings geometry.";
+		return "BR_TriGrid(buildings(polygons),sources(points),sound lvl field name(string),maximum propagation distance (double meter),maximum wall seeking distance (double meter),subdivision level 4^n cells(int, -1 for automatic), roads width (meter), densification of receivers near roads (meter), maximum area of triangle, sound reflection order, sound diffraction order, alpha of walls[, envelope polygon] ) Sound propagation from ponctual sound sources to ponctual receivers created by a delaunay triangulation of specified buildings geometry.";
 	}
 
 
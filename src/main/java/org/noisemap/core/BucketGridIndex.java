@@ -0,0 +1,205 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.core;
+
+/**
+ * Regular grid of buckets over elements given by packed coordinates
+ * (x0,y0,x1,y1,.. a fixed count of points by element). The buckets are
+ * stored in two int arrays, the offset of each bucket and the element
+ * indexes. An element is stored in each bucket its envelope intersects.
+ * 
+ * @author Nicolas Fortin
+ */
+abstract class BucketGridIndex {
+	/** Mean count of elements by bucket */
+	private static final int ELEMENTS_BY_BUCKET = 2;
+	protected final double[] coordinates;
+	private final int pointsByElement;
+	protected double minX = Double.MAX_VALUE;
+	protected double minY = Double.MAX_VALUE;
+	protected double maxX = -Double.MAX_VALUE;
+	protected double maxY = -Double.MAX_VALUE;
+	protected final int columns;
+	protected final int rows;
+	private final double bucketWidth;
+	private final double bucketHeight;
+	protected final int[] bucketStart;
+	protected final int[] bucketElements;
+
+	/**
+	 * @param coordinates
+	 *            Packed coordinates of the elements, the array is kept by the
+	 *            index
+	 * @param pointsByElement
+	 *            Count of points of each element
+	 * @param elementCount
+	 *            Count of elements
+	 */
+	protected BucketGridIndex(double[] coordinates, int pointsByElement,
+			int elementCount) {
+		this.coordinates = coordinates;
+		this.pointsByElement = pointsByElement;
+		for (int i = 0; i < elementCount * pointsByElement * 2; i += 2) {
+			minX = Math.min(minX, coordinates[i]);
+			maxX = Math.max(maxX, coordinates[i]);
+			minY = Math.min(minY, coordinates[i + 1]);
+			maxY = Math.max(maxY, coordinates[i + 1]);
+		}
+		double width = Math.max(maxX - minX, Double.MIN_VALUE);
+		double height = Math.max(maxY - minY, Double.MIN_VALUE);
+		int bucketCount = Math.max(1, elementCount / ELEMENTS_BY_BUCKET);
+		columns = (int) Math.max(1, Math.min(bucketCount,
+				Math.round(Math.sqrt(bucketCount * width / height))));
+		rows = Math.max(1, bucketCount / columns);
+		bucketWidth = width / columns;
+		bucketHeight = height / rows;
+		// Count the elements of each bucket, then fill
+		bucketStart = new int[columns * rows + 1];
+		int[] range = new int[4];
+		for (int e = 0; e < elementCount; e++) {
+			bucketRange(e, range);
+			for (int row = range[2]; row <= range[3]; row++) {
+				for (int column = range[0]; column <= range[1]; column++) {
+					bucketStart[row * columns + column + 1]++;
+				}
+			}
+		}
+		for (int bucket = 0; bucket < columns * rows; bucket++) {
+			bucketStart[bucket + 1] += bucketStart[bucket];
+		}
+		bucketElements = new int[bucketStart[columns * rows]];
+		int[] cursor = new int[columns * rows];
+		System.arraycopy(bucketStart, 0, cursor, 0, cursor.length);
+		for (int e = 0; e < elementCount; e++) {
+			bucketRange(e, range);
+			for (int row = range[2]; row <= range[3]; row++) {
+				for (int column = range[0]; column <= range[1]; column++) {
+					bucketElements[cursor[row * columns + column]++] = e;
+				}
+			}
+		}
+	}
+
+	protected int column(double x) {
+		return Math.max(0, Math.min(columns - 1, (int) ((x - minX) / bucketWidth)));
+	}
+
+	protected int row(double y) {
+		return Math.max(0, Math.min(rows - 1, (int) ((y - minY) / bucketHeight)));
+	}
+
+	protected double getElementMinX(int e) {
+		int base = e * pointsByElement * 2;
+		double value = coordinates[base];
+		for (int i = 2; i < pointsByElement * 2; i += 2) {
+			value = Math.min(value, coordinates[base + i]);
+		}
+		return value;
+	}
+
+	protected double getElementMinY(int e) {
+		int base = e * pointsByElement * 2 + 1;
+		double value = coordinates[base];
+		for (int i = 2; i < pointsByElement * 2; i += 2) {
+			value = Math.min(value, coordinates[base + i]);
+		}
+		return value;
+	}
+
+	protected double getElementMaxX(int e) {
+		int base = e * pointsByElement * 2;
+		double value = coordinates[base];
+		for (int i = 2; i < pointsByElement * 2; i += 2) {
+			value = Math.max(value, coordinates[base + i]);
+		}
+		return value;
+	}
+
+	protected double getElementMaxY(int e) {
+		int base = e * pointsByElement * 2 + 1;
+		double value = coordinates[base];
+		for (int i = 2; i < pointsByElement * 2; i += 2) {
+			value = Math.max(value, coordinates[base + i]);
+		}
+		return value;
+	}
+
+	/**
+	 * Append to found the index of each element which envelope intersects
+	 * the query envelope. An element is appended only once.
+	 */
+	public void query(double qMinX, double qMinY, double qMaxX, double qMaxY,
+			IntList found) {
+		if (bucketElements.length == 0 || qMaxX < minX || qMinX > maxX
+				|| qMaxY < minY || qMinY > maxY) {
+			return;
+		}
+		int firstColumn = column(qMinX);
+		int lastColumn = column(qMaxX);
+		int firstRow = row(qMinY);
+		int lastRow = row(qMaxY);
+		for (int row = firstRow; row <= lastRow; row++) {
+			for (int column = firstColumn; column <= lastColumn; column++) {
+				int bucket = row * columns + column;
+				for (int i = bucketStart[bucket]; i < bucketStart[bucket + 1]; i++) {
+					int e = bucketElements[i];
+					double eMinX = getElementMinX(e);
+					double eMinY = getElementMinY(e);
+					if (eMinX > qMaxX || eMinY > qMaxY
+							|| getElementMaxX(e) < qMinX
+							|| getElementMaxY(e) < qMinY) {
+						continue;
+					}
+					// Report the element only in the first bucket shared by
+					// the element and the query
+					if (column == column(Math.max(eMinX, qMinX))
+							&& row == row(Math.max(eMinY, qMinY))) {
+						found.add(e);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Set the first column, last column, first row and last row of the
+	 * element envelope in range
+	 */
+	private void bucketRange(int e, int[] range) {
+		range[0] = column(getElementMinX(e));
+		range[1] = column(getElementMaxX(e));
+		range[2] = row(getElementMinY(e));
+		range[3] = row(getElementMaxY(e));
+	}
+}
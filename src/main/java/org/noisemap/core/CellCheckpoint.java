@@ -0,0 +1,720 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.zip.CRC32;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+/**
+ * Save the results of each computed cell in a work directory, in order to
+ * resume an interrupted computation or to share the cells of a computation
+ * between several processes.
+ * The work directory contains a manifest with the computation parameters and
+ * one result file by computed cell. A result file is written under a
+ * temporary name and renamed when complete, then an existing result file is
+ * always a complete cell.
+ * Several processes can share the cells of a work directory: the cells to
+ * compute are published as files in the todo directory, and a process
+ * claims a cell by moving its file into the running directory. A file rename
+ * is atomic, then a cell is claimed by a single process.
+ * A claim file contains the owner of the claim, and its modification time is
+ * renewed by the owner while the cell is computed. A claim is released only
+ * if its lease has expired or if its owner is known to be stopped.
+ * The records of a cell have a fixed size, a cell file is streamed through
+ * a fixed size off-heap buffer of the current thread, without creating an
+ * object by record.
+ * @author Nicolas Fortin
+ */
+public class CellCheckpoint {
+	public static final String MANIFEST_FILE = "checkpoint.properties";
+	public static final String TODO_DIRECTORY = "todo";
+	public static final String RUNNING_DIRECTORY = "running";
+	/** A claim not renewed for this delay (ms) belongs to a stopped process */
+	public static final long LEASE_TIMEOUT = 10 * 60 * 1000;
+	private static final long LEASE_RENEW_PERIOD = LEASE_TIMEOUT / 4;
+	private static final int MAGIC = 0x4E4D4331; // NMC1
+	private static final int TRI_RECORDS = 1;
+	private static final int PT_RECORDS = 3; // 2 was receivers without class
+	private static final int HEADER_SIZE = 16; // magic, type, cell, count
+	private static final int TRI_RECORD_SIZE = 13 * 8; // 3 xyz, 3 levels, id
+	private static final int PT_RECORD_SIZE = 8 + 8 + 1; // row, level, class
+	private static final int IO_BUFFER_SIZE = 64 * 1024; // Larger than any record
+	// Direct memory is only released by the garbage collector, a single
+	// buffer is kept by thread
+	private static final ThreadLocal<ByteBuffer> IO_BUFFER = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocateDirect(IO_BUFFER_SIZE);
+		}
+	};
+	private final File workDirectory;
+	private final GeometryFactory factory = new GeometryFactory();
+	private String owner = ManagementFactory.getRuntimeMXBean().getName()
+			+ "-" + Long.toHexString(System.nanoTime());
+	private final Set<Integer> claimedCells = new HashSet<Integer>();
+	private Timer leaseTimer = null;
+
+	/**
+	 * Open or create a work directory.
+	 * @param workDirectory Work directory, created if it does not exists
+	 * @param parameters Computation parameters, a work directory can only be
+	 *        resumed with the same parameters
+	 * @param cells Computation cells
+	 * @throws IOException The work directory can not be used, or has been
+	 *         created with other parameters
+	 */
+	public CellCheckpoint(File workDirectory, String parameters,
+			List<ComputationCell> cells) throws IOException {
+		this.workDirectory = workDirectory;
+		if (!workDirectory.isDirectory() && !workDirectory.mkdirs()) {
+			throw new IOException("Unable to create the work directory "
+					+ workDirectory);
+		}
+		Properties manifest = new Properties();
+		manifest.setProperty("parameters", parameters);
+		manifest.setProperty("cells", getCellsSignature(cells));
+		File manifestFile = new File(workDirectory, MANIFEST_FILE);
+		if (manifestFile.exists()) {
+			Properties previous = readManifest(workDirectory);
+			if (!manifest.equals(previous)) {
+				throw new IOException("The work directory " + workDirectory
+						+ " contains the cells of another computation");
+			}
+		} else {
+			File tmpFile = new File(workDirectory, MANIFEST_FILE + ".tmp");
+			OutputStream out = new FileOutputStream(tmpFile);
+			try {
+				manifest.store(out, "Noisemap computation checkpoint");
+			} finally {
+				out.close();
+			}
+			commit(tmpFile, manifestFile);
+		}
+	}
+
+	/**
+	 * Create a work directory in a temporary directory, to keep the results
+	 * of the cells out of the heap until the end of the computation. It has
+	 * to be deleted by the caller.
+	 * @param tempDirectory Parent directory, the temporary directory of the
+	 *        data source factory
+	 * @param parameters Computation parameters
+	 * @param cells Computation cells
+	 * @return The checkpoint of the new work directory
+	 * @throws IOException
+	 */
+	public static CellCheckpoint createTemporary(File tempDirectory,
+			String parameters, List<ComputationCell> cells) throws IOException {
+		File directory = File.createTempFile("noisemap_cells", "",
+				tempDirectory);
+		if (!directory.delete() || !directory.mkdir()) {
+			throw new IOException("Unable to create " + directory);
+		}
+		return new CellCheckpoint(directory, parameters, cells);
+	}
+
+	/**
+	 * @param workDirectory Work directory
+	 * @return The manifest of the work directory
+	 * @throws IOException
+	 */
+	public static Properties readManifest(File workDirectory)
+			throws IOException {
+		Properties manifest = new Properties();
+		InputStream in = new FileInputStream(new File(workDirectory,
+				MANIFEST_FILE));
+		try {
+			manifest.load(in);
+		} finally {
+			in.close();
+		}
+		return manifest;
+	}
+
+	/**
+	 * @param cells Computation cells
+	 * @return A value that change with the cells ids and envelopes
+	 */
+	private static String getCellsSignature(List<ComputationCell> cells) {
+		CRC32 crc = new CRC32();
+		for (ComputationCell cell : cells) {
+			crc.update((cell.getId() + ":" + cell.getEnvelope().toString() + ";")
+					.getBytes());
+		}
+		return cells.size() + "/" + Long.toHexString(crc.getValue());
+	}
+
+	private static void commit(File tmpFile, File destination)
+			throws IOException {
+		if (destination.exists() && !destination.delete()) {
+			throw new IOException("Unable to replace " + destination);
+		}
+		if (!tmpFile.renameTo(destination)) {
+			throw new IOException("Unable to rename " + tmpFile + " to "
+					+ destination);
+		}
+	}
+
+	public File getWorkDirectory() {
+		return workDirectory;
+	}
+
+	/**
+	 * @param cellId Cell id
+	 * @return The result file of the cell
+	 */
+	public File getCellFile(int cellId) {
+		return new File(workDirectory, "cell_" + cellId + ".bin");
+	}
+
+	/**
+	 * @param cellId Cell id
+	 * @return True if the results of the cell are in the work directory
+	 */
+	public boolean isComputed(int cellId) {
+		return getCellFile(cellId).exists();
+	}
+
+	private File getClaimFile(String directory, int cellId) {
+		return new File(new File(workDirectory, directory), "cell_" + cellId);
+	}
+
+	/**
+	 * Publish the cells not computed yet in the todo directory. Only the
+	 * first call on a work directory publish the cells.
+	 * @param cells Computation cells
+	 * @throws IOException
+	 */
+	public void publishCells(List<ComputationCell> cells) throws IOException {
+		File todoDirectory = new File(workDirectory, TODO_DIRECTORY);
+		if (todoDirectory.exists()) {
+			return;
+		}
+		new File(workDirectory, RUNNING_DIRECTORY).mkdir();
+		// The todo directory appears with all the cells
+		File tmpDirectory = File.createTempFile(TODO_DIRECTORY, ".tmp",
+				workDirectory);
+		if (!tmpDirectory.delete() || !tmpDirectory.mkdir()) {
+			throw new IOException("Unable to create " + tmpDirectory);
+		}
+		for (ComputationCell cell : cells) {
+			if (!isComputed(cell.getId())) {
+				new File(tmpDirectory, "cell_" + cell.getId()).createNewFile();
+			}
+		}
+		if (!tmpDirectory.renameTo(todoDirectory)) {
+			// Published by another process
+			for (File file : tmpDirectory.listFiles()) {
+				file.delete();
+			}
+			tmpDirectory.delete();
+		}
+	}
+
+	/**
+	 * @param owner Owner written in the claim files of this process
+	 */
+	public void setOwner(String owner) {
+		this.owner = owner;
+	}
+
+	public String getOwner() {
+		return owner;
+	}
+
+	/**
+	 * Claim the computation of a cell. The lease of the claim is renewed
+	 * until the results of the cell are saved.
+	 * @param cellId Cell id
+	 * @return True if this process has to compute the cell, false if the
+	 *         cell is computed or claimed by another process
+	 */
+	public boolean claim(int cellId) {
+		File todoFile = getClaimFile(TODO_DIRECTORY, cellId);
+		File claimFile = getClaimFile(RUNNING_DIRECTORY, cellId);
+		// The rename keeps the modification time, the lease begins before
+		if (!todoFile.setLastModified(System.currentTimeMillis())
+				|| !todoFile.renameTo(claimFile)) {
+			return false;
+		}
+		try {
+			OutputStream out = new FileOutputStream(claimFile);
+			try {
+				out.write(owner.getBytes("UTF-8"));
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			// Without owner the claim is released when its lease expires
+		}
+		synchronized (claimedCells) {
+			claimedCells.add(cellId);
+			if (leaseTimer == null) {
+				leaseTimer = new Timer("Cells lease", true);
+				leaseTimer.schedule(new TimerTask() {
+					@Override
+					public void run() {
+						renewClaims();
+					}
+				}, LEASE_RENEW_PERIOD, LEASE_RENEW_PERIOD);
+			}
+		}
+		return true;
+	}
+
+	private void renewClaims() {
+		synchronized (claimedCells) {
+			long now = System.currentTimeMillis();
+			for (int cellId : claimedCells) {
+				getClaimFile(RUNNING_DIRECTORY, cellId).setLastModified(now);
+			}
+		}
+	}
+
+	private void releaseClaim(int cellId) {
+		getClaimFile(RUNNING_DIRECTORY, cellId).delete();
+		synchronized (claimedCells) {
+			if (claimedCells.remove(cellId) && claimedCells.isEmpty()) {
+				leaseTimer.cancel();
+				leaseTimer = null;
+			}
+		}
+	}
+
+	/**
+	 * @param claimFile Claim file
+	 * @return The owner of the claim, empty if unknown
+	 */
+	private static String readOwner(File claimFile) {
+		try {
+			InputStream in = new FileInputStream(claimFile);
+			try {
+				byte[] content = new byte[(int) claimFile.length()];
+				int length = 0;
+				while (length < content.length) {
+					int read = in.read(content, length, content.length
+							- length);
+					if (read < 0) {
+						break;
+					}
+					length += read;
+				}
+				return new String(content, 0, length, "UTF-8");
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return "";
+		}
+	}
+
+	/**
+	 * Publish again the claimed cells without results whose lease has
+	 * expired, their processes have been stopped.
+	 * @param workDirectory Work directory
+	 * @param leaseTimeout Claims not renewed for this delay (ms) are released
+	 * @return Count of published cells
+	 */
+	public static int releaseExpiredClaims(File workDirectory,
+			long leaseTimeout) {
+		return releaseClaimedCells(workDirectory, leaseTimeout, null);
+	}
+
+	/**
+	 * Publish again the claimed cells without results of stopped processes.
+	 * @param workDirectory Work directory
+	 * @param owners Owners of the claims to release, processes known to be
+	 *        stopped
+	 * @return Count of published cells
+	 */
+	public static int releaseClaimsOf(File workDirectory,
+			Collection<String> owners) {
+		return releaseClaimedCells(workDirectory, Long.MAX_VALUE, owners);
+	}
+
+	private static int releaseClaimedCells(File workDirectory,
+			long leaseTimeout, Collection<String> owners) {
+		int released = 0;
+		long now = System.currentTimeMillis();
+		File[] claimed = new File(workDirectory, RUNNING_DIRECTORY).listFiles();
+		if (claimed != null) {
+			for (File claimFile : claimed) {
+				if (new File(workDirectory, claimFile.getName() + ".bin")
+						.exists()) {
+					claimFile.delete();
+					continue;
+				}
+				boolean expired = now - claimFile.lastModified() >= leaseTimeout;
+				if (expired
+						|| (owners != null && owners
+								.contains(readOwner(claimFile)))) {
+					File todoFile = new File(new File(workDirectory,
+							TODO_DIRECTORY), claimFile.getName());
+					if (claimFile.renameTo(todoFile)) {
+						released++;
+					}
+				}
+			}
+		}
+		return released;
+	}
+
+	/**
+	 * @return Count of cells published and not claimed yet
+	 */
+	public int getTodoCount() {
+		String[] todo = new File(workDirectory, TODO_DIRECTORY).list();
+		return todo == null ? 0 : todo.length;
+	}
+
+	/**
+	 * Write the records of a cell in a temporary file through the buffer of
+	 * the current thread, the file becomes the cell file on close.
+	 */
+	private final class CellWriter {
+		private final int cellId;
+		private final File tmpFile;
+		private final FileOutputStream out;
+		private final FileChannel channel;
+		private final ByteBuffer buffer = IO_BUFFER.get();
+
+		/**
+		 * @param cellId Cell id
+		 * @param recordType Type of the records
+		 * @param recordCount Count of records
+		 * @throws IOException
+		 */
+		public CellWriter(int cellId, int recordType, int recordCount)
+				throws IOException {
+			this.cellId = cellId;
+			tmpFile = new File(workDirectory, "cell_" + cellId + ".tmp");
+			out = new FileOutputStream(tmpFile);
+			channel = out.getChannel();
+			buffer.clear();
+			buffer.putInt(MAGIC);
+			buffer.putInt(recordType);
+			buffer.putInt(cellId);
+			buffer.putInt(recordCount);
+		}
+
+		/**
+		 * @param recordSize Size of the next record in bytes
+		 * @return The buffer with room for the next record
+		 * @throws IOException
+		 */
+		public ByteBuffer next(int recordSize) throws IOException {
+			if (buffer.remaining() < recordSize) {
+				flush();
+			}
+			return buffer;
+		}
+
+		private void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+
+		/**
+		 * Write the remaining records and save the cell file
+		 * @throws IOException
+		 */
+		public void commit() throws IOException {
+			try {
+				flush();
+			} finally {
+				out.close();
+			}
+			CellCheckpoint.commit(tmpFile, getCellFile(cellId));
+			releaseClaim(cellId);
+		}
+
+		/**
+		 * Remove the temporary file after a failure
+		 */
+		public void abort() {
+			try {
+				out.close();
+			} catch (IOException e) {
+				// Deleted anyway
+			}
+			tmpFile.delete();
+		}
+	}
+
+	/**
+	 * Read the records of a cell file through the buffer of the current
+	 * thread.
+	 */
+	private final class CellReader {
+		private final File cellFile;
+		private final FileInputStream in;
+		private final FileChannel channel;
+		private final ByteBuffer buffer = IO_BUFFER.get();
+		private final int recordCount;
+
+		/**
+		 * @param cellId Cell id
+		 * @param recordType Type of the records
+		 * @param recordSize Size of a record in bytes
+		 * @throws IOException
+		 */
+		public CellReader(int cellId, int recordType, int recordSize)
+				throws IOException {
+			cellFile = getCellFile(cellId);
+			in = new FileInputStream(cellFile);
+			try {
+				channel = in.getChannel();
+				buffer.clear();
+				buffer.flip();
+				ByteBuffer header = next(HEADER_SIZE);
+				if (header.getInt() != MAGIC || header.getInt() != recordType
+						|| header.getInt() != cellId) {
+					throw new IOException("Invalid cell file " + cellFile);
+				}
+				recordCount = header.getInt();
+				if (recordCount < 0
+						|| channel.size() != HEADER_SIZE + (long) recordCount
+								* recordSize) {
+					throw new IOException("Invalid cell file " + cellFile);
+				}
+			} catch (IOException e) {
+				in.close();
+				throw e;
+			}
+		}
+
+		public int getRecordCount() {
+			return recordCount;
+		}
+
+		/**
+		 * @param recordSize Size of the next record in bytes
+		 * @return The buffer positioned on the next record
+		 * @throws IOException
+		 */
+		public ByteBuffer next(int recordSize) throws IOException {
+			if (buffer.remaining() < recordSize) {
+				buffer.compact();
+				while (buffer.position() < recordSize) {
+					if (channel.read(buffer) < 0) {
+						throw new IOException("Truncated cell file " + cellFile);
+					}
+				}
+				buffer.flip();
+			}
+			return buffer;
+		}
+
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+	private static void putCoordinate(ByteBuffer buffer, Coordinate pt) {
+		buffer.putDouble(pt.x);
+		buffer.putDouble(pt.y);
+		buffer.putDouble(pt.z);
+	}
+
+	/**
+	 * Save the triangles of a computed cell from the mesh arrays, the
+	 * triangle id is the index in the triangle list
+	 * @param cellId Cell id
+	 * @param vertices Vertices of the cell mesh
+	 * @param triangles Triangles of the cell mesh
+	 * @param levels Sound level of each vertex
+	 * @throws IOException
+	 */
+	public void writeTriCell(int cellId, List<Coordinate> vertices,
+			List<Triangle> triangles, double[] levels) throws IOException {
+		CellWriter writer = new CellWriter(cellId, TRI_RECORDS,
+				triangles.size());
+		boolean committed = false;
+		try {
+			long triId = 0;
+			for (Triangle tri : triangles) {
+				ByteBuffer buffer = writer.next(TRI_RECORD_SIZE);
+				putCoordinate(buffer, vertices.get(tri.getA()));
+				putCoordinate(buffer, vertices.get(tri.getB()));
+				putCoordinate(buffer, vertices.get(tri.getC()));
+				buffer.putDouble(levels[tri.getA()]);
+				buffer.putDouble(levels[tri.getB()]);
+				buffer.putDouble(levels[tri.getC()]);
+				buffer.putLong(triId++);
+			}
+			writer.commit();
+			committed = true;
+		} finally {
+			if (!committed) {
+				writer.abort();
+			}
+		}
+	}
+
+	/**
+	 * Read the triangles of a computed cell
+	 * @param cellId Cell id
+	 * @return Triangles with sound level
+	 * @throws IOException
+	 */
+	public List<PropagationResultTriRecord> readTriCell(int cellId)
+			throws IOException {
+		CellReader reader = new CellReader(cellId, TRI_RECORDS,
+				TRI_RECORD_SIZE);
+		try {
+			int recordCount = reader.getRecordCount();
+			List<PropagationResultTriRecord> records = new ArrayList<PropagationResultTriRecord>(
+					recordCount);
+			for (int idRecord = 0; idRecord < recordCount; idRecord++) {
+				ByteBuffer buffer = reader.next(TRI_RECORD_SIZE);
+				Coordinate[] pts = new Coordinate[4];
+				for (int i = 0; i < 3; i++) {
+					pts[i] = new Coordinate(buffer.getDouble(),
+							buffer.getDouble(), buffer.getDouble());
+				}
+				pts[3] = pts[0];
+				Geometry triangle = factory.createPolygon(
+						factory.createLinearRing(pts), null);
+				double v1 = buffer.getDouble();
+				double v2 = buffer.getDouble();
+				double v3 = buffer.getDouble();
+				records.add(new PropagationResultTriRecord(triangle, v1, v2,
+						v3, cellId, buffer.getLong()));
+			}
+			return records;
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Save the receivers of a computed cell from the receivers arrays
+	 * @param cellId Cell id
+	 * @param rowIds Row of each receiver in the receivers table
+	 * @param levels Sound level of each receiver
+	 * @param classes Class of each receiver, null if the receivers are not
+	 *        classified
+	 * @throws IOException
+	 */
+	public void writePtCell(int cellId, List<Long> rowIds, double[] levels,
+			int[] classes) throws IOException {
+		CellWriter writer = new CellWriter(cellId, PT_RECORDS, rowIds.size());
+		boolean committed = false;
+		try {
+			for (int idReceiver = 0; idReceiver < rowIds.size(); idReceiver++) {
+				ByteBuffer buffer = writer.next(PT_RECORD_SIZE);
+				buffer.putLong(rowIds.get(idReceiver));
+				buffer.putDouble(levels[idReceiver]);
+				buffer.put((byte) (classes != null ? classes[idReceiver]
+						: PropagationResultPtRecord.RECEIVER_FREE));
+			}
+			writer.commit();
+			committed = true;
+		} finally {
+			if (!committed) {
+				writer.abort();
+			}
+		}
+	}
+
+	/**
+	 * Read the receivers of a computed cell
+	 * @param cellId Cell id
+	 * @return Receivers sound level
+	 * @throws IOException
+	 */
+	public List<PropagationResultPtRecord> readPtCell(int cellId)
+			throws IOException {
+		CellReader reader = new CellReader(cellId, PT_RECORDS, PT_RECORD_SIZE);
+		try {
+			int recordCount = reader.getRecordCount();
+			List<PropagationResultPtRecord> records = new ArrayList<PropagationResultPtRecord>(
+					recordCount);
+			for (int idRecord = 0; idRecord < recordCount; idRecord++) {
+				ByteBuffer buffer = reader.next(PT_RECORD_SIZE);
+				long row = buffer.getLong();
+				double level = buffer.getDouble();
+				records.add(new PropagationResultPtRecord(row, cellId, level,
+						buffer.get()));
+			}
+			return records;
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Delete the work directory and all its files. Used for a work directory
+	 * that only holds the results until the end of the computation.
+	 */
+	public void delete() {
+		deleteFiles(workDirectory);
+	}
+
+	private static void deleteFiles(File directory) {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.isDirectory()) {
+					deleteFiles(file);
+				} else {
+					file.delete();
+				}
+			}
+		}
+		directory.delete();
+	}
+}
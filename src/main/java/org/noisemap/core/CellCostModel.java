@@ -0,0 +1,203 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Predict the computation time of cells before their computation.
+ * The cost of a receiver is estimated from the density of sources, walls and
+ * corners around the cell and from the reflection and diffraction orders.
+ * The cost unit is calibrated with the receivers computation time of the
+ * cells already computed. The sum of the receivers time gives the mean time
+ * of a cost unit, the predicted time of a receiver is kept between the
+ * minimal and maximal receiver times, as the cost model is not accurate for
+ * the extreme receivers costs.
+ * @author Nicolas Fortin
+ */
+public class CellCostModel {
+	/** Same limitation as the propagation process */
+	private static final double PATH_LIMIT = 1000;
+	private final Map<Integer, Double> receiverCost = new HashMap<Integer, Double>();
+	private final Map<Integer, Double> cellCost = new HashMap<Integer, Double>();
+	private final int threadCount;
+	private double finishedCost = 0;
+	private double finishedTime = 0; // ms
+	private PropagationProcessOut dataOut;
+
+	/**
+	 * @param cells Cells to compute
+	 * @param reflexionOrder Reflection order
+	 * @param diffractionOrder Diffraction order
+	 * @param maxSrcDist Maximum source distance
+	 * @param maxRefDist Maximum wall seeking distance
+	 * @param threadCount Computation threads count
+	 */
+	public CellCostModel(List<ComputationCell> cells, int reflexionOrder,
+			int diffractionOrder, double maxSrcDist, double maxRefDist,
+			int threadCount) {
+		this.threadCount = Math.max(1, threadCount);
+		for (ComputationCell cell : cells) {
+			Envelope expanded = new Envelope(cell.getEnvelope());
+			expanded.expandBy(maxSrcDist);
+			double area = Math.max(1., expanded.getArea());
+			// Mean count of objects around a receiver
+			double sourcesInRange = cell.getSourceCount() / area * Math.PI
+					* maxSrcDist * maxSrcDist;
+			// A building vertex is a wall and a potential corner
+			double wallsInRange = cell.getBuildingCount() / area * Math.PI
+					* maxRefDist * maxRefDist;
+			double images = 0;
+			if (reflexionOrder > 0) {
+				images = Math.min(Math.pow(wallsInRange, reflexionOrder),
+						PATH_LIMIT);
+			}
+			double diffractionPaths = 0;
+			if (diffractionOrder > 0) {
+				diffractionPaths = Math.min(Math.pow(wallsInRange,
+						diffractionOrder), PATH_LIMIT);
+			}
+			double cost = 1 + wallsInRange + sourcesInRange
+					* (1 + images + diffractionPaths);
+			receiverCost.put(cell.getId(), cost);
+			cellCost.put(cell.getId(), cost * cell.getReceiverCount());
+		}
+	}
+
+	/**
+	 * @param dataOut Source of the minimal and maximal receivers computation
+	 *        time
+	 */
+	public void setDataOut(PropagationProcessOut dataOut) {
+		this.dataOut = dataOut;
+	}
+
+	/**
+	 * @param cellId Cell id
+	 * @return Predicted cost of the cell, in cost unit
+	 */
+	public synchronized double getPredictedCost(int cellId) {
+		Double cost = cellCost.get(cellId);
+		return cost == null ? 0 : cost;
+	}
+
+	/**
+	 * Update the prediction with the real receivers count of the cell
+	 * @param cellId Cell id
+	 * @param receiverCount Receivers count
+	 */
+	public synchronized void setReceiverCount(int cellId, long receiverCount) {
+		if (cellCost.containsKey(cellId)) {
+			cellCost.put(cellId, receiverCost.get(cellId) * receiverCount);
+		}
+	}
+
+	/**
+	 * @param cells Cells
+	 * @return A copy of the cells list sorted by decreasing predicted cost
+	 */
+	public List<ComputationCell> sortByDecreasingCost(
+			List<ComputationCell> cells) {
+		List<ComputationCell> sorted = new ArrayList<ComputationCell>(cells);
+		Collections.sort(sorted, new Comparator<ComputationCell>() {
+			@Override
+			public int compare(ComputationCell o1, ComputationCell o2) {
+				return Double.compare(getPredictedCost(o2.getId()),
+						getPredictedCost(o1.getId()));
+			}
+		});
+		return sorted;
+	}
+
+	/**
+	 * The computation of the cell is done
+	 * @param cellId Cell id
+	 * @param computationTime Sum of the computation time of the receivers
+	 *        of the cell (ns)
+	 */
+	public synchronized void cellComputed(int cellId, long computationTime) {
+		Double cost = cellCost.remove(cellId);
+		if (cost != null) {
+			finishedCost += cost;
+			finishedTime += computationTime / 1e6;
+		}
+	}
+
+	/**
+	 * The cell is not computed by this process, its cost is not used for
+	 * the calibration
+	 * @param cellId Cell id
+	 */
+	public synchronized void cellSkipped(int cellId) {
+		cellCost.remove(cellId);
+	}
+
+	/**
+	 * @return Estimation of the remaining computation time in ms, -1 if
+	 *         there is no computed cell yet
+	 */
+	public long getRemainingTime() {
+		if (dataOut == null) {
+			return -1;
+		}
+		double minReceiverTime = dataOut.getMinimalReceiverComputationTime() / 1e6;
+		double maxReceiverTime = dataOut.getMaximalReceiverComputationTime() / 1e6;
+		boolean bounded = maxReceiverTime > 0
+				&& minReceiverTime <= maxReceiverTime;
+		synchronized (this) {
+			// Cumulated time of all threads, for the computed cells only
+			if (finishedCost <= 0 || finishedTime <= 0) {
+				return -1;
+			}
+			double unitTime = finishedTime / finishedCost;
+			double remainingTime = 0;
+			for (Map.Entry<Integer, Double> cell : cellCost.entrySet()) {
+				double cost = receiverCost.get(cell.getKey());
+				double receiverTime = cost * unitTime;
+				if (bounded) {
+					receiverTime = Math.max(minReceiverTime, Math.min(
+							maxReceiverTime, receiverTime));
+				}
+				remainingTime += cell.getValue() / cost * receiverTime;
+			}
+			return (long) (remainingTime / threadCount);
+		}
+	}
+}
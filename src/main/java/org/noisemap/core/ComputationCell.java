@@ -0,0 +1,118 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.core;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * A sub-domain of the computation, processed by a single propagation
+ * process. Hold the estimated content of the cell.
+ * @author Nicolas Fortin
+ */
+public class ComputationCell {
+	private final int id;
+	private final Envelope envelope;
+	private final double receiverCount; // Receivers inside the cell
+	private final double sourceCount; // Source points inside the expanded envelope
+	private final double buildingCount; // Buildings vertices inside the expanded envelope
+	private final boolean lastColumn; // The cell is on the right border of the domain
+	private final boolean lastRow; // The cell is on the top border of the domain
+
+	public ComputationCell(int id, Envelope envelope, double receiverCount,
+			double sourceCount, double buildingCount, boolean lastColumn,
+			boolean lastRow) {
+		this.id = id;
+		this.envelope = envelope;
+		this.receiverCount = receiverCount;
+		this.sourceCount = sourceCount;
+		this.buildingCount = buildingCount;
+		this.lastColumn = lastColumn;
+		this.lastRow = lastRow;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public Envelope getEnvelope() {
+		return envelope;
+	}
+
+	/**
+	 * @return Estimated receiver count
+	 */
+	public double getReceiverCount() {
+		return receiverCount;
+	}
+
+	/**
+	 * @return Estimated source points count within the expanded envelope
+	 */
+	public double getSourceCount() {
+		return sourceCount;
+	}
+
+	/**
+	 * @return Estimated buildings vertices count within the expanded envelope
+	 */
+	public double getBuildingCount() {
+		return buildingCount;
+	}
+
+	/**
+	 * @return Estimated propagation work, in receiver-source couples
+	 */
+	public double getEstimatedWork() {
+		return receiverCount * (1 + sourceCount);
+	}
+
+	/**
+	 * @return Estimated memory footprint, in vertices count
+	 */
+	public double getEstimatedMemory() {
+		return receiverCount + sourceCount + buildingCount;
+	}
+
+	/**
+	 * A receiver on the border shared by two cells belongs to one cell only.
+	 * @param pt Receiver coordinate
+	 * @return True if the receiver must be computed by this cell
+	 */
+	public boolean ownsReceiver(Coordinate pt) {
+		return pt.x >= envelope.getMinX() && pt.y >= envelope.getMinY()
+				&& (pt.x < envelope.getMaxX() || (lastColumn && pt.x <= envelope.getMaxX()))
+				&& (pt.y < envelope.getMaxY() || (lastRow && pt.y <= envelope.getMaxY()));
+	}
+}
@@ -0,0 +1,162 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.core;
+
+import java.util.List;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * Index of unique coordinates (compared with equals3D) in a list. This is
+ * an open addressing hash table of int, a lookup does not allocate a bucket
+ * and a coordinate given by its ordinates is created only when it is
+ * appended.
+ * 
+ * @author Nicolas Fortin
+ */
+public class CoordinateHash {
+	private static final int MIN_CAPACITY = 16;
+	private final List<Coordinate> coordinates;
+	// Coordinate index + 1, 0 for an empty slot
+	private int[] table;
+	private int mask;
+
+	/**
+	 * @param coordinates
+	 *            Unique coordinates, already present coordinates are indexed
+	 * @param expectedSize
+	 *            Expected count of coordinates
+	 */
+	public CoordinateHash(List<Coordinate> coordinates, int expectedSize) {
+		this.coordinates = coordinates;
+		allocate(Math.max(expectedSize, coordinates.size()));
+		for (int index = 0; index < coordinates.size(); index++) {
+			Coordinate coordinate = coordinates.get(index);
+			insert(slot(coordinate.x, coordinate.y, coordinate.z), index);
+		}
+	}
+
+	private void allocate(int size) {
+		int capacity = MIN_CAPACITY;
+		// Keep the load factor under 0.5
+		while (capacity < size * 2) {
+			capacity <<= 1;
+		}
+		table = new int[capacity];
+		mask = capacity - 1;
+	}
+
+	private static long bits(double value) {
+		// 0.0 and -0.0 are equal
+		return value == 0 ? 0 : Double.doubleToLongBits(value);
+	}
+
+	static int hash(double x, double y, double z) {
+		long h = bits(x);
+		h = h * 0x9E3779B97F4A7C15L + bits(y);
+		h = h * 0x9E3779B97F4A7C15L + bits(z);
+		h ^= h >>> 29;
+		h *= 0xBF58476D1CE4E5B9L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private static boolean equals(Coordinate coordinate, double x, double y,
+			double z) {
+		return coordinate.x == x && coordinate.y == y
+				&& (coordinate.z == z || (Double.isNaN(coordinate.z) && Double
+						.isNaN(z)));
+	}
+
+	/**
+	 * @return Slot of the coordinate, or the empty slot where the coordinate
+	 *         would be inserted
+	 */
+	private int slot(double x, double y, double z) {
+		int slot = hash(x, y, z) & mask;
+		while (table[slot] != 0
+				&& !equals(coordinates.get(table[slot] - 1), x, y, z)) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void insert(int slot, int index) {
+		table[slot] = index + 1;
+		if (coordinates.size() * 2 > table.length) {
+			// Rehash
+			allocate(coordinates.size());
+			for (int i = 0; i < coordinates.size(); i++) {
+				Coordinate coordinate = coordinates.get(i);
+				table[slot(coordinate.x, coordinate.y, coordinate.z)] = i + 1;
+			}
+		}
+	}
+
+	/**
+	 * @return Index of the coordinate, -1 if not found
+	 */
+	public int indexOf(double x, double y, double z) {
+		return table[slot(x, y, z)] - 1;
+	}
+
+	/**
+	 * @return Index of the coordinate, the coordinate is appended to the list
+	 *         if not found
+	 */
+	public int getOrAppend(Coordinate coordinate) {
+		int slot = slot(coordinate.x, coordinate.y, coordinate.z);
+		if (table[slot] != 0) {
+			return table[slot] - 1;
+		}
+		coordinates.add(coordinate);
+		int index = coordinates.size() - 1;
+		insert(slot, index);
+		return index;
+	}
+
+	/**
+	 * @return Index of the coordinate, a new coordinate is appended to the
+	 *         list if not found
+	 */
+	public int getOrAppend(double x, double y, double z) {
+		int slot = slot(x, y, z);
+		if (table[slot] != 0) {
+			return table[slot] - 1;
+		}
+		coordinates.add(new Coordinate(x, y, z));
+		int index = coordinates.size() - 1;
+		insert(slot, index);
+		return index;
+	}
+}
@@ -0,0 +1,323 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Split the computation domain into cells.
+ * Receivers, source points and buildings vertices are counted on a fine
+ * raster of the domain. The content of any cell and of its expanded envelope
+ * is then estimated in constant time, from the summed area tables of the
+ * raster.
+ * The adaptive decomposition is a quadtree, a leaf is split while its
+ * estimated work or memory footprint is greater than the target values.
+ * @author Nicolas Fortin
+ */
+public class DomainDecomposition {
+	/** Raster resolution is 2^MAX_DEPTH x 2^MAX_DEPTH */
+	public static final int MAX_DEPTH = 6;
+	/** Target count of cells by computation thread */
+	private static final int CELLS_BY_THREAD = 4;
+	/** Estimated memory usage of a vertex, in bytes, with all associated structures */
+	private static final int BYTES_BY_VERTEX = 500;
+	/**
+	 * A cell is not split if the children would be smaller than this ratio
+	 * of the expand distance, as the expanded envelope would be nearly the
+	 * same.
+	 */
+	private static final double MIN_CELL_EXPAND_RATIO = 0.5;
+	private final Envelope mainEnvelope;
+	private final double expandDistance;
+	private final int resolution = 1 << MAX_DEPTH;
+	private final double binWidth;
+	private final double binHeight;
+	private double[] receivers;
+	private double[] sources;
+	private double[] buildings;
+	// Summed area tables, (resolution+1)^2
+	private double[] receiversSum;
+	private double[] sourcesSum;
+	private double[] buildingsSum;
+	private double targetWork = 0;
+	private double targetMemory = 0;
+	private boolean skipEmptyCells = true;
+	private int threadCount = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * @param mainEnvelope Domain to split
+	 * @param expandDistance Distance of cells envelope expansion (maximum
+	 *        propagation distance)
+	 */
+	public DomainDecomposition(Envelope mainEnvelope, double expandDistance) {
+		this.mainEnvelope = mainEnvelope;
+		this.expandDistance = expandDistance;
+		this.binWidth = mainEnvelope.getWidth() / resolution;
+		this.binHeight = mainEnvelope.getHeight() / resolution;
+		receivers = new double[resolution * resolution];
+		sources = new double[resolution * resolution];
+		buildings = new double[resolution * resolution];
+	}
+
+	/**
+	 * Set the maximum work and memory footprint of a cell
+	 * @param targetWork Maximum receiver-source couples in a cell, 0 for
+	 *        automatic
+	 * @param targetMemory Maximum vertices in a cell, 0 for automatic
+	 */
+	public void setTargets(double targetWork, double targetMemory) {
+		this.targetWork = targetWork;
+		this.targetMemory = targetMemory;
+	}
+
+	/**
+	 * @param threadCount Count of computation threads, used by the automatic
+	 *        targets. The count of processors by default.
+	 */
+	public void setThreadCount(int threadCount) {
+		this.threadCount = Math.max(1, threadCount);
+	}
+
+	/**
+	 * @param skipEmptyCells If true, the adaptive decomposition does not
+	 *        return cells without receivers
+	 */
+	public void setSkipEmptyCells(boolean skipEmptyCells) {
+		this.skipEmptyCells = skipEmptyCells;
+	}
+
+	private int getBin(Coordinate pt) {
+		int i = (int) ((pt.x - mainEnvelope.getMinX()) / binWidth);
+		int j = (int) ((pt.y - mainEnvelope.getMinY()) / binHeight);
+		i = Math.max(0, Math.min(resolution - 1, i));
+		j = Math.max(0, Math.min(resolution - 1, j));
+		return j * resolution + i;
+	}
+
+	private void invalidate() {
+		receiversSum = null;
+		sourcesSum = null;
+		buildingsSum = null;
+	}
+
+	/**
+	 * Add receivers at this location
+	 */
+	public void addReceivers(Coordinate pt, double count) {
+		receivers[getBin(pt)] += count;
+		invalidate();
+	}
+
+	/**
+	 * Add receivers uniformly on the domain
+	 * @param density Receivers by square meter
+	 */
+	public void addReceiverDensity(double density) {
+		double binCount = density * binWidth * binHeight;
+		for (int i = 0; i < receivers.length; i++) {
+			receivers[i] += binCount;
+		}
+		invalidate();
+	}
+
+	/**
+	 * Add source points at this location
+	 */
+	public void addSources(Coordinate pt, double count) {
+		sources[getBin(pt)] += count;
+		invalidate();
+	}
+
+	/**
+	 * Add buildings vertices at this location
+	 */
+	public void addBuildings(Coordinate pt, double count) {
+		buildings[getBin(pt)] += count;
+		invalidate();
+	}
+
+	private double[] computeSum(double[] values) {
+		int size = resolution + 1;
+		double[] sum = new double[size * size];
+		for (int j = 0; j < resolution; j++) {
+			double rowSum = 0;
+			for (int i = 0; i < resolution; i++) {
+				rowSum += values[j * resolution + i];
+				sum[(j + 1) * size + i + 1] = sum[j * size + i + 1] + rowSum;
+			}
+		}
+		return sum;
+	}
+
+	private void computeSums() {
+		if (receiversSum == null) {
+			receiversSum = computeSum(receivers);
+			sourcesSum = computeSum(sources);
+			buildingsSum = computeSum(buildings);
+		}
+	}
+
+	/**
+	 * Sum of the bins in [i0,i1[ x [j0,j1[
+	 */
+	private double getSum(double[] sum, int i0, int j0, int i1, int j1) {
+		int size = resolution + 1;
+		i0 = Math.max(0, i0);
+		j0 = Math.max(0, j0);
+		i1 = Math.min(resolution, i1);
+		j1 = Math.min(resolution, j1);
+		if (i1 <= i0 || j1 <= j0) {
+			return 0;
+		}
+		return sum[j1 * size + i1] - sum[j0 * size + i1] - sum[j1 * size + i0]
+				+ sum[j0 * size + i0];
+	}
+
+	/**
+	 * Sum of the bins that intersects the envelope
+	 */
+	private double getSum(double[] sum, Envelope env) {
+		int i0 = (int) Math.floor((env.getMinX() - mainEnvelope.getMinX()) / binWidth);
+		int j0 = (int) Math.floor((env.getMinY() - mainEnvelope.getMinY()) / binHeight);
+		int i1 = (int) Math.ceil((env.getMaxX() - mainEnvelope.getMinX()) / binWidth);
+		int j1 = (int) Math.ceil((env.getMaxY() - mainEnvelope.getMinY()) / binHeight);
+		return getSum(sum, i0, j0, Math.max(i1, i0 + 1), Math.max(j1, j0 + 1));
+	}
+
+	private ComputationCell makeCell(int id, Envelope cellEnvelope) {
+		computeSums();
+		Envelope expanded = new Envelope(cellEnvelope);
+		expanded.expandBy(expandDistance);
+		// Receivers are counted on the bins inside the cell, then cells of
+		// the same bin does not share its receivers.
+		double receiverCount = getSum(receiversSum, new Envelope(
+				cellEnvelope.getMinX() + binWidth / 2,
+				cellEnvelope.getMaxX() - binWidth / 2,
+				cellEnvelope.getMinY() + binHeight / 2,
+				cellEnvelope.getMaxY() - binHeight / 2));
+		return new ComputationCell(id, cellEnvelope, receiverCount, getSum(
+				sourcesSum, expanded), getSum(buildingsSum, expanded),
+				cellEnvelope.getMaxX() >= mainEnvelope.getMaxX(),
+				cellEnvelope.getMaxY() >= mainEnvelope.getMaxY());
+	}
+
+	/**
+	 * Uniform decomposition
+	 * @param subdivLvl The domain is split into 4^subdivLvl cells
+	 * @return Cells, the cell id is i * gridDim + j
+	 */
+	public List<ComputationCell> getUniformCells(int subdivLvl) {
+		int gridDim = (int) Math.pow(2, subdivLvl);
+		double cellWidth = mainEnvelope.getWidth() / gridDim;
+		double cellHeight = mainEnvelope.getHeight() / gridDim;
+		List<ComputationCell> cells = new ArrayList<ComputationCell>(gridDim
+				* gridDim);
+		for (int cellI = 0; cellI < gridDim; cellI++) {
+			for (int cellJ = 0; cellJ < gridDim; cellJ++) {
+				cells.add(makeCell(cellI * gridDim + cellJ, BR_TriGrid
+						.getCellEnv(mainEnvelope, cellI, cellJ, gridDim,
+								gridDim, cellWidth, cellHeight)));
+			}
+		}
+		return cells;
+	}
+
+	/**
+	 * Envelope of the bins [i0,i0+size[ x [j0,j0+size[. Adjacent cells have
+	 * exactly the same border coordinates.
+	 */
+	private Envelope getBinsEnvelope(int i0, int j0, int size) {
+		return new Envelope(mainEnvelope.getMinX() + i0 * binWidth,
+				mainEnvelope.getMinX() + (i0 + size) * binWidth,
+				mainEnvelope.getMinY() + j0 * binHeight,
+				mainEnvelope.getMinY() + (j0 + size) * binHeight);
+	}
+
+	private void split(List<ComputationCell> cells, int i0, int j0, int size,
+			double maxWork, double maxMemory) {
+		if (skipEmptyCells
+				&& getSum(receiversSum, i0, j0, i0 + size, j0 + size) <= 0) {
+			return; // Nothing to compute here
+		}
+		ComputationCell cell = makeCell(cells.size(), getBinsEnvelope(i0, j0,
+				size));
+		int half = size / 2;
+		boolean canSplit = half > 0
+				&& half * Math.max(binWidth, binHeight) >= expandDistance
+						* MIN_CELL_EXPAND_RATIO;
+		if (canSplit
+				&& (cell.getEstimatedWork() > maxWork || cell
+						.getEstimatedMemory() > maxMemory)) {
+			split(cells, i0, j0, half, maxWork, maxMemory);
+			split(cells, i0 + half, j0, half, maxWork, maxMemory);
+			split(cells, i0, j0 + half, half, maxWork, maxMemory);
+			split(cells, i0 + half, j0 + half, half, maxWork, maxMemory);
+		} else {
+			cells.add(cell);
+		}
+	}
+
+	/**
+	 * Adaptive decomposition
+	 * @return Cells with an estimated work and memory lower than the targets,
+	 *         if the maximum depth is not reached.
+	 */
+	public List<ComputationCell> getAdaptiveCells() {
+		computeSums();
+		double maxWork = targetWork;
+		if (maxWork <= 0) {
+			// Sum of the work of the smallest cells, to be shared among the
+			// threads
+			double totalWork = 0;
+			for (int j = 0; j < resolution; j++) {
+				for (int i = 0; i < resolution; i++) {
+					totalWork += makeCell(0, getBinsEnvelope(i, j, 1))
+							.getEstimatedWork();
+				}
+			}
+			maxWork = totalWork / (CELLS_BY_THREAD * threadCount);
+		}
+		double maxMemory = targetMemory;
+		if (maxMemory <= 0) {
+			maxMemory = Runtime.getRuntime().maxMemory()
+					/ ((threadCount + 1) * (double) BYTES_BY_VERTEX);
+		}
+		List<ComputationCell> cells = new ArrayList<ComputationCell>();
+		split(cells, 0, 0, resolution, maxWork, maxMemory);
+		return cells;
+	}
+}
@@ -37,7 +37,6 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Stack;
 
 import org.grap.utilities.EnvelopeUtil;
 
@@ -53,7 +52,6 @@ import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.LinearRing;
 import com.vividsolutions.jts.geom.MultiPolygon;
 import com.vividsolutions.jts.geom.Polygon;
-import com.vividsolutions.jts.operation.buffer.BufferParameters;
 import java.util.*;
 
 /**
@@ -71,12 +69,20 @@ public class FastObstructionTest {
 	private List<Coordinate> vertices;
 	private List<Triangle> triNeighbors; // Neighbors
 	private LinkedList<Geometry> toUnite = new LinkedList<Geometry>(); // Polygon
+	private List<Geometry> mergedParts = new ArrayList<Geometry>(); // Disjoint polygons
 	private Envelope geometriesBoundingBox=null;
+	private Geometry mergedBuildings=null;
 	// union;
 	private QueryGeometryStructure triIndex = null; //TODO remove
 	private int lastFountPointTriTest = 0;
-	private List<Float> verticesOpenAngle = null;
-	private List<Coordinate> verticesOpenAngleTranslated = null; /*Open angle*/
+	private float[] verticesOpenAngle = null; // Sum of the triangles angle of each vertex
+	private float[] verticesOpenAngleStart = null; // CCW open angle range, NaN if not a single range
+	private float[] verticesOpenAngleEnd = null;
+	private double[] walls = new double[0]; // x0,y0,x1,y1 of hole and domain limits
+	private int[] wallComponent = new int[0]; // Connected part of the mesh of each wall
+	private boolean[] wallDomainLimit = new boolean[0]; // True if the wall is on the domain limits
+	private int[] triComponent = new int[0]; // Connected part of the mesh of each triangle
+	private SegmentGridIndex wallIndex = new SegmentGridIndex(walls, 0);
 
 	public FastObstructionTest() {
 		super();
@@ -109,14 +115,24 @@ public class FastObstructionTest {
 		toUnite.add(obstructionPoly);
 	}
 
-	private Geometry merge(LinkedList<Geometry> toUnite, double bufferSize) {
-		GeometryFactory geometryFactory = new GeometryFactory();
-		Geometry geoArray[] = new Geometry[toUnite.size()];
-		toUnite.toArray(geoArray);
-		GeometryCollection polygonCollection = geometryFactory
-				.createGeometryCollection(geoArray);
-		return polygonCollection.buffer(bufferSize, 0,
-				BufferParameters.CAP_SQUARE);
+	/**
+	 * Add a polygon already merged, disjoint from the other merged polygons.
+	 * Merged polygons may be much larger than the cell, they do not expand
+	 * the bounding box and are clipped by the envelope given to
+	 * finishPolygonFeeding.
+	 * @param mergedPoly Polygon of MergedBuildingsLayer
+	 */
+	public void addMergedGeometry(Geometry mergedPoly) {
+		mergedParts.add(mergedPoly);
+	}
+
+	/**
+	 * @return Union of the added geometries, available after
+	 * finishPolygonFeeding. The merged polygons are clipped by the
+	 * envelope given to finishPolygonFeeding.
+	 */
+	public Geometry getMergedBuildings() {
+		return mergedBuildings;
 	}
 
 	private void addPolygon(Polygon newpoly, LayerDelaunay delaunayTool,
@@ -152,10 +168,33 @@ public class FastObstructionTest {
 		}
 		
 		verticesOpenAngle = null;
+		if (!mergedParts.isEmpty()) {
+			if (boundingBoxFilter != null) {
+				clipMergedParts(boundingBoxFilter);
+			} else {
+				for (Geometry mergedPoly : mergedParts) {
+					if (this.geometriesBoundingBox == null) {
+						this.geometriesBoundingBox = new Envelope(
+								mergedPoly.getEnvelopeInternal());
+					} else {
+						this.geometriesBoundingBox.expandToInclude(mergedPoly
+								.getEnvelopeInternal());
+					}
+				}
+			}
+		}
 		LayerDelaunay delaunayTool = new LayerJDelaunay();
 		// Merge polygon
-		Geometry allbuilds = merge(toUnite, 0.);
+		Geometry allbuilds;
+		if (toUnite.isEmpty()) {
+			allbuilds = new GeometryFactory().buildGeometry(mergedParts);
+		} else {
+			toUnite.addAll(mergedParts);
+			allbuilds = TiledUnion.union(toUnite, 0.);
+		}
+		mergedBuildings = allbuilds;
 		toUnite.clear();
+		mergedParts.clear();
 		// Insert the main rectangle
 		Geometry linearRing = EnvelopeUtil.toGeometry(this.geometriesBoundingBox);
 		if (!(linearRing instanceof LinearRing)) {
@@ -193,6 +232,95 @@ public class FastObstructionTest {
 			triIndex.appendGeometry(newpoly, triind);
 			triind++;
 		}
+		buildWallIndex();
+	}
+
+	/**
+	 * Keep only the part of the merged polygons inside the envelope
+	 * @param filter Cell envelope
+	 */
+	private void clipMergedParts(Envelope filter) {
+		Geometry filterGeom = new GeometryFactory().toGeometry(filter);
+		List<Geometry> clippedParts = new ArrayList<Geometry>(mergedParts.size());
+		for (Geometry mergedPoly : mergedParts) {
+			Envelope polyEnvelope = mergedPoly.getEnvelopeInternal();
+			if (filter.contains(polyEnvelope)) {
+				clippedParts.add(mergedPoly);
+			} else if (filter.intersects(polyEnvelope)) {
+				Geometry clipped = mergedPoly.intersection(filterGeom);
+				if (!clipped.isEmpty()) {
+					clippedParts.add(clipped);
+				}
+			}
+		}
+		mergedParts = clippedParts;
+	}
+
+	/**
+	 * Extract the triangle sides without neighbor (holes and domain limits)
+	 * and index them, with the connected part of the mesh they belong to
+	 */
+	private void buildWallIndex() {
+		int triCount = triVertices.size();
+		triComponent = new int[triCount];
+		Arrays.fill(triComponent, -1);
+		IntList stack = new IntList();
+		int componentCount = 0;
+		int wallCount = 0;
+		for (int seed = 0; seed < triCount; seed++) {
+			if (triComponent[seed] != -1) {
+				continue;
+			}
+			triComponent[seed] = componentCount;
+			stack.add(seed);
+			while (!stack.isEmpty()) {
+				Triangle neighbors = triNeighbors.get(stack.pop());
+				for (int side = 0; side < 3; side++) {
+					int neighbor = neighbors.get(side);
+					if (neighbor == -1) {
+						wallCount++;
+					} else if (triComponent[neighbor] == -1) {
+						triComponent[neighbor] = componentCount;
+						stack.add(neighbor);
+					}
+				}
+			}
+			componentCount++;
+		}
+		walls = new double[wallCount * 4];
+		wallComponent = new int[wallCount];
+		wallDomainLimit = new boolean[wallCount];
+		int wallId = 0;
+		for (int tri = 0; tri < triCount; tri++) {
+			Triangle neighbors = triNeighbors.get(tri);
+			for (short side = 0; side < 3; side++) {
+				if (neighbors.get(side) == -1) {
+					// Keep the orientation of the triangle side
+					IntSegment segment = triVertices.get(tri).getSegment(side);
+					Coordinate a = vertices.get(segment.getA());
+					Coordinate b = vertices.get(segment.getB());
+					walls[wallId * 4] = a.x;
+					walls[wallId * 4 + 1] = a.y;
+					walls[wallId * 4 + 2] = b.x;
+					walls[wallId * 4 + 3] = b.y;
+					wallComponent[wallId] = triComponent[tri];
+					wallDomainLimit[wallId] = isOnDomainLimit(a, b);
+					wallId++;
+				}
+			}
+		}
+		wallIndex = new SegmentGridIndex(walls, wallCount);
+	}
+
+	/**
+	 * @return True if the segment is on a side of the domain envelope
+	 */
+	private boolean isOnDomainLimit(Coordinate a, Coordinate b) {
+		Envelope domain = geometriesBoundingBox;
+		return (Math.abs(a.x - domain.getMinX()) < epsilon && Math.abs(b.x - domain.getMinX()) < epsilon)
+				|| (Math.abs(a.x - domain.getMaxX()) < epsilon && Math.abs(b.x - domain.getMaxX()) < epsilon)
+				|| (Math.abs(a.y - domain.getMinY()) < epsilon && Math.abs(b.y - domain.getMinY()) < epsilon)
+				|| (Math.abs(a.y - domain.getMaxY()) < epsilon && Math.abs(b.y - domain.getMaxY()) < epsilon);
 	}
 
 	/**
@@ -401,83 +529,125 @@ public class FastObstructionTest {
 	}
 
 	/**
+	 * Compute for each vertex the sum of the angles of its triangles, and the
+	 * CCW range of the angles when the triangles of the vertex are
+	 * contiguous and do not go all around it.
+	 */
+	private void computeOpenAngles() {
+		int vertexCount = vertices.size();
+		double[] xy = new double[vertexCount * 2];
+		for (int idvert = 0; idvert < vertexCount; idvert++) {
+			Coordinate vertex = vertices.get(idvert);
+			xy[idvert * 2] = vertex.x;
+			xy[idvert * 2 + 1] = vertex.y;
+		}
+		float[] openAngle = new float[vertexCount];
+		float[] openAngleStart = new float[vertexCount];
+		float[] openAngleEnd = new float[vertexCount];
+		// Count of range start and end by vertex
+		byte[] startCount = new byte[vertexCount];
+		byte[] endCount = new byte[vertexCount];
+		int triCount = triVertices.size();
+		for (int triId = 0; triId < triCount; triId++) {
+			Triangle tri = triVertices.get(triId);
+			Triangle neighbors = triNeighbors.get(triId);
+			for (int corner = 0; corner < 3; corner++) {
+				// CCW order vertex, left, right
+				int vertex = tri.get(corner);
+				int left = tri.get((corner + 1) % 3);
+				int right = tri.get((corner + 2) % 3);
+				double leftX = xy[left * 2] - xy[vertex * 2];
+				double leftY = xy[left * 2 + 1] - xy[vertex * 2 + 1];
+				double rightX = xy[right * 2] - xy[vertex * 2];
+				double rightY = xy[right * 2 + 1] - xy[vertex * 2 + 1];
+				openAngle[vertex] += (float) Math.abs(Math.atan2(leftX * rightY
+						- leftY * rightX, leftX * rightX + leftY * rightY));
+				// The side vertex-left is opposite to right
+				if (neighbors.get((corner + 2) % 3) == -1) {
+					openAngleStart[vertex] = (float) Math.atan2(leftY, leftX);
+					startCount[vertex]++;
+				}
+				// The side right-vertex is opposite to left
+				if (neighbors.get((corner + 1) % 3) == -1) {
+					openAngleEnd[vertex] = (float) Math.atan2(rightY, rightX);
+					endCount[vertex]++;
+				}
+			}
+		}
+		for (int idvert = 0; idvert < vertexCount; idvert++) {
+			if (startCount[idvert] != 1 || endCount[idvert] != 1) {
+				openAngleStart[idvert] = Float.NaN;
+				openAngleEnd[idvert] = Float.NaN;
+			}
+		}
+		verticesOpenAngleStart = openAngleStart;
+		verticesOpenAngleEnd = openAngleEnd;
+		verticesOpenAngle = openAngle;
+	}
+
+	/**
+	 * Corners are translated by wideAngleTranslationEpsilon to the middle of
+	 * their open angle
 	 * 
 	 * @param minAngle
 	 *            Minimum angle [0-2Pi]
 	 * @param maxAngle
 	 *            Maximum angle [0-2Pi]
-	 * @return List of corners within parameters range
+	 * @return x,y of the corners within parameters range
 	 */
-	public List<Coordinate> getWideAnglePoints(double minAngle, double maxAngle) {
-		List<Coordinate> wideAnglePts = new ArrayList<Coordinate>(
-				vertices.size());
+	public double[] getWideAngleCorners(double minAngle, double maxAngle) {
 		if (verticesOpenAngle == null) {
-			verticesOpenAngle = new ArrayList<Float>(vertices.size()); // Reserve
-																		// size
-			verticesOpenAngleTranslated = new ArrayList<Coordinate>(
-					vertices.size());
-			// Vertex open angle. For each vertex
-			// [ccwmin,ccwmax,ccwmin,ccwmax,..]
-			ArrayList<ArrayList<Double>> verticesOpenAnglesTuples = new ArrayList<ArrayList<Double>>(
-					vertices.size());
-			for (int idvert = 0; idvert < vertices.size(); idvert++) {
-				verticesOpenAngle.add(0.f);
-				verticesOpenAnglesTuples.add(new ArrayList<Double>());
-			}
-			int triId = 0;
-			for (Triangle tri : this.triVertices) {
-				// Compute angle at each corner, then add to vertices angle
-				// array
-				Coordinate triA = vertices.get(tri.getA());
-				Coordinate triB = vertices.get(tri.getB());
-				Coordinate triC = vertices.get(tri.getC());
-				// Add A vertex min/max angle
-				updateMinMax(tri.getA(), triA, triB, triC,
-						verticesOpenAnglesTuples);
-				verticesOpenAngle.set(tri.getA(),
-						(float) (verticesOpenAngle.get(tri.getA()) + Angle
-								.angleBetween(triB, triA, triC)));
-				// Add B vertex angle
-				updateMinMax(tri.getB(), triB, triC, triA,
-						verticesOpenAnglesTuples);
-				verticesOpenAngle.set(tri.getB(),
-						(float) (verticesOpenAngle.get(tri.getB()) + Angle
-								.angleBetween(triA, triB, triC)));
-				// Add C vertex angle
-				updateMinMax(tri.getC(), triC, triA, triB,
-						verticesOpenAnglesTuples);
-				verticesOpenAngle.set(tri.getC(),
-						(float) (verticesOpenAngle.get(tri.getC()) + Angle
-								.angleBetween(triB, triC, triA)));
-				triId++;
+			computeOpenAngles();
+		}
+		int cornerCount = 0;
+		for (float angleVertex : verticesOpenAngle) {
+			if (angleVertex >= minAngle && angleVertex <= maxAngle) {
+				cornerCount++;
 			}
-
-			for (int idvert = 0; idvert < vertices.size(); idvert++) {
-				// Compute median angle of open angle point
-				ArrayList<Double> curvert = verticesOpenAnglesTuples
-						.get(idvert);
+		}
+		double[] corners = new double[cornerCount * 2];
+		int idcorner = 0;
+		for (int idvert = 0; idvert < verticesOpenAngle.length; idvert++) {
+			float angleVertex = verticesOpenAngle[idvert];
+			if (angleVertex >= minAngle && angleVertex <= maxAngle) {
 				Coordinate curVert = vertices.get(idvert);
-				if (curvert.size() == 2) {
-					double ccw1 = curvert.get(0);
-					double ccw2 = curvert.get(1);
+				double x = curVert.x;
+				double y = curVert.y;
+				if (!Float.isNaN(verticesOpenAngleStart[idvert])) {
+					// Compute median angle of open angle point
+					double ccw1 = verticesOpenAngleStart[idvert];
+					double ccw2 = verticesOpenAngleEnd[idvert];
 					if (ccw1 > ccw2) {
 						ccw1 = ccw1 - (2 * Math.PI);
 					}
 					double midAngle = ((ccw2 - ccw1) / 2.) + ccw1;
-					verticesOpenAngleTranslated.add(new Coordinate(curVert.x
-							+ (Math.cos(midAngle) * wideAngleTranslationEpsilon), curVert.y
-							+ (Math.sin(midAngle) * wideAngleTranslationEpsilon)));
-				} else {
-					verticesOpenAngleTranslated.add(curVert);
+					x += Math.cos(midAngle) * wideAngleTranslationEpsilon;
+					y += Math.sin(midAngle) * wideAngleTranslationEpsilon;
 				}
+				corners[idcorner * 2] = x;
+				corners[idcorner * 2 + 1] = y;
+				idcorner++;
 			}
 		}
-		int idvert = 0;
-		for (Float angleVertex : verticesOpenAngle) {
-			if (angleVertex >= minAngle && angleVertex <= maxAngle) {
-				wideAnglePts.add(verticesOpenAngleTranslated.get(idvert));
-			}
-			idvert++;
+		return corners;
+	}
+
+	/**
+	 * 
+	 * @param minAngle
+	 *            Minimum angle [0-2Pi]
+	 * @param maxAngle
+	 *            Maximum angle [0-2Pi]
+	 * @return List of corners within parameters range
+	 * @see #getWideAngleCorners(double, double)
+	 */
+	public List<Coordinate> getWideAnglePoints(double minAngle, double maxAngle) {
+		double[] corners = getWideAngleCorners(minAngle, maxAngle);
+		List<Coordinate> wideAnglePts = new ArrayList<Coordinate>(
+				corners.length / 2);
+		for (int idcorner = 0; idcorner < corners.length; idcorner += 2) {
+			wideAnglePts.add(new Coordinate(corners[idcorner],
+					corners[idcorner + 1]));
 		}
 		return wideAnglePts;
 	}
@@ -491,63 +661,145 @@ public class FastObstructionTest {
 	 *            Origin of search
 	 * @return List of segment
 	 */
-	public LinkedList<LineSegment> getLimitsInRange(double maxDist,
-			Coordinate p1) {
-		LinkedList<LineSegment> walls = new LinkedList<LineSegment>();
+	public List<LineSegment> getLimitsInRange(double maxDist, Coordinate p1) {
+		IntList wallIds = new IntList();
+		getWallsInRange(maxDist, p1, wallIds);
+		List<LineSegment> limits = new ArrayList<LineSegment>(wallIds.size());
+		for (int i = 0; i < wallIds.size(); i++) {
+			limits.add(getWall(wallIds.get(i)));
+		}
+		return limits;
+	}
+
+	/**
+	 * Find the holes and domain limitation segments in range of p1, in the
+	 * part of the mesh that contains p1
+	 * 
+	 * @param maxDist
+	 *            Maximum distance from origin to segments
+	 * @param p1
+	 *            Origin of search
+	 * @param wallIds
+	 *            Cleared then filled with the index of the segments, see
+	 *            {@link #getWall(int)}
+	 */
+	public void getWallsInRange(double maxDist, Coordinate p1, IntList wallIds) {
+		getWallsInEnvelope(p1.x - maxDist, p1.y - maxDist, p1.x + maxDist,
+				p1.y + maxDist, wallIds);
+		retainWallsInRange(maxDist, p1, wallIds);
+	}
+
+	/**
+	 * Same as {@link #getWallsInRange(double, Coordinate, IntList)}, with
+	 * the segments taken from candidates instead of the index
+	 * 
+	 * @param candidates
+	 *            Segments found by
+	 *            {@link #getWallsInEnvelope(double, double, double, double, IntList)}
+	 *            on an envelope that contains the range of p1
+	 */
+	public void getWallsInRange(double maxDist, Coordinate p1,
+			IntList candidates, IntList wallIds) {
+		wallIds.clear();
+		for (int i = 0; i < candidates.size(); i++) {
+			wallIds.add(candidates.get(i));
+		}
+		retainWallsInRange(maxDist, p1, wallIds);
+	}
+
+	/**
+	 * Find the holes and domain limitation segments which envelope
+	 * intersects the query envelope
+	 * 
+	 * @param wallIds
+	 *            Cleared then filled with the index of the segments, see
+	 *            {@link #getWall(int)}
+	 */
+	public void getWallsInEnvelope(double minX, double minY, double maxX,
+			double maxY, IntList wallIds) {
+		wallIds.clear();
+		wallIndex.query(minX, minY, maxX, maxY, wallIds);
+	}
+
+	private void retainWallsInRange(double maxDist, Coordinate p1,
+			IntList wallIds) {
 		int curTri = getTriangleIdByCoordinate(p1);
-		int nextTri = -1;
-		short firstSide = 0;
-		HashSet<Integer> navigationHistory = new HashSet<Integer>(); // List all
-																		// triangles
-																		// already
-																		// processed
-		Stack<Integer> navigationNodes = new Stack<Integer>(); // List the
-																// current queue
-																// of triangles
-																// the process
-																// go through
-		Stack<Short> navigationSide = new Stack<Short>(); //History of current processing side
-		
-		while (curTri != -1) {
-			navigationHistory.add(curTri);
-			// for each side of the triangle
-			Triangle neighboors = this.triNeighbors.get(curTri);
-			nextTri = -1;
-			for (short idside = firstSide; idside < 3; idside++) {
-				if (!navigationHistory.contains(neighboors.get(idside))) {
-					IntSegment segVerticesIndex = this.triVertices.get(curTri)
-							.getSegment(idside);
-					LineSegment side = new LineSegment(
-							this.vertices.get(segVerticesIndex.getA()),
-							this.vertices.get(segVerticesIndex.getB()));
-					Coordinate closestPoint = side.closestPoint(p1);
-					if (closestPoint.distance(p1) <= maxDist) {
-						// In this direction there is a hole or this is outside
-						// of the geometry
-						if (neighboors.get(idside) == -1) {
-							walls.add(side);
-						} else {
-							// Store currentTriangle Id. This is where to go
-							// back when there is no more navigable neighbors at
-							// the next triangle
-							navigationNodes.add(curTri);
-							navigationSide.add(idside);
-							firstSide=0;
-							nextTri = neighboors.get(idside);
-							break; // Next triangle
-						}
-					}
-				}
+		if (curTri == -1) {
+			wallIds.clear();
+			return;
+		}
+		int component = triComponent[curTri];
+		int kept = 0;
+		for (int i = 0; i < wallIds.size(); i++) {
+			int wallId = wallIds.get(i);
+			if (wallComponent[wallId] == component
+					&& segmentDistance(wallId, p1.x, p1.y) <= maxDist) {
+				wallIds.set(kept++, wallId);
+			}
+		}
+		wallIds.truncate(kept);
+	}
+
+	/**
+	 * @return True if the point is inside a building or out of the domain
+	 */
+	public boolean isObstructed(Coordinate pt) {
+		return getTriangleIdByCoordinate(pt) == -1;
+	}
+
+	/**
+	 * @param pt
+	 *            Origin of search
+	 * @param maxDist
+	 *            Maximum distance from origin to the segment
+	 * @return Index of the nearest hole segment, -1 if there is no segment
+	 *         within maxDist. The domain limitation segments are ignored,
+	 *         see {@link #getWall(int)}
+	 */
+	public int getNearestWall(Coordinate pt, double maxDist) {
+		IntList wallIds = new IntList();
+		getWallsInEnvelope(pt.x - maxDist, pt.y - maxDist, pt.x + maxDist,
+				pt.y + maxDist, wallIds);
+		int nearest = -1;
+		double nearestDist = maxDist;
+		for (int i = 0; i < wallIds.size(); i++) {
+			if (wallDomainLimit[wallIds.get(i)]) {
+				continue;
 			}
-			if (nextTri == -1 && !navigationNodes.empty()) {
-				// All the side have been rejected, go back by one on the
-				// navigation
-				nextTri = navigationNodes.pop();
-				firstSide = navigationSide.pop();
+			double dist = segmentDistance(wallIds.get(i), pt.x, pt.y);
+			if (dist <= nearestDist) {
+				nearest = wallIds.get(i);
+				nearestDist = dist;
 			}
-			curTri = nextTri;
 		}
-		return walls;
+		return nearest;
+	}
+
+	/**
+	 * @return Hole or domain limitation segment, oriented as the side of the
+	 *         triangle it comes from
+	 */
+	public LineSegment getWall(int wallId) {
+		int base = wallId * 4;
+		return new LineSegment(walls[base], walls[base + 1], walls[base + 2],
+				walls[base + 3]);
+	}
+
+	private double segmentDistance(int wallId, double x, double y) {
+		int base = wallId * 4;
+		double x0 = walls[base];
+		double y0 = walls[base + 1];
+		double dx = walls[base + 2] - x0;
+		double dy = walls[base + 3] - y0;
+		double length2 = dx * dx + dy * dy;
+		double factor = 0;
+		if (length2 > 0) {
+			factor = Math.max(0, Math.min(1, ((x - x0) * dx + (y - y0) * dy)
+					/ length2));
+		}
+		double ex = x0 + factor * dx - x;
+		double ey = y0 + factor * dy - y;
+		return Math.sqrt(ex * ex + ey * ey);
 	}
 
 	public boolean isFreeField(Coordinate p1, Coordinate p2) {
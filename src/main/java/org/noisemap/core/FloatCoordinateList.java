@@ -0,0 +1,191 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.core;
+
+import java.util.AbstractList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * List of coordinates stored as float offsets from an origin, 12 bytes by
+ * coordinate instead of a Coordinate instance. A new Coordinate is returned
+ * by each get, changes of the returned instance are not stored. Use
+ * {@link #getX(int)}, {@link #getY(int)} and {@link #getZ(int)} in loops to
+ * avoid the allocation.
+ * 
+ * Coordinates on the border of the cell envelope, if any, are kept in
+ * double precision. They are shared with the neighbor cells, see
+ * {@link SharedBorderReceivers}.
+ * 
+ * @author Nicolas Fortin
+ */
+public class FloatCoordinateList extends AbstractList<Coordinate> implements
+		RandomAccess {
+	private final double originX;
+	private final double originY;
+	private final Envelope cellEnvelope; // null if no coordinate is kept in double precision
+	private final BitSet exactFlags = new BitSet(); // True if the coordinate is in exactCoordinates
+	private final Map<Integer, Coordinate> exactCoordinates = new HashMap<Integer, Coordinate>();
+	private float[] xyz;
+	private int size = 0;
+
+	/**
+	 * @param coordinates
+	 *            Initial content
+	 * @param originX
+	 *            Origin of the offsets, the coordinates should be near this
+	 *            origin to keep the float precision
+	 * @param originY
+	 *            Origin of the offsets
+	 */
+	public FloatCoordinateList(Collection<Coordinate> coordinates,
+			double originX, double originY) {
+		this(coordinates, originX, originY, null);
+	}
+
+	/**
+	 * @param coordinates
+	 *            Initial content
+	 * @param cellEnvelope
+	 *            Origin of the offsets is the lower left corner, the
+	 *            coordinates on the border are kept in double precision
+	 */
+	public FloatCoordinateList(Collection<Coordinate> coordinates,
+			Envelope cellEnvelope) {
+		this(coordinates, cellEnvelope.getMinX(), cellEnvelope.getMinY(),
+				cellEnvelope);
+	}
+
+	private FloatCoordinateList(Collection<Coordinate> coordinates,
+			double originX, double originY, Envelope cellEnvelope) {
+		this.originX = originX;
+		this.originY = originY;
+		this.cellEnvelope = cellEnvelope;
+		xyz = new float[Math.max(1, coordinates.size()) * 3];
+		for (Coordinate coordinate : coordinates) {
+			add(coordinate);
+		}
+	}
+
+	private void rangeCheck(int index) {
+		if (index >= size) {
+			throw new IndexOutOfBoundsException("Index " + index + ", size "
+					+ size);
+		}
+	}
+
+	/**
+	 * @return X of the coordinate, without allocation
+	 */
+	public double getX(int index) {
+		rangeCheck(index);
+		if (exactFlags.get(index)) {
+			return exactCoordinates.get(index).x;
+		}
+		return originX + xyz[index * 3];
+	}
+
+	/**
+	 * @return Y of the coordinate, without allocation
+	 */
+	public double getY(int index) {
+		rangeCheck(index);
+		if (exactFlags.get(index)) {
+			return exactCoordinates.get(index).y;
+		}
+		return originY + xyz[index * 3 + 1];
+	}
+
+	/**
+	 * @return Z of the coordinate, without allocation
+	 */
+	public double getZ(int index) {
+		rangeCheck(index);
+		if (exactFlags.get(index)) {
+			return exactCoordinates.get(index).z;
+		}
+		return xyz[index * 3 + 2];
+	}
+
+	@Override
+	public Coordinate get(int index) {
+		rangeCheck(index);
+		if (exactFlags.get(index)) {
+			return new Coordinate(exactCoordinates.get(index));
+		}
+		return new Coordinate(originX + xyz[index * 3], originY
+				+ xyz[index * 3 + 1], xyz[index * 3 + 2]);
+	}
+
+	@Override
+	public Coordinate set(int index, Coordinate coordinate) {
+		Coordinate old = get(index);
+		xyz[index * 3] = (float) (coordinate.x - originX);
+		xyz[index * 3 + 1] = (float) (coordinate.y - originY);
+		xyz[index * 3 + 2] = (float) coordinate.z;
+		if (cellEnvelope != null
+				&& SharedBorderReceivers.isOnBorder(cellEnvelope, coordinate)) {
+			exactFlags.set(index);
+			exactCoordinates.put(index, new Coordinate(coordinate));
+		} else if (exactFlags.get(index)) {
+			exactFlags.clear(index);
+			exactCoordinates.remove(index);
+		}
+		return old;
+	}
+
+	@Override
+	public boolean add(Coordinate coordinate) {
+		if ((size + 1) * 3 > xyz.length) {
+			float[] newXyz = new float[xyz.length * 2];
+			System.arraycopy(xyz, 0, newXyz, 0, size * 3);
+			xyz = newXyz;
+		}
+		size++;
+		modCount++;
+		set(size - 1, coordinate);
+		return true;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+}
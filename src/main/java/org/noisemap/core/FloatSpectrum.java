@@ -0,0 +1,83 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.core;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Fixed size list of values by frequency band, stored as float.
+ * 
+ * @author Nicolas Fortin
+ */
+public class FloatSpectrum extends AbstractList<Double> implements
+		RandomAccess {
+	private final float[] values;
+
+	/**
+	 * @param spectrum
+	 *            Values by frequency band
+	 */
+	public FloatSpectrum(List<Double> spectrum) {
+		values = new float[spectrum.size()];
+		for (int idfreq = 0; idfreq < values.length; idfreq++) {
+			values[idfreq] = spectrum.get(idfreq).floatValue();
+		}
+	}
+
+	/**
+	 * @return Value of the frequency band, without allocation
+	 */
+	public double getValue(int index) {
+		return values[index];
+	}
+
+	@Override
+	public Double get(int index) {
+		return (double) values[index];
+	}
+
+	@Override
+	public Double set(int index, Double value) {
+		double old = values[index];
+		values[index] = value.floatValue();
+		return old;
+	}
+
+	@Override
+	public int size() {
+		return values.length;
+	}
+}
@@ -0,0 +1,124 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.core;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * Order points along a Hilbert curve, so that consecutive points are close
+ * to each other.
+ * 
+ * @author Nicolas Fortin
+ */
+public final class HilbertCurve {
+	/** Curve order, the envelope is divided in 2^ORDER x 2^ORDER cells */
+	static final int ORDER = 16;
+
+	private HilbertCurve() {
+	}
+
+	/**
+	 * @param x
+	 *            Column in [0, 2^ORDER[
+	 * @param y
+	 *            Row in [0, 2^ORDER[
+	 * @return Distance along the curve
+	 */
+	static long index(int x, int y) {
+		long d = 0;
+		for (int s = 1 << (ORDER - 1); s > 0; s >>= 1) {
+			int rx = (x & s) > 0 ? 1 : 0;
+			int ry = (y & s) > 0 ? 1 : 0;
+			d += (long) s * s * ((3 * rx) ^ ry);
+			// Rotate the quadrant
+			if (ry == 0) {
+				if (rx == 1) {
+					x = s - 1 - x;
+					y = s - 1 - y;
+				}
+				int t = x;
+				x = y;
+				y = t;
+			}
+		}
+		return d;
+	}
+
+	/**
+	 * @param points
+	 *            Points to order
+	 * @param first
+	 *            First point index
+	 * @param last
+	 *            Last point index (excluded)
+	 * @return Index of the points in [first,last[, in the curve order
+	 */
+	public static int[] sort(List<Coordinate> points, int first, int last) {
+		int count = last - first;
+		int[] order = new int[count];
+		if (count == 0) {
+			return order;
+		}
+		double minX = Double.MAX_VALUE;
+		double minY = Double.MAX_VALUE;
+		double maxX = -Double.MAX_VALUE;
+		double maxY = -Double.MAX_VALUE;
+		for (int i = first; i < last; i++) {
+			Coordinate pt = points.get(i);
+			minX = Math.min(minX, pt.x);
+			minY = Math.min(minY, pt.y);
+			maxX = Math.max(maxX, pt.x);
+			maxY = Math.max(maxY, pt.y);
+		}
+		int cells = 1 << ORDER;
+		double scaleX = (cells - 1) / Math.max(maxX - minX, Double.MIN_VALUE);
+		double scaleY = (cells - 1) / Math.max(maxY - minY, Double.MIN_VALUE);
+		// Curve index in the high bits, point offset in the low bits
+		long[] keys = new long[count];
+		for (int i = 0; i < count; i++) {
+			Coordinate pt = points.get(first + i);
+			int x = (int) Math.min(cells - 1, (pt.x - minX) * scaleX);
+			int y = (int) Math.min(cells - 1, (pt.y - minY) * scaleY);
+			keys[i] = (index(x, y) << 31) | i;
+		}
+		Arrays.sort(keys);
+		for (int i = 0; i < count; i++) {
+			order[i] = first + (int) (keys[i] & Integer.MAX_VALUE);
+		}
+		return order;
+	}
+}
@@ -0,0 +1,104 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.core;
+
+import java.util.Arrays;
+
+/**
+ * Growable array of int, to be reused between queries without boxing.
+ * 
+ * @author Nicolas Fortin
+ */
+public final class IntList {
+	private int[] data;
+	private int size = 0;
+
+	public IntList() {
+		this(16);
+	}
+
+	public IntList(int capacity) {
+		data = new int[Math.max(1, capacity)];
+	}
+
+	public void add(int value) {
+		if (size == data.length) {
+			int[] newData = new int[size * 2];
+			System.arraycopy(data, 0, newData, 0, size);
+			data = newData;
+		}
+		data[size++] = value;
+	}
+
+	/**
+	 * Remove and return the last value
+	 */
+	public int pop() {
+		return data[--size];
+	}
+
+	public int get(int index) {
+		return data[index];
+	}
+
+	public void set(int index, int value) {
+		data[index] = value;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Keep only the first values
+	 */
+	public void truncate(int newSize) {
+		size = newSize;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Sort the values in ascending order
+	 */
+	public void sort() {
+		Arrays.sort(data, 0, size);
+	}
+
+	public void clear() {
+		size = 0;
+	}
+}
@@ -0,0 +1,1239 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * In-process constrained Delaunay triangulation, a replacement of the text
+ * file exchange of LayerExtTriangle. The vertices are inserted one by one
+ * with edge flips, the segments are recovered by flipping the crossed edges,
+ * the holes are removed by a flood fill bounded by the segments, then the
+ * mesh is refined by inserting circumcenters until the minimum angle and
+ * the maximum area are satisfied. The mesh is stored in primitive arrays,
+ * three vertex index and three neighbor index by triangle, the neighbor i
+ * being opposite the vertex i.
+ * 
+ * @author Nicolas Fortin
+ */
+public class LayerIncrementalDelaunay implements LayerDelaunay {
+	private static Logger logger = Logger.getLogger(LayerIncrementalDelaunay.class
+			.getName());
+	/** Tolerance of the orientation tests, relative to the segment length */
+	private static final double EPSILON = 1e-12;
+	/** Segments shorter than this length (m) are not split by the refinement */
+	private static final double MIN_SEGMENT_LENGTH = 1e-3;
+	/** Greater minimum angles may never be satisfied, the value is clamped */
+	private static final double MAX_MIN_ANGLE = Math.toRadians(33.);
+	/** The refinement stops when the inserted vertices count exceeds this factor of the input vertices count */
+	private static final int MAX_STEINER_FACTOR = 10;
+	private static final int INITIAL_CAPACITY = 64;
+
+	// Input vertices, followed by the super triangle and the refinement vertices
+	private double[] vx = new double[INITIAL_CAPACITY];
+	private double[] vy = new double[INITIAL_CAPACITY];
+	private double[] vz = new double[INITIAL_CAPACITY];
+	private int vertexCount = 0;
+	private HashMap<Coordinate, Integer> vertexIndex = new HashMap<Coordinate, Integer>();
+	// Pairs of vertex index
+	private IntList segments = new IntList();
+	private List<Coordinate> holes = new ArrayList<Coordinate>();
+	private double minAngle = 0;
+	private double maxArea = 0;
+	private boolean retrieveNeighbors = false;
+
+	// Triangulation
+	private int[] tv = new int[INITIAL_CAPACITY * 6];
+	private int[] tn = new int[INITIAL_CAPACITY * 6];
+	// Bit i set if the edge opposite the vertex i is a segment
+	private byte[] tcons = new byte[INITIAL_CAPACITY * 2];
+	private boolean[] tremoved = new boolean[INITIAL_CAPACITY * 2];
+	private int triangleCount = 0;
+	// One triangle of each vertex
+	private int[] vtri;
+	private int superVertex;
+	private double originX;
+	private double originY;
+	// Result of the last locate call
+	private int locateEdge;
+	private int locateVertex;
+	private int blockedEdge;
+	// Triangles to check while refining, null otherwise
+	private IntList modified = null;
+	private IntList fan = new IntList();
+
+	private List<Coordinate> resultVertices = new ArrayList<Coordinate>();
+	private List<Triangle> resultTriangles = new ArrayList<Triangle>();
+	private List<Triangle> resultNeighbors = new ArrayList<Triangle>();
+
+	private int appendVertex(double x, double y, double z) {
+		if (vertexCount == vx.length) {
+			ensureVertexCapacity(vertexCount * 2);
+		}
+		vx[vertexCount] = x;
+		vy[vertexCount] = y;
+		vz[vertexCount] = z;
+		return vertexCount++;
+	}
+
+	private void ensureVertexCapacity(int capacity) {
+		if (capacity > vx.length) {
+			double[] newX = new double[capacity];
+			double[] newY = new double[capacity];
+			double[] newZ = new double[capacity];
+			System.arraycopy(vx, 0, newX, 0, vertexCount);
+			System.arraycopy(vy, 0, newY, 0, vertexCount);
+			System.arraycopy(vz, 0, newZ, 0, vertexCount);
+			vx = newX;
+			vy = newY;
+			vz = newZ;
+		}
+		if (vtri != null && capacity > vtri.length) {
+			int[] newTri = new int[capacity];
+			System.arraycopy(vtri, 0, newTri, 0, vtri.length);
+			vtri = newTri;
+		}
+	}
+
+	private int getOrAppendVertex(Coordinate coord) {
+		Integer index = vertexIndex.get(coord);
+		if (index == null) {
+			index = appendVertex(coord.x, coord.y, Double.isNaN(coord.z) ? 0
+					: coord.z);
+			vertexIndex.put(new Coordinate(coord), index);
+		}
+		return index;
+	}
+
+	private int newTriangle() {
+		if (triangleCount == tremoved.length) {
+			int capacity = triangleCount * 2;
+			int[] newV = new int[capacity * 3];
+			int[] newN = new int[capacity * 3];
+			byte[] newCons = new byte[capacity];
+			boolean[] newRemoved = new boolean[capacity];
+			System.arraycopy(tv, 0, newV, 0, triangleCount * 3);
+			System.arraycopy(tn, 0, newN, 0, triangleCount * 3);
+			System.arraycopy(tcons, 0, newCons, 0, triangleCount);
+			System.arraycopy(tremoved, 0, newRemoved, 0, triangleCount);
+			tv = newV;
+			tn = newN;
+			tcons = newCons;
+			tremoved = newRemoved;
+		}
+		tremoved[triangleCount] = false;
+		return triangleCount++;
+	}
+
+	private void setTriangle(int t, int a, int b, int c, int na, int nb,
+			int nc, int cons) {
+		int base = t * 3;
+		tv[base] = a;
+		tv[base + 1] = b;
+		tv[base + 2] = c;
+		tn[base] = na;
+		tn[base + 1] = nb;
+		tn[base + 2] = nc;
+		tcons[t] = (byte) cons;
+		if (modified != null) {
+			modified.add(t);
+		}
+	}
+
+	private boolean isConstrained(int t, int edge) {
+		return (tcons[t] & (1 << edge)) != 0;
+	}
+
+	private int consBit(int t, int edge, int newEdge) {
+		return isConstrained(t, edge) ? 1 << newEdge : 0;
+	}
+
+	private void setConstrained(int t, int edge) {
+		tcons[t] |= 1 << edge;
+		int n = tn[t * 3 + edge];
+		if (n >= 0) {
+			tcons[n] |= 1 << neighborIndex(n, t);
+		}
+	}
+
+	private int neighborIndex(int t, int neighbor) {
+		int base = t * 3;
+		if (tn[base] == neighbor) {
+			return 0;
+		} else if (tn[base + 1] == neighbor) {
+			return 1;
+		} else {
+			return 2;
+		}
+	}
+
+	private int vertexIndexOf(int t, int vertex) {
+		int base = t * 3;
+		if (tv[base] == vertex) {
+			return 0;
+		} else if (tv[base + 1] == vertex) {
+			return 1;
+		} else {
+			return 2;
+		}
+	}
+
+	private void replaceNeighbor(int t, int oldNeighbor, int newNeighbor) {
+		if (t >= 0) {
+			int base = t * 3;
+			for (int i = 0; i < 3; i++) {
+				if (tn[base + i] == oldNeighbor) {
+					tn[base + i] = newNeighbor;
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return Twice the signed area of (a,b,(x,y)), positive if counter
+	 *         clockwise
+	 */
+	private double orient(int a, int b, double x, double y) {
+		return (vx[b] - vx[a]) * (y - vy[a]) - (vy[b] - vy[a]) * (x - vx[a]);
+	}
+
+	private double orient(int a, int b, int c) {
+		return orient(a, b, vx[c], vy[c]);
+	}
+
+	private double tolerance(int a, int b) {
+		double dx = vx[b] - vx[a];
+		double dy = vy[b] - vy[a];
+		return EPSILON * (dx * dx + dy * dy);
+	}
+
+	/**
+	 * @return Positive if d is inside the circumcircle of the counter
+	 *         clockwise triangle (a,b,c)
+	 */
+	private double inCircle(int a, int b, int c, int d) {
+		double adx = vx[a] - vx[d];
+		double ady = vy[a] - vy[d];
+		double bdx = vx[b] - vx[d];
+		double bdy = vy[b] - vy[d];
+		double cdx = vx[c] - vx[d];
+		double cdy = vy[c] - vy[d];
+		double alift = adx * adx + ady * ady;
+		double blift = bdx * bdx + bdy * bdy;
+		double clift = cdx * cdx + cdy * cdy;
+		return alift * (bdx * cdy - cdx * bdy) + blift * (cdx * ady - adx * cdy)
+				+ clift * (adx * bdy - bdx * ady);
+	}
+
+	private double squareLength(int a, int b) {
+		double dx = vx[b] - vx[a];
+		double dy = vy[b] - vy[a];
+		return dx * dx + dy * dy;
+	}
+
+	/**
+	 * Find the triangle that contains the point by walking from the start
+	 * triangle. Set locateEdge if the point is on an edge and locateVertex
+	 * if the point is on a vertex.
+	 * 
+	 * @param stopOnSegment
+	 *            Do not cross the segments, set blockedEdge instead
+	 * @return Triangle index, -1 if the walk has been blocked
+	 */
+	private int locate(double x, double y, int start, boolean stopOnSegment) {
+		int t = start >= 0 && start < triangleCount ? start : 0;
+		blockedEdge = -1;
+		final int maxSteps = triangleCount + 16;
+		for (int step = 0; step < maxSteps; step++) {
+			int base = t * 3;
+			int next = -1;
+			for (int k = 0; k < 3; k++) {
+				int i = (step + k) % 3;
+				int a = tv[base + (i + 1) % 3];
+				int b = tv[base + (i + 2) % 3];
+				if (orient(a, b, x, y) < -tolerance(a, b) && tn[base + i] >= 0) {
+					if (stopOnSegment && isConstrained(t, i)) {
+						blockedEdge = base + i;
+						return -1;
+					}
+					next = tn[base + i];
+					break;
+				}
+			}
+			if (next == -1) {
+				return classify(t, x, y);
+			}
+			t = next;
+		}
+		// The walk did not converge, scan all triangles
+		for (t = 0; t < triangleCount; t++) {
+			int base = t * 3;
+			if (orient(tv[base], tv[base + 1], x, y) >= -tolerance(tv[base], tv[base + 1])
+					&& orient(tv[base + 1], tv[base + 2], x, y) >= -tolerance(tv[base + 1], tv[base + 2])
+					&& orient(tv[base + 2], tv[base], x, y) >= -tolerance(tv[base + 2], tv[base])) {
+				return classify(t, x, y);
+			}
+		}
+		return classify(start >= 0 && start < triangleCount ? start : 0, x, y);
+	}
+
+	private int classify(int t, double x, double y) {
+		int base = t * 3;
+		locateEdge = -1;
+		locateVertex = -1;
+		for (int i = 0; i < 3; i++) {
+			int v = tv[base + i];
+			if (vx[v] == x && vy[v] == y) {
+				locateVertex = v;
+				return t;
+			}
+		}
+		for (int i = 0; i < 3; i++) {
+			int a = tv[base + (i + 1) % 3];
+			int b = tv[base + (i + 2) % 3];
+			if (Math.abs(orient(a, b, x, y)) <= tolerance(a, b)) {
+				if (locateEdge == -1) {
+					locateEdge = i;
+				} else {
+					// On two edges, this is the shared vertex
+					locateVertex = tv[base + 3 - i - locateEdge];
+					locateEdge = -1;
+					return t;
+				}
+			}
+		}
+		return t;
+	}
+
+	private void legalize(IntList edges) {
+		while (!edges.isEmpty()) {
+			int edge = edges.pop();
+			int t = edge / 3;
+			int i = edge % 3;
+			int n = tn[edge];
+			if (n < 0 || isConstrained(t, i)) {
+				continue;
+			}
+			int base = t * 3;
+			int d = tv[n * 3 + neighborIndex(n, t)];
+			if (inCircle(tv[base], tv[base + 1], tv[base + 2], d) > 0) {
+				flip(t, i);
+				// The flipped triangles keep the vertex opposite the edge
+				// at index 0
+				edges.add(t * 3);
+				edges.add(n * 3);
+			}
+		}
+	}
+
+	/**
+	 * Flip the edge i of the triangle t. The triangle t (a,b,c) and its
+	 * neighbor (d,c,b) become (a,b,d) and (a,d,c).
+	 */
+	private void flip(int t, int i) {
+		int base = t * 3;
+		int n = tn[base + i];
+		int j = neighborIndex(n, t);
+		int nbase = n * 3;
+		int a = tv[base + i];
+		int b = tv[base + (i + 1) % 3];
+		int c = tv[base + (i + 2) % 3];
+		int d = tv[nbase + j];
+		int nCA = tn[base + (i + 1) % 3];
+		int nAB = tn[base + (i + 2) % 3];
+		int nBD = tn[nbase + (j + 1) % 3];
+		int nDC = tn[nbase + (j + 2) % 3];
+		int consT = consBit(n, (j + 1) % 3, 0) | consBit(t, (i + 2) % 3, 2);
+		int consN = consBit(n, (j + 2) % 3, 0) | consBit(t, (i + 1) % 3, 1);
+		setTriangle(t, a, b, d, nBD, n, nAB, consT);
+		setTriangle(n, a, d, c, nDC, nCA, t, consN);
+		replaceNeighbor(nBD, n, t);
+		replaceNeighbor(nCA, t, n);
+		vtri[a] = t;
+		vtri[b] = t;
+		vtri[d] = t;
+		vtri[c] = n;
+	}
+
+	private void splitTriangle(int t, int p) {
+		int base = t * 3;
+		int a = tv[base];
+		int b = tv[base + 1];
+		int c = tv[base + 2];
+		int na = tn[base];
+		int nb = tn[base + 1];
+		int nc = tn[base + 2];
+		int consA = consBit(t, 0, 2);
+		int consB = consBit(t, 1, 2);
+		int consC = consBit(t, 2, 2);
+		int t1 = newTriangle();
+		int t2 = newTriangle();
+		tremoved[t1] = tremoved[t];
+		tremoved[t2] = tremoved[t];
+		setTriangle(t, a, b, p, t1, t2, nc, consC);
+		setTriangle(t1, b, c, p, t2, t, na, consA);
+		setTriangle(t2, c, a, p, t, t1, nb, consB);
+		replaceNeighbor(na, t, t1);
+		replaceNeighbor(nb, t, t2);
+		vtri[a] = t;
+		vtri[b] = t1;
+		vtri[c] = t2;
+		vtri[p] = t;
+		IntList edges = new IntList();
+		edges.add(t * 3 + 2);
+		edges.add(t1 * 3 + 2);
+		edges.add(t2 * 3 + 2);
+		legalize(edges);
+	}
+
+	/**
+	 * Split the edge i of the triangle t (a,b,c) and of its neighbor
+	 * (d,c,b) with the vertex p.
+	 */
+	private void splitEdge(int t, int i, int p) {
+		int base = t * 3;
+		int a = tv[base + i];
+		int b = tv[base + (i + 1) % 3];
+		int c = tv[base + (i + 2) % 3];
+		int n = tn[base + i];
+		int nCA = tn[base + (i + 1) % 3];
+		int nAB = tn[base + (i + 2) % 3];
+		int consBC = consBit(t, i, 0);
+		int consCA = consBit(t, (i + 1) % 3, 1);
+		int consAB = consBit(t, (i + 2) % 3, 2);
+		int t1 = newTriangle();
+		tremoved[t1] = tremoved[t];
+		int n1 = -1;
+		IntList edges = new IntList();
+		if (n >= 0) {
+			int nbase = n * 3;
+			int j = neighborIndex(n, t);
+			int d = tv[nbase + j];
+			int nBD = tn[nbase + (j + 1) % 3];
+			int nDC = tn[nbase + (j + 2) % 3];
+			int consBD = consBit(n, (j + 1) % 3, 1);
+			int consDC = consBit(n, (j + 2) % 3, 2);
+			n1 = newTriangle();
+			tremoved[n1] = tremoved[n];
+			setTriangle(n, d, c, p, t1, n1, nDC, consBC | consDC);
+			setTriangle(n1, d, p, b, t, nBD, n, consBC | consBD);
+			replaceNeighbor(nBD, n, n1);
+			vtri[d] = n;
+			edges.add(n * 3 + 2);
+			edges.add(n1 * 3 + 1);
+		}
+		setTriangle(t, a, b, p, n1, t1, nAB, consBC | consAB);
+		setTriangle(t1, a, p, c, n, nCA, t, consBC | consCA);
+		replaceNeighbor(nCA, t, t1);
+		vtri[a] = t;
+		vtri[b] = t;
+		vtri[c] = t1;
+		vtri[p] = t;
+		edges.add(t * 3 + 2);
+		edges.add(t1 * 3 + 1);
+		legalize(edges);
+	}
+
+	/**
+	 * Insert a vertex in the triangulation
+	 * 
+	 * @return The inserted vertex, or the existing vertex at the same
+	 *         location
+	 */
+	private int insertVertex(int v, int hint) {
+		int t = locate(vx[v], vy[v], hint, false);
+		if (locateVertex >= 0) {
+			return locateVertex;
+		}
+		if (locateEdge >= 0) {
+			splitEdge(t, locateEdge, v);
+		} else {
+			splitTriangle(t, v);
+		}
+		return v;
+	}
+
+	/**
+	 * Fill the fan list with the triangles around the vertex
+	 */
+	private void collectFan(int v, IntList out) {
+		out.clear();
+		int start = vtri[v];
+		int t = start;
+		do {
+			out.add(t);
+			int k = vertexIndexOf(t, v);
+			t = tn[t * 3 + (k + 2) % 3];
+		} while (t >= 0 && t != start && out.size() <= triangleCount);
+		if (t < 0) {
+			// Border vertex, turn the other way
+			t = start;
+			while (true) {
+				int k = vertexIndexOf(t, v);
+				t = tn[t * 3 + (k + 1) % 3];
+				if (t < 0) {
+					break;
+				}
+				out.add(t);
+			}
+		}
+	}
+
+	/**
+	 * @return Edge index (triangle * 3 + edge) of the edge (u,v), -1 if
+	 *         there is no such edge
+	 */
+	private int findEdge(int u, int v) {
+		collectFan(u, fan);
+		for (int f = 0; f < fan.size(); f++) {
+			int t = fan.get(f);
+			int k = vertexIndexOf(t, u);
+			if (tv[t * 3 + (k + 1) % 3] == v) {
+				return t * 3 + (k + 2) % 3;
+			} else if (tv[t * 3 + (k + 2) % 3] == v) {
+				return t * 3 + (k + 1) % 3;
+			}
+		}
+		return -1;
+	}
+
+	private double interpolateZ(int t, double x, double y) {
+		int base = t * 3;
+		int a = tv[base];
+		int b = tv[base + 1];
+		int c = tv[base + 2];
+		double area = orient(a, b, c);
+		if (area == 0) {
+			return vz[a];
+		}
+		return (orient(b, c, x, y) * vz[a] + orient(c, a, x, y) * vz[b] + orient(
+				a, b, x, y) * vz[c]) / area;
+	}
+
+	private void insertSegment(int a0, int b0) throws LayerDelaunayError {
+		IntList pending = new IntList();
+		pending.add(a0);
+		pending.add(b0);
+		int maxParts = vertexCount * 4 + 16;
+		while (!pending.isEmpty()) {
+			if (maxParts-- < 0) {
+				throw new LayerDelaunayError("Unable to insert the segment ("
+						+ (vx[a0] + originX) + " " + (vy[a0] + originY) + ", "
+						+ (vx[b0] + originX) + " " + (vy[b0] + originY) + ")");
+			}
+			int b = pending.pop();
+			int a = pending.pop();
+			if (a != b) {
+				insertSegmentPart(a, b, pending);
+			}
+		}
+	}
+
+	/**
+	 * Insert the segment (a,b), push the sub-segments in pending if the
+	 * segment meet a vertex or another segment
+	 */
+	private void insertSegmentPart(int a, int b, IntList pending)
+			throws LayerDelaunayError {
+		final double tol = tolerance(a, b);
+		// Find the triangle around a crossed by the segment
+		collectFan(a, fan);
+		int t = -1;
+		int k = -1;
+		for (int f = 0; f < fan.size(); f++) {
+			int tri = fan.get(f);
+			int ka = vertexIndexOf(tri, a);
+			int p = tv[tri * 3 + (ka + 1) % 3];
+			int q = tv[tri * 3 + (ka + 2) % 3];
+			if (p == b) {
+				setConstrained(tri, (ka + 2) % 3);
+				return;
+			} else if (q == b) {
+				setConstrained(tri, (ka + 1) % 3);
+				return;
+			}
+			int collinear = -1;
+			if (isOnSegmentLine(a, b, p, tol)) {
+				collinear = p;
+			} else if (isOnSegmentLine(a, b, q, tol)) {
+				collinear = q;
+			}
+			if (collinear >= 0) {
+				pending.add(a);
+				pending.add(collinear);
+				pending.add(collinear);
+				pending.add(b);
+				return;
+			}
+			if (t < 0 && orient(a, b, p) < 0 && orient(a, b, q) > 0) {
+				t = tri;
+				k = ka;
+			}
+		}
+		if (t < 0) {
+			throw new LayerDelaunayError("Unable to find the first triangle of a segment");
+		}
+		// Walk along the segment and collect the crossed edges
+		IntList crossed = new IntList();
+		while (true) {
+			int base = t * 3;
+			int p = tv[base + (k + 1) % 3];
+			int q = tv[base + (k + 2) % 3];
+			if (isConstrained(t, k)) {
+				// Two segments intersect, split both at the intersection
+				double dax = vx[b] - vx[a];
+				double day = vy[b] - vy[a];
+				double dpx = vx[q] - vx[p];
+				double dpy = vy[q] - vy[p];
+				double ratio = ((vx[p] - vx[a]) * dpy - (vy[p] - vy[a]) * dpx)
+						/ (dax * dpy - day * dpx);
+				double x = vx[a] + ratio * dax;
+				double y = vy[a] + ratio * day;
+				int intersection = appendVertex(x, y, interpolateZ(t, x, y));
+				splitEdge(t, k, intersection);
+				pending.add(a);
+				pending.add(intersection);
+				pending.add(intersection);
+				pending.add(b);
+				return;
+			}
+			crossed.add(p);
+			crossed.add(q);
+			int n = tn[base + k];
+			int j = neighborIndex(n, t);
+			int w = tv[n * 3 + j];
+			if (w == b) {
+				break;
+			}
+			double ow = orient(a, b, w);
+			if (Math.abs(ow) <= tol) {
+				pending.add(a);
+				pending.add(w);
+				pending.add(w);
+				pending.add(b);
+				return;
+			}
+			k = ow < 0 ? (j + 2) % 3 : (j + 1) % 3;
+			t = n;
+		}
+		// Remove the crossed edges by flipping the convex quadrilaterals
+		IntList created = new IntList();
+		int rounds = 0;
+		while (!crossed.isEmpty()) {
+			if (rounds++ > crossed.size() + 16) {
+				throw new LayerDelaunayError("Unable to remove the edges crossed by a segment");
+			}
+			IntList remaining = new IntList();
+			for (int c = 0; c < crossed.size(); c += 2) {
+				int u = crossed.get(c);
+				int v = crossed.get(c + 1);
+				int edge = findEdge(u, v);
+				if (edge < 0) {
+					continue;
+				}
+				int et = edge / 3;
+				int ei = edge % 3;
+				int n = tn[edge];
+				int x = tv[edge];
+				int y = tv[n * 3 + neighborIndex(n, et)];
+				double ou = orient(x, y, u);
+				double ov = orient(x, y, v);
+				if (!((ou > 0 && ov < 0) || (ou < 0 && ov > 0))) {
+					// Not convex, retry after the other flips
+					remaining.add(u);
+					remaining.add(v);
+					continue;
+				}
+				flip(et, ei);
+				if (x != a && x != b && y != a && y != b) {
+					double ox = orient(a, b, x);
+					double oy = orient(a, b, y);
+					if ((ox > tol && oy < -tol) || (ox < -tol && oy > tol)) {
+						remaining.add(x);
+						remaining.add(y);
+						continue;
+					}
+				}
+				created.add(x);
+				created.add(y);
+			}
+			crossed = remaining;
+		}
+		int segmentEdge = findEdge(a, b);
+		if (segmentEdge < 0) {
+			throw new LayerDelaunayError("Unable to recover a segment");
+		}
+		setConstrained(segmentEdge / 3, segmentEdge % 3);
+		// Restore the Delaunay criterion of the new edges
+		boolean flipped = true;
+		for (int round = 0; flipped && round < created.size() + 1; round++) {
+			flipped = false;
+			for (int c = 0; c < created.size(); c += 2) {
+				int edge = findEdge(created.get(c), created.get(c + 1));
+				if (edge < 0 || isConstrained(edge / 3, edge % 3)) {
+					continue;
+				}
+				int et = edge / 3;
+				int ei = edge % 3;
+				int n = tn[edge];
+				int base = et * 3;
+				int x = tv[base + ei];
+				int y = tv[n * 3 + neighborIndex(n, et)];
+				if (inCircle(tv[base], tv[base + 1], tv[base + 2], y) > 0) {
+					flip(et, ei);
+					created.set(c, x);
+					created.set(c + 1, y);
+					flipped = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return True if v is on the segment (a,b) line, after a
+	 */
+	private boolean isOnSegmentLine(int a, int b, int v, double tol) {
+		return !isSuperVertex(v) && Math.abs(orient(a, b, v)) <= tol
+				&& (vx[v] - vx[a]) * (vx[b] - vx[a]) + (vy[v] - vy[a])
+						* (vy[b] - vy[a]) > 0;
+	}
+
+	/**
+	 * Add the convex hull edges as segments, then the outside of the
+	 * triangulation is bounded by segments
+	 */
+	private void addConvexHullSegments(int inputCount) {
+		Integer[] sorted = new Integer[inputCount];
+		for (int v = 0; v < inputCount; v++) {
+			sorted[v] = v;
+		}
+		java.util.Arrays.sort(sorted, new java.util.Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				int cmp = Double.compare(vx[o1], vx[o2]);
+				return cmp != 0 ? cmp : Double.compare(vy[o1], vy[o2]);
+			}
+		});
+		// Monotone chain
+		int[] hull = new int[inputCount * 2];
+		int size = 0;
+		for (int s = 0; s < inputCount; s++) {
+			int v = sorted[s];
+			while (size >= 2 && orient(hull[size - 2], hull[size - 1], v) <= 0) {
+				size--;
+			}
+			hull[size++] = v;
+		}
+		int lower = size + 1;
+		for (int s = inputCount - 2; s >= 0; s--) {
+			int v = sorted[s];
+			while (size >= lower && orient(hull[size - 2], hull[size - 1], v) <= 0) {
+				size--;
+			}
+			hull[size++] = v;
+		}
+		for (int h = 1; h < size; h++) {
+			segments.add(hull[h - 1]);
+			segments.add(hull[h]);
+		}
+	}
+
+	private boolean isSuperVertex(int v) {
+		return v >= superVertex && v < superVertex + 3;
+	}
+
+	/**
+	 * Remove the triangles outside the convex hull and the triangles of
+	 * the holes
+	 */
+	private void removeHoles() {
+		IntList stack = new IntList();
+		for (int t = 0; t < triangleCount; t++) {
+			int base = t * 3;
+			if (isSuperVertex(tv[base]) || isSuperVertex(tv[base + 1])
+					|| isSuperVertex(tv[base + 2])) {
+				stack.add(t);
+			}
+		}
+		floodRemove(stack);
+		for (Coordinate hole : holes) {
+			int t = locate(hole.x - originX, hole.y - originY, 0, false);
+			if (!tremoved[t]) {
+				stack.add(t);
+				floodRemove(stack);
+			}
+		}
+	}
+
+	private void floodRemove(IntList stack) {
+		while (!stack.isEmpty()) {
+			int t = stack.pop();
+			if (tremoved[t]) {
+				continue;
+			}
+			tremoved[t] = true;
+			for (int i = 0; i < 3; i++) {
+				int n = tn[t * 3 + i];
+				if (n >= 0 && !isConstrained(t, i) && !tremoved[n]) {
+					stack.add(n);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return True if the vertex opposite the segment i of t is inside the
+	 *         diametral circle of the segment
+	 */
+	private boolean isEncroached(int t, int i) {
+		int base = t * 3;
+		int p = tv[base + i];
+		int a = tv[base + (i + 1) % 3];
+		int b = tv[base + (i + 2) % 3];
+		return isEncroached(a, b, vx[p], vy[p]);
+	}
+
+	private boolean isEncroached(int a, int b, double x, double y) {
+		return squareLength(a, b) >= MIN_SEGMENT_LENGTH * MIN_SEGMENT_LENGTH
+				&& (vx[a] - x) * (vx[b] - x) + (vy[a] - y) * (vy[b] - y) < 0;
+	}
+
+	private boolean isBadTriangle(int t, double minSinSquare) {
+		int base = t * 3;
+		int a = tv[base];
+		int b = tv[base + 1];
+		int c = tv[base + 2];
+		double doubleArea = orient(a, b, c);
+		if (maxArea > 0 && doubleArea > maxArea * 2) {
+			return true;
+		}
+		if (minSinSquare > 0) {
+			// Square length of the edges opposite each vertex
+			double la = squareLength(b, c);
+			double lb = squareLength(c, a);
+			double lc = squareLength(a, b);
+			int shortest = la <= lb ? (la <= lc ? 0 : 2) : (lb <= lc ? 1 : 2);
+			double shortestLength = Math.min(la, Math.min(lb, lc));
+			if (shortestLength < MIN_SEGMENT_LENGTH * MIN_SEGMENT_LENGTH) {
+				return false;
+			}
+			// The smallest angle is between the two longest edges
+			double product = (la * lb * lc) / shortestLength;
+			if (doubleArea * doubleArea / product < minSinSquare) {
+				// Angles between two segments can not be improved
+				return !(isConstrained(t, (shortest + 1) % 3) && isConstrained(
+						t, (shortest + 2) % 3));
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Queue the segment as a pair of vertices, the triangles may be
+	 * modified before the split
+	 */
+	private void queueSegment(int edge, IntList segmentQueue) {
+		int base = edge - edge % 3;
+		segmentQueue.add(tv[base + (edge % 3 + 1) % 3]);
+		segmentQueue.add(tv[base + (edge % 3 + 2) % 3]);
+	}
+
+	private void splitSegment(int t, int i) {
+		int base = t * 3;
+		int a = tv[base + (i + 1) % 3];
+		int b = tv[base + (i + 2) % 3];
+		int p = appendVertex((vx[a] + vx[b]) / 2, (vy[a] + vy[b]) / 2,
+				(vz[a] + vz[b]) / 2);
+		splitEdge(t, i, p);
+	}
+
+	/**
+	 * Insert the circumcenter of a bad triangle, or split the segments
+	 * encroached by the circumcenter
+	 */
+	private void splitBadTriangle(int t, IntList segmentQueue) {
+		int base = t * 3;
+		int a = tv[base];
+		int b = tv[base + 1];
+		int c = tv[base + 2];
+		double bx = vx[b] - vx[a];
+		double by = vy[b] - vy[a];
+		double cx = vx[c] - vx[a];
+		double cy = vy[c] - vy[a];
+		double d = 2 * (bx * cy - by * cx);
+		if (d == 0) {
+			return;
+		}
+		double bl = bx * bx + by * by;
+		double cl = cx * cx + cy * cy;
+		double x = vx[a] + (cy * bl - by * cl) / d;
+		double y = vy[a] + (bx * cl - cx * bl) / d;
+		int found = locate(x, y, t, true);
+		if (found < 0) {
+			// The circumcenter is behind a segment
+			queueSegment(blockedEdge, segmentQueue);
+			return;
+		}
+		if (locateVertex >= 0 || tremoved[found]) {
+			return;
+		}
+		int edge = locateEdge;
+		// Segments encroached by the circumcenter are split instead
+		boolean encroach = false;
+		for (int g = -1; g < 3; g++) {
+			int tri = g < 0 ? found : tn[found * 3 + g];
+			if (tri < 0 || tremoved[tri]) {
+				continue;
+			}
+			for (int i = 0; i < 3; i++) {
+				if (isConstrained(tri, i)
+						&& isEncroached(tv[tri * 3 + (i + 1) % 3], tv[tri * 3
+								+ (i + 2) % 3], x, y)) {
+					queueSegment(tri * 3 + i, segmentQueue);
+					encroach = true;
+				}
+			}
+		}
+		if (encroach) {
+			return;
+		}
+		int p = appendVertex(x, y, interpolateZ(found, x, y));
+		if (edge >= 0) {
+			splitEdge(found, edge, p);
+		} else {
+			splitTriangle(found, p);
+		}
+	}
+
+	private void refine(int inputCount) {
+		double minSinSquare = 0;
+		if (minAngle > 0) {
+			double sin = Math.sin(Math.min(minAngle, MAX_MIN_ANGLE));
+			minSinSquare = sin * sin;
+		}
+		double area = 0;
+		for (int t = 0; t < triangleCount; t++) {
+			if (!tremoved[t]) {
+				area += orient(tv[t * 3], tv[t * 3 + 1], tv[t * 3 + 2]) / 2;
+			}
+		}
+		long maxVertices = vertexCount + (long) MAX_STEINER_FACTOR * inputCount;
+		if (maxArea > 0) {
+			maxVertices += (long) (MAX_STEINER_FACTOR * area / maxArea);
+		}
+		modified = new IntList();
+		for (int t = 0; t < triangleCount; t++) {
+			modified.add(t);
+		}
+		IntList segmentQueue = new IntList();
+		IntList triangleQueue = new IntList();
+		while (true) {
+			while (!modified.isEmpty()) {
+				int t = modified.pop();
+				if (tremoved[t]) {
+					continue;
+				}
+				for (int i = 0; i < 3; i++) {
+					if (isConstrained(t, i) && isEncroached(t, i)) {
+						queueSegment(t * 3 + i, segmentQueue);
+					}
+				}
+				if (isBadTriangle(t, minSinSquare)) {
+					triangleQueue.add(t);
+				}
+			}
+			if (vertexCount >= maxVertices) {
+				logger.info("Refinement stopped, the maximum vertices count has been reached");
+				break;
+			}
+			if (!segmentQueue.isEmpty()) {
+				int b = segmentQueue.pop();
+				int a = segmentQueue.pop();
+				int edge = findEdge(a, b);
+				if (edge >= 0 && isConstrained(edge / 3, edge % 3)
+						&& squareLength(a, b) >= 4 * MIN_SEGMENT_LENGTH
+								* MIN_SEGMENT_LENGTH) {
+					splitSegment(edge / 3, edge % 3);
+				}
+			} else if (!triangleQueue.isEmpty()) {
+				int t = triangleQueue.pop();
+				if (!tremoved[t] && isBadTriangle(t, minSinSquare)) {
+					splitBadTriangle(t, segmentQueue);
+				}
+			} else {
+				break;
+			}
+		}
+		modified = null;
+	}
+
+	@Override
+	public void processDelaunay() throws LayerDelaunayError {
+		resultVertices = new ArrayList<Coordinate>();
+		resultTriangles = new ArrayList<Triangle>();
+		resultNeighbors = new ArrayList<Triangle>();
+		final int inputCount = vertexCount;
+		if (inputCount >= 3) {
+			// Translate around the center of the bounding box for precision
+			Envelope bbox = new Envelope();
+			for (int v = 0; v < inputCount; v++) {
+				bbox.expandToInclude(vx[v], vy[v]);
+			}
+			originX = bbox.centre().x;
+			originY = bbox.centre().y;
+			for (int v = 0; v < inputCount; v++) {
+				vx[v] -= originX;
+				vy[v] -= originY;
+			}
+			double size = Math.max(bbox.getWidth(), bbox.getHeight());
+			if (size > 0) {
+				triangulate(inputCount, size);
+				buildResult();
+			}
+		}
+		logger.info("Size of triangulation :" + resultTriangles.size()
+				+ " faces.");
+		clearInput();
+	}
+
+	private void triangulate(int inputCount, double size)
+			throws LayerDelaunayError {
+		// Super triangle, far from the input vertices
+		double far = size * 10;
+		superVertex = vertexCount;
+		appendVertex(-far, -far, 0);
+		appendVertex(far, -far, 0);
+		appendVertex(0, far, 0);
+		vtri = new int[vx.length];
+		triangleCount = 0;
+		int root = newTriangle();
+		tremoved[root] = false;
+		setTriangle(root, superVertex, superVertex + 1, superVertex + 2, -1,
+				-1, -1, 0);
+		vtri[superVertex] = root;
+		vtri[superVertex + 1] = root;
+		vtri[superVertex + 2] = root;
+		// Vertices, a vertex equal to a previous one is replaced by it
+		int[] alias = new int[inputCount];
+		int hint = root;
+		for (int v = 0; v < inputCount; v++) {
+			alias[v] = insertVertex(v, hint);
+			hint = vtri[alias[v]];
+		}
+		addConvexHullSegments(inputCount);
+		for (int s = 0; s < segments.size(); s += 2) {
+			int a = alias[segments.get(s)];
+			int b = alias[segments.get(s + 1)];
+			if (a != b) {
+				insertSegment(a, b);
+			}
+		}
+		removeHoles();
+		if (minAngle > 0 || maxArea > 0) {
+			refine(inputCount);
+		}
+	}
+
+	private void buildResult() {
+		int[] newVertexIndex = new int[vertexCount];
+		for (int t = 0; t < triangleCount; t++) {
+			if (!tremoved[t]) {
+				for (int i = 0; i < 3; i++) {
+					newVertexIndex[tv[t * 3 + i]] = 1;
+				}
+			}
+		}
+		for (int v = 0; v < vertexCount; v++) {
+			if (newVertexIndex[v] != 0) {
+				newVertexIndex[v] = resultVertices.size();
+				resultVertices.add(new Coordinate(vx[v] + originX, vy[v]
+						+ originY, vz[v]));
+			} else {
+				newVertexIndex[v] = -1;
+			}
+		}
+		int[] newTriangleIndex = new int[triangleCount];
+		int count = 0;
+		for (int t = 0; t < triangleCount; t++) {
+			if (!tremoved[t]) {
+				newTriangleIndex[t] = count++;
+				resultTriangles.add(new Triangle(newVertexIndex[tv[t * 3]],
+						newVertexIndex[tv[t * 3 + 1]],
+						newVertexIndex[tv[t * 3 + 2]]));
+			} else {
+				newTriangleIndex[t] = -1;
+			}
+		}
+		if (retrieveNeighbors) {
+			for (int t = 0; t < triangleCount; t++) {
+				if (!tremoved[t]) {
+					Triangle neighbors = new Triangle(-1, -1, -1);
+					for (int i = 0; i < 3; i++) {
+						int n = tn[t * 3 + i];
+						if (n >= 0) {
+							neighbors.set(i, newTriangleIndex[n]);
+						}
+					}
+					resultNeighbors.add(neighbors);
+				}
+			}
+		}
+	}
+
+	private void clearInput() {
+		vertexCount = 0;
+		vertexIndex.clear();
+		segments.clear();
+		holes.clear();
+		triangleCount = 0;
+		vtri = null;
+	}
+
+	@Override
+	public void hintInit(Envelope boundingBox, long polygonCount,
+			long verticesCount) throws LayerDelaunayError {
+		ensureVertexCapacity((int) verticesCount);
+	}
+
+	@Override
+	public void addPolygon(Polygon newPoly, boolean isEmpty)
+			throws LayerDelaunayError {
+		GeometryFactory factory = new GeometryFactory();
+		final Coordinate[] coordinates = newPoly.getExteriorRing()
+				.getCoordinates();
+		if (coordinates.length > 1) {
+			this.addLineString(factory.createLineString(coordinates));
+		}
+		if (isEmpty) {
+			holes.add(newPoly.getInteriorPoint().getCoordinate());
+		}
+		// Append holes
+		final int holeCount = newPoly.getNumInteriorRing();
+		for (int holeIndex = 0; holeIndex < holeCount; holeIndex++) {
+			LineString holeLine = newPoly.getInteriorRingN(holeIndex);
+			// Convert hole into a polygon, then compute an interior point
+			Polygon polyBuffnew = factory.createPolygon(
+					factory.createLinearRing(holeLine.getCoordinates()), null);
+			if (polyBuffnew.getArea() > 0.) {
+				Coordinate interiorPoint = polyBuffnew.getInteriorPoint()
+						.getCoordinate();
+				if (!factory.createPoint(interiorPoint).intersects(holeLine)) {
+					if (!isEmpty) {
+						holes.add(interiorPoint);
+					}
+					this.addLineString(holeLine);
+				} else {
+					logger.info("Warning : hole rejected, can't find interior point.");
+				}
+			} else {
+				logger.info("Warning : hole rejected, area=0");
+			}
+		}
+	}
+
+	@Override
+	public void addVertex(Coordinate vertexCoordinate)
+			throws LayerDelaunayError {
+		getOrAppendVertex(vertexCoordinate);
+	}
+
+	@Override
+	public void addLineString(LineString line) throws LayerDelaunayError {
+		Coordinate[] coords = line.getCoordinates();
+		for (int ind = 1; ind < coords.length; ind++) {
+			int a = getOrAppendVertex(coords[ind - 1]);
+			int b = getOrAppendVertex(coords[ind]);
+			if (a != b) {
+				segments.add(a);
+				segments.add(b);
+			}
+		}
+	}
+
+	@Override
+	public void setMinAngle(Double minAngle) throws LayerDelaunayError {
+		this.minAngle = minAngle != null ? minAngle : 0;
+	}
+
+	@Override
+	public void setMaxArea(Double maxArea) throws LayerDelaunayError {
+		this.maxArea = maxArea != null ? maxArea : 0;
+	}
+
+	@Override
+	public List<Coordinate> getVertices() throws LayerDelaunayError {
+		return resultVertices;
+	}
+
+	@Override
+	public List<Triangle> getTriangles() throws LayerDelaunayError {
+		return resultTriangles;
+	}
+
+	@Override
+	public List<Triangle> getNeighbors() throws LayerDelaunayError {
+		if (retrieveNeighbors) {
+			return resultNeighbors;
+		} else {
+			throw new LayerDelaunayError(
+					"You must call setRetrieveNeighbors(True) before process delaunay triangulation");
+		}
+	}
+
+	@Override
+	public void reset() {
+		clearInput();
+		resultVertices = new ArrayList<Coordinate>();
+		resultTriangles = new ArrayList<Triangle>();
+		resultNeighbors = new ArrayList<Triangle>();
+		minAngle = 0;
+		maxArea = 0;
+	}
+
+	@Override
+	public void setRetrieveNeighbors(boolean retrieve) {
+		this.retrieveNeighbors = retrieve;
+	}
+}
@@ -42,8 +42,9 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Stack;
+import java.util.RandomAccess;
 
+import com.vividsolutions.jts.algorithm.locate.SimplePointInAreaLocator;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.LineSegment;
 import com.vividsolutions.jts.index.strtree.STRtree;
@@ -54,9 +55,7 @@ import org.jdelaunay.delaunay.geometries.DEdge;
 import org.jdelaunay.delaunay.geometries.DPoint;
 import org.jdelaunay.delaunay.geometries.DTriangle;
 import org.jdelaunay.delaunay.error.DelaunayError;
-import org.jdelaunay.delaunay.geometries.Element;
 
-import com.vividsolutions.jts.algorithm.CGAlgorithms;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.CoordinateSequence;
 import com.vividsolutions.jts.geom.CoordinateSequenceFilter;
@@ -76,6 +75,8 @@ public class LayerJDelaunay implements LayerDelaunay {
 	private ArrayList<DEdge> constraintEdge = new ArrayList<DEdge>();
 	private LinkedList<DPoint> ptToInsert = new LinkedList<DPoint>();
 	private List<Coordinate> holes = new LinkedList<Coordinate>();
+	// Polygons of the holes, the grid points are not inserted inside
+	private STRtree holesIndex = new STRtree();
     private Double maxArea; // maximum area, if set a grid of points is added before triangulation
     /** If a grid point is nearest than another point by this distance then the grid point is not added */
     private static final double EPSILON_AREA_CONSTRAINT = 1;
@@ -96,27 +97,8 @@ public class LayerJDelaunay implements LayerDelaunay {
 																		// of
 																		// triangle
 																		// i
-	HashMap<Integer, LinkedList<Integer>> hashOfArrayIndex = new HashMap<Integer, LinkedList<Integer>>();
+	private CoordinateHash vertexHash = new CoordinateHash(vertices, 0);
 
-	private static DTriangle findTriByCoordinate(Coordinate pos,List<DTriangle> trilst) throws DelaunayError {
-		DPoint pt;
-		if(Double.isNaN(pos.z)) {
-			pt=new DPoint(pos.x,pos.y,0);
-		} else {
-			pt=new DPoint(pos);
-		}
-		Element foundEl=trilst.get(trilst.size()/2).searchPointContainer(pt);
-		if(foundEl instanceof DTriangle) {
-			return (DTriangle)foundEl;
-		}else{
-			for(DTriangle tri : trilst) {
-				if(tri.contains(pt)) {
-					return tri;
-				}
-			}
-			return null;
-		}
-	}
 	private static class SetZFilter implements CoordinateSequenceFilter {
 		private boolean done = false;
 
@@ -143,47 +125,6 @@ public class LayerJDelaunay implements LayerDelaunay {
 		}
 	}
 
-	private int getOrAppendVertices(Coordinate newCoord,
-			List<Coordinate> vertices,
-			HashMap<Integer, LinkedList<Integer>> hashOfArrayIndex) {
-		// We can obtain the same hash with two different coordinate (4 Bytes or
-		// 8 Bytes against 12 or 24 Bytes) , then we use a list as the value of
-		// the hashmap
-		// First step - Search the vertice parameter within the hashMap
-		int newCoordIndex = -1;
-		Integer coordinateHash = newCoord.hashCode();
-		LinkedList<Integer> listOfIndex = hashOfArrayIndex.get(coordinateHash);
-		if (listOfIndex != null) // There are the same hash value
-		{
-			for (int vind : listOfIndex) // Loop inside the coordinate index
-			{
-				if (newCoord.equals3D(vertices.get(vind))) // the coordinate is
-															// equal to the
-															// existing
-															// coordinate
-				{
-					newCoordIndex = vind;
-					break; // Exit for loop
-				}
-			}
-			if (newCoordIndex == -1) {
-				// No vertices has been found, we push the new coordinate into
-				// the existing linked list
-				newCoordIndex = vertices.size();
-				listOfIndex.add(newCoordIndex);
-				vertices.add(newCoord);
-			}
-		} else {
-			// Push a new hash element
-			listOfIndex = new LinkedList<Integer>();
-			newCoordIndex = vertices.size();
-			listOfIndex.add(newCoordIndex);
-			vertices.add(newCoord);
-			hashOfArrayIndex.put(coordinateHash, listOfIndex);
-		}
-		return newCoordIndex;
-	}
-
 	private ConstrainedMesh delaunayTool = null;
 
     /**
@@ -239,8 +180,20 @@ public class LayerJDelaunay implements LayerDelaunay {
                     Map<Integer, Integer> weights = new HashMap<Integer, Integer>();
                     weights.put(GRID_PROP, -1);
                     delaunayTool.setWeights(weights);
+                    // Grid points inside buildings are not inserted
+                    boolean[] insideHole = new boolean[((int) xCount + 1) * ((int) yCount + 1)];
+                    for(int xi = 0; xi <= xCount; xi++) {
+                        for(int yi = 0; yi <= yCount; yi++) {
+                            insideHole[xi * ((int) yCount + 1) + yi] = isInsideHole(
+                                    new Coordinate(gridEnv.getMinX() + xi * xDelta, gridEnv.getMinY() + yi * yDelta));
+                        }
+                    }
                     for(int xi = 0; xi < xCount; xi++) {
                         for(int yi = 0; yi < yCount; yi++) {
+                            int gridIndex = xi * ((int) yCount + 1) + yi;
+                            if(insideHole[gridIndex]) {
+                                continue;
+                            }
                             Coordinate gridPoint = new Coordinate(gridEnv.getMinX() + xi * xDelta, gridEnv.getMinY() + yi * yDelta, 0);
                             LineSegment horizontal = new LineSegment(gridPoint, new Coordinate(gridEnv.getMinX() + (xi + 1) * xDelta, gridEnv.getMinY() + yi * yDelta, 0));
                             LineSegment vertical = new LineSegment(gridPoint, new Coordinate(gridEnv.getMinX() + xi * xDelta, gridEnv.getMinY() + (yi + 1) * yDelta, 0));
@@ -258,12 +211,16 @@ public class LayerJDelaunay implements LayerDelaunay {
                                 }
                             }
                             */
-                            DEdge hEdge = new DEdge(new DPoint(horizontal.p0), new DPoint(horizontal.p1));
-                            hEdge.setProperty(GRID_PROP);
-                            edges.add(hEdge);
-                            DEdge vEdge = new DEdge(new DPoint(vertical.p0), new DPoint(vertical.p1));
-                            vEdge.setProperty(GRID_PROP);
-                            edges.add(vEdge);
+                            if(!insideHole[gridIndex + (int) yCount + 1]) {
+                                DEdge hEdge = new DEdge(new DPoint(horizontal.p0), new DPoint(horizontal.p1));
+                                hEdge.setProperty(GRID_PROP);
+                                edges.add(hEdge);
+                            }
+                            if(!insideHole[gridIndex + 1]) {
+                                DEdge vEdge = new DEdge(new DPoint(vertical.p0), new DPoint(vertical.p1));
+                                vEdge.setProperty(GRID_PROP);
+                                edges.add(vEdge);
+                            }
                         }
                     }
                     delaunayTool.setPoints(ptToInsert);
@@ -318,91 +275,55 @@ public class LayerJDelaunay implements LayerDelaunay {
 						.getTriangleList();
 				//triangles.ensureCapacity(trianglesDelaunay.size());// reserve
 																	// memory
-				HashMap<Integer, Integer> gidToIndex = new HashMap<Integer, Integer>();
-				ArrayList<Triangle> gidTriangle=new ArrayList<Triangle>(trianglesDelaunay.size());
-				
-				//Build ArrayList for binary search
-				
+				if (!(trianglesDelaunay instanceof RandomAccess)) {
+					// Triangles are accessed by index
+					trianglesDelaunay = new ArrayList<DTriangle>(trianglesDelaunay);
+				}
+
 				//Remove triangles
-				for(Coordinate hole : holes) {
-					DTriangle foundTri=findTriByCoordinate(hole,trianglesDelaunay);
-					if(foundTri == null) {
-						throw new LayerDelaunayError("hole outside domain ("+hole+")");
-					}
-					//Navigate through neighbors until it reach a deleted tri or locked segment
-					Stack<DTriangle> navHistoryTri=new Stack<DTriangle>();
-					Stack<Short> navHistoryDir=new Stack<Short>();
-					navHistoryTri.push(foundTri);
-					navHistoryDir.push((short)0);//Set as hole
-					foundTri.setExternalGID(0);
-					while(!navHistoryTri.empty()) {
-						if(navHistoryDir.peek()==3) {
-							navHistoryTri.pop();
-							navHistoryDir.pop();							
-						} else {
-							DEdge ed = navHistoryTri.peek().getEdge(navHistoryDir.peek());
-							if(!ed.isLocked() || ed.getProperty() == GRID_PROP) {
-								DTriangle neigh=ed.getOtherTriangle(navHistoryTri.peek());
-								if(neigh != null) {
-									if(neigh.getExternalGID()!=0) { //Not set as destroyed
-										neigh.setExternalGID(0); //Set as hole
-										navHistoryDir.push((short)(navHistoryDir.pop()+1));
-										navHistoryDir.push((short)-1);
-										navHistoryTri.push(neigh);
-									}
-								}
-							}
-							navHistoryDir.push((short)(navHistoryDir.pop()+1));
-						}
-					}
+				boolean[] removed = new boolean[trianglesDelaunay.size()];
+				if(!holes.isEmpty()) {
+					removeHoles(trianglesDelaunay, removed);
+				}
+
+				// Number the kept triangles, the external GID of a triangle
+				// becomes its index + 1, then the neighbors are translated
+				// without a GID map
+				int triangleIndex = triangles.size();
+				for (int t = 0; t < removed.length; t++) {
+					trianglesDelaunay.get(t).setExternalGID(removed[t] ? 0 : ++triangleIndex);
 				}
-				
 				for (DTriangle triangle : trianglesDelaunay) {
 					if(triangle.getExternalGID()!=0) //Not a hole
 					{
-						boolean orientationReversed=false;
-						Coordinate [] ring = new Coordinate [] {triangle.getPoint(0).getCoordinate(),triangle.getPoint(1).getCoordinate(),triangle.getPoint(2).getCoordinate(),triangle.getPoint(0).getCoordinate()};
-						if(!CGAlgorithms.isCCW(ring)) {
-							Coordinate tmp= new Coordinate(ring[0]);
-							ring[0]=ring[2];
-							ring[2]=tmp;
-							orientationReversed=true;
+						DPoint p0 = triangle.getPoint(0);
+						DPoint p1 = triangle.getPoint(1);
+						DPoint p2 = triangle.getPoint(2);
+						boolean orientationReversed = (p1.getX() - p0.getX()) * (p2.getY() - p0.getY())
+								- (p1.getY() - p0.getY()) * (p2.getX() - p0.getX()) < 0;
+						int a = vertexHash.getOrAppend(p0.getX(), p0.getY(), p0.getZ());
+						int b = vertexHash.getOrAppend(p1.getX(), p1.getY(), p1.getZ());
+						int c = vertexHash.getOrAppend(p2.getX(), p2.getY(), p2.getZ());
+						if(!orientationReversed) {
+							triangles.add(new Triangle(a, b, c));
+						} else {
+							triangles.add(new Triangle(c, b, a));
 						}
-							
-						int a = getOrAppendVertices(ring[0], vertices, hashOfArrayIndex);
-						int b = getOrAppendVertices(ring[1], vertices, hashOfArrayIndex);
-						int c = getOrAppendVertices(ring[2], vertices, hashOfArrayIndex);
-						triangles.add(new Triangle(a, b, c));
 						if(this.computeNeighbors) {
-							Triangle gidTri=new Triangle(-1,-1,-1);
+							Triangle localTri=new Triangle(-1,-1,-1);
 							for(int i=0;i<3;i++) {
 								DTriangle neighTriangle = triangle.getOppositeEdge(triangle.getPoint(i)).getOtherTriangle(triangle);
 								if(neighTriangle!=null && neighTriangle.getExternalGID()!=0) {
-									gidTri.set(i,neighTriangle.getGID());
+									localTri.set(orientationReversed ? 2 - i : i, neighTriangle.getExternalGID() - 1);
 								}
 							}
-							if(!orientationReversed) {
-								gidTriangle.add(gidTri);
-							} else {
-								gidTriangle.add(new Triangle(gidTri.getC(),gidTri.getB(),gidTri.getA()));
-							}
-							gidToIndex.put(triangle.getGID(),gidTriangle.size()-1);
+							neighbors.add(localTri);
 						}
 					}
 				}
-				if(this.computeNeighbors) {
-					//Translate GID to local index
-					for(Triangle tri : gidTriangle) {
-						Triangle localTri=new Triangle(-1,-1,-1);
-						for(int i=0;i<3;i++) {
-							int index=tri.get(i);
-							if(index!=-1)
-								localTri.set(i, gidToIndex.get(index));
-						}
-						neighbors.add(localTri);
-					}
-				}
 				delaunayTool = null;
+				holes.clear();
+				holesIndex = new STRtree();
 
 			} catch (DelaunayError e) {
 				String msgStack=new String();
@@ -413,9 +334,76 @@ public class LayerJDelaunay implements LayerDelaunay {
 			}
 		}
 	}
-	private void addHole(Coordinate holePosition) throws LayerDelaunayError
+	/**
+	 * Flood fill the triangles of the holes, the flood is stopped by the
+	 * locked edges. The triangles and their links are copied in primitive
+	 * arrays, and the hole seeds are found with a bucket index.
+	 * 
+	 * @param trianglesDelaunay Triangles of the mesh
+	 * @param removed Set to true for the triangles of the holes
+	 */
+	private void removeHoles(List<DTriangle> trianglesDelaunay, boolean[] removed)
+			throws LayerDelaunayError {
+		final int triangleCount = removed.length;
+		// The external GID is the triangle index + 1 while filling
+		for (int t = 0; t < triangleCount; t++) {
+			trianglesDelaunay.get(t).setExternalGID(t + 1);
+		}
+		double[] coordinates = new double[triangleCount * 6];
+		int[] neighbors = new int[triangleCount * 3];
+		for (int t = 0; t < triangleCount; t++) {
+			DTriangle triangle = trianglesDelaunay.get(t);
+			for (int i = 0; i < 3; i++) {
+				DPoint pt = triangle.getPoint(i);
+				coordinates[t * 6 + i * 2] = pt.getX();
+				coordinates[t * 6 + i * 2 + 1] = pt.getY();
+				DEdge ed = triangle.getEdge(i);
+				DTriangle neigh = null;
+				if (!ed.isLocked() || ed.getProperty() == GRID_PROP) {
+					neigh = ed.getOtherTriangle(triangle);
+				}
+				neighbors[t * 3 + i] = neigh != null ? neigh.getExternalGID() - 1 : -1;
+			}
+		}
+		TriangleGridIndex triangleIndex = new TriangleGridIndex(coordinates, triangleCount);
+		// Single flood pass from all seeds, a triangle is pushed once
+		int[] stack = new int[triangleCount];
+		int stackSize = 0;
+		for (Coordinate hole : holes) {
+			int t = triangleIndex.find(hole.x, hole.y);
+			if (t < 0) {
+				throw new LayerDelaunayError("hole outside domain (" + hole + ")");
+			}
+			if (!removed[t]) {
+				removed[t] = true;
+				stack[stackSize++] = t;
+			}
+		}
+		while (stackSize > 0) {
+			int t = stack[--stackSize];
+			for (int i = 0; i < 3; i++) {
+				int neigh = neighbors[t * 3 + i];
+				if (neigh >= 0 && !removed[neigh]) {
+					removed[neigh] = true;
+					stack[stackSize++] = neigh;
+				}
+			}
+		}
+	}
+
+	private boolean isInsideHole(Coordinate pt) {
+		for (Object hole : holesIndex.query(new Envelope(pt))) {
+			if (SimplePointInAreaLocator.containsPointInPolygon(pt, (Polygon) hole)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void addHole(Coordinate holePosition, Polygon holePolygon) throws LayerDelaunayError
 	{
 		holes.add(holePosition);
+		holesIndex.insert(holePolygon.getEnvelopeInternal(), holePolygon);
 	}
 	@Override
 	public void addPolygon(Polygon newPoly, boolean isEmpty)
@@ -436,7 +424,7 @@ public class LayerJDelaunay implements LayerDelaunay {
 			this.addLineString(newLineString);
 		}
 		if (isEmpty) {
-			addHole(newPoly.getInteriorPoint().getCoordinate());
+			addHole(newPoly.getInteriorPoint().getCoordinate(), newPoly);
 		}
 		// Append holes
 		final int holeCount = newPoly.getNumInteriorRing();
@@ -450,7 +438,7 @@ public class LayerJDelaunay implements LayerDelaunay {
 						.getCoordinate();
 				if (!factory.createPoint(interiorPoint).intersects(holeLine)) {
 					if(!isEmpty) {
-						addHole(interiorPoint);
+						addHole(interiorPoint, polyBuffnew);
 					}
 					this.addLineString(holeLine);
 				} else {
@@ -471,6 +459,7 @@ public class LayerJDelaunay implements LayerDelaunay {
 	@Override
 	public void hintInit(Envelope bBox, long polygonCount, long verticesCount)
 			throws LayerDelaunayError {
+		vertexHash = new CoordinateHash(vertices, (int) verticesCount);
 	}
 
 	@Override
@@ -486,7 +475,7 @@ public class LayerJDelaunay implements LayerDelaunay {
 	@Override
 	public void addVertex(Coordinate vertexCoordinate)
 			throws LayerDelaunayError {
-		this.getOrAppendVertices(vertexCoordinate, vertices, hashOfArrayIndex);
+		vertexHash.getOrAppend(vertexCoordinate);
 	}
 
 	@Override
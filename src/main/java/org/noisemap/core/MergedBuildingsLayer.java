@@ -0,0 +1,125 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import org.gdms.driver.DataSet;
+import org.gdms.driver.DriverException;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.index.strtree.STRtree;
+import com.vividsolutions.jts.simplify.TopologyPreservingSimplifier;
+
+/**
+ * Buildings merged once for all cells.
+ * The whole buildings table is merged (and optionally buffered and
+ * simplified), then the disjoint polygons of the result are stored in a
+ * packed R-Tree. Each cell fetches the polygons intersecting its envelope,
+ * instead of merging again the buildings shared with the neighbor cells.
+ * @author Nicolas Fortin
+ */
+public class MergedBuildingsLayer {
+	private final List<Geometry> parts = new ArrayList<Geometry>();
+	private final STRtree index = new STRtree();
+	private final GeometryFactory factory = new GeometryFactory();
+
+	/**
+	 * @param geometries Buildings
+	 * @param bufferSize Buffer distance of the buildings, 0 for the union
+	 * @param simplifyTolerance Tolerance of the simplification of the
+	 * merged buildings, 0 to keep all vertices
+	 */
+	public MergedBuildingsLayer(Collection<Geometry> geometries,
+			double bufferSize, double simplifyTolerance) {
+		Geometry merged = TiledUnion.union(geometries, bufferSize);
+		if (simplifyTolerance > 0) {
+			merged = TopologyPreservingSimplifier.simplify(merged,
+					simplifyTolerance);
+		}
+		for (int i = 0; i < merged.getNumGeometries(); i++) {
+			Geometry part = merged.getGeometryN(i);
+			if (!part.isEmpty()) {
+				parts.add(part);
+				index.insert(part.getEnvelopeInternal(), part);
+			}
+		}
+		index.build();
+	}
+
+	/**
+	 * Merge all buildings of a table
+	 * @param buildings Buildings table
+	 * @param geometryFieldIndex Geometry field of the buildings
+	 * @return The merged layer
+	 * @throws DriverException
+	 */
+	public static MergedBuildingsLayer fromDataSet(DataSet buildings,
+			int geometryFieldIndex) throws DriverException {
+		long rowCount = buildings.getRowCount();
+		List<Geometry> geometries = new ArrayList<Geometry>((int) rowCount);
+		for (long rowIndex = 0; rowIndex < rowCount; rowIndex++) {
+			geometries.add(buildings.getFieldValue(rowIndex,
+					geometryFieldIndex).getAsGeometry());
+		}
+		return new MergedBuildingsLayer(geometries, 0., 0.);
+	}
+
+	/**
+	 * @return Disjoint polygons of the layer
+	 */
+	public List<Geometry> getParts() {
+		return parts;
+	}
+
+	/**
+	 * @param envelope Query envelope
+	 * @return Disjoint polygons intersecting the envelope
+	 */
+	@SuppressWarnings("unchecked")
+	public List<Geometry> query(Envelope envelope) {
+		return (List<Geometry>) index.query(envelope);
+	}
+
+	/**
+	 * @param envelope Query envelope
+	 * @return Collection of the polygons intersecting the envelope, not
+	 * clipped
+	 */
+	public Geometry getGeometry(Envelope envelope) {
+		return factory.buildGeometry(query(envelope));
+	}
+}
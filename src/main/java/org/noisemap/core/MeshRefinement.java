@@ -0,0 +1,426 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import com.vividsolutions.jts.algorithm.CGAlgorithms;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.LineString;
+
+/**
+ * Local refinement of a receiver triangulation.
+ * New vertices are inserted into the existing triangles, then the mesh is
+ * kept Delaunay by edge flips. Edges without neighbor (buildings walls and
+ * cell border) and edges on the constraint lines of the triangulation are
+ * never flipped, then the constrained boundaries are kept.
+ * Triangles must be CCW oriented, the neighbor i of a triangle is the
+ * triangle on the opposite side of the vertex i.
+ * @author Nicolas Fortin
+ */
+public class MeshRefinement {
+	private List<Coordinate> vertices;
+	private final FloatCoordinateList compactVertices; // vertices if stored as float, null otherwise
+	private List<Triangle> triangles;
+	private List<Triangle> neighbors;
+	/** Distance under which a mesh vertex is on a constraint segment */
+	private static final double CONSTRAINT_TOLERANCE = 1e-4;
+	private SegmentGridIndex constraintsIndex = null;
+	private double[] constraints;
+	private final IntList constraintCandidates = new IntList();
+	private int[] visitStamp = new int[0];
+	private int currentStamp = 0;
+
+	public MeshRefinement(List<Coordinate> vertices, List<Triangle> triangles,
+			List<Triangle> neighbors) {
+		this.vertices = vertices;
+		this.triangles = triangles;
+		this.neighbors = neighbors;
+		if (vertices instanceof FloatCoordinateList) {
+			compactVertices = (FloatCoordinateList) vertices;
+		} else {
+			compactVertices = null;
+		}
+	}
+
+	private double getX(int vertex) {
+		if (compactVertices != null) {
+			return compactVertices.getX(vertex);
+		}
+		return vertices.get(vertex).x;
+	}
+
+	private double getY(int vertex) {
+		if (compactVertices != null) {
+			return compactVertices.getY(vertex);
+		}
+		return vertices.get(vertex).y;
+	}
+
+	/**
+	 * Set the constraint lines given to the triangulation. The mesh edges
+	 * inside the triangulated area that lie on these lines are not flipped.
+	 * @param lines Constraint lines
+	 */
+	public void setConstraints(List<LineString> lines) {
+		int segmentCount = 0;
+		for (LineString line : lines) {
+			segmentCount += Math.max(0, line.getNumPoints() - 1);
+		}
+		constraints = new double[segmentCount * 4];
+		int i = 0;
+		for (LineString line : lines) {
+			Coordinate[] pts = line.getCoordinates();
+			for (int idPt = 1; idPt < pts.length; idPt++) {
+				constraints[i++] = pts[idPt - 1].x;
+				constraints[i++] = pts[idPt - 1].y;
+				constraints[i++] = pts[idPt].x;
+				constraints[i++] = pts[idPt].y;
+			}
+		}
+		constraintsIndex = segmentCount > 0 ? new SegmentGridIndex(
+				constraints, segmentCount) : null;
+	}
+
+	/**
+	 * @return True if the edge u,v lies on a constraint segment
+	 */
+	private boolean isConstrained(Coordinate u, Coordinate v) {
+		if (constraintsIndex == null) {
+			return false;
+		}
+		constraintCandidates.clear();
+		constraintsIndex.query(Math.min(u.x, v.x) - CONSTRAINT_TOLERANCE,
+				Math.min(u.y, v.y) - CONSTRAINT_TOLERANCE, Math.max(u.x, v.x)
+						+ CONSTRAINT_TOLERANCE, Math.max(u.y, v.y)
+						+ CONSTRAINT_TOLERANCE, constraintCandidates);
+		Coordinate a = new Coordinate();
+		Coordinate b = new Coordinate();
+		for (int i = 0; i < constraintCandidates.size(); i++) {
+			int base = constraintCandidates.get(i) * 4;
+			a.x = constraints[base];
+			a.y = constraints[base + 1];
+			b.x = constraints[base + 2];
+			b.y = constraints[base + 3];
+			if (CGAlgorithms.distancePointLine(u, a, b) < CONSTRAINT_TOLERANCE
+					&& CGAlgorithms.distancePointLine(v, a, b) < CONSTRAINT_TOLERANCE) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return Twice the signed area of the triangle a,b,c. Positive if CCW.
+	 */
+	private static double orient(double ax, double ay, double bx, double by,
+			double cx, double cy) {
+		return (bx - ax) * (cy - ay) - (by - ay) * (cx - ax);
+	}
+
+	/**
+	 * Orientation of the vertices a,b and the point c
+	 */
+	private double orient(int a, int b, Coordinate c) {
+		return orient(getX(a), getY(a), getX(b), getY(b), c.x, c.y);
+	}
+
+	/**
+	 * Orientation of the vertices a,b,c
+	 */
+	private double orient(int a, int b, int c) {
+		return orient(getX(a), getY(a), getX(b), getY(b), getX(c), getY(c));
+	}
+
+	/**
+	 * @return True if d is strictly inside the circumcircle of the CCW
+	 *         triangle a,b,c
+	 */
+	static boolean inCircle(Coordinate a, Coordinate b, Coordinate c,
+			Coordinate d) {
+		return inCircle(a.x, a.y, b.x, b.y, c.x, c.y, d.x, d.y);
+	}
+
+	/**
+	 * Circumcircle test of the vertices a,b,c,d
+	 */
+	private boolean inCircle(int a, int b, int c, int d) {
+		return inCircle(getX(a), getY(a), getX(b), getY(b), getX(c), getY(c),
+				getX(d), getY(d));
+	}
+
+	private static boolean inCircle(double ax, double ay, double bx,
+			double by, double cx, double cy, double dx, double dy) {
+		double adx = ax - dx, ady = ay - dy;
+		double bdx = bx - dx, bdy = by - dy;
+		double cdx = cx - dx, cdy = cy - dy;
+		double det = (adx * adx + ady * ady) * (bdx * cdy - cdx * bdy)
+				+ (bdx * bdx + bdy * bdy) * (cdx * ady - adx * cdy)
+				+ (cdx * cdx + cdy * cdy) * (adx * bdy - bdx * ady);
+		return det > 0;
+	}
+
+	private boolean contains(int triId, Coordinate pt) {
+		Triangle tri = triangles.get(triId);
+		for (int side = 0; side < 3; side++) {
+			if (orient(tri.get((side + 1) % 3), tri.get((side + 2) % 3), pt) <= 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Find the triangle that contains the point, by walking from the hint
+	 * triangle. When the walk is stopped by a hole, the triangles are
+	 * visited by adjacency from the hint triangle.
+	 * @param pt Point to locate
+	 * @param hintTriangle Walk start
+	 * @return Triangle index or -1 if the point is not strictly inside a
+	 *         triangle
+	 */
+	public int locate(Coordinate pt, int hintTriangle) {
+		int current = hintTriangle;
+		int maxSteps = triangles.size();
+		for (int step = 0; step < maxSteps; step++) {
+			Triangle tri = triangles.get(current);
+			Triangle triNeigh = neighbors.get(current);
+			int next = -1;
+			boolean outside = false;
+			boolean onEdge = false;
+			// Start from a different side at each step, the walk can not
+			// cycle forever
+			for (int i = 0; i < 3; i++) {
+				int side = (i + step) % 3;
+				double side_orient = orient(tri.get((side + 1) % 3),
+						tri.get((side + 2) % 3), pt);
+				if (side_orient < 0) {
+					outside = true;
+					if (triNeigh.get(side) != -1) {
+						next = triNeigh.get(side);
+						break;
+					}
+				} else if (side_orient == 0) {
+					onEdge = true;
+				}
+			}
+			if (next == -1) {
+				if (!outside && !onEdge) {
+					return current;
+				}
+				if (!outside) {
+					return -1; // On an edge
+				}
+				break; // Behind a hole or out of the mesh
+			}
+			current = next;
+		}
+		return search(pt, hintTriangle);
+	}
+
+	/**
+	 * Visit the triangles by adjacency from the start triangle, in order of
+	 * increasing count of crossed edges.
+	 * @return Triangle index or -1 if the point is not strictly inside a
+	 *         triangle connected to the start triangle
+	 */
+	private int search(Coordinate pt, int startTriangle) {
+		if (visitStamp.length < triangles.size()) {
+			visitStamp = new int[triangles.size() * 2];
+			currentStamp = 0;
+		}
+		currentStamp++;
+		IntList queue = new IntList();
+		queue.add(startTriangle);
+		visitStamp[startTriangle] = currentStamp;
+		for (int head = 0; head < queue.size(); head++) {
+			int triId = queue.get(head);
+			if (contains(triId, pt)) {
+				return triId;
+			}
+			Triangle triNeigh = neighbors.get(triId);
+			for (int side = 0; side < 3; side++) {
+				int n = triNeigh.get(side);
+				if (n != -1 && visitStamp[n] != currentStamp) {
+					visitStamp[n] = currentStamp;
+					queue.add(n);
+				}
+			}
+		}
+		return -1;
+	}
+
+	private void replaceNeighbor(int triId, int oldNeighbor, int newNeighbor) {
+		if (triId != -1) {
+			Triangle neigh = neighbors.get(triId);
+			for (int i = 0; i < 3; i++) {
+				if (neigh.get(i) == oldNeighbor) {
+					neigh.set(i, newNeighbor);
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Insert a new vertex in the mesh.
+	 * @param pt New vertex
+	 * @param hintTriangle Triangle index near the new vertex
+	 * @return The vertex index, -1 if the point is not strictly inside a
+	 *         triangle of the mesh
+	 */
+	public int insertVertex(Coordinate pt, int hintTriangle) {
+		int triId = locate(pt, hintTriangle);
+		if (triId == -1) {
+			return -1;
+		}
+		int p = vertices.size();
+		vertices.add(pt);
+		Triangle tri = triangles.get(triId);
+		Triangle neigh = neighbors.get(triId);
+		int a = tri.getA(), b = tri.getB(), c = tri.getC();
+		int na = neigh.getA(), nb = neigh.getB(), nc = neigh.getC();
+		// Split in 3 triangles, the new vertex is always the first one
+		int t0 = triId;
+		int t1 = triangles.size();
+		int t2 = t1 + 1;
+		triangles.set(t0, new Triangle(p, a, b));
+		neighbors.set(t0, new Triangle(nc, t1, t2));
+		triangles.add(new Triangle(p, b, c));
+		neighbors.add(new Triangle(na, t2, t0));
+		triangles.add(new Triangle(p, c, a));
+		neighbors.add(new Triangle(nb, t0, t1));
+		replaceNeighbor(na, triId, t1);
+		replaceNeighbor(nb, triId, t2);
+		IntList toCheck = new IntList();
+		toCheck.add(t0);
+		toCheck.add(t1);
+		toCheck.add(t2);
+		while (!toCheck.isEmpty()) {
+			legalize(toCheck.pop(), toCheck);
+		}
+		return p;
+	}
+
+	/**
+	 * Flip the edge opposite to the first vertex of the triangle if the
+	 * triangle and its neighbor are not Delaunay and the edge is not
+	 * constrained
+	 */
+	private void legalize(int t, IntList toCheck) {
+		Triangle tri = triangles.get(t);
+		Triangle triNeigh = neighbors.get(t);
+		int n = triNeigh.getA();
+		if (n == -1) {
+			return; // Wall or border
+		}
+		Triangle nTri = triangles.get(n);
+		Triangle nNeigh = neighbors.get(n);
+		int m = -1;
+		for (int i = 0; i < 3; i++) {
+			if (nNeigh.get(i) == t) {
+				m = i;
+				break;
+			}
+		}
+		if (m == -1) {
+			return;
+		}
+		int p = tri.getA(), u = tri.getB(), v = tri.getC();
+		int d = nTri.get(m);
+		if (!inCircle(p, u, v, d) || orient(p, u, d) <= 0
+				|| orient(p, d, v) <= 0
+				|| isConstrained(vertices.get(u), vertices.get(v))) {
+			return;
+		}
+		int neighA = triNeigh.getB();
+		int neighB = triNeigh.getC();
+		int neighC = nNeigh.get((m + 1) % 3);
+		int neighD = nNeigh.get((m + 2) % 3);
+		triangles.set(t, new Triangle(p, u, d));
+		neighbors.set(t, new Triangle(neighC, n, neighB));
+		triangles.set(n, new Triangle(p, d, v));
+		neighbors.set(n, new Triangle(neighD, neighA, t));
+		replaceNeighbor(neighC, n, t);
+		replaceNeighbor(neighA, t, n);
+		toCheck.add(t);
+		toCheck.add(n);
+	}
+
+	/**
+	 * Insert a vertex at the centroid of each triangle where the sound level
+	 * spread between its vertices is greater than the tolerance.
+	 * @param verticesLevel Energetic sound level of each vertex (strictly
+	 *        positive)
+	 * @param dbTolerance Maximum spread in dB between the vertices of a
+	 *        triangle
+	 * @param minArea Triangles with an area lower than this value are not
+	 *        refined
+	 * @return The number of inserted vertices. Inserted vertices are appended
+	 *         at the end of the vertices list.
+	 */
+	public int refine(double[] verticesLevel, double dbTolerance,
+			double minArea) {
+		double maxRatio = Math.pow(10., dbTolerance / 10.);
+		List<Coordinate> centroids = new ArrayList<Coordinate>();
+		List<Integer> hints = new ArrayList<Integer>();
+		int triCount = triangles.size();
+		for (int triId = 0; triId < triCount; triId++) {
+			Triangle tri = triangles.get(triId);
+			double lvlA = verticesLevel[tri.getA()];
+			double lvlB = verticesLevel[tri.getB()];
+			double lvlC = verticesLevel[tri.getC()];
+			double lvlMin = Math.min(lvlA, Math.min(lvlB, lvlC));
+			double lvlMax = Math.max(lvlA, Math.max(lvlB, lvlC));
+			if (lvlMax > lvlMin * maxRatio) {
+				if (orient(tri.getA(), tri.getB(), tri.getC()) / 2. > minArea) {
+					Coordinate pa = vertices.get(tri.getA());
+					Coordinate pb = vertices.get(tri.getB());
+					Coordinate pc = vertices.get(tri.getC());
+					centroids.add(new Coordinate((pa.x + pb.x + pc.x) / 3.,
+							(pa.y + pb.y + pc.y) / 3.,
+							(pa.z + pb.z + pc.z) / 3.));
+					hints.add(triId);
+				}
+			}
+		}
+		int inserted = 0;
+		for (int i = 0; i < centroids.size(); i++) {
+			if (insertVertex(centroids.get(i), hints.get(i)) != -1) {
+				inserted++;
+			}
+		}
+		return inserted;
+	}
+}
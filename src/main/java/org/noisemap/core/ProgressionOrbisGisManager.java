@@ -57,6 +57,7 @@ public class ProgressionOrbisGisManager implements Runnable {
     private final static double historyTimeStep=10*1000;
     private long lastPushedProgress=0;
     private double lastEstimation=0;
+    private CellCostModel costModel;
     private static String getHumanTime(long millisec)  {
         long day=millisec/(1000*3600*24);
         long millirest=millisec%(1000*3600*24);
@@ -120,7 +121,7 @@ public class ProgressionOrbisGisManager implements Runnable {
      * A subprocess computation has been done (same as call NextSubProcess then
      * destroy the returned object)
      */
-    public synchronized void nextSubProcessEnd() {
+    public void nextSubProcessEnd() {
             rootProcess.nextSubProcessEnd();
     }
 
@@ -132,6 +133,15 @@ public class ProgressionOrbisGisManager implements Runnable {
             return rootProcess.getProcessProgression();
     }
 
+    /**
+     * Use the predicted cost of the remaining cells for the estimation of
+     * the end of computation, instead of the progression history.
+     * @param costModel Cost model of the computed cells
+     */
+    public void setCostModel(CellCostModel costModel) {
+        this.costModel = costModel;
+    }
+
     /**
      * Stop the update of IProgressMonitor
      */
@@ -180,6 +190,12 @@ public class ProgressionOrbisGisManager implements Runnable {
                     }
                 }
             }
+            if(costModel!=null) {
+                long remainingTime=costModel.getRemainingTime();
+                if(remainingTime>=0) {
+                    lastEstimation=System.currentTimeMillis()+remainingTime;
+                }
+            }
 
             //Round
             progression=(((int)(progression * 100000))/100000.);
@@ -33,94 +33,181 @@
  */
 package org.noisemap.core;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * ProgressionProcess is generated only by the progressionManager or another
  * ProgressionProcess.
+ * The progression is lock free. Each process knows its share of the root
+ * progression, then the ended sub-processes are pushed directly to the root
+ * without walking the parent chain. Large processes push by batch of at
+ * most MAX_BATCH_SIZE sub-processes, a batch is lower than 0.1% of the process. The root
+ * progression is a striped counter read without blocking the workers.
+ * A process must be closed when it is done, the remaining sub-processes are
+ * then pushed to the root. A process keeps the progression pushed by the
+ * sub-processes created from it, then this progression is not pushed again
+ * when it is closed.
  * 
  * @author Nicolas Fortin (IFSTTAR/EASE)
  * 
  */
 public class ProgressionProcess {
+	/** Fixed point value of a complete root progression */
+	private static final long ONE = 1L << 40;
+	/** Maximum count of ended sub-processes pushed at once to the root */
+	private static final long MAX_BATCH_SIZE = 64;
 	protected ProgressionProcess parentProcess;
-	private long subprocess_size;
-	private double subprocess_done = 0;
+	private final ProgressionProcess rootProcess;
+	private final long subprocess_size;
+	private final long batchSize;
+	/** Share of the root progression, in fixed point */
+	private final double weight;
+	private final AtomicLong subprocess_done = new AtomicLong(0);
+	/** Root progression pushed by the processes created from this one */
+	private final AtomicLong childrenUnits = new AtomicLong(0);
+	/** Only used by the root process */
+	private final StripedCounter rootProgression;
 
 	public ProgressionProcess(ProgressionProcess parentProcess,
 			long subprocess_size) {
+		this(parentProcess, subprocess_size, 1);
+	}
+
+	/**
+	 * @param parentProcess Parent process, null for the root
+	 * @param subprocess_size Sub Process estimated work item
+	 * @param parentWork Count of sub-processes of the parent done by this process
+	 */
+	private ProgressionProcess(ProgressionProcess parentProcess,
+			long subprocess_size, long parentWork) {
 		this.parentProcess = parentProcess;
-		this.subprocess_size = subprocess_size;
+		this.subprocess_size = Math.max(1, subprocess_size);
+		this.batchSize = Math.max(1, Math.min(MAX_BATCH_SIZE,
+				this.subprocess_size / 1024));
+		if (parentProcess == null) {
+			this.rootProcess = this;
+			this.weight = ONE;
+			this.rootProgression = new StripedCounter();
+		} else {
+			this.rootProcess = parentProcess.rootProcess;
+			this.weight = parentProcess.weight * parentWork
+					/ parentProcess.subprocess_size;
+			this.rootProgression = null;
+		}
 	}
 
 	/**
 	 * 
 	 * @return The progression on this process [0-1]
 	 */
-	public synchronized double getProcessProgression() {
-		return subprocess_done / subprocess_size;
+	public double getProcessProgression() {
+		if (rootProgression != null) {
+			return Math.min(1., rootProgression.sum() / (double) ONE);
+		}
+		return Math.min(1., subprocess_done.get() / (double) subprocess_size);
 	}
 
 	/**
 	 * 
 	 * @return The main progression value [0-1]
 	 */
-	public synchronized double getMainProgression() {
-		ProgressionProcess prog = this;
-		while (prog.parentProcess != null) {
-			prog = prog.parentProcess;
-		}
-		return prog.getProcessProgression();
+	public double getMainProgression() {
+		return rootProcess.getProcessProgression();
 	}
 
-	@Override
-	protected synchronized void finalize() throws Throwable {
-		// do finalization here
-		if (this.parentProcess != null) {
-			// Complete remaining process
-			if (Double.compare(subprocess_done, subprocess_size)  != 0) {
-				this.parentProcess
-						.pushProgression(1 - (subprocess_done / subprocess_size));
-			}
-		}
-		super.finalize();
+	/**
+	 * Get a new subprocess instance
+	 * 
+	 * @param subprocess_size
+	 *            Sub Process estimated work item (sub-sub process count)
+	 * @return
+	 */
+	public ProgressionProcess nextSubProcess(long subprocess_size) {
+		return new ProgressionProcess(this, subprocess_size, 1);
 	}
 
 	/**
-	 * Get a new subprocess instance
+	 * Get a new subprocess instance, that does several sub-processes of this
+	 * process
 	 * 
 	 * @param subprocess_size
 	 *            Sub Process estimated work item (sub-sub process count)
+	 * @param parentWork
+	 *            Count of sub-processes of this process done by the new one
 	 * @return
 	 */
-	public synchronized ProgressionProcess nextSubProcess(long subprocess_size) {
-		return new ProgressionProcess(this, subprocess_size);
+	public ProgressionProcess nextSubProcess(long subprocess_size, long parentWork) {
+		return new ProgressionProcess(this, subprocess_size, parentWork);
 	}
 
 	/**
 	 * A subprocess computation has been done (same as call NextSubProcess then
-	 * destroy the returned object)
+	 * close the returned object)
 	 */
-	public synchronized void nextSubProcessEnd() {
-		pushProgression(1.0);
+	public void nextSubProcessEnd() {
+		long done = subprocess_done.incrementAndGet();
+		if (done <= subprocess_size
+				&& (done % batchSize == 0 || done == subprocess_size)) {
+			pushToRoot(done - ((done - 1) % batchSize + 1), done);
+		}
 	}
 
 	/**
-	 * Optional, When the current process is done call this method. Or let the
-	 * garbage collector free the object
+	 * @param count Ended sub-processes count
+	 * @return Share of the root progression of count sub-processes
 	 */
-	public synchronized void processFinished() {
-		if (Double.compare(subprocess_done, subprocess_size)  != 0) {
-			this.parentProcess
-					.pushProgression(1 - (subprocess_done / subprocess_size));
-			subprocess_done = subprocess_size;
+	private long getRootUnits(long count) {
+		return (long) (weight * count / subprocess_size);
+	}
+
+	/**
+	 * Push the sub-processes ]from, to] to the root progression
+	 */
+	private void pushToRoot(long from, long to) {
+		addToRoot(getRootUnits(to) - getRootUnits(from));
+	}
+
+	/**
+	 * Add units to the root progression, and to the progression pushed by
+	 * the children of the parent processes. The batches keep this walk
+	 * rare.
+	 */
+	private void addToRoot(long units) {
+		rootProcess.rootProgression.add(units);
+		for (ProgressionProcess parent = parentProcess; parent != null
+				&& parent != rootProcess; parent = parent.parentProcess) {
+			parent.childrenUnits.addAndGet(units);
 		}
 	}
 
-	protected synchronized void pushProgression(double incProg) {
-		if (subprocess_done + incProg <= subprocess_size) {
-			subprocess_done += incProg;
-			if (parentProcess != null) {
-				parentProcess.pushProgression((incProg / subprocess_size));
+	/**
+	 * When the current process is done call this method, the remaining
+	 * sub-processes are considered done.
+	 */
+	public void close() {
+		long done = subprocess_done.getAndSet(subprocess_size);
+		if (done < subprocess_size) {
+			if (rootProgression != null) {
+				long remaining = ONE - rootProgression.sum();
+				if (remaining > 0) {
+					rootProgression.add(remaining);
+				}
+				return;
+			}
+			// Sub-processes not pushed yet, by batch or by the children
+			long pushed = getRootUnits(done - done % batchSize)
+					+ childrenUnits.get();
+			long remaining = getRootUnits(subprocess_size) - pushed;
+			if (remaining > 0) {
+				addToRoot(remaining);
 			}
 		}
 	}
+
+	/**
+	 * Same as close
+	 */
+	public void processFinished() {
+		close();
+	}
 }
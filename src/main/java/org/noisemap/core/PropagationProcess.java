@@ -33,6 +33,7 @@
  */
 package org.noisemap.core;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import com.vividsolutions.jts.algorithm.NonRobustLineIntersector;
@@ -43,8 +44,9 @@ import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.LineSegment;
 import com.vividsolutions.jts.geom.Point;
-import com.vividsolutions.jts.index.quadtree.Quadtree;
 import java.util.*;
+import org.noisemap.profile.FlightRecorderEvent;
+import org.noisemap.profile.PropagationEvents;
 
 /**
  * 
@@ -60,15 +62,37 @@ public class PropagationProcess implements Runnable {
         private final static double CEL = 344.23935;
         private final static int LIMITATION_RECEIVER_MIRROR = 1000;
         private final static int LIMITATION_DIFFRACTION_PATH = 1000;
+        private final static double NEIGHBOURHOOD_MARGIN = 25; // Receivers within this distance share the queries
+        private final static double FACADE_DISTANCE = 0.1; // Receivers closer to a wall are moved outward at this distance
 	private Thread thread;
 	private PropagationProcessData data;
 	private PropagationProcessOut dataOut;
-	private Quadtree cornersQuad;
+	private double[] corners; // x,y of diffraction corners
+	private PointGridIndex cornersIndex;
+	// Sources, walls and corners in range of the receivers near
+	// neighbourhoodCenter, see updateNeighbourhood
+	private Coordinate neighbourhoodCenter = null;
+	private final IntList neighbourhoodSources=new IntList();
+	private final IntList neighbourhoodWalls=new IntList();
+	private final IntList neighbourhoodCorners=new IntList();
+	private int[] receiversClass = null; // See classifyReceivers, null if not classified
 	private int nbfreq;
         private long diffractionPathCount=0;
         private long refpathcount=0;
 	private double[] alpha_atmo;
+	private double[] atmosphericCoefficient;
 	private double[] freq_lambda;
+        private long sumComputeTime=0;
+        // Counters already added to dataOut, the counters are published
+        // after each receiver
+        private long publishedReflexionPath=0;
+        private long publishedDiffractionPath=0;
+        private long publishedObstructionTest=0;
+        // Flight Recorder events of the current receiver are recorded
+        private boolean sampledReceiver=false;
+        private long receiverSourceCount=0;
+        // Wall index buffer, reused between receivers
+        private final IntList wallIds=new IntList();
         private static double GetGlobalLevel(int nbfreq,double energeticSum[]) {
             double globlvl = 0;
             for (int idfreq = 0; idfreq < nbfreq; idfreq++) {
@@ -346,14 +370,99 @@ public class PropagationProcess implements Runnable {
 		}
 	}
 
+	/**
+	 * @param alpha_atmo
+	 *            Atmospheric alpha (dB/km) by frequency band
+	 * @return Coefficient by frequency band, the energy is attenuated by
+	 *         exp(coefficient * distance)
+	 */
+	static double[] getAtmosphericCoefficients(double[] alpha_atmo) {
+		double[] coefficients = new double[alpha_atmo.length];
+		for (int idfreq = 0; idfreq < alpha_atmo.length; idfreq++) {
+			// 10^(-alpha*dist/10000)
+			coefficients[idfreq] = -alpha_atmo[idfreq] * Math.log(10.) / 10000.;
+		}
+		return coefficients;
+	}
+
+	/**
+	 * Add the energy of a path to the energy by frequency band. Apply
+	 * the attenuation common to all bands, then the atmospheric absorption.
+	 * 
+	 * @param wj
+	 *            Source energy by frequency band
+	 * @param attenuation
+	 *            Geometric dispersion and walls attenuation of the path
+	 * @param atmosphericCoefficient
+	 *            See {@link #getAtmosphericCoefficients(double[])}
+	 * @param distance
+	 *            Propagation distance
+	 * @param energeticSum
+	 *            Energy by frequency band
+	 */
+	static void addPathEnergy(double[] wj, double attenuation,
+			double[] atmosphericCoefficient, double distance,
+			double[] energeticSum) {
+		for (int idfreq = 0; idfreq < wj.length; idfreq++) {
+			energeticSum[idfreq] += wj[idfreq] * attenuation
+					* Math.exp(atmosphericCoefficient[idfreq] * distance);
+		}
+	}
+
+	/**
+	 * Add the energy of a diffraction path to the energy by frequency band.
+	 * The diffraction attenuation (7.11) NMPB 2008 P.32,
+	 * 10*log10(3+(40/lambda)*C"*delta) limited to 0 dB, is applied as the
+	 * factor 1/(3+(40/lambda)*C"*delta).
+	 * 
+	 * @param wj
+	 *            Source energy by frequency band
+	 * @param attenuation
+	 *            Geometric dispersion of the path
+	 * @param atmosphericCoefficient
+	 *            See {@link #getAtmosphericCoefficients(double[])}
+	 * @param distance
+	 *            Propagation distance
+	 * @param freq_lambda
+	 *            Wave length by frequency band
+	 * @param delta
+	 *            Path difference
+	 * @param elength
+	 *            Distance between first and last corner, 0 for a single
+	 *            diffraction
+	 * @param energeticSum
+	 *            Energy by frequency band
+	 */
+	static void addDiffractionPathEnergy(double[] wj, double attenuation,
+			double[] atmosphericCoefficient, double distance,
+			double[] freq_lambda, double delta, double elength,
+			double[] energeticSum) {
+		for (int idfreq = 0; idfreq < wj.length; idfreq++) {
+			double cprime = 1; //Single diffraction cprime=1
+			if (elength > 0) {
+				//Multiple diffraction C" NMPB 2008 P.33
+				//CPRIME=( 1+(5*gamma)^2)/((1/3)+(5*gamma)^2)
+				double gamma = (5 * freq_lambda[idfreq]) / elength;
+				double gammapart = gamma * gamma;
+				cprime = (1. + gammapart) / (ONETHIRD + gammapart);
+			}
+			double testForm = (40 / freq_lambda[idfreq]) * cprime * delta;
+			double diffraction = 1.;
+			if (testForm > -2.) {
+				diffraction = 1. / (3 + testForm);
+			}
+			energeticSum[idfreq] += wj[idfreq] * attenuation * diffraction
+					* Math.exp(atmosphericCoefficient[idfreq] * distance);
+		}
+	}
+
 	/**
 	 * Source-Receiver Direct+Reflection+Diffraction computation
 	 * 
 	 * @param[in] srcCoord Coordinate of source
 	 * @param[in] receiverCoord Coordinate of receiver
 	 * @param[out] energeticSum Energy by frequency band
-	 * @param[in] alpha_atmo Atmospheric absorption by frequency band
-	 * @param[in] wj Source sound pressure level dB(A) by frequency band
+	 * @param[in] wj Source energy by frequency band
 	 * @param[in] li Coefficient, distance between source discretization
 	 * @param[in] mirroredReceiver Receivers mirrored by walls (for reflection)
 	 * @param[in] nearBuildingsWalls Walls within maxsrcdist
@@ -364,14 +473,12 @@ public class PropagationProcess implements Runnable {
 	 */
 	private void receiverSourcePropa(Coordinate srcCoord,
 			Coordinate receiverCoord, double energeticSum[],
-			double[] alpha_atmo, List<Double> wj,
-			List<MirrorReceiverResult> mirroredReceiver,
+			double[] wj, List<MirrorReceiverResult> mirroredReceiver,
 			List<LineSegment> nearBuildingsWalls,
 			List<Coordinate> regionCorners,
 			List<Integer> regionCornersFreeToReceiver, double[] freq_lambda) 
 	{
 		// GeometryFactory factory=new GeometryFactory();
-		int freqcount = data.freq_lvl.size();
 		double SrcReceiverDistance = srcCoord.distance(receiverCoord);
 		if (SrcReceiverDistance < data.maxSrcDist) {
 			// Then, check if the source is visible from the receiver (not
@@ -383,14 +490,9 @@ public class PropagationProcess implements Runnable {
 			if (!somethingHideReceiver) {
 				// Evaluation of energy at receiver
 				// add=wj/(4*pi*distance²)
-				for (int idfreq = 0; idfreq < freqcount; idfreq++) {
-					double AttenuatedWj = attDistW(wj.get(idfreq),
-							SrcReceiverDistance);
-					AttenuatedWj = attAtmW(AttenuatedWj,
-                                                SrcReceiverDistance,
-                                                alpha_atmo[idfreq]);
-					energeticSum[idfreq] += AttenuatedWj;
-				}
+				addPathEnergy(wj, attDistW(1., SrcReceiverDistance),
+						atmosphericCoefficient, SrcReceiverDistance,
+						energeticSum);
 
 			}
 			//
@@ -499,20 +601,14 @@ public class PropagationProcess implements Runnable {
 							*/
 							// A path has been found
 							refpathcount+=1;
-							for (int idfreq = 0; idfreq < freqcount; idfreq++) {
-								// Geometric dispersion
-								double AttenuatedWj = attDistW(wj.get(idfreq),
-										ReflectedSrcReceiverDistance);
-								// Apply wall material attenuation
-								AttenuatedWj *= Math.pow((1 - data.wallAlpha),
-										reflectionOrderCounter);
-								// Apply atmospheric absorption and ground
-								AttenuatedWj = attAtmW(
-										AttenuatedWj,
-										ReflectedSrcReceiverDistance,
-										alpha_atmo[idfreq]);
-								energeticSum[idfreq] += AttenuatedWj;
-							}
+							// Geometric dispersion and wall material
+							// attenuation, then atmospheric absorption
+							addPathEnergy(wj, attDistW(1.,
+									ReflectedSrcReceiverDistance)
+									* Math.pow((1 - data.wallAlpha),
+											reflectionOrderCounter),
+									atmosphericCoefficient,
+									ReflectedSrcReceiverDistance, energeticSum);
 						}
 					}
 				}
@@ -557,45 +653,13 @@ public class PropagationProcess implements Runnable {
 								double delta = diffractionFullDistance
 										- SrcReceiverDistance;
 
-								for (int idfreq = 0; idfreq < freqcount; idfreq++) {
-
-									double cprime;
-									//C" NMPB 2008 P.33
-									if (curCorner.size() == 1) {
-										cprime = 1; //Single diffraction cprime=1
-									} else {
-										//Multiple diffraction
-										//CPRIME=( 1+(5*gamma)^2)/((1/3)+(5*gamma)^2)
-										double gammapart=Math.pow((5*freq_lambda[idfreq])/elength, 2);
-										cprime=(1.+gammapart)/(ONETHIRD+gammapart);
-									}
-									//(7.11) NMP2008 P.32
-									double testForm = (40 / freq_lambda[idfreq])
-											* cprime * delta;
-									double DiffractionAttenuation = 0.;
-									if (testForm >= -2.) {
-										DiffractionAttenuation = 10 * Math
-												.log10(3 + testForm);
-									}else{
-										
-									}
-									// Limit to 0<=DiffractionAttenuation
-									DiffractionAttenuation = Math.max(0,
-											DiffractionAttenuation);
-									double AttenuatedWj = wj.get(idfreq);
-									// Geometric dispersion
-									AttenuatedWj=attDistW(AttenuatedWj, SrcReceiverDistance);
-									// Apply diffraction attenuation
-									AttenuatedWj = dbaToW(wToDba(AttenuatedWj)
-											- DiffractionAttenuation);
-									// Apply atmospheric absorption and ground
-									AttenuatedWj = attAtmW(
-											AttenuatedWj,
-											diffractionFullDistance,
-											alpha_atmo[idfreq]);
-									
-									energeticSum[idfreq] += AttenuatedWj;
-								}
+								// Geometric dispersion, diffraction attenuation,
+								// then atmospheric absorption
+								addDiffractionPathEnergy(wj, attDistW(1.,
+										SrcReceiverDistance),
+										atmosphericCoefficient,
+										diffractionFullDistance, freq_lambda,
+										delta, elength, energeticSum);
                                                                 if(diffractionPathCount>LIMITATION_DIFFRACTION_PATH) {
                                                                     break; //exit diffraction search
                                                                 }
@@ -665,19 +729,35 @@ public class PropagationProcess implements Runnable {
 			}
 		}
 	}
-	private static void insertPtSource(Coordinate receiverPos,Coordinate ptpos,List<Double> wj,double li,List<Coordinate> srcPos,List<ArrayList<Double>> srcWj,PointsMerge sourcesMerger,List<Integer> srcSortedIndex,List<Double> srcDistSorted) {
+	/**
+	 * Copy the source energy by frequency band, without boxing when the
+	 * spectrum is stored as float
+	 */
+	private static void getSpectrum(List<Double> wj, double[] values) {
+		if (wj instanceof FloatSpectrum) {
+			FloatSpectrum compactWj = (FloatSpectrum) wj;
+			for (int fb = 0; fb < values.length; fb++) {
+				values[fb] = compactWj.getValue(fb);
+			}
+		} else {
+			for (int fb = 0; fb < values.length; fb++) {
+				values[fb] = wj.get(fb);
+			}
+		}
+	}
+	private static void insertPtSource(Coordinate receiverPos,Coordinate ptpos,double[] wj,double li,List<Coordinate> srcPos,List<double[]> srcWj,PointsMerge sourcesMerger,List<Integer> srcSortedIndex,List<Double> srcDistSorted) {
 		int mergedSrcIndex=sourcesMerger.getOrAppendVertex(ptpos);
 		if(mergedSrcIndex<srcPos.size()) {
-			ArrayList<Double> mergedWj=srcWj.get(mergedSrcIndex);
+			double[] mergedWj=srcWj.get(mergedSrcIndex);
 			//A source already exist and is close enough to merge
-			for(int fb=0;fb<wj.size();fb++) {
-				mergedWj.set(fb, mergedWj.get(fb)+wj.get(fb)*li);
+			for(int fb=0;fb<mergedWj.length;fb++) {
+				mergedWj[fb]+=wj[fb]*li;
 			}
 		} else {
 			//New source
-			ArrayList<Double> liWj=new ArrayList<Double>(wj.size());
-                        for(Double lvl : wj) {
-                            liWj.add(lvl*li);
+			double[] liWj=new double[wj.length];
+                        for(int fb=0;fb<liWj.length;fb++) {
+                            liWj[fb]=wj[fb]*li;
                         }
 			srcPos.add(ptpos);
 			srcWj.add(liWj);
@@ -693,18 +773,43 @@ public class PropagationProcess implements Runnable {
 		}
 	}
 	/**
-	 * Compute the attenuation of atmospheric absorption
-	 * 
-	 * @param Wj
-	 *            Source energy
-	 * @param dist
-	 *            Propagation distance
-	 * @param alpha_atmo
-	 *            Atmospheric alpha (dB/km)
-	 * @return
+	 * Query the sources, walls and corners in range of the receivers within
+	 * NEIGHBOURHOOD_MARGIN of the receiver, unless the last query already
+	 * covers this receiver. Receivers are processed in spatial order, so
+	 * the queries are shared by consecutive receivers.
+	 * @param receiverCoord Receiver position
 	 */
-	private Double attAtmW(double Wj, double dist, double alpha_atmo) {
-		return dbaToW(wToDba(Wj) - (alpha_atmo * dist) / 1000.);
+	private void updateNeighbourhood(Coordinate receiverCoord) {
+		if (neighbourhoodCenter != null
+				&& Math.abs(receiverCoord.x - neighbourhoodCenter.x) <= NEIGHBOURHOOD_MARGIN
+				&& Math.abs(receiverCoord.y - neighbourhoodCenter.y) <= NEIGHBOURHOOD_MARGIN) {
+			return;
+		}
+		neighbourhoodCenter = new Coordinate(receiverCoord);
+		double sourceRange = Math.max(FIRST_STEP_RANGE, data.maxSrcDist)
+				+ NEIGHBOURHOOD_MARGIN;
+		neighbourhoodSources.clear();
+		Iterator<Integer> regionSourcesLst = data.sourcesIndex
+				.query(new Envelope(receiverCoord.x - sourceRange,
+						receiverCoord.x + sourceRange, receiverCoord.y
+								- sourceRange, receiverCoord.y + sourceRange));
+		while (regionSourcesLst.hasNext()) {
+			neighbourhoodSources.add(regionSourcesLst.next());
+		}
+		// Same processing order whatever the index
+		neighbourhoodSources.sort();
+		double range = data.maxRefDist + NEIGHBOURHOOD_MARGIN;
+		if (data.reflexionOrder > 0) {
+			data.freeFieldFinder.getWallsInEnvelope(receiverCoord.x - range,
+					receiverCoord.y - range, receiverCoord.x + range,
+					receiverCoord.y + range, neighbourhoodWalls);
+		}
+		neighbourhoodCorners.clear();
+		if (data.diffractionOrder > 0) {
+			cornersIndex.query(receiverCoord.x - range, receiverCoord.y - range,
+					receiverCoord.x + range, receiverCoord.y + range,
+					neighbourhoodCorners);
+		}
 	}
 	/**
 	 * Compute sound level by frequency band at this receiver position
@@ -712,20 +817,43 @@ public class PropagationProcess implements Runnable {
 	 * @param energeticSum
 	 */
 	public void computeSoundLevelAtPosition(Coordinate receiverCoord,double energeticSum[]) {
+		// The data may have changed since the last call
+		neighbourhoodCenter = null;
+		computeSoundLevel(receiverCoord, energeticSum);
+	}
+	/**
+	 * Compute sound level by frequency band at this receiver position,
+	 * reuse the neighbourhood of the previous receiver of the cell.
+	 * @param receiverCoord
+	 * @param energeticSum
+	 */
+	private void computeSoundLevel(Coordinate receiverCoord,double energeticSum[]) {
+		updateNeighbourhood(receiverCoord);
 		// List of walls within maxReceiverSource distance
                 double srcEnergeticSum=BASE_LVL; //Global energetic sum of all sources processed
 		List<LineSegment> nearBuildingsWalls = null;
 		List<MirrorReceiverResult> mirroredReceiver = null;
 		if (data.reflexionOrder > 0) {
-
-			nearBuildingsWalls = new ArrayList<LineSegment>(
-					data.freeFieldFinder.getLimitsInRange(
-							data.maxRefDist , receiverCoord));
+			FlightRecorderEvent.Instance reflectionEvent = null;
+			if (sampledReceiver) {
+				reflectionEvent = PropagationEvents.REFLECTION_SEARCH.begin();
+			}
+			data.freeFieldFinder.getWallsInRange(data.maxRefDist,
+					receiverCoord, neighbourhoodWalls, wallIds);
+			nearBuildingsWalls = new ArrayList<LineSegment>(wallIds.size());
+			for (int i = 0; i < wallIds.size(); i++) {
+				nearBuildingsWalls.add(data.freeFieldFinder.getWall(wallIds
+						.get(i)));
+			}
 			// Build mirrored receiver list from wall list
 			mirroredReceiver = getMirroredReceiverResults(receiverCoord,
 					nearBuildingsWalls, data.reflexionOrder,
 					data.maxRefDist*2);
 			this.dataOut.appendImageReceiver(mirroredReceiver.size());
+			if (reflectionEvent != null) {
+				reflectionEvent.commit(data.cellId, nearBuildingsWalls.size(),
+						mirroredReceiver.size());
+			}
 		}
 		List<Coordinate> regionCorners = new ArrayList<Coordinate>();
 		List<Integer> regionCornersFreeToReceiver = new ArrayList<Integer>(); // Corners
@@ -734,14 +862,19 @@ public class PropagationProcess implements Runnable {
 																				// with
 																				// receiver
 		if (data.diffractionOrder > 0) {
-			// Query corners in the current zone
-			ArrayCoordinateListVisitor cornerQuery = new ArrayCoordinateListVisitor(
-					receiverCoord, data.maxRefDist);
-			cornersQuad.query(new Envelope(receiverCoord.x
-				-  data.maxRefDist, receiverCoord.x +  data.maxRefDist,
-				receiverCoord.y -  data.maxRefDist, receiverCoord.y
-						+  data.maxRefDist), cornerQuery);
-			regionCorners = cornerQuery.getItems();
+			FlightRecorderEvent.Instance diffractionEvent = null;
+			if (sampledReceiver) {
+				diffractionEvent = PropagationEvents.DIFFRACTION_SEARCH.begin();
+			}
+			// Filter corners of the neighbourhood in the current zone
+			for (int i = 0; i < neighbourhoodCorners.size(); i++) {
+				int idcorner = neighbourhoodCorners.get(i);
+				Coordinate corner = new Coordinate(corners[idcorner * 2],
+						corners[idcorner * 2 + 1]);
+				if (receiverCoord.distance(corner) <= data.maxRefDist) {
+					regionCorners.add(corner);
+				}
+			}
 			// regionCornersFreeToReceiver.ensureCapacity(regionCorners.size());
 			for (int icorner = 0; icorner < regionCorners.size(); icorner++) {
 				if (data.freeFieldFinder.isFreeField(receiverCoord,
@@ -749,34 +882,38 @@ public class PropagationProcess implements Runnable {
 					regionCornersFreeToReceiver.add(icorner);
 				}
 			}
+			if (diffractionEvent != null) {
+				diffractionEvent.commit(data.cellId, regionCorners.size(),
+						regionCornersFreeToReceiver.size());
+			}
 		}
                 // Source search by multiple range query
-                HashSet<Integer> processedLineSources = new HashSet<Integer>(); //Already processed Raw source (line and/or points)
+                boolean[] processedLineSources = new boolean[neighbourhoodSources.size()]; //Already processed Raw source (line and/or points)
                 double[] ranges=new double[] {FIRST_STEP_RANGE,data.maxSrcDist/5,data.maxSrcDist/4,data.maxSrcDist/2,data.maxSrcDist};
                 long sourceCount=0;
+                double[] sourceSpectrum = new double[nbfreq]; // Energy of the current source, by frequency band
  
                 for(double searchSourceDistance : ranges) {
                     Envelope receiverSourceRegion = new Envelope(receiverCoord.x
 				- searchSourceDistance, receiverCoord.x + searchSourceDistance,
 				receiverCoord.y - searchSourceDistance, receiverCoord.y
 						+ searchSourceDistance);
-                    Iterator<Integer> regionSourcesLst = data.sourcesIndex
-                                    .query(receiverSourceRegion);
 
                     PointsMerge sourcesMerger=new PointsMerge(MERGE_SRC_DIST);
                     List<Integer> srcSortByDist = new ArrayList<Integer>();
                     List<Double> srcDist = new ArrayList<Double>();
                     List<Coordinate> srcPos = new ArrayList<Coordinate>();
-                    List<ArrayList<Double>> srcWj= new ArrayList<ArrayList<Double>>();
-                    while (regionSourcesLst.hasNext()) {
-                        Integer srcIndex = regionSourcesLst.next();
-                        if(!processedLineSources.contains(srcIndex)) {
-                            processedLineSources.add(srcIndex);
-                            Geometry source = data.sourceGeometries.get(srcIndex);
-                            List<Double> wj = data.wj_sources.get(srcIndex); // DbaToW(sdsSources.getDouble(srcIndex,dbField
+                    List<double[]> srcWj= new ArrayList<double[]>();
+                    for (int idSource = 0; idSource < neighbourhoodSources.size(); idSource++) {
+                        int srcIndex = neighbourhoodSources.get(idSource);
+                        Geometry source = data.sourceGeometries.get(srcIndex);
+                        if(!processedLineSources[idSource]
+                                && receiverSourceRegion.intersects(source.getEnvelopeInternal())) {
+                            processedLineSources[idSource] = true;
+                            getSpectrum(data.wj_sources.get(srcIndex), sourceSpectrum); // DbaToW(sdsSources.getDouble(srcIndex,dbField
                             if (source instanceof Point) {
                                 Coordinate ptpos = ((Point) source).getCoordinate();
-                                insertPtSource(receiverCoord,ptpos, wj, 1., srcPos, srcWj, sourcesMerger,srcSortByDist,srcDist);
+                                insertPtSource(receiverCoord,ptpos, sourceSpectrum, 1., srcPos, srcWj, sourcesMerger,srcSortByDist,srcDist);
                                 // Compute li to equation 4.1 NMPB 2008 (June 2009)
                             } else {
                                 // Discretization of line into multiple point
@@ -786,7 +923,7 @@ public class PropagationProcess implements Runnable {
                                 double li = splitLineStringIntoPoints(source, receiverCoord,
                                                 pts, data.minRecDist);
                                 for(Coordinate pt : pts) {
-                                        insertPtSource(receiverCoord,pt, wj, li, srcPos, srcWj, sourcesMerger,srcSortByDist,srcDist);
+                                        insertPtSource(receiverCoord,pt, sourceSpectrum, li, srcPos, srcWj, sourcesMerger,srcSortByDist,srcDist);
                                 }
                                 // Compute li to equation 4.1 NMPB 2008 (June 2009)
                             }
@@ -796,11 +933,11 @@ public class PropagationProcess implements Runnable {
                     for (int mergedSrcId : srcSortByDist) {
                             // For each Pt Source - Pt Receiver
                             Coordinate srcCoord=srcPos.get(mergedSrcId);
-                            ArrayList<Double> wj= srcWj.get(mergedSrcId);
+                            double[] wj= srcWj.get(mergedSrcId);
                             double allreceiverfreqlvl = GetGlobalLevel(nbfreq,energeticSum);
                             double allsourcefreqlvl = 0;
                             for (int idfreq = 0; idfreq < nbfreq; idfreq++) {
-                                    allsourcefreqlvl += wj.get(idfreq);
+                                    allsourcefreqlvl += wj[idfreq];
                             }
 
                             double wAttDistSource=attDistW(allsourcefreqlvl,srcCoord.distance(receiverCoord));
@@ -808,7 +945,7 @@ public class PropagationProcess implements Runnable {
                             if(Math.abs(wToDba(wAttDistSource+allreceiverfreqlvl)-wToDba(allreceiverfreqlvl))>DBA_FORGET_SOURCE) {
                                 sourceCount++;
                                 receiverSourcePropa(srcCoord, receiverCoord, energeticSum,
-                                                alpha_atmo, wj, mirroredReceiver,
+                                                wj, mirroredReceiver,
                                                 nearBuildingsWalls, regionCorners,
                                                 regionCornersFreeToReceiver, freq_lambda);
                             }
@@ -819,6 +956,7 @@ public class PropagationProcess implements Runnable {
                     }
                 }
                 dataOut.appendSourceCount(sourceCount);
+                receiverSourceCount=sourceCount;
 	}
 	/**
 	 * Must be called before computeSoundLevelAtPosition
@@ -839,18 +977,160 @@ public class PropagationProcess implements Runnable {
 		for (int idfreq = 0; idfreq < nbfreq; idfreq++) {
 			alpha_atmo[idfreq] = getAlpha(data.freq_lvl.get(idfreq));
 		}
+		atmosphericCoefficient = getAtmosphericCoefficients(alpha_atmo);
 		// /////////////////////////////////////////////
 		// Search diffraction corners
-		cornersQuad = new Quadtree();
 		if (data.diffractionOrder > 0) {
-			List<Coordinate> corners = data.freeFieldFinder.getWideAnglePoints(
+			corners = data.freeFieldFinder.getWideAngleCorners(
 					Math.PI * (1 + 1 / 16.0), Math.PI * (2 - (1 / 16.)));
-			// Build Quadtree
-			for (Coordinate corner : corners) {
-				cornersQuad.insert(new Envelope(corner), corner);
+		} else {
+			corners = new double[0];
+		}
+		cornersIndex = new PointGridIndex(corners, corners.length / 2);
+		neighbourhoodCenter = null;
+	}
+	/**
+	 * Classify the receivers against the buildings, in the Hilbert curve
+	 * order. Receivers closer than FACADE_DISTANCE to a wall are moved
+	 * outward at FACADE_DISTANCE of the wall, the other receivers inside a
+	 * building are not computed.
+	 */
+	private void classifyReceivers() {
+		receiversClass = new int[data.vertices.size()];
+		long facadeCount = 0;
+		long insideCount = 0;
+		for (int idReceiver : HilbertCurve.sort(data.vertices, 0,
+				data.vertices.size())) {
+			Coordinate receiverCoord = data.vertices.get(idReceiver);
+			boolean obstructed = data.freeFieldFinder.isObstructed(receiverCoord);
+			int wallId = data.freeFieldFinder.getNearestWall(receiverCoord,
+					FACADE_DISTANCE);
+			int receiverClass = PropagationResultPtRecord.RECEIVER_FREE;
+			if (wallId != -1) {
+				// Move the receiver at FACADE_DISTANCE of the wall, on the
+				// free field side (left of the wall)
+				LineSegment wall = data.freeFieldFinder.getWall(wallId);
+				Coordinate wallPoint = wall.closestPoint(receiverCoord);
+				double length = wall.getLength();
+				Coordinate moved = new Coordinate(wallPoint.x
+						- (wall.p1.y - wall.p0.y) / length * FACADE_DISTANCE,
+						wallPoint.y + (wall.p1.x - wall.p0.x) / length
+								* FACADE_DISTANCE, receiverCoord.z);
+				if (!data.freeFieldFinder.isObstructed(moved)) {
+					data.vertices.set(idReceiver, moved);
+					receiverClass = PropagationResultPtRecord.RECEIVER_FACADE;
+				} else if (obstructed) {
+					receiverClass = PropagationResultPtRecord.RECEIVER_INSIDE;
+				}
+			} else if (obstructed) {
+				receiverClass = PropagationResultPtRecord.RECEIVER_INSIDE;
+			}
+			if (receiverClass == PropagationResultPtRecord.RECEIVER_FACADE) {
+				facadeCount++;
+			} else if (receiverClass == PropagationResultPtRecord.RECEIVER_INSIDE) {
+				insideCount++;
+			}
+			receiversClass[idReceiver] = receiverClass;
+		}
+		dataOut.appendFacadeReceiver(facadeCount);
+		dataOut.appendInsideReceiver(insideCount);
+	}
+	/**
+	 * Compute the sound level of the receivers in the range [first,last[.
+	 * Receivers are processed in the Hilbert curve order, so that the
+	 * triangle and source lookups of consecutive receivers are close.
+	 * @param verticesSoundLevel Output energetic sound level of receivers
+	 * @param first First receiver index
+	 * @param last Last receiver index (excluded)
+	 */
+	private void computeReceivers(double[] verticesSoundLevel, int first,
+			int last) {
+		ProgressionProcess propaProcessProgression = data.cellProg;
+		int[] receiversOrder = HilbertCurve.sort(data.vertices, first, last);
+		for (int idReceiver : receiversOrder) {
+			Coordinate receiverCoord = data.vertices.get(idReceiver);
+                        long debReceiverTime = System.nanoTime();
+			FlightRecorderEvent.Instance receiverEvent = null;
+			if (PropagationEvents.isSampledReceiver(idReceiver)) {
+				receiverEvent = PropagationEvents.RECEIVER_PROPAGATION.begin();
+			}
+			sampledReceiver = receiverEvent != null && receiverEvent.isEnabled();
+                        
+			propaProcessProgression.nextSubProcessEnd();
+			if (receiversClass != null && idReceiver < receiversClass.length
+					&& receiversClass[idReceiver] == PropagationResultPtRecord.RECEIVER_INSIDE) {
+				verticesSoundLevel[idReceiver] = BASE_LVL;
+				continue;
+			}
+			// Receivers on the cell border may be already computed by a neighbor cell
+			boolean sharedReceiver = data.borderReceivers != null
+					&& SharedBorderReceivers.isOnBorder(data.cellEnvelope, receiverCoord);
+			if (sharedReceiver) {
+				double sharedLevel = data.borderReceivers.getLevel(receiverCoord);
+				if (!Double.isNaN(sharedLevel)) {
+					verticesSoundLevel[idReceiver] = sharedLevel;
+					dataOut.appendSharedReceiver(1);
+					continue;
+				}
+			}
+			double energeticSum[] = new double[data.freq_lvl.size()];
+			for (int idfreq = 0; idfreq < nbfreq; idfreq++) {
+				energeticSum[idfreq] = 0.0;
+			}
+			if (!data.shareNeighbourhood) {
+				neighbourhoodCenter = null;
+			}
+			// The shared slot is owned until the level is published, release
+			// it on any failure or the neighbor cells would wait forever
+			boolean published = false;
+			try {
+				computeSoundLevel(receiverCoord, energeticSum);
+				// Save the sound level at this receiver
+				// Do the sum of all frequency bands
+				double allfreqlvl = 0;
+				for (int idfreq = 0; idfreq < nbfreq; idfreq++) {
+					allfreqlvl += energeticSum[idfreq];
+				}
+				allfreqlvl = Math.max(allfreqlvl, BASE_LVL);
+				verticesSoundLevel[idReceiver] = allfreqlvl;
+				if (sharedReceiver) {
+					data.borderReceivers.setLevel(receiverCoord, allfreqlvl);
+					published = true;
+				}
+			} finally {
+				if (sharedReceiver && !published) {
+					data.borderReceivers.abandon(receiverCoord);
+				}
+			}
+
+                        long computeTime=System.nanoTime()-debReceiverTime;
+                        sumComputeTime+=computeTime;
+                        dataOut.updateMinimalReceiverComputationTime(computeTime);
+                        dataOut.updateMaximalReceiverComputationTime(computeTime);
+                        dataOut.addSumReceiverComputationTime(computeTime);
+                        dataOut.recordReceiverComputationTime(computeTime);
+                        publishCounters();
+			if (sampledReceiver) {
+				receiverEvent.commit(data.cellId, idReceiver, receiverSourceCount);
 			}
 		}
 	}
+	/**
+	 * Add to dataOut the counters incremented since the last call, then
+	 * the statistics are updated during the computation of the cell
+	 */
+	private void publishCounters() {
+		dataOut.appendReflexionPath(refpathcount - publishedReflexionPath);
+		publishedReflexionPath = refpathcount;
+		dataOut.appendDiffractionPath(diffractionPathCount
+				- publishedDiffractionPath);
+		publishedDiffractionPath = diffractionPathCount;
+		long obstructionTest = data.freeFieldFinder.getNbObstructionTest();
+		dataOut.appendFreeFieldTestCount(obstructionTest
+				- publishedObstructionTest);
+		publishedObstructionTest = obstructionTest;
+	}
+
 	@Override
 	public void run() {
 		initStructures();
@@ -875,36 +1155,34 @@ public class PropagationProcess implements Runnable {
 																		// vertices
 
 
+		if (data.classifyReceivers) {
+			classifyReceivers();
+		}
 		// For each vertices, find sources where the distance is within
 		// maxSrcDist meters
-		ProgressionProcess propaProcessProgression = data.cellProg;
-		int idReceiver = 0;
-                long min_compute_time=Long.MAX_VALUE;
-                long max_compute_time=0;
-                long sum_compute=0;
-		for (Coordinate receiverCoord : data.vertices) {
-                        long debReceiverTime = System.nanoTime();
-                        
-			propaProcessProgression.nextSubProcessEnd();
-			double energeticSum[] = new double[data.freq_lvl.size()];
-			for (int idfreq = 0; idfreq < nbfreq; idfreq++) {
-				energeticSum[idfreq] = 0.0;
+		computeReceivers(verticesSoundLevel, 0, data.vertices.size());
+		if (data.triangles != null && data.triNeighbors != null
+				&& data.refineTolerance > 0) {
+			// Insert receivers where the sound level gradient is too high,
+			// then compute only the new receivers
+			MeshRefinement refinement = new MeshRefinement(data.vertices,
+					data.triangles, data.triNeighbors);
+			if (data.meshConstraints != null) {
+				refinement.setConstraints(data.meshConstraints);
 			}
-			computeSoundLevelAtPosition(receiverCoord, energeticSum);
-			// Save the sound level at this receiver
-			// Do the sum of all frequency bands
-			double allfreqlvl = 0;
-			for (int idfreq = 0; idfreq < nbfreq; idfreq++) {
-				allfreqlvl += energeticSum[idfreq];
+			for (int iteration = 0; iteration < data.refineMaxIterations; iteration++) {
+				int firstNewReceiver = data.vertices.size();
+				int inserted = refinement.refine(verticesSoundLevel,
+						data.refineTolerance, data.refineMinArea);
+				if (inserted == 0) {
+					break; // Converged
+				}
+				verticesSoundLevel = Arrays.copyOf(verticesSoundLevel,
+						data.vertices.size());
+				computeReceivers(verticesSoundLevel, firstNewReceiver,
+						data.vertices.size());
+				dataOut.appendRefinedReceiver(inserted);
 			}
-                        allfreqlvl= Math.max(allfreqlvl,BASE_LVL);
-			verticesSoundLevel[idReceiver] = allfreqlvl;
-
-                        long computeTime=System.nanoTime()-debReceiverTime;
-                        min_compute_time=Math.min(computeTime, min_compute_time);
-                        max_compute_time=Math.max(computeTime, max_compute_time);
-                        sum_compute+=computeTime;
-			idReceiver++;
 		}
                 if(data.triangles!=null) { //Triangle output type
                     // Subdivide each triangle, and apply BiCubic interpolation.
@@ -913,35 +1191,30 @@ public class PropagationProcess implements Runnable {
                      * bicubictri.ensureCapacity(data.triangles.size()); for(Triangle tri :
                      * data.triangles) { //////////////////////// //Find the fourth vertex }
                      */
-                    // Now export all triangles with the sound level at each vertices
-                    int tri_id = 0;
-                    for (Triangle tri : data.triangles) {
-                            Coordinate pverts[] = { data.vertices.get(tri.getA()),
-                                            data.vertices.get(tri.getB()),
-                                            data.vertices.get(tri.getC()),
-                                            data.vertices.get(tri.getA()) };
-                            dataOut.addValues(new PropagationResultTriRecord(
-                                    factory.createPolygon(factory.createLinearRing(pverts), null),
-                                    verticesSoundLevel[tri.getA()],
-                                    verticesSoundLevel[tri.getB()],
-                                    verticesSoundLevel[tri.getC()],
-                                    data.cellId,
-                                    tri_id));
-                            tri_id++;
+                    // Now export all triangles with the sound level at each vertices,
+                    // written from the mesh arrays without record objects
+                    try {
+                        FlightRecorderEvent.Instance writingEvent = PropagationEvents.RESULT_WRITING.begin();
+                        data.checkpoint.writeTriCell(data.cellId, data.vertices, data.triangles, verticesSoundLevel);
+                        writingEvent.commit(data.cellId, data.triangles.size());
+                    } catch (IOException e) {
+                        // Reported by the function, the cell is not computed
+                        dataOut.setWriteError(e);
                     }
                 } else {
                     //Vertices output type
-                    for(int receiverId=0;receiverId<data.vertices.size();receiverId++) {
-                        dataOut.addValues(new PropagationResultPtRecord(data.receiverRowId.get(receiverId), data.cellId,verticesSoundLevel[receiverId] ));
+                    try {
+                        FlightRecorderEvent.Instance writingEvent = PropagationEvents.RESULT_WRITING.begin();
+                        data.checkpoint.writePtCell(data.cellId, data.receiverRowId, verticesSoundLevel, receiversClass);
+                        writingEvent.commit(data.cellId, data.vertices.size());
+                    } catch (IOException e) {
+                        // Reported by the function, the cell is not computed
+                        dataOut.setWriteError(e);
                     }
                 }
-		dataOut.appendFreeFieldTestCount(data.freeFieldFinder.getNbObstructionTest());
-		dataOut.appendCellComputed();
-                dataOut.updateMaximalReceiverComputationTime(max_compute_time);
-                dataOut.updateMinimalReceiverComputationTime(min_compute_time);
-                dataOut.addSumReceiverComputationTime(sum_compute);
-                dataOut.appendDiffractionPath(diffractionPathCount);
-		dataOut.appendReflexionPath(refpathcount);
+		publishCounters();
+		dataOut.appendCellComputed(data.cellId, sumComputeTime);
+		data.cellProg.close();
 	}
 
 }
@@ -34,8 +34,9 @@
 package org.noisemap.core;
 
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
-import java.util.ArrayList;
+import com.vividsolutions.jts.geom.LineString;
 import java.util.List;
 import org.gdms.data.DataSourceFactory;
 
@@ -52,7 +53,7 @@ public class PropagationProcessData {
 	public QueryGeometryStructure sourcesIndex; // Source Index
 	public List<Geometry> sourceGeometries; // Sources geometries. Can be
 											// LINESTRING or POINT
-	public List<ArrayList<Double>> wj_sources; // Sound level of source. By
+	public List<? extends List<Double>> wj_sources; // Sound level of source. By
 												// frequency band, energetic
 	public List<Integer> freq_lvl; // Frequency bands values, by third octave
 	public int reflexionOrder; // reflexionOrder
@@ -64,8 +65,18 @@ public class PropagationProcessData {
 	public int cellId; // cell id
 	public DataSourceFactory dsf; // Debug purpose
 	public ProgressionProcess cellProg; // Progression information
+	public List<Triangle> triNeighbors; // Neighbors of triangles, required by the mesh refinement
+	public List<LineString> meshConstraints; // Constraint lines of the mesh, not flipped by the mesh refinement
+	public double refineTolerance = 0; // Refine triangles where the vertices level spread is greater than this value (dB). 0 to disable
+	public int refineMaxIterations = 0; // Maximum number of refinement pass
+	public double refineMinArea = 1; // Triangles smaller than this area (m²) are not refined
+	public SharedBorderReceivers borderReceivers; // Receivers shared with the neighbor cells, null if not shared
+	public Envelope cellEnvelope; // Envelope of the cell, required by borderReceivers
+	public boolean classifyReceivers = false; // Move the receivers on walls outward and skip the receivers inside buildings
+	public boolean shareNeighbourhood = true; // Share the sources, walls and corners queries between nearby receivers of the cell
+	public CellCheckpoint checkpoint; // Save the results of the cell in a work directory, required
 
-    public PropagationProcessData(List<Coordinate> vertices, List<Long> receiverRowId, List<Triangle> triangles, FastObstructionTest freeFieldFinder, QueryGeometryStructure sourcesIndex, List<Geometry> sourceGeometries, List<ArrayList<Double>> wj_sources, List<Integer> freq_lvl, int reflexionOrder, int diffractionOrder, double maxSrcDist, double maxRefDist, double minRecDist, double wallAlpha, int cellId, DataSourceFactory dsf, ProgressionProcess cellProg) {
+    public PropagationProcessData(List<Coordinate> vertices, List<Long> receiverRowId, List<Triangle> triangles, FastObstructionTest freeFieldFinder, QueryGeometryStructure sourcesIndex, List<Geometry> sourceGeometries, List<? extends List<Double>> wj_sources, List<Integer> freq_lvl, int reflexionOrder, int diffractionOrder, double maxSrcDist, double maxRefDist, double minRecDist, double wallAlpha, int cellId, DataSourceFactory dsf, ProgressionProcess cellProg) {
         this.vertices = vertices;
         this.receiverRowId = receiverRowId;
         this.triangles = triangles;
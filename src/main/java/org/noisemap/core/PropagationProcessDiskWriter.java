@@ -40,6 +40,8 @@ import org.gdms.driver.DiskBufferDriver;
 import org.gdms.driver.DriverException;
 import org.gdms.data.values.ValueFactory;
 import org.gdms.driver.DataSet;
+import org.noisemap.profile.FlightRecorderEvent;
+import org.noisemap.profile.PropagationEvents;
 
 /**
  * 
@@ -52,6 +54,7 @@ public class PropagationProcessDiskWriter implements Runnable {
 	private Stack<PropagationResultPtRecord> ptToDriver;
 	private DiskBufferDriver driver;
         private DataSet sdsReceivers;
+        private int receiversFieldCount = -1;
 
         public PropagationProcessDiskWriter(Stack<PropagationResultTriRecord> triToDriver, Stack<PropagationResultPtRecord> ptToDriver, DiskBufferDriver driver, DataSet sdsReceivers) {
             thread = new Thread(this);
@@ -81,43 +84,69 @@ public class PropagationProcessDiskWriter implements Runnable {
 		watchingStack = false;
 	}
 
+	/**
+	 * Write a triangle row in the driver
+	 * @param values Triangle with sound level
+	 * @throws DriverException
+	 */
+	public void writeRecord(PropagationResultTriRecord values) throws DriverException {
+		Value[] row = new Value[6];
+		row[0] = ValueFactory.createValue(values.getTriangle());
+		row[1] = ValueFactory.createValue(values.getV1());
+		row[2] = ValueFactory.createValue(values.getV2());
+		row[3] = ValueFactory.createValue(values.getV3());
+		row[4] = ValueFactory.createValue(values.getCellId());
+		row[5] = ValueFactory.createValue(values.getTriId());
+		driver.addValues(row);
+	}
+
+	/**
+	 * Write a receiver row, with the fields of the receivers table, in the
+	 * driver
+	 * @param values Receiver sound level
+	 * @throws DriverException
+	 */
+	public void writeRecord(PropagationResultPtRecord values) throws DriverException {
+		if (receiversFieldCount < 0) {
+			receiversFieldCount = sdsReceivers.getMetadata().getFieldCount();
+		}
+		int fieldCount = receiversFieldCount;
+		final Value[] newValues = new Value[fieldCount + 3];
+		final Value[] receiverValues=sdsReceivers.getRow(values.getReceiverRecordRow());
+		System.arraycopy(receiverValues, 0, newValues, 0, receiverValues.length);
+		//Add dB value, cellId and receiver class
+		newValues[fieldCount] = ValueFactory.createValue(values.getReceiverLvl());
+		newValues[fieldCount+1] = ValueFactory.createValue(values.getCellId());
+		newValues[fieldCount+2] = ValueFactory.createValue(values.getReceiverClass());
+		driver.addValues(newValues);
+	}
+
 	@Override
 	public void run() {
-                int fieldCount=0;
                 try {
-                    if(sdsReceivers!=null) {
-                        fieldCount = sdsReceivers.getMetadata().getFieldCount();
-                    }
                     while (watchingStack) {
                         try {
                                 Thread.sleep(10);
                         } catch (InterruptedException e) {
                                 break;
                         }
+                        // Records of several cells, the cell id is not known
+                        FlightRecorderEvent.Instance writingEvent = PropagationEvents.RESULT_WRITING.begin();
+                        long written = 0;
                         if(triToDriver!=null) {
                             while (!triToDriver.empty()) {
-                                    PropagationResultTriRecord values = triToDriver.pop();
-                                    Value[] row = new Value[6];
-                                    row[0] = ValueFactory.createValue(values.getTriangle());
-                                    row[1] = ValueFactory.createValue(values.getV1());
-                                    row[2] = ValueFactory.createValue(values.getV2());
-                                    row[3] = ValueFactory.createValue(values.getV3());
-                                    row[4] = ValueFactory.createValue(values.getCellId());
-                                    row[5] = ValueFactory.createValue(values.getTriId());
-                                    driver.addValues(row);
+                                    writeRecord(triToDriver.pop());
+                                    written++;
                             }
                         }else if(ptToDriver!=null && sdsReceivers!=null) {
                             while (!ptToDriver.empty()) {
-                                PropagationResultPtRecord values = ptToDriver.pop();
-                                final Value[] newValues = new Value[fieldCount + 2];
-                                final Value[] receiverValues=sdsReceivers.getRow(values.getReceiverRecordRow());
-                                System.arraycopy(receiverValues, 0, newValues, 0, receiverValues.length);
-                                //Add dB value and cellId
-                                newValues[fieldCount] = ValueFactory.createValue(values.getReceiverLvl());
-                                newValues[fieldCount+1] = ValueFactory.createValue(values.getCellId());
-                                driver.addValues(newValues);
+                                writeRecord(ptToDriver.pop());
+                                written++;
                             }
                         }
+                        if(written > 0) {
+                            writingEvent.commit(-1, written);
+                        }
                     }
                 } catch (DriverException e) {
                         e.printStackTrace();
@@ -33,11 +33,15 @@
  */
 package org.noisemap.core;
 
+import java.io.IOException;
 import java.util.Stack;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Way to store data computed by thread.
- * Multiple threads use the same Out, then all methods has been synchronized
+ * Multiple threads use the same Out. The results stacks are synchronized,
+ * the counters are striped to be updated without lock and read while the
+ * computation is running.
  * 
  * @author Nicolas Fortin
  */
@@ -45,38 +49,64 @@ public class PropagationProcessOut {
 	private Stack<PropagationResultTriRecord> triToDriver;
         private Stack<PropagationResultPtRecord> ptToDriver;
 
-	private long nb_couple_receiver_src = 0;
-	private long nb_obstr_test = 0;
-	private long nb_image_receiver = 0;
-	private long nb_reflexion_path = 0;
-        private long nb_diffraction_path = 0;
-	private long cellComputed = 0;
-        private long minimalReceiverComputationTime=Long.MAX_VALUE;
-        private long maximalReceiverComputationTime=0;
-        private long sumReceiverComputationTime=0;
-
-        public synchronized long getSumReceiverComputationTime() {
-            return sumReceiverComputationTime;
+	private final StripedCounter nb_couple_receiver_src = new StripedCounter();
+	private final StripedCounter nb_obstr_test = new StripedCounter();
+	private final StripedCounter nb_image_receiver = new StripedCounter();
+	private final StripedCounter nb_reflexion_path = new StripedCounter();
+        private final StripedCounter nb_diffraction_path = new StripedCounter();
+	private final StripedCounter cellComputed = new StripedCounter();
+        private final StripedCounter nb_refined_receiver = new StripedCounter();
+        private final StripedCounter nb_shared_receiver = new StripedCounter();
+        private final StripedCounter nb_facade_receiver = new StripedCounter();
+        private final StripedCounter nb_inside_receiver = new StripedCounter();
+        private volatile CellCostModel costModel;
+        private volatile IOException writeError = null; // First failure to write the results of a cell
+        private final AtomicLong minimalReceiverComputationTime=new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong maximalReceiverComputationTime=new AtomicLong(0);
+        private final StripedCounter sumReceiverComputationTime=new StripedCounter();
+        private final ReceiverTimeHistogram receiverComputationTime=new ReceiverTimeHistogram();
+
+        public long getSumReceiverComputationTime() {
+            return sumReceiverComputationTime.sum();
         }
 
-        public synchronized void addSumReceiverComputationTime(long sumReceiverComputationTime) {
-            this.sumReceiverComputationTime += sumReceiverComputationTime;
+        public void addSumReceiverComputationTime(long sumReceiverComputationTime) {
+            this.sumReceiverComputationTime.add(sumReceiverComputationTime);
         }
 
+        /**
+         * @param value Computation time of one receiver (ns)
+         */
+        public void recordReceiverComputationTime(long value) {
+            receiverComputationTime.record(value);
+        }
+
+        /**
+         * @return Computation time of receivers (ns), updated for each receiver
+         */
+        public ReceiverTimeHistogram getReceiverComputationTimeHistogram() {
+            return receiverComputationTime;
+        }
 
-        public synchronized void updateMinimalReceiverComputationTime(long value) {
-            minimalReceiverComputationTime=Math.min(minimalReceiverComputationTime,value);
+        public void updateMinimalReceiverComputationTime(long value) {
+            long current=minimalReceiverComputationTime.get();
+            while(value<current && !minimalReceiverComputationTime.compareAndSet(current, value)) {
+                current=minimalReceiverComputationTime.get();
+            }
         }
-        public synchronized void updateMaximalReceiverComputationTime(long value) {
-            maximalReceiverComputationTime=Math.max(maximalReceiverComputationTime,value);
+        public void updateMaximalReceiverComputationTime(long value) {
+            long current=maximalReceiverComputationTime.get();
+            while(value>current && !maximalReceiverComputationTime.compareAndSet(current, value)) {
+                current=maximalReceiverComputationTime.get();
+            }
         }
 
-        public synchronized long getMaximalReceiverComputationTime() {
-            return maximalReceiverComputationTime;
+        public long getMaximalReceiverComputationTime() {
+            return maximalReceiverComputationTime.get();
         }
 
-        public synchronized long getMinimalReceiverComputationTime() {
-            return minimalReceiverComputationTime;
+        public long getMinimalReceiverComputationTime() {
+            return minimalReceiverComputationTime.get();
         }
 
         public PropagationProcessOut(Stack<PropagationResultTriRecord> triToDriver, Stack<PropagationResultPtRecord> ptToDriver) {
@@ -94,54 +124,119 @@ public class PropagationProcessOut {
 		ptToDriver.push(record);
 	}
 
-	public synchronized long getNb_couple_receiver_src() {
-		return nb_couple_receiver_src;
+	public long getNb_couple_receiver_src() {
+		return nb_couple_receiver_src.sum();
 	}
 
-	public synchronized long getNb_obstr_test() {
-		return nb_obstr_test;
+	public long getNb_obstr_test() {
+		return nb_obstr_test.sum();
 	}
-	public synchronized void appendReflexionPath(long added) {
-		nb_reflexion_path+=added;
+	public void appendReflexionPath(long added) {
+		nb_reflexion_path.add(added);
 	}
-	public synchronized void appendDiffractionPath(long added) {
-		nb_diffraction_path+=added;
+	public void appendDiffractionPath(long added) {
+		nb_diffraction_path.add(added);
 	}
 
-        public synchronized long getNb_diffraction_path() {
-            return nb_diffraction_path;
+        public long getNb_diffraction_path() {
+            return nb_diffraction_path.sum();
         }
-	public synchronized void appendImageReceiver(long added) {
-		nb_image_receiver+=added;
+	public void appendImageReceiver(long added) {
+		nb_image_receiver.add(added);
+	}
+	public long getNb_image_receiver() {
+		return nb_image_receiver.sum();
 	}
-	public synchronized long getNb_image_receiver() {
-		return nb_image_receiver;
+
+	public long getNb_reflexion_path() {
+		return nb_reflexion_path.sum();
+	}
+
+	public void appendRefinedReceiver(long added) {
+		nb_refined_receiver.add(added);
 	}
 
-	public synchronized long getNb_reflexion_path() {
-		return nb_reflexion_path;
+        public long getNb_refined_receiver() {
+            return nb_refined_receiver.sum();
+        }
+
+	public void appendSharedReceiver(long added) {
+		nb_shared_receiver.add(added);
 	}
 
-	public synchronized void appendSourceCount(long srcCount) {
-		nb_couple_receiver_src += srcCount;
+        public long getNb_shared_receiver() {
+            return nb_shared_receiver.sum();
+        }
+
+	public void appendFacadeReceiver(long added) {
+		nb_facade_receiver.add(added);
 	}
 
-	public synchronized void appendFreeFieldTestCount(long freeFieldTestCount) {
-		nb_obstr_test += freeFieldTestCount;
+        public long getNb_facade_receiver() {
+            return nb_facade_receiver.sum();
+        }
+
+	public void appendInsideReceiver(long added) {
+		nb_inside_receiver.add(added);
+	}
+
+        public long getNb_inside_receiver() {
+            return nb_inside_receiver.sum();
+        }
+
+	public void appendSourceCount(long srcCount) {
+		nb_couple_receiver_src.add(srcCount);
+	}
+
+	public void appendFreeFieldTestCount(long freeFieldTestCount) {
+		nb_obstr_test.add(freeFieldTestCount);
 	}
 
 	public synchronized void log(String str) {
 
 	}
 
+	/**
+	 * Set the cost model to notify of cell completion
+	 * @param costModel
+	 */
+	public void setCostModel(CellCostModel costModel) {
+		this.costModel = costModel;
+	}
+
 	/**
 	 * Increment cell computed counter by 1
+	 * @param cellId Computed cell
+	 * @param computationTime Sum of the computation time of the receivers
+	 *        of the cell (ns)
 	 */
-	public synchronized void appendCellComputed() {
-		cellComputed += 1;
+	public void appendCellComputed(int cellId, long computationTime) {
+		cellComputed.increment();
+		if (costModel != null) {
+			costModel.cellComputed(cellId, computationTime);
+		}
 	}
 
-	public synchronized long getCellComputed() {
-		return cellComputed;
+	public long getCellComputed() {
+		return cellComputed.sum();
+	}
+
+	/**
+	 * Record a failure to write the results of a cell, only the first
+	 * failure is kept
+	 * @param error Write error
+	 */
+	public synchronized void setWriteError(IOException error) {
+		if (writeError == null) {
+			writeError = error;
+		}
+	}
+
+	/**
+	 * @return The first failure to write the results of a cell, null if
+	 *         all the results have been written
+	 */
+	public IOException getWriteError() {
+		return writeError;
 	}
 }
@@ -39,14 +39,34 @@ package org.noisemap.core;
  * @author Nicolas Fortin
  */
 public class PropagationResultPtRecord {
+    public static final int RECEIVER_FREE = 0; // Receiver in free field
+    public static final int RECEIVER_FACADE = 1; // Receiver on a wall, moved outward
+    public static final int RECEIVER_INSIDE = 2; // Receiver inside a building, not computed
     private long receiverRecordRow;
     private int cellId;
     private double receiverLvl;
+    private int receiverClass;
 
     public PropagationResultPtRecord(long receiverRecordRow, int cellId, double receiverLvl) {
+        this(receiverRecordRow, cellId, receiverLvl, RECEIVER_FREE);
+    }
+
+    public PropagationResultPtRecord(long receiverRecordRow, int cellId, double receiverLvl, int receiverClass) {
         this.receiverRecordRow = receiverRecordRow;
         this.cellId = cellId;
         this.receiverLvl = receiverLvl;
+        this.receiverClass = receiverClass;
+    }
+
+    /**
+     * @return RECEIVER_FREE, RECEIVER_FACADE or RECEIVER_INSIDE
+     */
+    public int getReceiverClass() {
+        return receiverClass;
+    }
+
+    public void setReceiverClass(int receiverClass) {
+        this.receiverClass = receiverClass;
     }
 
     public int getCellId() {
@@ -0,0 +1,275 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.core;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.apache.log4j.Logger;
+
+/**
+ * Publish the counters of a PropagationProcessOut while the computation is
+ * running, through a JMX MBean and optionally a snapshot file rewritten
+ * periodically.
+ * @author Nicolas Fortin
+ */
+public class PropagationStatistics implements PropagationStatisticsMBean {
+	// Distinguish the MBeans of the computations running in the same JVM
+	private static final AtomicInteger RUN_SEQUENCE = new AtomicInteger();
+	private final PropagationProcessOut dataOut;
+	private final Logger logger;
+	private final ObjectName objectName;
+	private final long beginTime = System.currentTimeMillis();
+	private Timer snapshotTimer;
+	private File snapshotFile;
+
+	/**
+	 * @param name Name of the computation, ex: BR_TriGrid
+	 * @param dataOut Counters of the computation
+	 * @param logger Logger of the computation
+	 */
+	public PropagationStatistics(String name, PropagationProcessOut dataOut,
+			Logger logger) {
+		this.dataOut = dataOut;
+		this.logger = logger;
+		ObjectName objName = null;
+		try {
+			objName = new ObjectName("org.noisemap:type=PropagationStatistics,name="
+					+ name + ",run=" + RUN_SEQUENCE.incrementAndGet());
+		} catch (JMException ex) {
+			logger.error("Invalid statistics MBean name", ex);
+		}
+		this.objectName = objName;
+	}
+
+	/**
+	 * Register the MBean and start the snapshot writing
+	 * @param snapshotFile Snapshot file, null to not write snapshots
+	 * @param period Delay between two snapshots (ms)
+	 */
+	public void start(File snapshotFile, long period) {
+		if (objectName != null) {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			try {
+				server.registerMBean(this, objectName);
+			} catch (JMException ex) {
+				logger.error("Unable to register the statistics MBean "
+						+ objectName, ex);
+			}
+		}
+		if (snapshotFile != null) {
+			this.snapshotFile = snapshotFile;
+			snapshotTimer = new Timer("PropagationStatistics", true);
+			snapshotTimer.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					writeSnapshot();
+				}
+			}, period, period);
+		}
+	}
+
+	/**
+	 * Write the last snapshot and unregister the MBean
+	 */
+	public void stop() {
+		if (snapshotTimer != null) {
+			snapshotTimer.cancel();
+			snapshotTimer = null;
+			writeSnapshot();
+		}
+		if (objectName != null) {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			try {
+				if (server.isRegistered(objectName)) {
+					server.unregisterMBean(objectName);
+				}
+			} catch (JMException ex) {
+				logger.error("Unable to unregister the statistics MBean "
+						+ objectName, ex);
+			}
+		}
+	}
+
+	/**
+	 * @return Values of all counters, in a stable order
+	 */
+	public Map<String, Object> getSnapshot() {
+		Map<String, Object> snapshot = new LinkedHashMap<String, Object>();
+		snapshot.put("time", System.currentTimeMillis());
+		snapshot.put("elapsed_time", getElapsedTime());
+		snapshot.put("cells", getCellComputed());
+		snapshot.put("receivers", getReceiverCount());
+		snapshot.put("receivers_per_s", getReceiversPerSecond());
+		snapshot.put("pairs", getSourceReceiverPairCount());
+		snapshot.put("pairs_per_s", getSourceReceiverPairsPerSecond());
+		snapshot.put("obstruction_tests", getObstructionTestCount());
+		snapshot.put("image_receivers", getImageReceiverCount());
+		snapshot.put("reflection_paths", getReflectionPathCount());
+		snapshot.put("diffraction_paths", getDiffractionPathCount());
+		snapshot.put("receiver_time_min_ms", getMinimalReceiverTime());
+		snapshot.put("receiver_time_max_ms", getMaximalReceiverTime());
+		snapshot.put("receiver_time_p50_ms", getMedianReceiverTime());
+		snapshot.put("receiver_time_p90_ms", getReceiverTime90());
+		snapshot.put("receiver_time_p99_ms", getReceiverTime99());
+		snapshot.put("receiver_time_p999_ms", getReceiverTime999());
+		return snapshot;
+	}
+
+	/**
+	 * Write the snapshot as a properties file. The file is replaced at once,
+	 * readers never see a partial snapshot.
+	 */
+	private synchronized void writeSnapshot() {
+		File tmpFile = new File(snapshotFile.getPath() + ".tmp");
+		try {
+			Writer writer = new FileWriter(tmpFile);
+			try {
+				for (Map.Entry<String, Object> entry : getSnapshot().entrySet()) {
+					writer.write(entry.getKey() + "=" + entry.getValue() + "\n");
+				}
+			} finally {
+				writer.close();
+			}
+			if (!tmpFile.renameTo(snapshotFile)) {
+				snapshotFile.delete();
+				tmpFile.renameTo(snapshotFile);
+			}
+		} catch (IOException ex) {
+			logger.error("Unable to write the statistics snapshot "
+					+ snapshotFile, ex);
+		}
+	}
+
+	private double perSecond(long count) {
+		long elapsed = getElapsedTime();
+		return elapsed > 0 ? count * 1000. / elapsed : 0;
+	}
+
+	private double getReceiverTimePercentile(double percentile) {
+		return dataOut.getReceiverComputationTimeHistogram()
+				.getValueAtPercentile(percentile) / 1e6;
+	}
+
+	@Override
+	public long getElapsedTime() {
+		return System.currentTimeMillis() - beginTime;
+	}
+
+	@Override
+	public long getCellComputed() {
+		return dataOut.getCellComputed();
+	}
+
+	@Override
+	public long getReceiverCount() {
+		return dataOut.getReceiverComputationTimeHistogram().getCount();
+	}
+
+	@Override
+	public double getReceiversPerSecond() {
+		return perSecond(getReceiverCount());
+	}
+
+	@Override
+	public long getSourceReceiverPairCount() {
+		return dataOut.getNb_couple_receiver_src();
+	}
+
+	@Override
+	public double getSourceReceiverPairsPerSecond() {
+		return perSecond(getSourceReceiverPairCount());
+	}
+
+	@Override
+	public long getObstructionTestCount() {
+		return dataOut.getNb_obstr_test();
+	}
+
+	@Override
+	public long getImageReceiverCount() {
+		return dataOut.getNb_image_receiver();
+	}
+
+	@Override
+	public long getReflectionPathCount() {
+		return dataOut.getNb_reflexion_path();
+	}
+
+	@Override
+	public long getDiffractionPathCount() {
+		return dataOut.getNb_diffraction_path();
+	}
+
+	@Override
+	public double getMinimalReceiverTime() {
+		long min = dataOut.getMinimalReceiverComputationTime();
+		return min == Long.MAX_VALUE ? 0 : min / 1e6;
+	}
+
+	@Override
+	public double getMaximalReceiverTime() {
+		return dataOut.getMaximalReceiverComputationTime() / 1e6;
+	}
+
+	@Override
+	public double getMedianReceiverTime() {
+		return getReceiverTimePercentile(50);
+	}
+
+	@Override
+	public double getReceiverTime90() {
+		return getReceiverTimePercentile(90);
+	}
+
+	@Override
+	public double getReceiverTime99() {
+		return getReceiverTimePercentile(99);
+	}
+
+	@Override
+	public double getReceiverTime999() {
+		return getReceiverTimePercentile(99.9);
+	}
+}
@@ -193,7 +193,7 @@ public class QueryGridIndex implements QueryGeometryStructure {
             @Override
             public boolean hasNext() {
                 if(intervalsIterator==null) {
-                    return !rowsIndex.isEmpty();
+                    return rowsIndex!=null && !rowsIndex.isEmpty();
                 } else {
                     return curIntervalCursor<curIntervalEnd || intervalsIterator.hasNext();
                 }
@@ -0,0 +1,248 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Receivers located on the borders of cells are shared by the neighbor cells.
+ * Border vertices are placed on a lattice anchored on the global envelope,
+ * then adjacent cells produce the same vertices on their common edge.
+ * The first cell that reach a border receiver computes it, the other cells
+ * reuse the computed sound level.
+ * @author Nicolas Fortin
+ */
+public class SharedBorderReceivers {
+	/** Coordinates closer than this distance (m) are the same receiver */
+	private static final double KEY_PRECISION = 1e-4;
+	private final double originX;
+	private final double originY;
+	private final double stepX;
+	private final double stepY;
+	private final Map<Key, Slot> levels = new HashMap<Key, Slot>();
+
+	/**
+	 * Receiver key, quantized coordinate
+	 */
+	private static final class Key {
+		private final long x;
+		private final long y;
+
+		public Key(Coordinate pt) {
+			this.x = Math.round(pt.x / KEY_PRECISION);
+			this.y = Math.round(pt.y / KEY_PRECISION);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return x == other.x && y == other.y;
+		}
+
+		@Override
+		public int hashCode() {
+			long h = x * 31 + y;
+			return (int) (h ^ (h >>> 32));
+		}
+	}
+
+	/**
+	 * Computation state of a border receiver
+	 */
+	private static final class Slot {
+		private double level = Double.NaN;
+		private Thread owner;
+
+		public Slot(Thread owner) {
+			this.owner = owner;
+		}
+	}
+
+	/**
+	 * @param origin Lattice origin, lower left corner of the global envelope
+	 * @param stepX Distance between border vertices along X, 0 for cell
+	 *        corners only
+	 * @param stepY Distance between border vertices along Y, 0 for cell
+	 *        corners only
+	 */
+	public SharedBorderReceivers(Coordinate origin, double stepX, double stepY) {
+		this.originX = origin.x;
+		this.originY = origin.y;
+		this.stepX = stepX;
+		this.stepY = stepY;
+	}
+
+	/**
+	 * Append lattice values in the open interval ]from,to[ or ]to,from[
+	 */
+	private static void appendLattice(List<Double> values, double origin,
+			double step, double from, double to) {
+		if (step <= 0) {
+			return;
+		}
+		double eps = step / 100.;
+		if (from < to) {
+			long k = (long) Math.floor((from - origin) / step) + 1;
+			for (double v = origin + k * step; v < to - eps; v = origin + (++k) * step) {
+				if (v > from + eps) {
+					values.add(v);
+				}
+			}
+		} else {
+			long k = (long) Math.ceil((from - origin) / step) - 1;
+			for (double v = origin + k * step; v > to + eps; v = origin + (--k) * step) {
+				if (v < from - eps) {
+					values.add(v);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Compute the closed CCW ring of the cell border, densified with the
+	 * lattice vertices.
+	 * @param cellEnvelope Cell envelope
+	 * @return Ring coordinates, the first and last coordinates are equal
+	 */
+	public Coordinate[] getBorderRing(Envelope cellEnvelope) {
+		double minX = cellEnvelope.getMinX(), maxX = cellEnvelope.getMaxX();
+		double minY = cellEnvelope.getMinY(), maxY = cellEnvelope.getMaxY();
+		List<Coordinate> ring = new ArrayList<Coordinate>();
+		List<Double> values = new ArrayList<Double>();
+		// Bottom, left to right
+		ring.add(new Coordinate(minX, minY));
+		appendLattice(values, originX, stepX, minX, maxX);
+		for (double x : values) {
+			ring.add(new Coordinate(x, minY));
+		}
+		// Right, bottom to top
+		values.clear();
+		ring.add(new Coordinate(maxX, minY));
+		appendLattice(values, originY, stepY, minY, maxY);
+		for (double y : values) {
+			ring.add(new Coordinate(maxX, y));
+		}
+		// Top, right to left
+		values.clear();
+		ring.add(new Coordinate(maxX, maxY));
+		appendLattice(values, originX, stepX, maxX, minX);
+		for (double x : values) {
+			ring.add(new Coordinate(x, maxY));
+		}
+		// Left, top to bottom
+		values.clear();
+		ring.add(new Coordinate(minX, maxY));
+		appendLattice(values, originY, stepY, maxY, minY);
+		for (double y : values) {
+			ring.add(new Coordinate(minX, y));
+		}
+		ring.add(new Coordinate(minX, minY));
+		return ring.toArray(new Coordinate[ring.size()]);
+	}
+
+	/**
+	 * @return True if the receiver is on the border of the cell
+	 */
+	public static boolean isOnBorder(Envelope cellEnvelope, Coordinate pt) {
+		return Math.abs(pt.x - cellEnvelope.getMinX()) < KEY_PRECISION
+				|| Math.abs(pt.x - cellEnvelope.getMaxX()) < KEY_PRECISION
+				|| Math.abs(pt.y - cellEnvelope.getMinY()) < KEY_PRECISION
+				|| Math.abs(pt.y - cellEnvelope.getMaxY()) < KEY_PRECISION;
+	}
+
+	/**
+	 * Fetch the sound level of a border receiver. If another cell is
+	 * computing this receiver, wait for the result.
+	 * @param pt Receiver coordinate
+	 * @return The energetic sound level, or NaN if the caller has to compute
+	 *         it, then call {@link #setLevel} or {@link #abandon}
+	 */
+	public synchronized double getLevel(Coordinate pt) {
+		Key key = new Key(pt);
+		Slot slot = levels.get(key);
+		Thread current = Thread.currentThread();
+		if (slot == null) {
+			levels.put(key, new Slot(current));
+			return Double.NaN;
+		}
+		try {
+			while (slot.owner != null && slot.owner != current) {
+				wait();
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return Double.NaN;
+		}
+		if (Double.isNaN(slot.level)) {
+			// Abandoned by the other cell
+			slot.owner = current;
+		}
+		return slot.level;
+	}
+
+	/**
+	 * Publish the sound level of a border receiver
+	 * @param pt Receiver coordinate
+	 * @param level Energetic sound level
+	 */
+	public synchronized void setLevel(Coordinate pt, double level) {
+		Slot slot = levels.get(new Key(pt));
+		if (slot != null) {
+			slot.level = level;
+			slot.owner = null;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * The receiver will not be computed by the caller, another cell may
+	 * compute it.
+	 * @param pt Receiver coordinate
+	 */
+	public synchronized void abandon(Coordinate pt) {
+		Slot slot = levels.get(new Key(pt));
+		if (slot != null && slot.owner == Thread.currentThread()) {
+			slot.owner = null;
+			notifyAll();
+		}
+	}
+}
@@ -0,0 +1,87 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.core;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter updated by many threads without a shared lock.
+ * Each thread adds to its own stripe, stripes are summed on read.
+ * Stripes are spaced by a cache line to avoid false sharing.
+ * @author Nicolas Fortin
+ */
+public final class StripedCounter {
+	/** 8 longs, 64 bytes between two stripes */
+	private static final int PADDING = 8;
+	private static final int STRIPES = stripeCount();
+	private final AtomicLongArray stripes = new AtomicLongArray(STRIPES * PADDING);
+
+	private static int stripeCount() {
+		int count = 1;
+		while (count < Runtime.getRuntime().availableProcessors() * 2) {
+			count <<= 1;
+		}
+		return count;
+	}
+
+	/**
+	 * Thread ids are sequential, consecutive threads of a pool use
+	 * distinct stripes
+	 */
+	private static int stripeIndex() {
+		return ((int) Thread.currentThread().getId() & (STRIPES - 1)) * PADDING;
+	}
+
+	/**
+	 * @param value Value to add
+	 */
+	public void add(long value) {
+		stripes.addAndGet(stripeIndex(), value);
+	}
+
+	public void increment() {
+		add(1);
+	}
+
+	/**
+	 * @return Current sum, concurrent updates may be partially visible
+	 */
+	public long sum() {
+		long sum = 0;
+		for (int i = 0; i < STRIPES; i++) {
+			sum += stripes.get(i * PADDING);
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,339 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Seeded generator of synthetic cities, for scale and performance tests.
+ * The city is a grid of square blocks separated by streets. The building
+ * density decrease from the city center: courtyard blocks in the center,
+ * rows of buildings and towers around, then detached houses. Each block is
+ * generated from its own random sequence, derived from the seed and the
+ * block position.
+ * Geometries are given to a visitor, a large city is never kept in memory.
+ * @author Nicolas Fortin
+ */
+public class SyntheticCity {
+	/** Frequency bands of the road spectrum (Hz) */
+	public static final int[] FREQUENCIES = { 125, 250, 500, 1000, 2000, 4000 };
+	/** Normalized road traffic spectrum (dB), EN 1793-3 in octave bands */
+	private static final double[] TRAFFIC_SPECTRUM = { -14, -10, -7, -4, -7,
+			-12 };
+	private static final double WING_DEPTH = 12;
+	private static final double PASSAGE_WIDTH = 3;
+	private final GeometryFactory factory = new GeometryFactory();
+	private final long seed;
+	private final Envelope envelope;
+	private double blockSize = 80;
+	private double streetWidth = 20;
+	private double densityRadius;
+	private double centerDensity = 1;
+	private double towerProbability = 0.1;
+	private int avenueStep = 5;
+	private double receiverStep = 0;
+
+	/**
+	 * Receivers of a synthetic city
+	 */
+	public interface CityVisitor {
+		/**
+		 * @param footprint Building footprint
+		 * @param height Building height (m)
+		 */
+		void visitBuilding(Polygon footprint, double height);
+
+		/**
+		 * @param road Road axis
+		 * @param spectrum Sound power by frequency band (dB(A)), in the
+		 *        order of FREQUENCIES
+		 */
+		void visitRoad(LineString road, double[] spectrum);
+
+		/**
+		 * @param receiver Receiver position, outside of buildings
+		 */
+		void visitReceiver(Point receiver);
+	}
+
+	/**
+	 * @param seed Random seed, the same seed and parameters give the same
+	 *        city
+	 * @param envelope City extent
+	 */
+	public SyntheticCity(long seed, Envelope envelope) {
+		this.seed = seed;
+		this.envelope = envelope;
+		this.densityRadius = Math.max(envelope.getWidth(),
+				envelope.getHeight()) / 4;
+	}
+
+	/**
+	 * @param blockSize Width of blocks (m)
+	 * @param streetWidth Width of streets between blocks (m)
+	 */
+	public void setBlockSize(double blockSize, double streetWidth) {
+		this.blockSize = blockSize;
+		this.streetWidth = streetWidth;
+	}
+
+	/**
+	 * @param centerDensity Building density at the center [0-1]
+	 * @param densityRadius Distance from the center where the density is
+	 *        divided by e (m), infinite for a uniform density
+	 */
+	public void setDensity(double centerDensity, double densityRadius) {
+		this.centerDensity = centerDensity;
+		this.densityRadius = densityRadius;
+	}
+
+	/**
+	 * @param towerProbability Probability of a tower in a lot of a medium
+	 *        density block
+	 */
+	public void setTowerProbability(double towerProbability) {
+		this.towerProbability = towerProbability;
+	}
+
+	/**
+	 * @param avenueStep One street over avenueStep is an avenue, with more
+	 *        traffic
+	 */
+	public void setAvenueStep(int avenueStep) {
+		this.avenueStep = avenueStep;
+	}
+
+	/**
+	 * @param receiverStep Distance between receivers of the regular grid
+	 *        (m), 0 for no receivers
+	 */
+	public void setReceiverStep(double receiverStep) {
+		this.receiverStep = receiverStep;
+	}
+
+	public Envelope getEnvelope() {
+		return envelope;
+	}
+
+	/**
+	 * @return Building density at this position [0-1]
+	 */
+	public double getDensity(double x, double y) {
+		double distance = envelope.centre().distance(new Coordinate(x, y));
+		return centerDensity * Math.exp(-distance / densityRadius);
+	}
+
+	private Random getRandom(int column, int row, long salt) {
+		return new Random(seed ^ (column * 0x9E3779B97F4A7C15L)
+				^ (row * 0xC2B2AE3D27D4EB4FL) ^ salt);
+	}
+
+	/**
+	 * Generate the city
+	 * @param visitor Receiver of geometries
+	 */
+	public void generate(CityVisitor visitor) {
+		double step = blockSize + streetWidth;
+		int columns = (int) Math.ceil(envelope.getWidth() / step);
+		int rows = (int) Math.ceil(envelope.getHeight() / step);
+		for (int column = 0; column < columns; column++) {
+			for (int row = 0; row < rows; row++) {
+				generateTile(visitor, column, row);
+			}
+		}
+		// Streets segments between crossroads
+		for (int column = 0; column <= columns; column++) {
+			double x = envelope.getMinX() + column * step + streetWidth / 2;
+			for (int row = 0; row < rows; row++) {
+				double y = envelope.getMinY() + row * step + streetWidth / 2;
+				if (x <= envelope.getMaxX()) {
+					addRoad(visitor, column, row, 1, new Coordinate(x, y),
+							new Coordinate(x, Math.min(y + step,
+									envelope.getMaxY())), column);
+				}
+			}
+		}
+		for (int row = 0; row <= rows; row++) {
+			double y = envelope.getMinY() + row * step + streetWidth / 2;
+			for (int column = 0; column < columns; column++) {
+				double x = envelope.getMinX() + column * step + streetWidth / 2;
+				if (y <= envelope.getMaxY()) {
+					addRoad(visitor, column, row, 2, new Coordinate(x, y),
+							new Coordinate(Math.min(x + step,
+									envelope.getMaxX()), y), row);
+				}
+			}
+		}
+	}
+
+	private void addRoad(CityVisitor visitor, int column, int row,
+			long direction, Coordinate start, Coordinate end, int street) {
+		if (start.distance(end) <= 0) {
+			return;
+		}
+		Random random = getRandom(column, row, direction);
+		double level = street % avenueStep == 0 ? 85 : 75;
+		level += random.nextDouble() * 6 - 3;
+		double[] spectrum = new double[FREQUENCIES.length];
+		for (int idFreq = 0; idFreq < spectrum.length; idFreq++) {
+			spectrum[idFreq] = level + TRAFFIC_SPECTRUM[idFreq];
+		}
+		visitor.visitRoad(factory.createLineString(new Coordinate[] { start,
+				end }), spectrum);
+	}
+
+	/**
+	 * Generate the block and receivers of a tile. A tile is a block with the
+	 * streets at its left and bottom.
+	 */
+	private void generateTile(CityVisitor visitor, int column, int row) {
+		double step = blockSize + streetWidth;
+		double tileX = envelope.getMinX() + column * step;
+		double tileY = envelope.getMinY() + row * step;
+		Envelope block = new Envelope(tileX + streetWidth, tileX + step,
+				tileY + streetWidth, tileY + step);
+		List<Envelope> footprints = new ArrayList<Envelope>();
+		Random random = getRandom(column, row, 0);
+		if (envelope.contains(block)) {
+			double density = getDensity(block.centre().x, block.centre().y);
+			if (density > 0.6) {
+				addCourtyardBlock(visitor, random, block, footprints);
+			} else if (density > 0.25) {
+				addLots(visitor, random, block, 3, density + 0.3, 9, 18,
+						towerProbability, footprints);
+			} else {
+				addLots(visitor, random, block, 4, density * 2, 6, 8, 0,
+						footprints);
+			}
+		}
+		if (receiverStep > 0) {
+			Envelope tile = new Envelope(tileX, Math.min(tileX + step,
+					envelope.getMaxX()), tileY, Math.min(tileY + step,
+					envelope.getMaxY()));
+			// Receivers on a lattice aligned with the city origin
+			double firstX = envelope.getMinX()
+					+ Math.ceil((tile.getMinX() - envelope.getMinX())
+							/ receiverStep) * receiverStep;
+			double firstY = envelope.getMinY()
+					+ Math.ceil((tile.getMinY() - envelope.getMinY())
+							/ receiverStep) * receiverStep;
+			for (double x = firstX; x < tile.getMaxX(); x += receiverStep) {
+				for (double y = firstY; y < tile.getMaxY(); y += receiverStep) {
+					Coordinate receiver = new Coordinate(x, y, 4);
+					boolean inBuilding = false;
+					for (Envelope footprint : footprints) {
+						if (footprint.contains(receiver)) {
+							inBuilding = true;
+							break;
+						}
+					}
+					if (!inBuilding) {
+						visitor.visitReceiver(factory.createPoint(receiver));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Four wings around a courtyard, with passages in the corners
+	 */
+	private void addCourtyardBlock(CityVisitor visitor, Random random,
+			Envelope block, List<Envelope> footprints) {
+		double x0 = block.getMinX(), y0 = block.getMinY();
+		double x1 = block.getMaxX(), y1 = block.getMaxY();
+		double w = Math.min(WING_DEPTH, block.getWidth() / 3);
+		double p = PASSAGE_WIDTH;
+		Envelope[] wings = { new Envelope(x0, x1 - w - p, y0, y0 + w),
+				new Envelope(x1 - w, x1, y0, y1 - w - p),
+				new Envelope(x0 + w + p, x1, y1 - w, y1),
+				new Envelope(x0, x0 + w, y0 + w + p, y1) };
+		for (Envelope wing : wings) {
+			addBuilding(visitor, wing, 15 + random.nextDouble() * 10,
+					footprints);
+		}
+	}
+
+	/**
+	 * Split the block in lots, each lot may contain a building
+	 */
+	private void addLots(CityVisitor visitor, Random random, Envelope block,
+			int lotsBySide, double buildingProbability, double minHeight,
+			double maxHeight, double lotTowerProbability,
+			List<Envelope> footprints) {
+		double lotSize = block.getWidth() / lotsBySide;
+		for (int i = 0; i < lotsBySide; i++) {
+			for (int j = 0; j < lotsBySide; j++) {
+				double lotX = block.getMinX() + i * lotSize;
+				double lotY = block.getMinY() + j * lotSize;
+				if (random.nextDouble() < buildingProbability) {
+					double height = minHeight + random.nextDouble()
+							* (maxHeight - minHeight);
+					double margin;
+					if (random.nextDouble() < lotTowerProbability) {
+						// Tower, small and high
+						margin = lotSize * 0.25;
+						height = 40 + random.nextDouble() * 60;
+					} else {
+						margin = lotSize * (0.05 + random.nextDouble() * 0.15);
+					}
+					addBuilding(visitor, new Envelope(lotX + margin, lotX
+							+ lotSize - margin, lotY + margin, lotY + lotSize
+							- margin), height, footprints);
+				}
+			}
+		}
+	}
+
+	private void addBuilding(CityVisitor visitor, Envelope footprint,
+			double height, List<Envelope> footprints) {
+		Coordinate[] ring = {
+				new Coordinate(footprint.getMinX(), footprint.getMinY()),
+				new Coordinate(footprint.getMaxX(), footprint.getMinY()),
+				new Coordinate(footprint.getMaxX(), footprint.getMaxY()),
+				new Coordinate(footprint.getMinX(), footprint.getMaxY()),
+				new Coordinate(footprint.getMinX(), footprint.getMinY()) };
+		footprints.add(footprint);
+		visitor.visitBuilding(factory.createPolygon(
+				factory.createLinearRing(ring), null), height);
+	}
+}
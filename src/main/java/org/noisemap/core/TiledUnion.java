@@ -0,0 +1,231 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.index.strtree.STRtree;
+import com.vividsolutions.jts.operation.buffer.BufferParameters;
+
+/**
+ * Parallel union of many geometries.
+ * The geometries are partitioned in tiles by the center of their envelope,
+ * each tile is buffered (then merged) concurrently. The tiles are then
+ * stitched: only the polygons that may overlap another tile are merged
+ * again.
+ * The buffer of the union being the union of the buffers, the result is the
+ * same as the buffer of the collection of all geometries.
+ * @author Nicolas Fortin
+ */
+public final class TiledUnion {
+	/**
+	 * Under this geometry count, the union is done on the calling thread.
+	 * Above, the tiled union is faster even on one processor, the cost of
+	 * the buffer grows faster than the geometry count.
+	 */
+	private static final int MIN_PARALLEL_COUNT = 256;
+	/** Mean count of geometries in a tile */
+	private static final int TILE_CAPACITY = 64;
+	private static ExecutorService executor;
+
+	private TiledUnion() {
+	}
+
+	private static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(Runtime.getRuntime()
+					.availableProcessors(), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "TiledUnion");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+
+	/**
+	 * Buffer of the collection of geometries, on the calling thread
+	 * @param geometries Geometries
+	 * @param bufferSize Buffer distance, 0 for the union
+	 * @return Merged geometry
+	 */
+	public static Geometry merge(Collection<Geometry> geometries, double bufferSize) {
+		GeometryFactory geometryFactory = new GeometryFactory();
+		Geometry geoArray[] = new Geometry[geometries.size()];
+		geometries.toArray(geoArray);
+		GeometryCollection polygonCollection = geometryFactory
+				.createGeometryCollection(geoArray);
+		return polygonCollection.buffer(bufferSize, 0,
+				BufferParameters.CAP_SQUARE);
+	}
+
+	/**
+	 * Buffer of the collection of geometries, computed by tiles on several
+	 * threads
+	 * @param geometries Geometries
+	 * @param bufferSize Buffer distance, 0 for the union
+	 * @return Merged geometry
+	 */
+	public static Geometry union(Collection<Geometry> geometries, double bufferSize) {
+		if (geometries.size() < MIN_PARALLEL_COUNT) {
+			return merge(geometries, bufferSize);
+		}
+		return tiledUnion(geometries, bufferSize);
+	}
+
+	/**
+	 * Tiled union, whatever the geometry count
+	 * @param geometries Geometries
+	 * @param bufferSize Buffer distance, 0 for the union
+	 * @return Merged geometry
+	 */
+	static Geometry tiledUnion(Collection<Geometry> geometries, double bufferSize) {
+		Envelope extent = new Envelope();
+		for (Geometry geometry : geometries) {
+			extent.expandToInclude(geometry.getEnvelopeInternal());
+		}
+		int tileCount = (int) Math.ceil(Math.sqrt(geometries.size()
+				/ (double) TILE_CAPACITY));
+		List<List<Geometry>> tiles = new ArrayList<List<Geometry>>(tileCount * tileCount);
+		for (int i = 0; i < tileCount * tileCount; i++) {
+			tiles.add(new ArrayList<Geometry>());
+		}
+		double tileWidth = Math.max(extent.getWidth() / tileCount, Double.MIN_VALUE);
+		double tileHeight = Math.max(extent.getHeight() / tileCount, Double.MIN_VALUE);
+		for (Geometry geometry : geometries) {
+			Envelope env = geometry.getEnvelopeInternal();
+			int column = Math.min(tileCount - 1, (int) ((env.centre().x
+					- extent.getMinX()) / tileWidth));
+			int row = Math.min(tileCount - 1, (int) ((env.centre().y
+					- extent.getMinY()) / tileHeight));
+			tiles.get(row * tileCount + column).add(geometry);
+		}
+		try {
+			// Buffer each tile
+			List<Geometry> merged = mergeAll(tiles, bufferSize);
+			return stitch(merged, extent, tileCount, tileWidth, tileHeight);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return merge(geometries, bufferSize);
+		}
+	}
+
+	/**
+	 * Merge the polygons of tiles that may overlap another tile. The other
+	 * polygons are already disjoint and are kept as is.
+	 */
+	private static Geometry stitch(List<Geometry> merged, Envelope extent,
+			int tileCount, double tileWidth, double tileHeight) {
+		List<Geometry> inside = new ArrayList<Geometry>();
+		List<Geometry> crossing = new ArrayList<Geometry>();
+		STRtree crossingIndex = new STRtree();
+		for (int row = 0; row < tileCount; row++) {
+			for (int column = 0; column < tileCount; column++) {
+				Geometry tile = merged.get(row * tileCount + column);
+				double minX = extent.getMinX() + column * tileWidth;
+				double minY = extent.getMinY() + row * tileHeight;
+				for (int i = 0; i < tile.getNumGeometries(); i++) {
+					Geometry polygon = tile.getGeometryN(i);
+					Envelope env = polygon.getEnvelopeInternal();
+					if (env.getMinX() > minX && env.getMaxX() < minX + tileWidth
+							&& env.getMinY() > minY && env.getMaxY() < minY + tileHeight) {
+						inside.add(polygon);
+					} else {
+						crossing.add(polygon);
+						crossingIndex.insert(env, polygon);
+					}
+				}
+			}
+		}
+		// Polygons inside their tile may be overlapped by a crossing polygon
+		// of a neighbor tile
+		List<Geometry> result = new ArrayList<Geometry>(inside.size() + crossing.size());
+		for (Geometry polygon : inside) {
+			if (crossingIndex.query(polygon.getEnvelopeInternal()).isEmpty()) {
+				result.add(polygon);
+			} else {
+				crossing.add(polygon);
+			}
+		}
+		Geometry crossingUnion = merge(crossing, 0.);
+		for (int i = 0; i < crossingUnion.getNumGeometries(); i++) {
+			result.add(crossingUnion.getGeometryN(i));
+		}
+		return new GeometryFactory().buildGeometry(result);
+	}
+
+	/**
+	 * Merge each group concurrently
+	 * @return Merged groups, in the same order
+	 */
+	private static List<Geometry> mergeAll(List<List<Geometry>> groups,
+			final double bufferSize) throws InterruptedException {
+		List<Future<Geometry>> futures = new ArrayList<Future<Geometry>>(groups.size());
+		ExecutorService pool = getExecutor();
+		for (final List<Geometry> group : groups) {
+			futures.add(pool.submit(new Callable<Geometry>() {
+				@Override
+				public Geometry call() {
+					return merge(group, bufferSize);
+				}
+			}));
+		}
+		List<Geometry> merged = new ArrayList<Geometry>(groups.size());
+		for (Future<Geometry> future : futures) {
+			try {
+				merged.add(future.get());
+			} catch (ExecutionException ex) {
+				if (ex.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) ex.getCause();
+				}
+				throw new IllegalStateException(ex.getCause());
+			}
+		}
+		return merged;
+	}
+}
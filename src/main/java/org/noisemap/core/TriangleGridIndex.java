@@ -0,0 +1,90 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.core;
+
+/**
+ * Regular grid of buckets over the triangles of a mesh, to find the
+ * triangle that contains a point without a scan of the mesh.
+ * 
+ * @author Nicolas Fortin
+ */
+public class TriangleGridIndex extends BucketGridIndex {
+
+	/**
+	 * @param coordinates
+	 *            x0,y0,x1,y1,x2,y2 of each triangle, the array is kept by the
+	 *            index
+	 * @param triangleCount
+	 *            Count of triangles
+	 */
+	public TriangleGridIndex(double[] coordinates, int triangleCount) {
+		super(coordinates, 3, triangleCount);
+	}
+
+	/**
+	 * @return True if the point is inside or on the border of the triangle,
+	 *         whatever the triangle orientation
+	 */
+	public boolean contains(int t, double x, double y) {
+		int base = t * 6;
+		double x0 = coordinates[base];
+		double y0 = coordinates[base + 1];
+		double x1 = coordinates[base + 2];
+		double y1 = coordinates[base + 3];
+		double x2 = coordinates[base + 4];
+		double y2 = coordinates[base + 5];
+		double o0 = (x1 - x0) * (y - y0) - (y1 - y0) * (x - x0);
+		double o1 = (x2 - x1) * (y - y1) - (y2 - y1) * (x - x1);
+		double o2 = (x0 - x2) * (y - y2) - (y0 - y2) * (x - x2);
+		return (o0 >= 0 && o1 >= 0 && o2 >= 0) || (o0 <= 0 && o1 <= 0 && o2 <= 0);
+	}
+
+	/**
+	 * @return Index of a triangle that contains the point, -1 if the point
+	 *         is outside the mesh
+	 */
+	public int find(double x, double y) {
+		if (x < minX || x > maxX || y < minY || y > maxY) {
+			return -1;
+		}
+		int bucket = row(y) * columns + column(x);
+		for (int i = bucketStart[bucket]; i < bucketStart[bucket + 1]; i++) {
+			int t = bucketElements[i];
+			if (contains(t, x, y)) {
+				return t;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,203 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.profile;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Custom Java Flight Recorder event type, with a duration and long fields.
+ * The event type is defined at runtime through the jdk.jfr.EventFactory API.
+ * When the JVM does not provide JFR, or when no recording is running, the
+ * events are not created: begin() reads the enabled state of the event type
+ * and returns a shared disabled instance, nothing is allocated.
+ *
+ * Usage:
+ * <pre>
+ * FlightRecorderEvent.Instance event = PropagationEvents.DELAUNAY.begin();
+ * // ... task
+ * event.commit(cellId, verticesCount, trianglesCount);
+ * </pre>
+ * @author Nicolas Fortin
+ */
+public final class FlightRecorderEvent {
+    private static final String CATEGORY = "Noisemap";
+    private static final Instance DISABLED = new Instance(null, null);
+    private static final Object[] NO_ARGUMENTS = new Object[0];
+    private static Method newEventMethod;
+    private static Method getEventTypeMethod;
+    private static Method isEnabledMethod;
+    private static Method beginMethod;
+    private static Method endMethod;
+    private static Method setMethod;
+    private static Method commitMethod;
+    private static boolean available = false;
+    private volatile Object factory;
+    private Object eventType;
+
+    static {
+        try {
+            Class<?> eventClass = Class.forName("jdk.jfr.Event");
+            Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+            newEventMethod = factoryClass.getMethod("newEvent");
+            getEventTypeMethod = factoryClass.getMethod("getEventType");
+            isEnabledMethod = Class.forName("jdk.jfr.EventType").getMethod("isEnabled");
+            beginMethod = eventClass.getMethod("begin");
+            endMethod = eventClass.getMethod("end");
+            setMethod = eventClass.getMethod("set", int.class, Object.class);
+            commitMethod = eventClass.getMethod("commit");
+            available = true;
+        } catch (Exception ex) {
+            // JFR is not available on this JVM, events are not emitted
+            available = false;
+        }
+    }
+
+    /**
+     * @param name Event name, prefixed by org.noisemap.
+     * @param label Human readable name
+     * @param fields Names of the long fields of the event
+     */
+    public FlightRecorderEvent(String name, String label, String... fields) {
+        if (available) {
+            try {
+                Object eventFactory = createFactory("org.noisemap." + name, label, fields);
+                eventType = getEventTypeMethod.invoke(eventFactory, NO_ARGUMENTS);
+                factory = eventFactory;
+            } catch (Exception ex) {
+                factory = null;
+            }
+        }
+    }
+
+    /**
+     * @return True if the JVM provides the Flight Recorder API
+     */
+    public static boolean isAvailable() {
+        return available;
+    }
+
+    private static Object newAnnotation(Constructor<?> annotationConstructor,
+            String annotationClass, Object value) throws Exception {
+        return annotationConstructor.newInstance(Class.forName(annotationClass), value);
+    }
+
+    private static Object createFactory(String name, String label,
+            String[] fields) throws Exception {
+        Class<?> annotationClass = Class.forName("jdk.jfr.AnnotationElement");
+        Class<?> descriptorClass = Class.forName("jdk.jfr.ValueDescriptor");
+        Constructor<?> annotationConstructor = annotationClass.getConstructor(Class.class, Object.class);
+        Constructor<?> descriptorConstructor = descriptorClass.getConstructor(Class.class, String.class);
+        List<Object> annotations = new ArrayList<Object>();
+        annotations.add(newAnnotation(annotationConstructor, "jdk.jfr.Name", name));
+        annotations.add(newAnnotation(annotationConstructor, "jdk.jfr.Label", label));
+        Object categories = Array.newInstance(String.class, 1);
+        Array.set(categories, 0, CATEGORY);
+        annotations.add(newAnnotation(annotationConstructor, "jdk.jfr.Category", categories));
+        // Stack traces are costly and the event name is enough
+        annotations.add(newAnnotation(annotationConstructor, "jdk.jfr.StackTrace", Boolean.FALSE));
+        List<Object> descriptors = new ArrayList<Object>();
+        for (String field : fields) {
+            descriptors.add(descriptorConstructor.newInstance(long.class, field));
+        }
+        Method create = Class.forName("jdk.jfr.EventFactory").getMethod("create", List.class, List.class);
+        return create.invoke(null, annotations, descriptors);
+    }
+
+    /**
+     * Start the timing of an event
+     * @return The event to commit at the end of the task
+     */
+    public Instance begin() {
+        Object eventFactory = factory;
+        if (eventFactory == null) {
+            return DISABLED;
+        }
+        try {
+            // The event is created only if a recording enables its type
+            if (!(Boolean) isEnabledMethod.invoke(eventType, NO_ARGUMENTS)) {
+                return DISABLED;
+            }
+            Object event = newEventMethod.invoke(eventFactory, NO_ARGUMENTS);
+            beginMethod.invoke(event, NO_ARGUMENTS);
+            return new Instance(this, event);
+        } catch (Exception ex) {
+            // Stop emitting this event type
+            factory = null;
+            return DISABLED;
+        }
+    }
+
+    /**
+     * An event being timed
+     */
+    public static final class Instance {
+        private final FlightRecorderEvent type;
+        private final Object event;
+
+        private Instance(FlightRecorderEvent type, Object event) {
+            this.type = type;
+            this.event = event;
+        }
+
+        /**
+         * @return True if the event is recorded
+         */
+        public boolean isEnabled() {
+            return event != null;
+        }
+
+        /**
+         * End the timing and record the event
+         * @param values Values of the fields, in the order of the event type
+         */
+        public void commit(long... values) {
+            if (event == null) {
+                return;
+            }
+            try {
+                endMethod.invoke(event, NO_ARGUMENTS);
+                for (int i = 0; i < values.length; i++) {
+                    setMethod.invoke(event, i, values[i]);
+                }
+                commitMethod.invoke(event, NO_ARGUMENTS);
+            } catch (Exception ex) {
+                type.factory = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.profile;
+
+/**
+ * Flight Recorder events of the propagation phases.
+ * Record them with the standard JFR tooling, ex:
+ * java -XX:StartFlightRecording=filename=noisemap.jfr ...
+ * The events are in the Noisemap category.
+ * @author Nicolas Fortin
+ */
+public final class PropagationEvents {
+    /** One receiver in RECEIVER_SAMPLING is recorded */
+    public static final int RECEIVER_SAMPLING = 64;
+    public static final FlightRecorderEvent CELL_PREPARATION = new FlightRecorderEvent(
+            "CellPreparation", "Cell preparation", "cellId", "sources", "buildings");
+    public static final FlightRecorderEvent BUILDING_MERGE = new FlightRecorderEvent(
+            "BuildingMerge", "Building merge", "cellId", "buildings");
+    public static final FlightRecorderEvent DELAUNAY = new FlightRecorderEvent(
+            "Delaunay", "Delaunay triangulation", "cellId", "vertices", "triangles");
+    public static final FlightRecorderEvent OBSTRUCTION_INDEX = new FlightRecorderEvent(
+            "ObstructionIndex", "Obstruction mesh indexing", "cellId", "buildings", "triangles");
+    public static final FlightRecorderEvent RECEIVER_PROPAGATION = new FlightRecorderEvent(
+            "ReceiverPropagation", "Receiver propagation (sampled)", "cellId", "receiverId", "sources");
+    public static final FlightRecorderEvent REFLECTION_SEARCH = new FlightRecorderEvent(
+            "ReflectionSearch", "Reflection search (sampled)", "cellId", "walls", "imageReceivers");
+    public static final FlightRecorderEvent DIFFRACTION_SEARCH = new FlightRecorderEvent(
+            "DiffractionSearch", "Diffraction search (sampled)", "cellId", "corners", "freeCorners");
+    public static final FlightRecorderEvent RESULT_WRITING = new FlightRecorderEvent(
+            "ResultWriting", "Result writing", "cellId", "records");
+
+    private PropagationEvents() {
+    }
+
+    /**
+     * @param receiverId Receiver index in the cell
+     * @return True if the events of this receiver are recorded
+     */
+    public static boolean isSampledReceiver(int receiverId) {
+        return receiverId % RECEIVER_SAMPLING == 0;
+    }
+}
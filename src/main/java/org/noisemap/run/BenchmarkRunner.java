@@ -0,0 +1,320 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.run;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.log4j.Logger;
+import org.gdms.data.DataSourceFactory;
+import org.gdms.data.values.Value;
+import org.gdms.data.values.ValueFactory;
+import org.gdms.driver.DataSet;
+import org.gdms.driver.DiskBufferDriver;
+import org.gdms.sql.function.FunctionException;
+import org.noisemap.core.BR_PtGrid;
+import org.noisemap.core.BR_TriGrid;
+import org.noisemap.core.PropagationProcessOut;
+
+/**
+ * Run BR_TriGrid or BR_PtGrid for each configuration of a parameter matrix
+ * on the same dataset, and write the throughput of each run in a CSV or JSON
+ * file.
+ * @author Nicolas Fortin
+ */
+public class BenchmarkRunner {
+    private static final String[] COLUMNS = {"threads", "splitdepth", "rdepth",
+        "ddepth", "index", "run", "total_ms", "parse_ms", "delaunay_ms",
+        "propagation_ms", "writing_ms", "receivers", "receivers_per_s",
+        "pairs", "pairs_per_s", "obstruction_tests", "obstruction_tests_per_s",
+        "peak_heap_mb"};
+    private final DataSourceFactory factory;
+    private final DataSet[] tables;
+    private final Logger logger;
+    // Fixed parameters
+    private String splField = "db_m";
+    private double maxDist = 170;
+    private double maxRDist = 50;
+    private double roadsWidth = 0.8;
+    private double densification = 5;
+    private double maxArea = 250;
+    private double wallAlpha = 0.2;
+    // Parameter matrix
+    private List<Integer> threadCounts = new ArrayList<Integer>();
+    private List<Integer> splitDepths = new ArrayList<Integer>();
+    private List<Integer> reflectionDepths = new ArrayList<Integer>();
+    private List<Integer> diffractionDepths = new ArrayList<Integer>();
+    private List<String> indexTypes = new ArrayList<String>();
+    private int warmupRuns = 1;
+    private int measuredRuns = 3;
+
+    /**
+     * @param factory Data source factory
+     * @param tables Buildings, sources and receivers tables, receivers
+     * table is null for BR_TriGrid
+     * @param logger Logger of the computation
+     */
+    public BenchmarkRunner(DataSourceFactory factory, DataSet[] tables, Logger logger) {
+        this.factory = factory;
+        this.tables = tables;
+        this.logger = logger;
+    }
+
+    /**
+     * Parameters shared by all configurations
+     */
+    public void setParameters(String splField, double maxDist, double maxRDist,
+            double roadsWidth, double densification, double maxArea, double wallAlpha) {
+        this.splField = splField;
+        this.maxDist = maxDist;
+        this.maxRDist = maxRDist;
+        this.roadsWidth = roadsWidth;
+        this.densification = densification;
+        this.maxArea = maxArea;
+        this.wallAlpha = wallAlpha;
+    }
+
+    /**
+     * Each configuration of the matrix is run
+     */
+    public void setMatrix(List<Integer> threadCounts, List<Integer> splitDepths,
+            List<Integer> reflectionDepths, List<Integer> diffractionDepths,
+            List<String> indexTypes) {
+        this.threadCounts = threadCounts;
+        this.splitDepths = splitDepths;
+        this.reflectionDepths = reflectionDepths;
+        this.diffractionDepths = diffractionDepths;
+        this.indexTypes = indexTypes;
+    }
+
+    /**
+     * @param warmupRuns Not reported runs of each configuration
+     * @param measuredRuns Reported runs of each configuration
+     */
+    public void setRuns(int warmupRuns, int measuredRuns) {
+        this.warmupRuns = warmupRuns;
+        this.measuredRuns = measuredRuns;
+    }
+
+    /**
+     * Parse a comma separated list of integers
+     * @param list ex: 1,2,4
+     * @return Integers
+     */
+    public static List<Integer> parseIntegers(String list) {
+        List<Integer> values = new ArrayList<Integer>();
+        for (String value : list.split(",")) {
+            values.add(Integer.valueOf(value.trim()));
+        }
+        return values;
+    }
+
+    /**
+     * Parse a comma separated list
+     * @param list ex: quadtree,rtree
+     * @return Items
+     */
+    public static List<String> parseStrings(String list) {
+        List<String> values = new ArrayList<String>();
+        for (String value : list.split(",")) {
+            values.add(value.trim());
+        }
+        return values;
+    }
+
+    private static void resetPeakHeap() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long getPeakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private static double perSecond(long count, long timeMs) {
+        return timeMs > 0 ? count * 1000. / timeMs : 0;
+    }
+
+    /**
+     * Run a configuration
+     * @return Result row, in the order of COLUMNS
+     */
+    private Object[] runConfiguration(int threads, int splitDepth, int rDepth,
+            int dDepth, String index, int run) throws FunctionException {
+        resetPeakHeap();
+        long begin = System.currentTimeMillis();
+        DataSet data;
+        long parseTime, delaunayTime, writingTime, receivers;
+        PropagationProcessOut out;
+        if (tables[2] == null) {
+            BR_TriGrid propa = new BR_TriGrid();
+            propa.setLogger(logger);
+            propa.setThreadCount(threads);
+            propa.setSourcesIndex(index);
+            Value[] propaArgs = {ValueFactory.createValue(splField), ValueFactory.createValue(maxDist),
+                ValueFactory.createValue(maxRDist), ValueFactory.createValue(splitDepth),
+                ValueFactory.createValue(roadsWidth), ValueFactory.createValue(densification),
+                ValueFactory.createValue(maxArea), ValueFactory.createValue(rDepth),
+                ValueFactory.createValue(dDepth), ValueFactory.createValue(wallAlpha)};
+            data = propa.evaluate(factory, tables, propaArgs, null);
+            parseTime = propa.getParseBuildingsTime();
+            delaunayTime = propa.getDelaunayTime();
+            writingTime = propa.getWritingTime();
+            receivers = propa.getReceiverCount();
+            out = propa.getPropagationOut();
+        } else {
+            BR_PtGrid propa = new BR_PtGrid();
+            propa.setLogger(logger);
+            propa.setThreadCount(threads);
+            propa.setSourcesIndex(index);
+            Value[] propaArgs = {ValueFactory.createValue(splField), ValueFactory.createValue(maxDist),
+                ValueFactory.createValue(maxRDist), ValueFactory.createValue(splitDepth),
+                ValueFactory.createValue(rDepth), ValueFactory.createValue(dDepth),
+                ValueFactory.createValue(wallAlpha)};
+            data = propa.evaluate(factory, tables, propaArgs, null);
+            parseTime = propa.getParseBuildingsTime();
+            delaunayTime = propa.getDelaunayTime();
+            writingTime = propa.getWritingTime();
+            receivers = propa.getReceiverCount();
+            out = propa.getPropagationOut();
+        }
+        long total = System.currentTimeMillis() - begin;
+        long peakHeap = getPeakHeap();
+        // Results are not kept
+        ((DiskBufferDriver) data).getFile().delete();
+        long propagationTime = out.getSumReceiverComputationTime() / 1000000;
+        long pairs = out.getNb_couple_receiver_src();
+        long obstructionTests = out.getNb_obstr_test();
+        return new Object[] {threads, splitDepth, rDepth, dDepth, index, run,
+            total, parseTime, delaunayTime, propagationTime, writingTime,
+            receivers, perSecond(receivers, total), pairs,
+            perSecond(pairs, total), obstructionTests,
+            perSecond(obstructionTests, total), peakHeap / (1024 * 1024)};
+    }
+
+    private static void writeRow(Writer writer, Object[] row, boolean json,
+            boolean first) throws IOException {
+        StringBuilder line = new StringBuilder();
+        if (json) {
+            line.append(first ? "  {" : ",\n  {");
+            for (int i = 0; i < COLUMNS.length; i++) {
+                if (i > 0) {
+                    line.append(", ");
+                }
+                line.append('"').append(COLUMNS[i]).append("\": ");
+                if (row[i] instanceof String) {
+                    line.append('"').append(row[i]).append('"');
+                } else {
+                    line.append(row[i]);
+                }
+            }
+            line.append('}');
+        } else {
+            for (int i = 0; i < row.length; i++) {
+                if (i > 0) {
+                    line.append(',');
+                }
+                line.append(row[i]);
+            }
+            line.append('\n');
+        }
+        writer.write(line.toString());
+        writer.flush();
+    }
+
+    /**
+     * Run all configurations
+     * @param output Results file, JSON if the file name ends with .json,
+     * CSV otherwise
+     * @throws IOException
+     * @throws FunctionException
+     */
+    public void run(File output) throws IOException, FunctionException {
+        boolean json = output.getName().toLowerCase().endsWith(".json");
+        Writer writer = new FileWriter(output);
+        try {
+            if (json) {
+                writer.write("[\n");
+            } else {
+                writeRow(writer, COLUMNS, false, true);
+            }
+            boolean first = true;
+            for (int threads : threadCounts) {
+                for (int splitDepth : splitDepths) {
+                    for (int rDepth : reflectionDepths) {
+                        for (int dDepth : diffractionDepths) {
+                            for (String index : indexTypes) {
+                                for (int run = 0; run < warmupRuns; run++) {
+                                    System.out.println("Warm-up run " + (run + 1) + " threads:"
+                                            + threads + " split:" + splitDepth + " rdepth:"
+                                            + rDepth + " ddepth:" + dDepth + " index:" + index);
+                                    runConfiguration(threads, splitDepth, rDepth, dDepth, index, run);
+                                }
+                                for (int run = 0; run < measuredRuns; run++) {
+                                    System.out.println("Run " + (run + 1) + " threads:"
+                                            + threads + " split:" + splitDepth + " rdepth:"
+                                            + rDepth + " ddepth:" + dDepth + " index:" + index);
+                                    writeRow(writer, runConfiguration(threads, splitDepth,
+                                            rDepth, dDepth, index, run), json, first);
+                                    first = false;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+            if (json) {
+                writer.write("\n]\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.run;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import org.noisemap.core.CellCheckpoint;
+
+/**
+ * Run worker JVMs on the local host. The workers share the cells of the work
+ * directory, each one claims the cells not computed yet. Workers on other
+ * hosts can be started with the -worker option of trigrid on the same shared
+ * work directory. When the local workers are done, the coordinator computes
+ * the remaining cells itself and merges the results.
+ * Each local worker claims the cells under its own owner id, then the claims
+ * of the local workers can be released as soon as they are stopped, without
+ * releasing the claims of the workers of other hosts.
+ * @author Nicolas Fortin
+ */
+public class CellCoordinator {
+    private final File workDirectory;
+    private final List<String> workerArguments;
+    private final List<String> jvmArguments = new ArrayList<String>();
+    private final String coordinatorId = ManagementFactory.getRuntimeMXBean()
+            .getName() + "-" + Long.toHexString(System.currentTimeMillis());
+    private final List<String> workerIds = new ArrayList<String>();
+
+    /**
+     * @param workDirectory Shared work directory
+     * @param workerArguments Arguments of trigrid for the workers, the
+     * -worker option is appended
+     */
+    public CellCoordinator(File workDirectory, List<String> workerArguments) {
+        this.workDirectory = workDirectory;
+        this.workerArguments = workerArguments;
+    }
+
+    /**
+     * @param jvmArgument Option of the worker JVM, ex: -Xmx2g
+     */
+    public void addJvmArgument(String jvmArgument) {
+        jvmArguments.add(jvmArgument);
+    }
+
+    /**
+     * Cells claimed by stopped workers are published again. The claims of
+     * the workers of other hosts are released only if their lease has
+     * expired, the claims of the local workers of this coordinator are
+     * released when they are stopped.
+     * @return Count of released cells
+     */
+    public int releaseClaimedCells() {
+        return CellCheckpoint.releaseExpiredClaims(workDirectory,
+                CellCheckpoint.LEASE_TIMEOUT)
+                + CellCheckpoint.releaseClaimsOf(workDirectory, workerIds);
+    }
+
+    /**
+     * Start the workers and wait for their termination
+     * @param workerCount Worker JVM count
+     * @return Count of workers that failed
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public int runWorkers(int workerCount) throws IOException, InterruptedException {
+        List<Process> workers = new ArrayList<Process>(workerCount);
+        List<Thread> outputs = new ArrayList<Thread>(workerCount);
+        String javaPath = System.getProperty("java.home") + File.separator
+                + "bin" + File.separator + "java";
+        for(int workerId = 0; workerId < workerCount; workerId++) {
+            List<String> command = new ArrayList<String>();
+            command.add(javaPath);
+            command.addAll(jvmArguments);
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(trigrid.class.getName());
+            command.addAll(workerArguments);
+            command.add("-worker");
+            String workerOwner = coordinatorId + "/" + workerId;
+            command.add("-workerid");
+            command.add(workerOwner);
+            workerIds.add(workerOwner);
+            ProcessBuilder builder = new ProcessBuilder(command);
+            builder.redirectErrorStream(true);
+            Process worker = builder.start();
+            workers.add(worker);
+            Thread output = new Thread(new WorkerOutput(worker, "[worker " + workerId + "] "));
+            output.start();
+            outputs.add(output);
+        }
+        int failed = 0;
+        for(int workerId = 0; workerId < workerCount; workerId++) {
+            if(workers.get(workerId).waitFor() != 0) {
+                failed++;
+            }
+            outputs.get(workerId).join();
+        }
+        return failed;
+    }
+
+    /**
+     * Copy the output of a worker to the console
+     */
+    private static class WorkerOutput implements Runnable {
+        private final Process worker;
+        private final String prefix;
+
+        public WorkerOutput(Process worker, String prefix) {
+            this.worker = worker;
+            this.prefix = prefix;
+        }
+
+        @Override
+        public void run() {
+            BufferedReader input = new BufferedReader(new InputStreamReader(
+                    worker.getInputStream()));
+            try {
+                String line;
+                while ((line = input.readLine()) != null) {
+                    System.out.println(prefix + line);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                try {
+                    input.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
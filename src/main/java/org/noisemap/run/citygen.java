@@ -0,0 +1,239 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.run;
+
+import java.io.File;
+import java.util.Stack;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+import org.gdms.data.schema.DefaultMetadata;
+import org.gdms.data.types.Type;
+import org.gdms.data.types.TypeFactory;
+import org.gdms.data.values.Value;
+import org.gdms.data.values.ValueFactory;
+import org.gdms.driver.DiskBufferDriver;
+import org.gdms.driver.DriverException;
+import org.noisemap.core.SyntheticCity;
+
+/**
+ * Generate the input files of trigrid from a synthetic city.
+ * 
+ * @author Nicolas Fortin
+ */
+public class citygen {
+    private static void printUsage() {
+        System.out.println("Usage :");
+        System.out.println("java -cp noisemap.jar org.noisemap.run.citygen [options] -ob buildings.gdms -os sources.gdms");
+        System.out.println("Options :");
+        System.out.println("-seed 42         : random seed, the same seed and options give the same city");
+        System.out.println("-width 2000      : width of the city (m)");
+        System.out.println("-height 2000     : height of the city (m)");
+        System.out.println("-block 80        : width of blocks (m)");
+        System.out.println("-street 20       : width of streets (m)");
+        System.out.println("-density 1       : building density at the city center [0-1]");
+        System.out.println("-radius 500      : distance from the center where the density is divided by e (m), width/4 by default");
+        System.out.println("-towers 0.1      : probability of towers in medium density blocks");
+        System.out.println("-splfield db_m   : prefix of the sound level fields of sources");
+        System.out.println("-rstep 10        : distance between receivers, only with -or");
+        System.out.println("-ob builds.gdms  : output file name of buildings (polygons)");
+        System.out.println("-os sources.gdms : output file name of roads (lines)");
+        System.out.println("-or rcv.gdms     : output file name of receivers (points)");
+    }
+
+    /**
+     * Write the geometries of the city in gdms files
+     */
+    private static class GdmsCityWriter implements SyntheticCity.CityVisitor {
+        private final DiskBufferDriver buildings;
+        private final DiskBufferDriver sources;
+        private final DiskBufferDriver receivers;
+        private int buildingCount = 0;
+        private int roadCount = 0;
+        private int receiverCount = 0;
+
+        public GdmsCityWriter(DiskBufferDriver buildings, DiskBufferDriver sources, DiskBufferDriver receivers) {
+            this.buildings = buildings;
+            this.sources = sources;
+            this.receivers = receivers;
+        }
+
+        @Override
+        public void visitBuilding(Polygon footprint, double height) {
+            try {
+                buildings.addValues(new Value[] {ValueFactory.createValue(footprint),
+                    ValueFactory.createValue(buildingCount++), ValueFactory.createValue(height)});
+            } catch (DriverException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        @Override
+        public void visitRoad(LineString road, double[] spectrum) {
+            Value[] row = new Value[spectrum.length + 2];
+            row[0] = ValueFactory.createValue(road);
+            row[1] = ValueFactory.createValue(roadCount++);
+            for(int idFreq = 0; idFreq < spectrum.length; idFreq++) {
+                row[idFreq + 2] = ValueFactory.createValue(spectrum[idFreq]);
+            }
+            try {
+                sources.addValues(row);
+            } catch (DriverException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        @Override
+        public void visitReceiver(Point receiver) {
+            if(receivers != null) {
+                try {
+                    receivers.addValues(new Value[] {ValueFactory.createValue(receiver),
+                        ValueFactory.createValue(receiverCount++)});
+                } catch (DriverException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) {
+        long seed = 42;
+        double width = 2000;
+        double height = 2000;
+        double blockSize = 80;
+        double streetWidth = 20;
+        double density = 1;
+        double radius = 0;
+        double towers = 0.1;
+        double receiverStep = 10;
+        String splField = "db_m";
+        String buildingsFilename = "";
+        String sourcesFilename = "";
+        String receiversFilename = "";
+        //Read parameters
+        Stack<String> sargs=new Stack<String>();
+        for(String arg : args) {
+            sargs.insertElementAt(arg, 0);
+        }
+        while(!sargs.empty()) {
+            String argument=sargs.pop();
+            if(argument.contentEquals("-seed")) {
+                seed=Long.valueOf(sargs.pop());
+            }else if(argument.contentEquals("-width")) {
+                width=Double.valueOf(sargs.pop());
+            }else if(argument.contentEquals("-height")) {
+                height=Double.valueOf(sargs.pop());
+            }else if(argument.contentEquals("-block")) {
+                blockSize=Double.valueOf(sargs.pop());
+            }else if(argument.contentEquals("-street")) {
+                streetWidth=Double.valueOf(sargs.pop());
+            }else if(argument.contentEquals("-density")) {
+                density=Double.valueOf(sargs.pop());
+            }else if(argument.contentEquals("-radius")) {
+                radius=Double.valueOf(sargs.pop());
+            }else if(argument.contentEquals("-towers")) {
+                towers=Double.valueOf(sargs.pop());
+            }else if(argument.contentEquals("-splfield")) {
+                splField=sargs.pop();
+            }else if(argument.contentEquals("-rstep")) {
+                receiverStep=Double.valueOf(sargs.pop());
+            }else if(argument.contentEquals("-ob")) {
+                buildingsFilename=sargs.pop();
+            }else if(argument.contentEquals("-os")) {
+                sourcesFilename=sargs.pop();
+            }else if(argument.contentEquals("-or")) {
+                receiversFilename=sargs.pop();
+            }else{
+                System.err.println("Unknown parameter :"+argument);
+                printUsage();
+                return;
+            }
+        }
+        if(buildingsFilename.isEmpty() || sourcesFilename.isEmpty()) {
+            printUsage();
+            return;
+        }
+        SyntheticCity city = new SyntheticCity(seed, new Envelope(0, width, 0, height));
+        city.setBlockSize(blockSize, streetWidth);
+        if(radius > 0) {
+            city.setDensity(density, radius);
+        } else {
+            city.setDensity(density, Math.max(width, height) / 4);
+        }
+        city.setTowerProbability(towers);
+        if(!receiversFilename.isEmpty()) {
+            city.setReceiverStep(receiverStep);
+        }
+        try {
+            DiskBufferDriver buildings = new DiskBufferDriver(new File(buildingsFilename),
+                    new DefaultMetadata(new Type[] {TypeFactory.createType(Type.GEOMETRY),
+                        TypeFactory.createType(Type.INT), TypeFactory.createType(Type.DOUBLE)},
+                        new String[] {"the_geom", "id", "height"}));
+            Type[] sourcesTypes = new Type[SyntheticCity.FREQUENCIES.length + 2];
+            String[] sourcesFields = new String[SyntheticCity.FREQUENCIES.length + 2];
+            sourcesTypes[0] = TypeFactory.createType(Type.GEOMETRY);
+            sourcesFields[0] = "the_geom";
+            sourcesTypes[1] = TypeFactory.createType(Type.INT);
+            sourcesFields[1] = "id";
+            for(int idFreq = 0; idFreq < SyntheticCity.FREQUENCIES.length; idFreq++) {
+                sourcesTypes[idFreq + 2] = TypeFactory.createType(Type.DOUBLE);
+                sourcesFields[idFreq + 2] = splField + SyntheticCity.FREQUENCIES[idFreq];
+            }
+            DiskBufferDriver sources = new DiskBufferDriver(new File(sourcesFilename),
+                    new DefaultMetadata(sourcesTypes, sourcesFields));
+            DiskBufferDriver receivers = null;
+            if(!receiversFilename.isEmpty()) {
+                receivers = new DiskBufferDriver(new File(receiversFilename),
+                        new DefaultMetadata(new Type[] {TypeFactory.createType(Type.GEOMETRY),
+                            TypeFactory.createType(Type.INT)}, new String[] {"the_geom", "id"}));
+            }
+            GdmsCityWriter writer = new GdmsCityWriter(buildings, sources, receivers);
+            city.generate(writer);
+            buildings.writingFinished();
+            sources.writingFinished();
+            if(receivers != null) {
+                receivers.writingFinished();
+            }
+            System.out.println(writer.buildingCount + " buildings, " + writer.roadCount
+                    + " roads, " + writer.receiverCount + " receivers");
+        } catch (DriverException ex) {
+            System.err.println(ex.getMessage());
+            ex.printStackTrace(System.err);
+        }
+    }
+}
@@ -34,6 +34,9 @@
 package org.noisemap.run;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Stack;
 import org.apache.log4j.Logger;
 import org.gdms.data.DataSourceFactory;
@@ -75,13 +78,35 @@ public class trigrid {
         System.out.println("-splfield db_m   : sound lvl field name(string)");
         System.out.println("-maxdist 170     : maximum propagation distance (double meter)");
         System.out.println("-maxrdist 50     : maximum wall reflexion distance (double meter)");
-        System.out.println("-splitdepth 3    : subdivision level 4^n cells (int) [0-n]");
+        System.out.println("-splitdepth 3    : subdivision level 4^n cells (int) [0-n], -1 for automatic decomposition");
         System.out.println("-rwidth 0.8      : roads width (double meter), only when receiver not specified");
         System.out.println("-dense 5         : densification of receivers near roads (meter double), only when receiver not specified");
         System.out.println("-marea 250       : maximum area of triangle (square meter), only when receiver not specified");
+        System.out.println("-refine 3        : adaptive mesh, refine triangles where the level spread exceed this value (dB), only when receiver not specified");
+        System.out.println("-refineiter 4    : maximum refinement pass count");
+        System.out.println("-refinearea 5    : triangles smaller than this area (square meter) are not refined");
         System.out.println("-rdepth 2        : sound reflection order [0-n] (int)");
         System.out.println("-ddepth 1        : sound diffraction order [0-n] (int)");
         System.out.println("-awalls 0.2      : alpha of walls [0-1[ (double)");
+        System.out.println("-triangulator incremental : receivers mesh triangulation, jdelaunay (default) or incremental (in-process, -marea is the area of each triangle)");
+        System.out.println("-threads 4       : count of computation threads, also used by the automatic decomposition (default processor count)");
+        System.out.println("-compact         : store the receivers and the sources spectra as float, for bigger cells with the same memory");
+        System.out.println("-workdir path    : save the computed cells in this directory, a restarted computation skip the computed cells");
+        System.out.println("-cellrange 0:10  : compute only the cells from the first index (inclusive) to the last index (exclusive)");
+        System.out.println("-workers 4       : compute the cells with this count of local worker JVM, then merge the results of the work directory");
+        System.out.println("-workerjvm -Xmx2g: option of the worker JVM");
+        System.out.println("-worker          : compute the cells not claimed by another worker of the work directory, without merge");
+        System.out.println("-workerid id     : owner of the cells claimed by this worker, set by -workers");
+        System.out.println("-metrics m.properties : rewrite the counters of the running computation in this file");
+        System.out.println("-metricsperiod 10: delay between two counters snapshots (seconds)");
+        System.out.println("-bench out.csv   : run the benchmark matrix instead of the computation, write the results as CSV (or JSON with .json extension)");
+        System.out.println("-benchthreads 1,2,4 : thread counts of the benchmark matrix (default processor count)");
+        System.out.println("-benchsplit 2,3  : subdivision levels of the benchmark matrix (default -splitdepth)");
+        System.out.println("-benchrdepth 0,2 : reflection orders of the benchmark matrix (default -rdepth)");
+        System.out.println("-benchddepth 0,1 : diffraction orders of the benchmark matrix (default -ddepth)");
+        System.out.println("-benchindex quadtree,rtree,grid : sources index of the benchmark matrix (default quadtree)");
+        System.out.println("-benchwarmup 1   : not reported runs of each configuration");
+        System.out.println("-benchruns 3     : reported runs of each configuration");
         System.out.println("-ib builds.gdms  : file name of buildings gdms file");
         System.out.println("-is sources.gdms : file name of noise sources gdms file");
         System.out.println("-o trilvl.gdms   : output filename of gdms file");
@@ -109,7 +134,29 @@ public class trigrid {
         int reflectionDepth=2;
         int diffractionDepth=1;
         double wallAlpha=.2;
-
+        String triangulator="jdelaunay";
+        boolean compactStorage=false;
+        int threadCount=0;
+        double refineTolerance=0;
+        int refineIterations=4;
+        double refineArea=5;
+        String workDirectory="";
+        int firstCell=0;
+        int lastCell=Integer.MAX_VALUE;
+        int workerCount=0;
+        List<String> workerJvmArguments=new ArrayList<String>();
+        boolean workerMode=false;
+        String workerId="";
+        String metricsFilename="";
+        long metricsPeriod=10;
+        String benchFilename="";
+        String benchThreads=String.valueOf(Runtime.getRuntime().availableProcessors());
+        String benchSplit="";
+        String benchRDepth="";
+        String benchDDepth="";
+        String benchIndex="quadtree";
+        int benchWarmup=1;
+        int benchRuns=3;
 
         //Read parameters
         Stack<String> sargs=new Stack<String>();
@@ -136,12 +183,58 @@ public class trigrid {
                 densification=Double.valueOf(sargs.pop());
             }else if(argument.contentEquals("-marea")) {
                 maxarea=Double.valueOf(sargs.pop());
+            }else if(argument.contentEquals("-refine")) {
+                refineTolerance=Double.valueOf(sargs.pop());
+            }else if(argument.contentEquals("-refineiter")) {
+                refineIterations=Integer.valueOf(sargs.pop());
+            }else if(argument.contentEquals("-refinearea")) {
+                refineArea=Double.valueOf(sargs.pop());
             }else if(argument.contentEquals("-rdepth")) {
                 reflectionDepth=Integer.valueOf(sargs.pop());
             }else if(argument.contentEquals("-ddepth")) {
                 diffractionDepth=Integer.valueOf(sargs.pop());
             }else if(argument.contentEquals("-awalls")) {
                 wallAlpha=Double.valueOf(sargs.pop());
+            }else if(argument.contentEquals("-triangulator")) {
+                triangulator=sargs.pop();
+            }else if(argument.contentEquals("-compact")) {
+                compactStorage=true;
+            }else if(argument.contentEquals("-threads")) {
+                threadCount=Integer.valueOf(sargs.pop());
+            }else if(argument.contentEquals("-workdir")) {
+                workDirectory=sargs.pop();
+            }else if(argument.contentEquals("-cellrange")) {
+                String[] range=sargs.pop().split(":");
+                firstCell=Integer.valueOf(range[0]);
+                lastCell=Integer.valueOf(range[1]);
+            }else if(argument.contentEquals("-workers")) {
+                workerCount=Integer.valueOf(sargs.pop());
+            }else if(argument.contentEquals("-workerjvm")) {
+                workerJvmArguments.add(sargs.pop());
+            }else if(argument.contentEquals("-worker")) {
+                workerMode=true;
+            }else if(argument.contentEquals("-workerid")) {
+                workerId=sargs.pop();
+            }else if(argument.contentEquals("-metrics")) {
+                metricsFilename=sargs.pop();
+            }else if(argument.contentEquals("-metricsperiod")) {
+                metricsPeriod=Long.valueOf(sargs.pop());
+            }else if(argument.contentEquals("-bench")) {
+                benchFilename=sargs.pop();
+            }else if(argument.contentEquals("-benchthreads")) {
+                benchThreads=sargs.pop();
+            }else if(argument.contentEquals("-benchsplit")) {
+                benchSplit=sargs.pop();
+            }else if(argument.contentEquals("-benchrdepth")) {
+                benchRDepth=sargs.pop();
+            }else if(argument.contentEquals("-benchddepth")) {
+                benchDDepth=sargs.pop();
+            }else if(argument.contentEquals("-benchindex")) {
+                benchIndex=sargs.pop();
+            }else if(argument.contentEquals("-benchwarmup")) {
+                benchWarmup=Integer.valueOf(sargs.pop());
+            }else if(argument.contentEquals("-benchruns")) {
+                benchRuns=Integer.valueOf(sargs.pop());
             }else if(argument.contentEquals("-ib")) {
                 buildingsFilename=sargs.pop();
             }else if(argument.contentEquals("-is")) {
@@ -156,10 +249,49 @@ public class trigrid {
                 return;
             }
         }
-        if(buildingsFilename.isEmpty() || sourcesFilename.isEmpty() || outputFilename.isEmpty()) {
+        if(buildingsFilename.isEmpty() || sourcesFilename.isEmpty() || (outputFilename.isEmpty() && benchFilename.isEmpty())) {
             printUsage();
             return;
         }
+        if((workerCount>0 || workerMode) && workDirectory.isEmpty()) {
+            System.err.println("The workers require a work directory");
+            printUsage();
+            return;
+        }
+        if(workerCount>0) {
+            //Workers use the same arguments
+            List<String> workerArguments=new ArrayList<String>();
+            for(int i=0;i<args.length;i++) {
+                if(args[i].contentEquals("-workers") || args[i].contentEquals("-workerjvm")) {
+                    i++;
+                } else {
+                    workerArguments.add(args[i]);
+                }
+            }
+            CellCoordinator coordinator=new CellCoordinator(new File(workDirectory), workerArguments);
+            for(String jvmArgument : workerJvmArguments) {
+                coordinator.addJvmArgument(jvmArgument);
+            }
+            int released=coordinator.releaseClaimedCells();
+            if(released>0) {
+                System.out.println(released+" cells claimed by stopped workers are computed again");
+            }
+            try {
+                int failed=coordinator.runWorkers(workerCount);
+                if(failed>0) {
+                    System.err.println(failed+" workers failed, the remaining cells are computed by the coordinator");
+                    coordinator.releaseClaimedCells();
+                }
+            } catch (IOException ex) {
+                System.err.println(ex.getMessage());
+                ex.printStackTrace(System.err);
+                return;
+            } catch (InterruptedException ex) {
+                System.err.println(ex.getMessage());
+                return;
+            }
+            //Merge the results of the work directory
+        }
         //Load files
         DataSourceFactory factory=new DataSourceFactory();
         GdmsDriver buildings=new GdmsDriver();
@@ -184,11 +316,46 @@ public class trigrid {
             ex.printStackTrace(System.err);
             return;
         }
+        if(!benchFilename.isEmpty()) {
+            BenchmarkRunner bench=new BenchmarkRunner(factory, tables, new ConsoleLogger("Benchmark"));
+            bench.setParameters(splField, maxDist, maxRDist, roadsWidth, densification, maxarea, wallAlpha);
+            bench.setMatrix(BenchmarkRunner.parseIntegers(benchThreads),
+                    BenchmarkRunner.parseIntegers(benchSplit.isEmpty() ? String.valueOf(splitDepth) : benchSplit),
+                    BenchmarkRunner.parseIntegers(benchRDepth.isEmpty() ? String.valueOf(reflectionDepth) : benchRDepth),
+                    BenchmarkRunner.parseIntegers(benchDDepth.isEmpty() ? String.valueOf(diffractionDepth) : benchDDepth),
+                    BenchmarkRunner.parseStrings(benchIndex));
+            bench.setRuns(benchWarmup, benchRuns);
+            try {
+                bench.run(new File(benchFilename));
+            } catch (IOException ex) {
+                System.err.println(ex.getMessage());
+                ex.printStackTrace(System.err);
+            } catch (FunctionException ex) {
+                System.err.println(ex.getMessage());
+                ex.printStackTrace(System.err);
+            }
+            return;
+        }
         //Run propagation
         if(receiverFilename.isEmpty()) {
             BR_TriGrid propa=new BR_TriGrid();
             Logger log = new ConsoleLogger("BR_TriGrid");
             propa.setLogger(log);
+            propa.setAdaptiveRefinement(refineTolerance, refineIterations, refineArea);
+            propa.setTriangulator(triangulator);
+            propa.setCompactStorage(compactStorage);
+            propa.setThreadCount(threadCount);
+            if(!workDirectory.isEmpty()) {
+                propa.setCheckpoint(new File(workDirectory));
+            }
+            propa.setCellRange(firstCell, lastCell);
+            propa.setWorkerMode(workerMode);
+            if(!workerId.isEmpty()) {
+                propa.setWorkerId(workerId);
+            }
+            if(!metricsFilename.isEmpty()) {
+                propa.setMetricsSnapshot(new File(metricsFilename), metricsPeriod*1000);
+            }
             Value[] propaArgs={ValueFactory.createValue(splField),ValueFactory.createValue(maxDist),ValueFactory.createValue(maxRDist),ValueFactory.createValue(splitDepth),ValueFactory.createValue(roadsWidth),ValueFactory.createValue(densification),ValueFactory.createValue(maxarea),ValueFactory.createValue(reflectionDepth),ValueFactory.createValue(diffractionDepth),ValueFactory.createValue(wallAlpha)};
             DataSet data;
             try {
@@ -201,18 +368,40 @@ public class trigrid {
                 ex.printStackTrace(System.err);
                 return;
             }
-            //Rename output file
-            ((DiskBufferDriver)data).getFile().renameTo(new File(outputFilename));
+            if(workerMode) {
+                //Results are merged by the coordinator
+                ((DiskBufferDriver)data).getFile().delete();
+            } else {
+                //Rename output file
+                ((DiskBufferDriver)data).getFile().renameTo(new File(outputFilename));
+            }
         }else{
             BR_PtGrid propa=new BR_PtGrid();
             Logger log = new ConsoleLogger("BR_PtGrid");
             propa.setLogger(log);
+            propa.setThreadCount(threadCount);
+            if(!workDirectory.isEmpty()) {
+                propa.setCheckpoint(new File(workDirectory));
+            }
+            propa.setCellRange(firstCell, lastCell);
+            propa.setWorkerMode(workerMode);
+            if(!workerId.isEmpty()) {
+                propa.setWorkerId(workerId);
+            }
+            if(!metricsFilename.isEmpty()) {
+                propa.setMetricsSnapshot(new File(metricsFilename), metricsPeriod*1000);
+            }
             Value[] propaArgs={ValueFactory.createValue(splField),ValueFactory.createValue(maxDist),ValueFactory.createValue(maxRDist),ValueFactory.createValue(splitDepth),ValueFactory.createValue(reflectionDepth),ValueFactory.createValue(diffractionDepth),ValueFactory.createValue(wallAlpha)};
             DataSet data;
             try {
                 data=propa.evaluate(factory, tables, propaArgs, null);
-                //Rename output file
-                ((DiskBufferDriver)data).getFile().renameTo(new File(outputFilename));
+                if(workerMode) {
+                    //Results are merged by the coordinator
+                    ((DiskBufferDriver)data).getFile().delete();
+                } else {
+                    //Rename output file
+                    ((DiskBufferDriver)data).getFile().renameTo(new File(outputFilename));
+                }
                 long overallComputeTime=System.currentTimeMillis()-debComputeTime;
                 System.out.println("Overall computation time: "+overallComputeTime+" ms."+getHumanTime(overallComputeTime));
             } catch (FunctionException ex) {
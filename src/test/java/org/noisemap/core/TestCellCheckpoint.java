@@ -0,0 +1,256 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+import junit.framework.TestCase;
+
+public class TestCellCheckpoint extends TestCase {
+
+	private File makeWorkDirectory() throws IOException {
+		File workDirectory = File.createTempFile("checkpoint", "");
+		workDirectory.delete();
+		return workDirectory;
+	}
+
+	private void deleteWorkDirectory(File workDirectory) {
+		for (File file : workDirectory.listFiles()) {
+			file.delete();
+		}
+		workDirectory.delete();
+	}
+
+	private List<ComputationCell> makeCells() {
+		List<ComputationCell> cells = new ArrayList<ComputationCell>();
+		cells.add(new ComputationCell(0, new Envelope(0, 100, 0, 100), 10, 1,
+				1, false, true));
+		cells.add(new ComputationCell(1, new Envelope(100, 200, 0, 100), 10,
+				1, 1, true, true));
+		return cells;
+	}
+
+	public void testResume() throws IOException {
+		File workDirectory = makeWorkDirectory();
+		try {
+			CellCheckpoint checkpoint = new CellCheckpoint(workDirectory,
+					"BR_TriGrid(10)", makeCells());
+			GeometryFactory factory = new GeometryFactory();
+			Coordinate[] pts = { new Coordinate(0, 0, 1),
+					new Coordinate(10, 0, 2), new Coordinate(0, 10, 3),
+					new Coordinate(0, 0, 1) };
+			List<Coordinate> vertices = new ArrayList<Coordinate>();
+			vertices.add(pts[0]);
+			vertices.add(pts[1]);
+			vertices.add(pts[2]);
+			List<Triangle> triangles = new ArrayList<Triangle>();
+			triangles.add(new Triangle(0, 1, 2));
+			assertFalse(checkpoint.isComputed(1));
+			checkpoint.writeTriCell(1, vertices, triangles, new double[] { 50,
+					60, 70 });
+			assertTrue(checkpoint.isComputed(1));
+			// Restart with the same parameters
+			checkpoint = new CellCheckpoint(workDirectory, "BR_TriGrid(10)",
+					makeCells());
+			assertFalse(checkpoint.isComputed(0));
+			List<PropagationResultTriRecord> read = checkpoint.readTriCell(1);
+			assertEquals(1, read.size());
+			assertTrue(read.get(0).getTriangle().equalsExact(
+					factory.createPolygon(factory.createLinearRing(pts), null)));
+			assertEquals(3., read.get(0).getTriangle().getCoordinates()[2].z);
+			assertEquals(60., read.get(0).getV2());
+			assertEquals(1, read.get(0).getCellId());
+			// Restart with other parameters
+			try {
+				new CellCheckpoint(workDirectory, "BR_TriGrid(20)", makeCells());
+				fail();
+			} catch (IOException e) {
+				// expected
+			}
+		} finally {
+			deleteWorkDirectory(workDirectory);
+		}
+	}
+
+	public void testReceivers() throws IOException {
+		File workDirectory = makeWorkDirectory();
+		try {
+			CellCheckpoint checkpoint = new CellCheckpoint(workDirectory,
+					"BR_PtGrid(10)", makeCells());
+			List<Long> rows = new ArrayList<Long>();
+			rows.add(42L);
+			rows.add(43L);
+			checkpoint.writePtCell(0, rows, new double[] { 55.5, 1. },
+					new int[] { PropagationResultPtRecord.RECEIVER_FREE,
+							PropagationResultPtRecord.RECEIVER_INSIDE });
+			List<PropagationResultPtRecord> read = checkpoint.readPtCell(0);
+			assertEquals(2, read.size());
+			assertEquals(42, read.get(0).getReceiverRecordRow());
+			assertEquals(55.5, read.get(0).getReceiverLvl());
+			assertEquals(PropagationResultPtRecord.RECEIVER_FREE, read.get(0)
+					.getReceiverClass());
+			assertEquals(PropagationResultPtRecord.RECEIVER_INSIDE, read.get(1)
+					.getReceiverClass());
+		} finally {
+			deleteWorkDirectory(workDirectory);
+		}
+	}
+
+	/**
+	 * Cells larger than the write buffer are streamed, records cross the
+	 * buffer chunks
+	 */
+	public void testLargeCell() throws IOException {
+		File workDirectory = makeWorkDirectory();
+		try {
+			CellCheckpoint checkpoint = new CellCheckpoint(workDirectory,
+					"BR_PtGrid(10)", makeCells());
+			int receiverCount = 20000;
+			List<Long> rows = new ArrayList<Long>(receiverCount);
+			double[] levels = new double[receiverCount];
+			for (int i = 0; i < receiverCount; i++) {
+				rows.add((long) i * 3);
+				levels[i] = i / 7.;
+			}
+			checkpoint.writePtCell(0, rows, levels, null);
+			List<PropagationResultPtRecord> read = checkpoint.readPtCell(0);
+			assertEquals(receiverCount, read.size());
+			for (int i = 0; i < receiverCount; i++) {
+				assertEquals(i * 3L, read.get(i).getReceiverRecordRow());
+				assertEquals(i / 7., read.get(i).getReceiverLvl());
+			}
+		} finally {
+			deleteWorkDirectory(workDirectory);
+		}
+	}
+
+	public void testArrays() throws IOException {
+		File workDirectory = makeWorkDirectory();
+		try {
+			CellCheckpoint checkpoint = new CellCheckpoint(workDirectory,
+					"BR_TriGrid(10)", makeCells());
+			List<Coordinate> vertices = new ArrayList<Coordinate>();
+			vertices.add(new Coordinate(0, 0, 1));
+			vertices.add(new Coordinate(10, 0, 2));
+			vertices.add(new Coordinate(0, 10, 3));
+			vertices.add(new Coordinate(10, 10, 4));
+			List<Triangle> triangles = new ArrayList<Triangle>();
+			triangles.add(new Triangle(0, 1, 2));
+			triangles.add(new Triangle(1, 3, 2));
+			checkpoint.writeTriCell(0, vertices, triangles, new double[] {
+					50, 60, 70, 80 });
+			List<PropagationResultTriRecord> read = checkpoint.readTriCell(0);
+			assertEquals(2, read.size());
+			assertEquals(1, read.get(1).getTriId());
+			assertEquals(60., read.get(1).getV1());
+			assertEquals(80., read.get(1).getV2());
+			assertEquals(4., read.get(1).getTriangle().getCoordinates()[1].z);
+			List<Long> rows = new ArrayList<Long>();
+			rows.add(7L);
+			rows.add(9L);
+			checkpoint.writePtCell(1, rows, new double[] { 40, 45 }, new int[] {
+					PropagationResultPtRecord.RECEIVER_FACADE,
+					PropagationResultPtRecord.RECEIVER_FREE });
+			List<PropagationResultPtRecord> receivers = checkpoint.readPtCell(1);
+			assertEquals(2, receivers.size());
+			assertEquals(9, receivers.get(1).getReceiverRecordRow());
+			assertEquals(45., receivers.get(1).getReceiverLvl());
+			assertEquals(PropagationResultPtRecord.RECEIVER_FACADE, receivers
+					.get(0).getReceiverClass());
+		} finally {
+			deleteWorkDirectory(workDirectory);
+		}
+	}
+
+	public void testTemporary() throws IOException {
+		CellCheckpoint checkpoint = CellCheckpoint.createTemporary(new File(
+				System.getProperty("java.io.tmpdir")), "BR_PtGrid", makeCells());
+		File workDirectory = checkpoint.getWorkDirectory();
+		assertTrue(workDirectory.isDirectory());
+		checkpoint.writePtCell(0, new ArrayList<Long>(), new double[0], null);
+		assertTrue(checkpoint.isComputed(0));
+		checkpoint.delete();
+		assertFalse(workDirectory.exists());
+	}
+
+	public void testClaim() throws IOException {
+		File workDirectory = makeWorkDirectory();
+		try {
+			// Two processes on the same work directory
+			CellCheckpoint first = new CellCheckpoint(workDirectory,
+					"BR_PtGrid(10)", makeCells());
+			CellCheckpoint second = new CellCheckpoint(workDirectory,
+					"BR_PtGrid(10)", makeCells());
+			first.publishCells(makeCells());
+			second.publishCells(makeCells());
+			assertEquals(2, first.getTodoCount());
+			assertTrue(first.claim(0));
+			assertFalse(second.claim(0));
+			assertTrue(second.claim(1));
+			assertEquals(0, first.getTodoCount());
+			first.writePtCell(0, new ArrayList<Long>(), new double[0], null);
+			// The claim of the second process is still leased
+			assertEquals(0, CellCheckpoint.releaseExpiredClaims(workDirectory,
+					CellCheckpoint.LEASE_TIMEOUT));
+			assertEquals(0, CellCheckpoint.releaseClaimsOf(workDirectory,
+					Collections.singletonList(first.getOwner())));
+			// The second process has been stopped before the end of cell 1
+			assertEquals(1, CellCheckpoint.releaseClaimsOf(workDirectory,
+					Collections.singletonList(second.getOwner())));
+			assertEquals(1, first.getTodoCount());
+			assertTrue(first.claim(1));
+			// The lease of the first process expires
+			assertTrue(new File(new File(workDirectory,
+					CellCheckpoint.RUNNING_DIRECTORY), "cell_1")
+					.setLastModified(System.currentTimeMillis()
+							- CellCheckpoint.LEASE_TIMEOUT - 1000));
+			assertEquals(1, CellCheckpoint.releaseExpiredClaims(workDirectory,
+					CellCheckpoint.LEASE_TIMEOUT));
+		} finally {
+			for (File directory : workDirectory.listFiles()) {
+				if (directory.isDirectory()) {
+					deleteWorkDirectory(directory);
+				}
+			}
+			deleteWorkDirectory(workDirectory);
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import com.vividsolutions.jts.geom.Envelope;
+
+import junit.framework.TestCase;
+
+public class TestCellCostModel extends TestCase {
+
+	private List<ComputationCell> makeCells() {
+		List<ComputationCell> cells = new ArrayList<ComputationCell>();
+		// Same receivers count, the second cell is in a dense area
+		cells.add(new ComputationCell(0, new Envelope(0, 100, 0, 100), 100,
+				10, 10, false, true));
+		cells.add(new ComputationCell(1, new Envelope(100, 200, 0, 100), 100,
+				100, 500, true, true));
+		cells.add(new ComputationCell(2, new Envelope(200, 300, 0, 100), 0,
+				0, 0, true, true));
+		return cells;
+	}
+
+	public void testLongestFirst() {
+		List<ComputationCell> cells = makeCells();
+		CellCostModel costModel = new CellCostModel(cells, 2, 1, 100, 50, 1);
+		List<ComputationCell> sorted = costModel.sortByDecreasingCost(cells);
+		assertEquals(1, sorted.get(0).getId());
+		assertEquals(0, sorted.get(1).getId());
+		assertEquals(2, sorted.get(2).getId());
+		// The receivers count of the mesh change the order
+		costModel.setReceiverCount(0, 1000000);
+		sorted = costModel.sortByDecreasingCost(cells);
+		assertEquals(0, sorted.get(0).getId());
+	}
+
+	public void testRemainingTime() {
+		List<ComputationCell> cells = makeCells();
+		CellCostModel costModel = new CellCostModel(cells, 2, 1, 100, 50, 2);
+		PropagationProcessOut dataOut = new PropagationProcessOut(null, null);
+		dataOut.setCostModel(costModel);
+		costModel.setDataOut(dataOut);
+		assertEquals(-1, costModel.getRemainingTime());
+		// First cell computed in 1 s, the remaining cell is shared by
+		// two threads
+		double firstCost = costModel.getPredictedCost(0);
+		double secondCost = costModel.getPredictedCost(1);
+		dataOut.appendCellComputed(0, 1000000000L);
+		assertEquals(1, dataOut.getCellComputed());
+		assertEquals((long) (secondCost / firstCost * 1000 / 2),
+				costModel.getRemainingTime(), 1);
+		dataOut.appendCellComputed(1, 1000000000L);
+		assertEquals(0, costModel.getRemainingTime());
+	}
+
+	public void testReceiverTimeBounds() {
+		List<ComputationCell> cells = makeCells();
+		CellCostModel costModel = new CellCostModel(cells, 2, 1, 100, 50, 1);
+		PropagationProcessOut dataOut = new PropagationProcessOut(null, null);
+		dataOut.setCostModel(costModel);
+		costModel.setDataOut(dataOut);
+		// The 100 receivers of the first cell took between 5 and 15 ms
+		dataOut.updateMinimalReceiverComputationTime(5000000L);
+		dataOut.updateMaximalReceiverComputationTime(15000000L);
+		dataOut.appendCellComputed(0, 1000000000L);
+		// The receivers of the dense cell are predicted far slower than
+		// the slowest computed receiver
+		assertTrue(costModel.getPredictedCost(1) / 100 * 10
+				/ (costModel.getPredictedCost(0) / 100) > 15);
+		assertEquals(100 * 15, costModel.getRemainingTime(), 1);
+	}
+}
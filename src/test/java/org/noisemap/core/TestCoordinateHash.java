@@ -0,0 +1,81 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+import junit.framework.TestCase;
+
+public class TestCoordinateHash extends TestCase {
+
+	public void testUniqueCoordinates() {
+		List<Coordinate> coordinates = new ArrayList<Coordinate>();
+		coordinates.add(new Coordinate(1, 2, 3));
+		CoordinateHash hash = new CoordinateHash(coordinates, 0);
+		assertEquals(0, hash.getOrAppend(1, 2, 3));
+		assertEquals(1, hash.getOrAppend(new Coordinate(1, 2)));
+		assertEquals(1, hash.getOrAppend(1, 2, Double.NaN));
+		assertEquals(2, hash.getOrAppend(0., 0., 0.));
+		assertEquals(2, hash.getOrAppend(-0., 0., -0.));
+		assertEquals(3, coordinates.size());
+		assertEquals(-1, hash.indexOf(1, 2, 4));
+	}
+
+	public void testGrowth() {
+		List<Coordinate> coordinates = new ArrayList<Coordinate>();
+		CoordinateHash hash = new CoordinateHash(coordinates, 4);
+		Random random = new Random(3);
+		List<Coordinate> expected = new ArrayList<Coordinate>();
+		for (int i = 0; i < 10000; i++) {
+			// Coordinates of a grid, many of them are equal
+			Coordinate coordinate = new Coordinate(random.nextInt(50), random.nextInt(50), 0);
+			int index = hash.getOrAppend(coordinate.x, coordinate.y, coordinate.z);
+			if (index == expected.size()) {
+				expected.add(coordinate);
+			}
+			assertTrue(coordinate.equals3D(coordinates.get(index)));
+		}
+		assertEquals(expected.size(), coordinates.size());
+		// Index an existing list
+		CoordinateHash copy = new CoordinateHash(new ArrayList<Coordinate>(coordinates), 0);
+		for (int i = 0; i < coordinates.size(); i++) {
+			Coordinate coordinate = coordinates.get(i);
+			assertEquals(i, copy.indexOf(coordinate.x, coordinate.y, coordinate.z));
+		}
+	}
+}
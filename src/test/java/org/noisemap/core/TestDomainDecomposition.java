@@ -0,0 +1,123 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.core;
+
+import java.util.List;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+
+import junit.framework.TestCase;
+
+public class TestDomainDecomposition extends TestCase {
+
+	private DomainDecomposition makeCity() {
+		Envelope mainEnvelope = new Envelope(0, 6400, 0, 6400);
+		DomainDecomposition decomposition = new DomainDecomposition(
+				mainEnvelope, 100);
+		decomposition.addReceiverDensity(1e-3);
+		// Dense city center in the lower left part
+		for (int i = 0; i < 100; i++) {
+			for (int j = 0; j < 100; j++) {
+				Coordinate pt = new Coordinate(100 + i * 10, 100 + j * 10);
+				decomposition.addReceivers(pt, 1);
+				decomposition.addSources(pt, 2);
+				decomposition.addBuildings(pt, 5);
+			}
+		}
+		return decomposition;
+	}
+
+	public void testUniformCells() {
+		List<ComputationCell> cells = makeCity().getUniformCells(2);
+		assertEquals(16, cells.size());
+		assertEquals(new Envelope(1600, 3200, 3200, 4800), cells.get(1 * 4 + 2)
+				.getEnvelope());
+		assertEquals(6, cells.get(6).getId());
+	}
+
+	public void testAdaptiveCells() {
+		DomainDecomposition decomposition = makeCity();
+		decomposition.setTargets(1e6, 1e9);
+		List<ComputationCell> cells = decomposition.getAdaptiveCells();
+		double area = 0;
+		double smallestArea = Double.MAX_VALUE;
+		ComputationCell smallest = null;
+		for (ComputationCell cell : cells) {
+			area += cell.getEnvelope().getArea();
+			if (cell.getEnvelope().getArea() < smallestArea) {
+				smallestArea = cell.getEnvelope().getArea();
+				smallest = cell;
+			}
+		}
+		// The whole domain is covered without overlapping
+		assertEquals(6400. * 6400., area, 1e-3);
+		assertTrue(cells.size() > 4);
+		// Smaller cells are in the city center
+		assertTrue(smallest.getEnvelope().intersects(new Envelope(100, 1100, 100, 1100)));
+		// Each receiver belongs to a single cell
+		Coordinate[] receivers = new Coordinate[] { new Coordinate(0, 0),
+				new Coordinate(6400, 6400), new Coordinate(3200, 3200),
+				new Coordinate(smallest.getEnvelope().getMaxX(), 50) };
+		for (Coordinate receiver : receivers) {
+			int owners = 0;
+			for (ComputationCell cell : cells) {
+				if (cell.ownsReceiver(receiver)) {
+					owners++;
+				}
+			}
+			assertEquals(1, owners);
+		}
+	}
+
+	public void testThreadCount() {
+		// The automatic work target is shared among the threads
+		DomainDecomposition decomposition = makeCity();
+		decomposition.setTargets(0, 1e9);
+		decomposition.setThreadCount(1);
+		int oneThreadCells = decomposition.getAdaptiveCells().size();
+		decomposition.setThreadCount(16);
+		assertTrue(decomposition.getAdaptiveCells().size() > oneThreadCells);
+	}
+
+	public void testSkipEmptyCells() {
+		DomainDecomposition decomposition = new DomainDecomposition(
+				new Envelope(0, 6400, 0, 6400), 100);
+		decomposition.addReceivers(new Coordinate(10, 10), 1);
+		decomposition.addSources(new Coordinate(6000, 6000), 1e6);
+		decomposition.setTargets(1, 1e9);
+		List<ComputationCell> cells = decomposition.getAdaptiveCells();
+		assertEquals(1, cells.size());
+		assertTrue(cells.get(0).ownsReceiver(new Coordinate(10, 10)));
+	}
+}
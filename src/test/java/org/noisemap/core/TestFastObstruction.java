@@ -33,8 +33,11 @@
  */
 package org.noisemap.core;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Stack;
 
 import org.noisemap.core.FastObstructionTest;
 import org.noisemap.core.LayerDelaunayError;
@@ -242,4 +245,107 @@ public class TestFastObstruction extends TestCase {
 		}
 		return wideangle;
 	}
+
+	/**
+	 * Receivers on a wall are moved outward, receivers inside the building
+	 * are not computed, the other receivers are left unchanged.
+	 */
+	public void testReceiverClassification() throws LayerDelaunayError,
+			IOException {
+		GeometryFactory factory = new GeometryFactory();
+		Coordinate[] building1Coords = { new Coordinate(15., 5., 0.),
+				new Coordinate(30., 5., 0.), new Coordinate(30., 30., 0.),
+				new Coordinate(15., 30., 0.), new Coordinate(15., 5., 0.) };
+		Envelope cellEnvelope = new Envelope(new Coordinate(0., 0., 0.),
+				new Coordinate(45., 45., 0.));
+		FastObstructionTest manager = new FastObstructionTest();
+		manager.addGeometry(factory.createPolygon(
+				factory.createLinearRing(building1Coords), null));
+		manager.finishPolygonFeeding(cellEnvelope);
+		// Domain limits are not walls
+		assertEquals(-1, manager.getNearestWall(new Coordinate(44.95, 10.), 0.1));
+		assertTrue(manager.getNearestWall(new Coordinate(29.95, 15.), 0.1) != -1);
+
+		List<Coordinate> receivers = new ArrayList<Coordinate>();
+		receivers.add(new Coordinate(29.95, 15., 0.)); // Inside, 5 cm from the wall
+		receivers.add(new Coordinate(15.05, 20., 0.)); // Inside, 5 cm from the wall
+		receivers.add(new Coordinate(22., 17., 0.)); // Deep inside
+		receivers.add(new Coordinate(40., 40., 0.)); // Free field
+		receivers.add(new Coordinate(44.95, 10., 0.)); // Near the domain limits
+		List<Long> receiverRowId = new ArrayList<Long>();
+		for (int i = 0; i < receivers.size(); i++) {
+			receiverRowId.add((long) i);
+		}
+		List<Geometry> srclst = new ArrayList<Geometry>();
+		List<ArrayList<Double>> srcSpectrum = new ArrayList<ArrayList<Double>>();
+		List<Integer> freqLvl = new ArrayList<Integer>();
+		freqLvl.add(125);
+		PropagationProcessData propData = new PropagationProcessData(
+				receivers, receiverRowId, null, manager, new QueryGridIndex(
+						cellEnvelope, 8, 8), srclst, srcSpectrum, freqLvl, 0,
+				0, 80., 50., 1., 0., 0, null, new ProgressionProcess(null,
+						receivers.size()));
+		propData.classifyReceivers = true;
+		List<ComputationCell> cells = new ArrayList<ComputationCell>();
+		cells.add(new ComputationCell(0, cellEnvelope, 0, 0, 0, false, false));
+		propData.checkpoint = CellCheckpoint.createTemporary(new File(System
+				.getProperty("java.io.tmpdir")), "test", cells);
+		PropagationProcessOut propDataOut = new PropagationProcessOut(null,
+				new Stack<PropagationResultPtRecord>());
+		int[] receiversClass = new int[receivers.size()];
+		try {
+			new PropagationProcess(propData, propDataOut).run();
+			for (PropagationResultPtRecord record : propData.checkpoint
+					.readPtCell(0)) {
+				receiversClass[(int) record.getReceiverRecordRow()] = record
+						.getReceiverClass();
+			}
+		} finally {
+			propData.checkpoint.delete();
+		}
+		assertEquals(2, propDataOut.getNb_facade_receiver());
+		assertEquals(1, propDataOut.getNb_inside_receiver());
+		// Moved at 10 cm of the wall, on the free field side
+		assertEquals(PropagationResultPtRecord.RECEIVER_FACADE, receiversClass[0]);
+		assertTrue(isBarelyEqual(30.1, receivers.get(0).x));
+		assertTrue(isBarelyEqual(15., receivers.get(0).y));
+		assertEquals(PropagationResultPtRecord.RECEIVER_FACADE, receiversClass[1]);
+		assertTrue(isBarelyEqual(14.9, receivers.get(1).x));
+		assertTrue(isBarelyEqual(20., receivers.get(1).y));
+		assertEquals(PropagationResultPtRecord.RECEIVER_INSIDE, receiversClass[2]);
+		assertEquals(new Coordinate(22., 17.), receivers.get(2));
+		assertEquals(PropagationResultPtRecord.RECEIVER_FREE, receiversClass[3]);
+		assertEquals(new Coordinate(40., 40.), receivers.get(3));
+		assertEquals(PropagationResultPtRecord.RECEIVER_FREE, receiversClass[4]);
+		assertEquals(new Coordinate(44.95, 10.), receivers.get(4));
+	}
+
+	/**
+	 * A merged building block larger than the cell is clipped by the cell
+	 * envelope, the mesh does not grow with the block.
+	 */
+	public void testLargeMergedBlock() throws LayerDelaunayError {
+		GeometryFactory factory = new GeometryFactory();
+		// City wide block, crossing the cell
+		Coordinate[] blockCoords = { new Coordinate(-5000., 20., 0.),
+				new Coordinate(5000., 20., 0.), new Coordinate(5000., 5000., 0.),
+				new Coordinate(-5000., 5000., 0.), new Coordinate(-5000., 20., 0.) };
+		Envelope cellEnvelope = new Envelope(new Coordinate(0., 0., 0.),
+				new Coordinate(45., 45., 0.));
+		Envelope expandedCellEnvelope = new Envelope(cellEnvelope);
+		expandedCellEnvelope.expandBy(10.);
+		FastObstructionTest manager = new FastObstructionTest();
+		manager.addMergedGeometry(factory.createPolygon(
+				factory.createLinearRing(blockCoords), null));
+		manager.finishPolygonFeeding(expandedCellEnvelope);
+		Envelope meshEnvelope = new Envelope();
+		for (Coordinate vertex : manager.getVertices()) {
+			meshEnvelope.expandToInclude(vertex);
+		}
+		assertTrue(meshEnvelope + " out of " + expandedCellEnvelope,
+				expandedCellEnvelope.contains(meshEnvelope));
+		// The block is still an obstacle in the cell
+		assertTrue(manager.isObstructed(new Coordinate(20., 40.)));
+		assertFalse(manager.isObstructed(new Coordinate(20., 10.)));
+	}
 }
@@ -0,0 +1,102 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+
+public class TestFloatCoordinateList extends TestCase {
+
+	public void testPrecision() {
+		// Cell of 4 km far from the coordinates origin
+		List<Coordinate> coordinates = new ArrayList<Coordinate>();
+		coordinates.add(new Coordinate(652000.123, 6862000.456, 12.5));
+		coordinates.add(new Coordinate(655999.987, 6865999.876));
+		FloatCoordinateList compact = new FloatCoordinateList(coordinates,
+				652000, 6862000);
+		assertEquals(2, compact.size());
+		for (int i = 0; i < coordinates.size(); i++) {
+			assertTrue(compact.get(i).distance(coordinates.get(i)) < 1e-3);
+		}
+		assertEquals(12.5, compact.get(0).z);
+		assertTrue(Double.isNaN(compact.get(1).z));
+		// Growth and update
+		for (int i = 0; i < 100; i++) {
+			compact.add(new Coordinate(652000 + i, 6862000 + i));
+		}
+		compact.set(0, new Coordinate(652001, 6862001, 3));
+		assertEquals(102, compact.size());
+		assertEquals(new Coordinate(652099, 6862099), compact.get(101));
+		assertEquals(new Coordinate(652001, 6862001), compact.get(0));
+		assertEquals(3., compact.get(0).z);
+		try {
+			compact.get(102);
+			fail();
+		} catch (IndexOutOfBoundsException e) {
+			// Expected
+		}
+	}
+
+	public void testBorderPrecision() {
+		Envelope cellEnvelope = new Envelope(652000.1234567, 656000.1234567,
+				6862000.7654321, 6866000.7654321);
+		List<Coordinate> coordinates = new ArrayList<Coordinate>();
+		coordinates.add(new Coordinate(656000.1234567, 6863123.4567891, 1.));
+		coordinates.add(new Coordinate(653123.4567891, 6862000.7654321));
+		coordinates.add(new Coordinate(653123.4567891, 6863123.4567891, 2.));
+		FloatCoordinateList compact = new FloatCoordinateList(coordinates,
+				cellEnvelope);
+		// Border coordinates are not rounded
+		assertEquals(coordinates.get(0), compact.get(0));
+		assertEquals(coordinates.get(0).x, compact.getX(0));
+		assertEquals(coordinates.get(0).y, compact.getY(0));
+		assertEquals(1., compact.getZ(0));
+		assertEquals(coordinates.get(1), compact.get(1));
+		// Other coordinates are stored as float
+		assertTrue(compact.get(2).distance(coordinates.get(2)) < 1e-3);
+		assertEquals(compact.get(2).x, compact.getX(2));
+		assertEquals(compact.get(2).y, compact.getY(2));
+		assertEquals(2., compact.getZ(2));
+		// A border coordinate moved inside the cell
+		compact.set(0, coordinates.get(2));
+		assertEquals(compact.get(2), compact.get(0));
+		compact.set(2, coordinates.get(1));
+		assertEquals(coordinates.get(1), compact.get(2));
+	}
+}
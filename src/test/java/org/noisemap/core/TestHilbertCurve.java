@@ -0,0 +1,89 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+public class TestHilbertCurve extends TestCase {
+
+	public void testIndex() {
+		// Each step of the curve moves to a neighbor cell
+		int cells = 1 << 4;
+		long[] xByIndex = new long[cells * cells];
+		long[] yByIndex = new long[cells * cells];
+		for (int x = 0; x < cells; x++) {
+			for (int y = 0; y < cells; y++) {
+				// Scale the small grid to the curve order
+				int shift = HilbertCurve.ORDER - 4;
+				long d = HilbertCurve.index(x << shift, y << shift) >> (2 * shift);
+				xByIndex[(int) d] = x;
+				yByIndex[(int) d] = y;
+			}
+		}
+		for (int d = 1; d < cells * cells; d++) {
+			assertEquals(1, Math.abs(xByIndex[d] - xByIndex[d - 1])
+					+ Math.abs(yByIndex[d] - yByIndex[d - 1]));
+		}
+	}
+
+	public void testSort() {
+		List<Coordinate> points = new ArrayList<Coordinate>();
+		for (int x = 0; x < 32; x++) {
+			for (int y = 0; y < 32; y++) {
+				points.add(new Coordinate(x * 10, y * 10));
+			}
+		}
+		int[] order = HilbertCurve.sort(points, 5, points.size());
+		assertEquals(points.size() - 5, order.length);
+		// A permutation of the range
+		int[] sorted = Arrays.copyOf(order, order.length);
+		Arrays.sort(sorted);
+		for (int i = 0; i < sorted.length; i++) {
+			assertEquals(i + 5, sorted[i]);
+		}
+		// Consecutive points are close
+		double length = 0;
+		for (int i = 1; i < order.length; i++) {
+			length += points.get(order[i - 1]).distance(points.get(order[i]));
+		}
+		assertTrue(length < order.length * 15);
+		assertEquals(0, HilbertCurve.sort(points, 3, 3).length);
+	}
+}
@@ -0,0 +1,196 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.core;
+
+import java.util.List;
+import java.util.Random;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKTReader;
+
+import junit.framework.TestCase;
+
+public class TestLayerIncrementalDelaunay extends TestCase {
+	private static final String BUILDING = "POLYGON((20 20, 50 20, 50 60, 20 60, 20 20),(30 30, 40 30, 40 45, 30 45, 30 30))";
+	private static final String BUILDING2 = "POLYGON((60 70, 90 75, 70 90, 60 70))";
+
+	private Polygon square(double size) {
+		GeometryFactory factory = new GeometryFactory();
+		Coordinate[] ring = {new Coordinate(0, 0), new Coordinate(size, 0),
+				new Coordinate(size, size), new Coordinate(0, size),
+				new Coordinate(0, 0)};
+		return factory.createPolygon(factory.createLinearRing(ring), null);
+	}
+
+	private Polygon triangle(List<Coordinate> vertices, Triangle tri) {
+		GeometryFactory factory = new GeometryFactory();
+		Coordinate[] ring = {vertices.get(tri.getA()), vertices.get(tri.getB()),
+				vertices.get(tri.getC()), vertices.get(tri.getA())};
+		return factory.createPolygon(factory.createLinearRing(ring), null);
+	}
+
+	/**
+	 * Check the orientation of the triangles and the neighbors links
+	 * @return Area of the mesh
+	 */
+	private double checkMesh(LayerDelaunay mesh) throws LayerDelaunayError {
+		List<Coordinate> vertices = mesh.getVertices();
+		List<Triangle> triangles = mesh.getTriangles();
+		List<Triangle> neighbors = mesh.getNeighbors();
+		assertEquals(triangles.size(), neighbors.size());
+		double area = 0;
+		for (int t = 0; t < triangles.size(); t++) {
+			Triangle tri = triangles.get(t);
+			Coordinate a = vertices.get(tri.getA());
+			Coordinate b = vertices.get(tri.getB());
+			Coordinate c = vertices.get(tri.getC());
+			double doubleArea = (b.x - a.x) * (c.y - a.y) - (b.y - a.y) * (c.x - a.x);
+			assertTrue(doubleArea > 0);
+			area += doubleArea / 2;
+			for (int i = 0; i < 3; i++) {
+				int n = neighbors.get(t).get(i);
+				if (n >= 0) {
+					// The neighbor share the edge opposite the vertex i
+					IntSegment edge = tri.getSegment(i);
+					Triangle neighbor = triangles.get(n);
+					int shared = 0;
+					for (int j = 0; j < 3; j++) {
+						if (neighbor.get(j) == edge.getA() || neighbor.get(j) == edge.getB()) {
+							shared++;
+						}
+					}
+					assertEquals(2, shared);
+					boolean backLink = false;
+					for (int j = 0; j < 3; j++) {
+						backLink |= neighbors.get(n).get(j) == t;
+					}
+					assertTrue(backLink);
+				}
+			}
+		}
+		return area;
+	}
+
+	public void testHoles() throws LayerDelaunayError, ParseException {
+		WKTReader reader = new WKTReader();
+		Polygon building = (Polygon) reader.read(BUILDING);
+		Polygon building2 = (Polygon) reader.read(BUILDING2);
+		LayerIncrementalDelaunay mesh = new LayerIncrementalDelaunay();
+		mesh.setRetrieveNeighbors(true);
+		mesh.addPolygon(square(100), false);
+		mesh.addPolygon(building, true);
+		mesh.addPolygon(building2, true);
+		Random random = new Random(5);
+		for (int i = 0; i < 200; i++) {
+			mesh.addVertex(new Coordinate(random.nextDouble() * 100, random.nextDouble() * 100));
+		}
+		mesh.processDelaunay();
+		double area = checkMesh(mesh);
+		assertEquals(10000 - building.getArea() - building2.getArea(), area, 1e-6);
+		// The courtyard is kept, the buildings are removed
+		for (Triangle tri : mesh.getTriangles()) {
+			Geometry centroid = triangle(mesh.getVertices(), tri).getCentroid();
+			assertFalse(building.contains(centroid));
+			assertFalse(building2.contains(centroid));
+		}
+	}
+
+	public void testDelaunayCriterion() throws LayerDelaunayError {
+		LayerIncrementalDelaunay mesh = new LayerIncrementalDelaunay();
+		mesh.setRetrieveNeighbors(true);
+		Random random = new Random(12);
+		GeometryFactory factory = new GeometryFactory();
+		Coordinate[] points = new Coordinate[300];
+		for (int i = 0; i < points.length; i++) {
+			points[i] = new Coordinate(random.nextDouble() * 500, random.nextDouble() * 200);
+			mesh.addVertex(points[i]);
+		}
+		mesh.processDelaunay();
+		double area = checkMesh(mesh);
+		assertEquals(factory.createMultiPoint(points).convexHull().getArea(), area, 1e-6);
+		assertEquals(points.length, mesh.getVertices().size());
+		List<Coordinate> vertices = mesh.getVertices();
+		for (Triangle tri : mesh.getTriangles()) {
+			Coordinate a = vertices.get(tri.getA());
+			Coordinate b = vertices.get(tri.getB());
+			Coordinate c = vertices.get(tri.getC());
+			Coordinate center = com.vividsolutions.jts.geom.Triangle.circumcentre(a, b, c);
+			double radius = center.distance(a);
+			for (Coordinate vertex : vertices) {
+				assertTrue(center.distance(vertex) > radius - 1e-6);
+			}
+		}
+	}
+
+	public void testCrossingSegments() throws LayerDelaunayError, ParseException {
+		WKTReader reader = new WKTReader();
+		LayerIncrementalDelaunay mesh = new LayerIncrementalDelaunay();
+		mesh.setRetrieveNeighbors(true);
+		mesh.addPolygon(square(10), false);
+		mesh.addLineString((com.vividsolutions.jts.geom.LineString) reader.read("LINESTRING(1 1, 9 9)"));
+		mesh.addLineString((com.vividsolutions.jts.geom.LineString) reader.read("LINESTRING(1 9, 9 1)"));
+		mesh.processDelaunay();
+		assertEquals(100, checkMesh(mesh), 1e-9);
+		assertTrue(mesh.getVertices().contains(new Coordinate(5, 5)));
+	}
+
+	public void testRefinement() throws LayerDelaunayError, ParseException {
+		WKTReader reader = new WKTReader();
+		Polygon building = (Polygon) reader.read(BUILDING);
+		double minAngle = Math.toRadians(25);
+		LayerIncrementalDelaunay mesh = new LayerIncrementalDelaunay();
+		mesh.setRetrieveNeighbors(true);
+		mesh.addPolygon(square(100), false);
+		mesh.addPolygon(building, true);
+		mesh.setMinAngle(minAngle);
+		mesh.setMaxArea(20.);
+		mesh.processDelaunay();
+		assertEquals(10000 - building.getArea(), checkMesh(mesh), 1e-6);
+		List<Coordinate> vertices = mesh.getVertices();
+		for (Triangle tri : mesh.getTriangles()) {
+			assertTrue(triangle(vertices, tri).getArea() <= 20. + 1e-9);
+			for (int i = 0; i < 3; i++) {
+				Coordinate apex = vertices.get(tri.get(i));
+				Coordinate a = vertices.get(tri.get((i + 1) % 3));
+				Coordinate b = vertices.get(tri.get((i + 2) % 3));
+				double angle = Math.abs(com.vividsolutions.jts.algorithm.Angle.angleBetween(a, apex, b));
+				assertTrue(angle >= minAngle - 1e-9);
+			}
+		}
+	}
+}
@@ -0,0 +1,85 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.simplify.TopologyPreservingSimplifier;
+
+import junit.framework.TestCase;
+
+public class TestMergedBuildingsLayer extends TestCase {
+	private final GeometryFactory factory = new GeometryFactory();
+
+	private Geometry makeSquare(double x, double y, double size) {
+		Coordinate[] ring = {new Coordinate(x, y), new Coordinate(x + size, y),
+			new Coordinate(x + size, y + size), new Coordinate(x, y + size),
+			new Coordinate(x, y)};
+		return factory.createPolygon(factory.createLinearRing(ring), null);
+	}
+
+	public void testQuery() {
+		List<Geometry> buildings = new ArrayList<Geometry>();
+		// Two overlapping buildings and an isolated one
+		buildings.add(makeSquare(0, 0, 10));
+		buildings.add(makeSquare(5, 5, 10));
+		buildings.add(makeSquare(100, 100, 10));
+		MergedBuildingsLayer layer = new MergedBuildingsLayer(buildings, 0., 0.);
+		assertEquals(2, layer.getParts().size());
+		List<Geometry> found = layer.query(new Envelope(12, 20, 12, 20));
+		assertEquals(1, found.size());
+		assertEquals(175., found.get(0).getArea(), 1e-9);
+		assertTrue(layer.query(new Envelope(50, 60, 50, 60)).isEmpty());
+		assertEquals(275., layer.getGeometry(new Envelope(0, 200, 0, 200)).getArea(), 1e-9);
+	}
+
+	public void testBuffer() {
+		List<Geometry> buildings = new ArrayList<Geometry>();
+		// Buildings closer than the buffer are merged
+		buildings.add(makeSquare(0, 0, 10));
+		buildings.add(makeSquare(10.5, 0, 10));
+		MergedBuildingsLayer layer = new MergedBuildingsLayer(buildings, 0., 0.);
+		assertEquals(2, layer.getParts().size());
+		MergedBuildingsLayer buffered = new MergedBuildingsLayer(layer.getParts(), 0.5, 0.1);
+		assertEquals(1, buffered.getParts().size());
+		// Same as the buffer of the buildings
+		Geometry expected = TopologyPreservingSimplifier.simplify(
+				TiledUnion.merge(buildings, 0.5), 0.1);
+		assertEquals(expected.getArea(), buffered.getParts().get(0).getArea(), 1e-6);
+	}
+}
@@ -0,0 +1,200 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Polygon;
+
+import junit.framework.TestCase;
+
+public class TestMeshRefinement extends TestCase {
+	private List<Coordinate> vertices;
+	private List<Triangle> triangles;
+	private List<Triangle> neighbors;
+
+	/**
+	 * Quadrilateral split in two CCW triangles
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		vertices = new ArrayList<Coordinate>();
+		vertices.add(new Coordinate(0, 0));
+		vertices.add(new Coordinate(100, 0));
+		vertices.add(new Coordinate(100, 100));
+		vertices.add(new Coordinate(0, 90));
+		triangles = new ArrayList<Triangle>();
+		triangles.add(new Triangle(0, 1, 2));
+		triangles.add(new Triangle(0, 2, 3));
+		neighbors = new ArrayList<Triangle>();
+		neighbors.add(new Triangle(-1, 1, -1));
+		neighbors.add(new Triangle(-1, -1, 0));
+	}
+
+	private double signedArea(Triangle tri) {
+		Coordinate a = vertices.get(tri.getA());
+		Coordinate b = vertices.get(tri.getB());
+		Coordinate c = vertices.get(tri.getC());
+		return ((b.x - a.x) * (c.y - a.y) - (b.y - a.y) * (c.x - a.x)) / 2.;
+	}
+
+	/**
+	 * Check orientation, area and neighbors consistency
+	 */
+	private void checkMesh() {
+		double area = 0;
+		for (int triId = 0; triId < triangles.size(); triId++) {
+			Triangle tri = triangles.get(triId);
+			assertTrue(signedArea(tri) > 0);
+			area += signedArea(tri);
+			for (int side = 0; side < 3; side++) {
+				int neigh = neighbors.get(triId).get(side);
+				if (neigh != -1) {
+					// The neighbor share the side vertices and link back
+					IntSegment seg = tri.getSegment(side);
+					Triangle neighTri = triangles.get(neigh);
+					boolean linked = false;
+					for (int nside = 0; nside < 3; nside++) {
+						IntSegment nseg = neighTri.getSegment(nside);
+						if (nseg.getA() == seg.getB() && nseg.getB() == seg.getA()) {
+							assertEquals(triId, neighbors.get(neigh).get(nside));
+							linked = true;
+						}
+					}
+					assertTrue(linked);
+					// Delaunay criteria
+					int opposite = neighTri.get(0) + neighTri.get(1)
+							+ neighTri.get(2) - seg.getA() - seg.getB();
+					assertFalse(MeshRefinement.inCircle(
+							vertices.get(tri.getA()), vertices.get(tri.getB()),
+							vertices.get(tri.getC()), vertices.get(opposite)));
+				}
+			}
+		}
+		assertEquals(9500., area, 1e-6);
+	}
+
+	public void testInsertVertex() {
+		MeshRefinement refinement = new MeshRefinement(vertices, triangles,
+				neighbors);
+		assertEquals(4, refinement.insertVertex(new Coordinate(60, 20), 1));
+		assertEquals(5, refinement.insertVertex(new Coordinate(10, 80), 0));
+		assertEquals(6, refinement.insertVertex(new Coordinate(55, 50), 0));
+		assertEquals(-1, refinement.insertVertex(new Coordinate(150, 50), 0));
+		assertEquals(8, triangles.size());
+		checkMesh();
+	}
+
+	public void testRefine() {
+		MeshRefinement refinement = new MeshRefinement(vertices, triangles,
+				neighbors);
+		// Strong gradient near the first vertex
+		double[] levels = new double[] { 1e6, 1., 1., 1. };
+		int inserted = refinement.refine(levels, 3., 1.);
+		assertEquals(2, inserted);
+		assertEquals(6, vertices.size());
+		checkMesh();
+		// Uniform levels, nothing to refine
+		levels = new double[] { 1., 1., 1., 1., 1., 1. };
+		assertEquals(0, refinement.refine(levels, 3., 1.));
+		// Area limitation
+		levels = new double[] { 1e6, 1., 1., 1., 1., 1. };
+		assertEquals(0, refinement.refine(levels, 3., 1e5));
+	}
+
+	private boolean hasEdge(int a, int b) {
+		for (Triangle tri : triangles) {
+			for (int side = 0; side < 3; side++) {
+				IntSegment seg = tri.getSegment(side);
+				if ((seg.getA() == a && seg.getB() == b)
+						|| (seg.getA() == b && seg.getB() == a)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	public void testConstraints() throws Exception {
+		// The new vertex is in the circumcircle of the diagonal triangles
+		MeshRefinement refinement = new MeshRefinement(vertices, triangles,
+				neighbors);
+		refinement.insertVertex(new Coordinate(90, 10), 0);
+		assertFalse(hasEdge(0, 2));
+		// Same insertion with the diagonal as a constraint line
+		setUp();
+		GeometryFactory factory = new GeometryFactory();
+		List<LineString> constraints = new ArrayList<LineString>();
+		constraints.add(factory.createLineString(new Coordinate[] {
+				new Coordinate(-10, -10), new Coordinate(110, 110) }));
+		refinement = new MeshRefinement(vertices, triangles, neighbors);
+		refinement.setConstraints(constraints);
+		refinement.insertVertex(new Coordinate(90, 10), 0);
+		assertTrue(hasEdge(0, 2));
+	}
+
+	public void testLocateBehindHole() throws LayerDelaunayError {
+		GeometryFactory factory = new GeometryFactory();
+		LayerDelaunay mesh = new LayerIncrementalDelaunay();
+		mesh.setRetrieveNeighbors(true);
+		mesh.addPolygon(square(factory, 0, 0, 100), false);
+		mesh.addPolygon(square(factory, 30, 10, 40), true);
+		mesh.processDelaunay();
+		vertices = mesh.getVertices();
+		triangles = mesh.getTriangles();
+		neighbors = mesh.getNeighbors();
+		MeshRefinement refinement = new MeshRefinement(vertices, triangles,
+				neighbors);
+		// Walk from the left side of the hole to its right side
+		Coordinate start = new Coordinate(10, 30);
+		Coordinate target = new Coordinate(90, 30);
+		int startTriangle = refinement.locate(start, 0);
+		assertTrue(startTriangle != -1);
+		int found = refinement.locate(target, startTriangle);
+		assertTrue(found != -1);
+		assertTrue(refinement.insertVertex(target, startTriangle) != -1);
+	}
+
+	private Polygon square(GeometryFactory factory, double x, double y,
+			double size) {
+		Coordinate[] ring = { new Coordinate(x, y),
+				new Coordinate(x + size, y),
+				new Coordinate(x + size, y + size),
+				new Coordinate(x, y + size), new Coordinate(x, y) };
+		return factory.createPolygon(factory.createLinearRing(ring), null);
+	}
+}
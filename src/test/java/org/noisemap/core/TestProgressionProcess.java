@@ -0,0 +1,108 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.core;
+
+import junit.framework.TestCase;
+
+public class TestProgressionProcess extends TestCase {
+
+	public void testNestedProgression() {
+		ProgressionProcess root = new ProgressionProcess(null, 4);
+		ProgressionProcess cell = root.nextSubProcess(100);
+		for (int i = 0; i < 100; i++) {
+			cell.nextSubProcessEnd();
+		}
+		assertEquals(0.25, root.getMainProgression(), 1e-9);
+		assertEquals(1., cell.getProcessProgression(), 1e-9);
+		// Sub-processes beyond the size are ignored
+		cell.nextSubProcessEnd();
+		assertEquals(0.25, root.getMainProgression(), 1e-9);
+		root.nextSubProcessEnd();
+		assertEquals(0.5, root.getMainProgression(), 1e-9);
+	}
+
+	public void testClose() {
+		ProgressionProcess root = new ProgressionProcess(null, 2);
+		ProgressionProcess cell = root.nextSubProcess(100000);
+		for (int i = 0; i < 10; i++) {
+			cell.nextSubProcessEnd();
+		}
+		// Not pushed before the end of the batch
+		assertEquals(0., root.getMainProgression(), 1e-9);
+		cell.close();
+		assertEquals(0.5, root.getMainProgression(), 1e-9);
+		cell.close();
+		cell.nextSubProcessEnd();
+		assertEquals(0.5, root.getMainProgression(), 1e-9);
+		root.nextSubProcess(10, 1).close();
+		assertEquals(1., root.getMainProgression(), 1e-9);
+	}
+
+	public void testCloseWithChildren() {
+		ProgressionProcess root = new ProgressionProcess(null, 2);
+		ProgressionProcess cell = root.nextSubProcess(4);
+		// A child does the half of the cell
+		ProgressionProcess child = cell.nextSubProcess(100, 2);
+		for (int i = 0; i < 100; i++) {
+			child.nextSubProcessEnd();
+		}
+		assertEquals(0.25, root.getMainProgression(), 1e-9);
+		// Only the other half of the cell is pushed
+		cell.close();
+		assertEquals(0.5, root.getMainProgression(), 1e-9);
+		root.close();
+		assertEquals(1., root.getMainProgression(), 1e-9);
+	}
+
+	public void testConcurrentProgression() throws InterruptedException {
+		final ProgressionProcess root = new ProgressionProcess(null, 10000);
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			final ProgressionProcess cell = root.nextSubProcess(777, 2500);
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 777; j++) {
+						cell.nextSubProcessEnd();
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(1., root.getMainProgression(), 1e-9);
+	}
+}
@@ -0,0 +1,116 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.core;
+
+import java.lang.management.ManagementFactory;
+import java.util.Stack;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.apache.log4j.Logger;
+
+import junit.framework.TestCase;
+
+public class TestPropagationStatistics extends TestCase {
+
+	public void testHistogramBuckets() {
+		for (long value = 0; value < 100000; value += 7) {
+			int bucket = ReceiverTimeHistogram.getBucket(value);
+			assertTrue(value <= ReceiverTimeHistogram.getBucketUpperBound(bucket));
+			assertTrue(bucket == 0 || value > ReceiverTimeHistogram.getBucketUpperBound(bucket - 1));
+		}
+	}
+
+	public void testPercentiles() {
+		ReceiverTimeHistogram histogram = new ReceiverTimeHistogram();
+		for (long value = 1; value <= 10000; value++) {
+			histogram.record(value * 1000);
+		}
+		assertEquals(10000, histogram.getCount());
+		// Relative error lower than 12.5%
+		assertEquals(5e6, histogram.getValueAtPercentile(50), 5e6 * 0.125);
+		assertEquals(9.9e6, histogram.getValueAtPercentile(99), 9.9e6 * 0.125);
+		assertEquals(1e7, histogram.getValueAtPercentile(100), 1e7 * 0.125);
+	}
+
+	public void testConcurrentCounters() throws InterruptedException {
+		final PropagationProcessOut out = new PropagationProcessOut(
+				new Stack<PropagationResultTriRecord>(), null);
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			final int threadId = i;
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 10000; j++) {
+						out.appendSourceCount(2);
+						out.updateMaximalReceiverComputationTime(threadId * 10000 + j);
+						out.updateMinimalReceiverComputationTime(threadId * 10000 + j);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(80000, out.getNb_couple_receiver_src());
+		assertEquals(39999, out.getMaximalReceiverComputationTime());
+		assertEquals(0, out.getMinimalReceiverComputationTime());
+		PropagationStatistics statistics = new PropagationStatistics("test",
+				out, Logger.getLogger(TestPropagationStatistics.class));
+		assertEquals(80000L, statistics.getSnapshot().get("pairs"));
+	}
+
+	/**
+	 * Two computations of the same function run at the same time
+	 */
+	public void testConcurrentRuns() throws JMException {
+		Logger logger = Logger.getLogger(TestPropagationStatistics.class);
+		PropagationStatistics first = new PropagationStatistics("testRuns",
+				new PropagationProcessOut(null, null), logger);
+		PropagationStatistics second = new PropagationStatistics("testRuns",
+				new PropagationProcessOut(null, null), logger);
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName query = new ObjectName(
+				"org.noisemap:type=PropagationStatistics,name=testRuns,*");
+		first.start(null, 0);
+		second.start(null, 0);
+		assertEquals(2, server.queryNames(query, null).size());
+		first.stop();
+		assertEquals(1, server.queryNames(query, null).size());
+		second.stop();
+		assertEquals(0, server.queryNames(query, null).size());
+	}
+}
@@ -0,0 +1,81 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.core;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TestSegmentGridIndex extends TestCase {
+
+	public void testQuery() {
+		// Random segments, compared with a scan of the envelopes
+		final int segmentCount = 500;
+		Random random = new Random(1);
+		double[] coordinates = new double[segmentCount * 4];
+		for (int s = 0; s < segmentCount; s++) {
+			double x = random.nextDouble() * 1000;
+			double y = random.nextDouble() * 500;
+			coordinates[s * 4] = x;
+			coordinates[s * 4 + 1] = y;
+			coordinates[s * 4 + 2] = x + random.nextDouble() * 100 - 50;
+			coordinates[s * 4 + 3] = y + random.nextDouble() * 100 - 50;
+		}
+		SegmentGridIndex index = new SegmentGridIndex(coordinates, segmentCount);
+		IntList found = new IntList();
+		for (int test = 0; test < 1000; test++) {
+			double x = random.nextDouble() * 1200 - 100;
+			double y = random.nextDouble() * 700 - 100;
+			double range = random.nextDouble() * 80;
+			found.clear();
+			index.query(x - range, y - range, x + range, y + range, found);
+			boolean[] reported = new boolean[segmentCount];
+			for (int i = 0; i < found.size(); i++) {
+				assertFalse(reported[found.get(i)]);
+				reported[found.get(i)] = true;
+			}
+			for (int s = 0; s < segmentCount; s++) {
+				boolean intersects = Math.max(coordinates[s * 4], coordinates[s * 4 + 2]) >= x - range
+						&& Math.min(coordinates[s * 4], coordinates[s * 4 + 2]) <= x + range
+						&& Math.max(coordinates[s * 4 + 1], coordinates[s * 4 + 3]) >= y - range
+						&& Math.min(coordinates[s * 4 + 1], coordinates[s * 4 + 3]) <= y + range;
+				assertEquals(intersects, reported[s]);
+			}
+		}
+		// Empty index
+		found.clear();
+		new SegmentGridIndex(new double[0], 0).query(0, 0, 1, 1, found);
+		assertTrue(found.isEmpty());
+	}
+}
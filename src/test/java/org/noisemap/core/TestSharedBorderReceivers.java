@@ -0,0 +1,101 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.core;
+
+import java.util.HashSet;
+import java.util.Set;
+import com.vividsolutions.jts.algorithm.CGAlgorithms;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+
+import junit.framework.TestCase;
+
+public class TestSharedBorderReceivers extends TestCase {
+
+	private Set<Coordinate> onVerticalLine(Coordinate[] ring, double x) {
+		Set<Coordinate> pts = new HashSet<Coordinate>();
+		for (Coordinate pt : ring) {
+			if (Math.abs(pt.x - x) < 1e-6) {
+				pts.add(new Coordinate(pt.x, Math.rint(pt.y * 1e6) / 1e6));
+			}
+		}
+		return pts;
+	}
+
+	public void testBorderRing() {
+		Envelope mainEnvelope = new Envelope(12.3, 312.3, -50, 250);
+		double cellWidth = mainEnvelope.getWidth() / 4;
+		double cellHeight = mainEnvelope.getHeight() / 4;
+		SharedBorderReceivers border = new SharedBorderReceivers(
+				new Coordinate(mainEnvelope.getMinX(), mainEnvelope.getMinY()),
+				cellWidth / 7, cellHeight / 7);
+		Envelope left = BR_TriGrid.getCellEnv(mainEnvelope, 1, 2, 4, 4,
+				cellWidth, cellHeight);
+		Envelope right = BR_TriGrid.getCellEnv(mainEnvelope, 2, 2, 4, 4,
+				cellWidth, cellHeight);
+		assertEquals(left.getMaxX(), right.getMinX());
+		Coordinate[] leftRing = border.getBorderRing(left);
+		Coordinate[] rightRing = border.getBorderRing(right);
+		assertTrue(CGAlgorithms.isCCW(leftRing));
+		assertEquals(leftRing[0], leftRing[leftRing.length - 1]);
+		// 4 corners + 6 vertices by side + closing vertex
+		assertEquals(4 + 4 * 6 + 1, leftRing.length);
+		// The two cells share the same vertices on the common side
+		Set<Coordinate> leftSide = onVerticalLine(leftRing, left.getMaxX());
+		assertEquals(8, leftSide.size());
+		assertEquals(leftSide, onVerticalLine(rightRing, right.getMinX()));
+		// Corners only
+		SharedBorderReceivers corners = new SharedBorderReceivers(
+				new Coordinate(0, 0), 0, 0);
+		assertEquals(5, corners.getBorderRing(left).length);
+	}
+
+	public void testSharedLevel() {
+		SharedBorderReceivers border = new SharedBorderReceivers(
+				new Coordinate(0, 0), 10, 10);
+		Coordinate pt = new Coordinate(10, 0);
+		assertTrue(SharedBorderReceivers.isOnBorder(new Envelope(0, 10, 0, 10), pt));
+		assertFalse(SharedBorderReceivers.isOnBorder(new Envelope(0, 10, 0, 10),
+				new Coordinate(5, 5)));
+		// First call, the caller has to compute the level
+		assertTrue(Double.isNaN(border.getLevel(pt)));
+		border.setLevel(pt, 42.);
+		assertEquals(42., border.getLevel(new Coordinate(10, 1e-6)));
+		// Abandoned receiver is given to the next caller
+		Coordinate pt2 = new Coordinate(20, 0);
+		assertTrue(Double.isNaN(border.getLevel(pt2)));
+		border.abandon(pt2);
+		assertTrue(Double.isNaN(border.getLevel(pt2)));
+	}
+}
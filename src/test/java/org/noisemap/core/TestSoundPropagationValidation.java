@@ -40,6 +40,8 @@ import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.Polygon;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Stack;
@@ -270,4 +272,206 @@ public class TestSoundPropagationValidation extends TestCase {
 		splCompare(dbaRef, "Scene 2 (20,4)",91.916);
 		System.out.println("testScene1 done in "+(System.currentTimeMillis()-startMakeScene)+"ms");
 	}
+
+	/**
+	 * Compute a grid of receivers around three buildings and a road.
+	 * @param shareNeighbourhood Share the queries between nearby receivers
+	 * @return Sound level of the receivers, by row id
+	 */
+	private double[] computeReceiversGrid(boolean shareNeighbourhood) throws LayerDelaunayError, IOException {
+		GeometryFactory factory = new GeometryFactory();
+		Coordinate[][] buildingsCoords = {
+				{ new Coordinate(6., 2., 0.), new Coordinate(18., 2., 0.),
+						new Coordinate(18., 6., 0.), new Coordinate(6., 6., 0.),
+						new Coordinate(6., 2., 0.) },
+				{ new Coordinate(24., 2., 0.), new Coordinate(28., 2., 0.),
+						new Coordinate(28., 6., 0.), new Coordinate(24., 6., 0.),
+						new Coordinate(24., 2., 0.) },
+				{ new Coordinate(6., 10., 0.), new Coordinate(24., 10., 0.),
+						new Coordinate(24., 18., 0.), new Coordinate(6., 18., 0.),
+						new Coordinate(6., 10., 0.) } };
+		Envelope cellEnvelope = new Envelope(new Coordinate(-200., -200., 0.),
+				new Coordinate(200, 200, 0.));
+		FastObstructionTest manager = new FastObstructionTest();
+		for (Coordinate[] buildingCoords : buildingsCoords) {
+			manager.addGeometry(factory.createPolygon(
+					factory.createLinearRing(buildingCoords), null));
+		}
+		manager.finishPolygonFeeding(cellEnvelope);
+		List<Geometry> srclst = new ArrayList<Geometry>();
+		Coordinate[] way1 = { new Coordinate(2, 8, 0), new Coordinate(24, 8, 0),
+				new Coordinate(30, 14, 0) };
+		srclst.add(factory.createLineString(way1));
+		srclst.add(factory.createPoint(new Coordinate(40, 15, 0)));
+		List<ArrayList<Double>> srcSpectrum = new ArrayList<ArrayList<Double>>();
+		List<Integer> freqLvl = new ArrayList<Integer>();
+		freqLvl.add(125);
+		freqLvl.add(1000);
+		QueryGeometryStructure sourcesIndex = new QueryGridIndex(cellEnvelope,
+				8, 8);
+		for (int idsrc = 0; idsrc < srclst.size(); idsrc++) {
+			sourcesIndex.appendGeometry(srclst.get(idsrc), idsrc);
+			srcSpectrum.add(new ArrayList<Double>());
+			srcSpectrum.get(idsrc).add(PropagationProcess.dbaToW(100.));
+			srcSpectrum.get(idsrc).add(PropagationProcess.dbaToW(90.));
+		}
+		// Receivers every 7 m, farther than the neighbourhood margin
+		List<Coordinate> receivers = new ArrayList<Coordinate>();
+		List<Long> receiverRowId = new ArrayList<Long>();
+		for (int i = 0; i < 15; i++) {
+			for (int j = 0; j < 15; j++) {
+				receiverRowId.add((long) receivers.size());
+				receivers.add(new Coordinate(-40. + i * 7, -40. + j * 7, 0.));
+			}
+		}
+		PropagationProcessData propData = new PropagationProcessData(receivers,
+				receiverRowId, null, manager, sourcesIndex, srclst,
+				srcSpectrum, freqLvl, 1, 2, 150., 50., 1., 0.2, 0, null,
+				new ProgressionProcess(null, receivers.size()));
+		propData.shareNeighbourhood = shareNeighbourhood;
+		List<ComputationCell> cells = new ArrayList<ComputationCell>();
+		cells.add(new ComputationCell(0, cellEnvelope, 0, 0, 0, false, false));
+		propData.checkpoint = CellCheckpoint.createTemporary(new File(System
+				.getProperty("java.io.tmpdir")), "test", cells);
+		PropagationProcessOut propDataOut = new PropagationProcessOut(null,
+				new Stack<PropagationResultPtRecord>());
+		try {
+			new PropagationProcess(propData, propDataOut).run();
+			List<PropagationResultPtRecord> records = propData.checkpoint
+					.readPtCell(0);
+			assertEquals(receivers.size(), records.size());
+			double[] levels = new double[receivers.size()];
+			for (PropagationResultPtRecord record : records) {
+				levels[(int) record.getReceiverRecordRow()] = record.getReceiverLvl();
+			}
+			return levels;
+		} finally {
+			propData.checkpoint.delete();
+		}
+	}
+
+	/**
+	 * The receivers levels must not depend on the sharing of the
+	 * sources, walls and corners queries.
+	 */
+	public void testNeighbourhoodSharing() throws LayerDelaunayError, IOException {
+		double[] sharedLevels = computeReceiversGrid(true);
+		double[] levels = computeReceiversGrid(false);
+		for (int idReceiver = 0; idReceiver < levels.length; idReceiver++) {
+			assertEquals("Receiver " + idReceiver, levels[idReceiver],
+					sharedLevels[idReceiver], levels[idReceiver] * 1e-12);
+		}
+	}
+
+	/**
+	 * Previous atmospheric absorption, applied on the dB(A) value
+	 */
+	private static double attAtmW(double Wj, double dist, double alpha) {
+		return PropagationProcess.dbaToW(PropagationProcess.wToDba(Wj)
+				- (alpha * dist) / 1000.);
+	}
+
+	/**
+	 * Previous diffraction attenuation, by corner count
+	 */
+	private static double diffractionW(double wj, double srcReceiverDistance,
+			double diffractionFullDistance, double lambda, double delta,
+			double elength, int cornerCount, double alpha) {
+		double cprime;
+		if (cornerCount == 1) {
+			cprime = 1;
+		} else {
+			double gammapart = Math.pow((5 * lambda) / elength, 2.);
+			cprime = (1. + gammapart) / (1. / 3. + gammapart);
+		}
+		double testForm = (40 / lambda) * cprime * delta;
+		double diffractionAttenuationDB = 0;
+		if (testForm >= -2.) {
+			diffractionAttenuationDB = 10 * Math.log10(3 + testForm);
+		}
+		diffractionAttenuationDB = Math.max(0, diffractionAttenuationDB);
+		double attenuatedW = PropagationProcess.dbaToW(PropagationProcess
+				.wToDba(PropagationProcess.attDistW(wj, srcReceiverDistance))
+				- diffractionAttenuationDB);
+		return attAtmW(attenuatedW, diffractionFullDistance, alpha);
+	}
+
+	private void kernelCompare(double[] expected, double[] energeticSum,
+			String testName) {
+		for (int idfreq = 0; idfreq < expected.length; idfreq++) {
+			assertTrue(testName + " " + expected[idfreq] + "!="
+					+ energeticSum[idfreq], isSameDbValues(
+					PropagationProcess.wToDba(expected[idfreq]),
+					PropagationProcess.wToDba(energeticSum[idfreq]), 1e-9));
+		}
+	}
+
+	/**
+	 * The band kernels must give the same levels than the previous
+	 * dB(A) formulas, for direct, reflected, single and multiple
+	 * diffraction paths.
+	 */
+	public void testPathKernels() {
+		final int[] freqs = { 63, 125, 250, 500, 1000, 2000, 4000, 8000 };
+		final double[] alpha = { 0.1, 0.4, 1.0, 1.9, 3.7, 9.7, 32.8, 117. };
+		final double[] wj = new double[freqs.length];
+		final double[] freq_lambda = new double[freqs.length];
+		for (int idfreq = 0; idfreq < freqs.length; idfreq++) {
+			wj[idfreq] = PropagationProcess.dbaToW(90. - idfreq);
+			freq_lambda[idfreq] = 340. / freqs[idfreq];
+		}
+		double[] atmCoef = PropagationProcess.getAtmosphericCoefficients(alpha);
+		double[] expected = new double[freqs.length];
+		double[] energeticSum = new double[freqs.length];
+
+		// Direct path
+		final double distance = 137.5;
+		for (int idfreq = 0; idfreq < freqs.length; idfreq++) {
+			expected[idfreq] = attAtmW(PropagationProcess.attDistW(
+					wj[idfreq], distance), distance, alpha[idfreq]);
+		}
+		PropagationProcess.addPathEnergy(wj,
+				PropagationProcess.attDistW(1., distance), atmCoef, distance,
+				energeticSum);
+		kernelCompare(expected, energeticSum, "direct");
+
+		// Reflected path, two walls
+		final double wallAlpha = 0.2;
+		final int order = 2;
+		final double reflectedDistance = 182.25;
+		double wallAttenuation = Math.pow(1 - wallAlpha, order);
+		for (int idfreq = 0; idfreq < freqs.length; idfreq++) {
+			expected[idfreq] = attAtmW(PropagationProcess.attDistW(
+					wj[idfreq], reflectedDistance) * wallAttenuation,
+					reflectedDistance, alpha[idfreq]);
+			energeticSum[idfreq] = 0;
+		}
+		PropagationProcess.addPathEnergy(wj, PropagationProcess.attDistW(1.,
+				reflectedDistance) * wallAttenuation, atmCoef,
+				reflectedDistance, energeticSum);
+		kernelCompare(expected, energeticSum, "reflection");
+
+		// Single diffraction, a single corner gives elength=0
+		// Multiple diffraction, corner to corner distance elength>0
+		// Path below the line of sight, testForm<-2 for the high bands
+		final double[][] diffractions = { { 1, 0, 3.5 }, { 2, 12.5, 3.5 },
+				{ 3, 40, 8.25 }, { 1, 0, -0.05 }, { 2, 12.5, -0.05 } };
+		for (double[] diffraction : diffractions) {
+			int cornerCount = (int) diffraction[0];
+			double elength = diffraction[1];
+			double delta = diffraction[2];
+			double fullDistance = distance + delta;
+			for (int idfreq = 0; idfreq < freqs.length; idfreq++) {
+				expected[idfreq] = diffractionW(wj[idfreq], distance,
+						fullDistance, freq_lambda[idfreq], delta, elength,
+						cornerCount, alpha[idfreq]);
+				energeticSum[idfreq] = 0;
+			}
+			PropagationProcess.addDiffractionPathEnergy(wj,
+					PropagationProcess.attDistW(1., distance), atmCoef,
+					fullDistance, freq_lambda, delta, elength, energeticSum);
+			kernelCompare(expected, energeticSum, "diffraction " + cornerCount
+					+ " corners, delta " + delta);
+		}
+	}
 }
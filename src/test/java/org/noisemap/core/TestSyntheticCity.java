@@ -0,0 +1,110 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+import junit.framework.TestCase;
+
+public class TestSyntheticCity extends TestCase {
+
+	private static class CityContent implements SyntheticCity.CityVisitor {
+		private List<Geometry> buildings = new ArrayList<Geometry>();
+		private List<Geometry> roads = new ArrayList<Geometry>();
+		private List<Geometry> receivers = new ArrayList<Geometry>();
+
+		@Override
+		public void visitBuilding(Polygon footprint, double height) {
+			buildings.add(footprint);
+		}
+
+		@Override
+		public void visitRoad(LineString road, double[] spectrum) {
+			assertEquals(SyntheticCity.FREQUENCIES.length, spectrum.length);
+			roads.add(road);
+		}
+
+		@Override
+		public void visitReceiver(Point receiver) {
+			receivers.add(receiver);
+		}
+	}
+
+	private CityContent generate(long seed) {
+		SyntheticCity city = new SyntheticCity(seed, new Envelope(0, 1000, 0,
+				1000));
+		city.setReceiverStep(25);
+		CityContent content = new CityContent();
+		city.generate(content);
+		return content;
+	}
+
+	public void testSeed() {
+		CityContent first = generate(42);
+		CityContent second = generate(42);
+		assertFalse(first.buildings.isEmpty());
+		assertEquals(first.buildings.size(), second.buildings.size());
+		for (int i = 0; i < first.buildings.size(); i++) {
+			assertTrue(first.buildings.get(i).equalsExact(
+					second.buildings.get(i)));
+		}
+		assertEquals(first.roads.size(), second.roads.size());
+		assertEquals(first.receivers.size(), second.receivers.size());
+		assertFalse(first.buildings.size() == generate(43).buildings.size()
+				&& first.buildings.get(0).equalsExact(
+						generate(43).buildings.get(0)));
+	}
+
+	public void testGeometry() {
+		CityContent content = generate(42);
+		for (int i = 0; i < content.buildings.size(); i++) {
+			for (int j = i + 1; j < content.buildings.size(); j++) {
+				assertFalse(content.buildings.get(i).intersects(
+						content.buildings.get(j)));
+			}
+			for (Geometry receiver : content.receivers) {
+				assertFalse(content.buildings.get(i).contains(receiver));
+			}
+			for (Geometry road : content.roads) {
+				assertFalse(content.buildings.get(i).intersects(road));
+			}
+		}
+	}
+}
@@ -0,0 +1,83 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.operation.buffer.BufferParameters;
+
+import junit.framework.TestCase;
+
+public class TestTiledUnion extends TestCase {
+
+	private List<Geometry> makeSquares(int count, long seed) {
+		GeometryFactory factory = new GeometryFactory();
+		Random random = new Random(seed);
+		List<Geometry> squares = new ArrayList<Geometry>(count);
+		for (int i = 0; i < count; i++) {
+			double x = random.nextDouble() * 1000;
+			double y = random.nextDouble() * 1000;
+			double size = 5 + random.nextDouble() * 20;
+			Coordinate[] ring = {new Coordinate(x, y),
+				new Coordinate(x + size, y), new Coordinate(x + size, y + size),
+				new Coordinate(x, y + size), new Coordinate(x, y)};
+			squares.add(factory.createPolygon(factory.createLinearRing(ring), null));
+		}
+		return squares;
+	}
+
+	public void testSameAsSequentialMerge() {
+		List<Geometry> squares = makeSquares(2000, 42);
+		Geometry expected = TiledUnion.merge(squares, 0.);
+		Geometry tiled = TiledUnion.tiledUnion(squares, 0.);
+		assertEquals(expected.getArea(), tiled.getArea(), 1e-6 * expected.getArea());
+		assertEquals(expected.getNumGeometries(), tiled.getNumGeometries());
+		assertTrue(expected.symDifference(tiled).getArea() < 1e-6 * expected.getArea());
+	}
+
+	public void testBuffer() {
+		List<Geometry> squares = makeSquares(1000, 7);
+		Geometry expected = TiledUnion.merge(squares, 0.5);
+		Geometry tiled = TiledUnion.tiledUnion(squares, 0.5);
+		assertEquals(expected.getArea(), tiled.getArea(), 1e-6 * expected.getArea());
+		// Buffer of the union is the union of the buffers
+		Geometry bufferedUnion = TiledUnion.tiledUnion(squares, 0.).buffer(0.5, 0,
+				BufferParameters.CAP_SQUARE);
+		assertEquals(expected.getArea(), bufferedUnion.getArea(), 1e-6 * expected.getArea());
+	}
+}
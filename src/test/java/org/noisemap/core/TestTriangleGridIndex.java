@@ -0,0 +1,74 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noisemap.core;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TestTriangleGridIndex extends TestCase {
+
+	public void testFind() {
+		// Squares of 5x3 m split in two triangles of opposite orientations
+		final int columns = 40;
+		final int rows = 10;
+		double[] coordinates = new double[columns * rows * 12];
+		int i = 0;
+		for (int column = 0; column < columns; column++) {
+			for (int row = 0; row < rows; row++) {
+				double x = column * 5;
+				double y = row * 3;
+				double[] square = {x, y, x + 5, y, x + 5, y + 3,
+						x, y, x, y + 3, x + 5, y + 3};
+				System.arraycopy(square, 0, coordinates, i, square.length);
+				i += square.length;
+			}
+		}
+		TriangleGridIndex index = new TriangleGridIndex(coordinates, columns * rows * 2);
+		Random random = new Random(1);
+		for (int test = 0; test < 10000; test++) {
+			double x = random.nextDouble() * 220 - 10;
+			double y = random.nextDouble() * 40 - 5;
+			int t = index.find(x, y);
+			if (x < 0 || x > 200 || y < 0 || y > 30) {
+				assertEquals(-1, t);
+			} else {
+				assertTrue(t >= 0);
+				assertTrue(index.contains(t, x, y));
+			}
+		}
+		// Vertex of the mesh
+		assertTrue(index.find(5, 3) >= 0);
+	}
+}